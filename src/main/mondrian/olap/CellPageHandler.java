@@ -0,0 +1,40 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+
+package mondrian.olap;
+
+/**
+ * Receives the cells of a query that is executed in streaming mode, one page
+ * at a time. See {@link mondrian.rolap.RolapConnection#execute(
+ * mondrian.server.Execution, CellPageHandler, int)}.
+ *
+ * <p>A page is a range of positions on the last axis of the query (the rows
+ * axis of a two-axis query), and contains the cells at those positions for
+ * every combination of positions on the other axes. Only the cells of the
+ * current page are held in memory.
+ */
+public interface CellPageHandler {
+    /**
+     * Called when the cells of a page have been evaluated.
+     *
+     * <p>While this method runs, {@link Result#getCell(int[])} may be called
+     * for any cell whose position on the last axis is at least
+     * <code>start</code> and less than <code>end</code>; the axes of the
+     * result are fully available. Once this method returns, the cells of
+     * the page are discarded.
+     *
+     * @param result Result
+     * @param start Position on the last axis of the first row of the page
+     * @param end Position on the last axis after the last row of the page
+     */
+    void onPage(Result result, int start, int end);
+}
+
+// End CellPageHandler.java
@@ -91,7 +91,7 @@ public class Query extends QueryPart {
      */
     private final Cube cube;
 
-    private final Statement statement;
+    private Statement statement;
     public Calc[] axisCalcs;
     public Calc slicerCalc;
 
@@ -146,6 +146,19 @@ public class Query extends QueryPart {
         new ArrayList<ScopedNamedSet>();
     private boolean ownStatement;
 
+    /**
+     * Cache that this query is returned to when it is no longer used, and its
+     * key in that cache; null if the query is not cached.
+     */
+    private QueryPlanCache planCache;
+    private QueryPlanCache.Key planCacheKey;
+
+    /**
+     * Number of holders of this query: its statement, and each result that
+     * has not been closed. See {@link #acquire()} and {@link #release()}.
+     */
+    private int useCount;
+
     /**
      * Creates a Query.
      */
@@ -201,7 +214,10 @@ public class Query extends QueryPart {
         this.alertedNonNativeFunDefs = new HashSet<FunDef>();
         statement.setQuery(this);
         resolve(parameters);
+        enableProfiling();
+    }
 
+    private void enableProfiling() {
         if (RolapUtil.PROFILE_LOGGER.isDebugEnabled()
             && statement.getProfileHandler() == null)
         {
@@ -1493,6 +1509,77 @@ public class Query extends QueryPart {
         this.ownStatement = ownStatement;
     }
 
+    /**
+     * Sets the cache that this query will be returned to when it is no longer
+     * used.
+     *
+     * <p>The query is then held once, on behalf of its statement; the
+     * statement calls {@link #release()} when it is closed.
+     *
+     * @param planCache Plan cache
+     * @param planCacheKey Key of this query in the plan cache
+     */
+    public synchronized void setPlanCache(
+        QueryPlanCache planCache,
+        QueryPlanCache.Key planCacheKey)
+    {
+        this.planCache = planCache;
+        this.planCacheKey = planCacheKey;
+        this.useCount = 1;
+    }
+
+    /**
+     * Records that a result holds this query, so that the query is not
+     * returned to the plan cache, and given to another statement, until the
+     * result has been closed.
+     *
+     * @see #release()
+     */
+    public synchronized void acquire() {
+        ++useCount;
+    }
+
+    /**
+     * Records that a statement or result no longer holds this query. When
+     * nothing holds the query, returns it to the plan cache, if it came from
+     * one.
+     *
+     * @see #acquire()
+     */
+    public void release() {
+        final QueryPlanCache cache;
+        synchronized (this) {
+            if (planCache == null || --useCount > 0) {
+                return;
+            }
+            cache = planCache;
+            planCache = null;
+        }
+        cache.checkIn(planCacheKey, this);
+    }
+
+    /**
+     * Binds this query, which has already been validated and compiled, to
+     * a new statement, so that it can be executed again without being
+     * re-parsed.
+     *
+     * <p>Values assigned to the query's parameters by the previous user are
+     * unset, so that they revert to their default values.
+     *
+     * @param statement Statement
+     */
+    public void rebind(Statement statement) {
+        this.statement = statement;
+        statement.setQuery(this);
+        for (Parameter parameter : parameters) {
+            if (parameter.getScope() == Parameter.Scope.Statement) {
+                parameter.unsetValue();
+            }
+        }
+        clearEvalCache();
+        enableProfiling();
+    }
+
     /**
      * Source of metadata within the scope of a query.
      *
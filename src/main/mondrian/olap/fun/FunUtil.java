@@ -516,6 +516,32 @@ public class FunUtil extends Util {
             return memberList;
         }
 
+        if (brk && NumericSortKeys.isEnabled()) {
+            if (memberList == null) {
+                memberList = new ArrayList<Member>();
+                for (Member member : memberIter) {
+                    memberList.add(member);
+                }
+                if (memberList.size() <= 1) {
+                    return memberList;
+                }
+                memberIter = memberList;
+            }
+            evaluator.getTiming().markStart(SORT_EVAL_TIMING_NAME);
+            final NumericSortKeys keys =
+                NumericSortKeys.forMembers(evaluator, exp, memberList, desc);
+            evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
+            if (keys != null) {
+                evaluator.getTiming().markStart(SORT_TIMING_NAME);
+                try {
+                    permute(memberList, keys.sort());
+                    return memberList;
+                } finally {
+                    evaluator.getTiming().markEnd(SORT_TIMING_NAME);
+                }
+            }
+        }
+
         evaluator.getTiming().markStart(SORT_EVAL_TIMING_NAME);
         boolean timingEval = true;
         boolean timingSort = false;
@@ -665,19 +691,29 @@ public class FunUtil extends Util {
                 tupleIterable.getArity(),
                 Arrays.asList(tuples));
 
-        Comparator<List<Member>> comparator;
-        if (brk) {
-            comparator =
-                new BreakTupleComparator(evaluator, exp, arity);
-            if (desc) {
-                comparator = Collections.reverseOrder(comparator);
-            }
+        final NumericSortKeys keys =
+            brk && NumericSortKeys.isEnabled()
+                ? NumericSortKeys.forTuples(
+                    evaluator, exp, Arrays.asList(tuples), desc)
+                : null;
+        if (keys != null) {
+            permute(tuples, keys.sort());
         } else {
-            comparator =
-                new HierarchicalTupleComparator(evaluator, exp, arity, desc);
-        }
+            Comparator<List<Member>> comparator;
+            if (brk) {
+                comparator =
+                    new BreakTupleComparator(evaluator, exp, arity);
+                if (desc) {
+                    comparator = Collections.reverseOrder(comparator);
+                }
+            } else {
+                comparator =
+                    new HierarchicalTupleComparator(
+                        evaluator, exp, arity, desc);
+            }
 
-        Arrays.sort(tuples, comparator);
+            Arrays.sort(tuples, comparator);
+        }
 
         if (LOGGER.isDebugEnabled()) {
             StringBuilder sb =
@@ -722,6 +758,17 @@ public class FunUtil extends Util {
         boolean timingEval = true;
         boolean timingSort = false;
         try {
+            if (NumericSortKeys.isEnabled()) {
+                final NumericSortKeys keys =
+                    NumericSortKeys.forMembers(evaluator, exp, list, desc);
+                if (keys != null) {
+                    evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
+                    timingEval = false;
+                    evaluator.getTiming().markStart(SORT_TIMING_NAME);
+                    timingSort = true;
+                    return select(list, keys.top(limit));
+                }
+            }
             MemberComparator comp =
                 new BreakMemberComparator(evaluator, exp, desc);
             Map<Member, Object> valueMap =
@@ -831,6 +878,13 @@ public class FunUtil extends Util {
     {
         assert list.size() > 0;
         assert limit <= list.size();
+        if (NumericSortKeys.isEnabled()) {
+            final NumericSortKeys keys =
+                NumericSortKeys.forTuples(evaluator, exp, list, desc);
+            if (keys != null) {
+                return select(list, keys.top(limit));
+            }
+        }
         Comparator<List<Member>> comp =
             new BreakTupleComparator(evaluator, exp, list.getArity());
         if (desc) {
@@ -839,6 +893,40 @@ public class FunUtil extends Util {
         return stablePartialSort(list, comp, limit);
     }
 
+    /**
+     * Rearranges a list so that element {@code i} is the element that was
+     * at position {@code positions[i]}.
+     */
+    private static <T> void permute(List<T> list, int[] positions) {
+        @SuppressWarnings({"unchecked"})
+        final T[] copy = (T[]) list.toArray();
+        for (int i = 0; i < positions.length; i++) {
+            list.set(i, copy[positions[i]]);
+        }
+    }
+
+    /**
+     * Rearranges an array so that element {@code i} is the element that was
+     * at position {@code positions[i]}.
+     */
+    private static <T> void permute(T[] array, int[] positions) {
+        final T[] copy = array.clone();
+        for (int i = 0; i < positions.length; i++) {
+            array[i] = copy[positions[i]];
+        }
+    }
+
+    /**
+     * Returns a new list of the elements of a list at the given positions.
+     */
+    private static <T> List<T> select(List<T> list, int[] positions) {
+        final List<T> result = new ArrayList<T>(positions.length);
+        for (int position : positions) {
+            result.add(list.get(position));
+        }
+        return result;
+    }
+
     /**
      * Sorts a list of members into hierarchical order. The members must belong
      * to the same dimension.
@@ -0,0 +1,369 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.calc.*;
+import mondrian.olap.*;
+import mondrian.rolap.RolapUtil;
+import mondrian.util.CancellationChecker;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Numeric sort keys of a list of members or tuples, evaluated up front into
+ * primitive arrays.
+ *
+ * <p>Used by the MDX functions that sort by value (Order with BASC or BDESC,
+ * TopCount, BottomCount, TopSum, ...) instead of a comparator that looks up
+ * boxed values in a map for every comparison. Positions are compared by
+ * value, in the same order as {@link FunUtil#compareValues(Object, Object)},
+ * and then by position, so sorts are stable.
+ *
+ * <p>{@link #sort()} sorts all positions, on several threads if there are
+ * more than {@link MondrianProperties#ParallelSortThreshold} of them.
+ * {@link #top(int)} finds the first few positions using a bounded heap,
+ * without sorting the rest.
+ *
+ * <p>The keys are evaluated on the caller's thread, because an
+ * {@link Evaluator} cannot be shared between threads.
+ */
+class NumericSortKeys {
+    // Kinds of value, in increasing order, as in FunUtil.compareValues:
+    // Java null, then a value that is not ready, then the MDX null value
+    // (Util.nullValue), then numbers.
+    private static final byte JAVA_NULL = 0;
+    private static final byte NOT_READY = 1;
+    private static final byte NULL = 2;
+    private static final byte NUMBER = 3;
+
+    /** Size below which a parallel sort sorts sequentially. */
+    private static final int PARALLEL_CHUNK = 8192;
+
+    private final double[] values;
+    private final byte[] kinds;
+    private final boolean desc;
+
+    private NumericSortKeys(int size, boolean desc) {
+        this.values = new double[size];
+        this.kinds = new byte[size];
+        this.desc = desc;
+    }
+
+    /**
+     * Returns whether numeric sort keys are enabled.
+     */
+    static boolean isEnabled() {
+        return MondrianProperties.instance().SortNumericKeys.get();
+    }
+
+    /**
+     * Evaluates an expression for each member in a list.
+     *
+     * @param evaluator Evaluator
+     * @param exp Sort key expression
+     * @param members Members
+     * @param desc Whether to sort descending
+     * @return Sort keys, or null if the expression returned a value that is
+     *   not numeric
+     */
+    static NumericSortKeys forMembers(
+        Evaluator evaluator,
+        Calc exp,
+        List<Member> members,
+        boolean desc)
+    {
+        final NumericSortKeys keys =
+            new NumericSortKeys(members.size(), desc);
+        final CancellationChecker cancellationChecker =
+            newCancellationChecker(evaluator);
+        final int savepoint = evaluator.savepoint();
+        try {
+            int i = 0;
+            for (Member member : members) {
+                cancellationChecker.check(i);
+                evaluator.setContext(member);
+                if (!keys.set(i++, exp.evaluate(evaluator))) {
+                    return null;
+                }
+            }
+            return keys;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Evaluates an expression for each tuple in a list.
+     *
+     * @param evaluator Evaluator
+     * @param exp Sort key expression
+     * @param tuples Tuples
+     * @param desc Whether to sort descending
+     * @return Sort keys, or null if the expression returned a value that is
+     *   not numeric
+     */
+    static NumericSortKeys forTuples(
+        Evaluator evaluator,
+        Calc exp,
+        List<List<Member>> tuples,
+        boolean desc)
+    {
+        final NumericSortKeys keys =
+            new NumericSortKeys(tuples.size(), desc);
+        final CancellationChecker cancellationChecker =
+            newCancellationChecker(evaluator);
+        final int savepoint = evaluator.savepoint();
+        try {
+            int i = 0;
+            for (List<Member> tuple : tuples) {
+                cancellationChecker.check(i);
+                evaluator.setContext(tuple);
+                if (!keys.set(i++, exp.evaluate(evaluator))) {
+                    return null;
+                }
+            }
+            return keys;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    private static CancellationChecker newCancellationChecker(
+        Evaluator evaluator)
+    {
+        return new CancellationChecker(
+            evaluator.getQuery().getStatement().getCurrentExecution());
+    }
+
+    private boolean set(int i, Object value) {
+        if (value instanceof Number) {
+            kinds[i] = NUMBER;
+            values[i] = ((Number) value).doubleValue();
+        } else if (value == null) {
+            kinds[i] = JAVA_NULL;
+        } else if (value == Util.nullValue) {
+            kinds[i] = NULL;
+        } else if (value == RolapUtil.valueNotReadyException) {
+            kinds[i] = NOT_READY;
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of keys.
+     */
+    int size() {
+        return values.length;
+    }
+
+    /**
+     * Compares the keys at two positions. Positions with equal values
+     * compare in position order, whether the sort is ascending or
+     * descending.
+     */
+    int compare(int i, int j) {
+        int c = kinds[i] - kinds[j];
+        if (c == 0 && kinds[i] == NUMBER) {
+            c = FunUtil.compareValues(values[i], values[j]);
+        }
+        if (c == 0) {
+            return i < j ? -1 : i == j ? 0 : 1;
+        }
+        return desc ? -c : c;
+    }
+
+    /**
+     * Returns all positions, sorted by key.
+     */
+    int[] sort() {
+        final int[] positions = new int[values.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        final int threshold =
+            MondrianProperties.instance().ParallelSortThreshold.get();
+        if (threshold > 0 && positions.length > threshold) {
+            SortPool.INSTANCE.invoke(
+                new SortTask(
+                    positions, new int[positions.length], 0,
+                    positions.length));
+        } else {
+            mergeSort(
+                positions, new int[positions.length], 0, positions.length);
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the first {@code limit} positions in key order.
+     *
+     * <p>Keeps the best {@code limit} positions seen so far in a heap whose
+     * root is the worst of them, so takes time proportional to
+     * <code>n log(limit)</code> and does not sort the other positions.
+     *
+     * @param limit Number of positions to return
+     * @return Positions, sorted by key
+     */
+    int[] top(int limit) {
+        assert limit <= values.length;
+        final int[] heap = new int[limit];
+        if (limit == 0) {
+            return heap;
+        }
+        int heapSize = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (heapSize < limit) {
+                // Sift up.
+                int k = heapSize++;
+                while (k > 0) {
+                    final int parent = (k - 1) >>> 1;
+                    if (compare(heap[parent], i) >= 0) {
+                        break;
+                    }
+                    heap[k] = heap[parent];
+                    k = parent;
+                }
+                heap[k] = i;
+            } else if (compare(i, heap[0]) < 0) {
+                siftDown(heap, i, limit);
+            }
+        }
+        mergeSort(heap, new int[limit], 0, limit);
+        return heap;
+    }
+
+    /**
+     * Replaces the root of a heap, and moves the new value down until every
+     * parent compares greater than its children.
+     */
+    private void siftDown(int[] heap, int value, int heapSize) {
+        int k = 0;
+        for (;;) {
+            int child = 2 * k + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize
+                && compare(heap[child + 1], heap[child]) > 0)
+            {
+                ++child;
+            }
+            if (compare(value, heap[child]) >= 0) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = value;
+    }
+
+    /**
+     * Sorts positions {@code start} (inclusive) to {@code end} (exclusive)
+     * of an array, using {@code aux} as scratch space.
+     */
+    private void mergeSort(int[] a, int[] aux, int start, int end) {
+        if (end - start < 16) {
+            insertionSort(a, start, end);
+            return;
+        }
+        final int mid = (start + end) >>> 1;
+        mergeSort(a, aux, start, mid);
+        mergeSort(a, aux, mid, end);
+        merge(a, aux, start, mid, end);
+    }
+
+    private void insertionSort(int[] a, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            final int x = a[i];
+            int j = i - 1;
+            while (j >= start && compare(a[j], x) > 0) {
+                a[j + 1] = a[j];
+                --j;
+            }
+            a[j + 1] = x;
+        }
+    }
+
+    private void merge(int[] a, int[] aux, int start, int mid, int end) {
+        if (compare(a[mid - 1], a[mid]) <= 0) {
+            return; // already in order
+        }
+        System.arraycopy(a, start, aux, start, end - start);
+        int i = start, j = mid;
+        for (int k = start; k < end; k++) {
+            if (i >= mid) {
+                a[k] = aux[j++];
+            } else if (j >= end) {
+                a[k] = aux[i++];
+            } else if (compare(aux[j], aux[i]) < 0) {
+                a[k] = aux[j++];
+            } else {
+                a[k] = aux[i++];
+            }
+        }
+    }
+
+    /**
+     * Sorts a range of positions, sorting its halves in parallel.
+     */
+    private class SortTask extends RecursiveAction {
+        private final int[] a;
+        private final int[] aux;
+        private final int start;
+        private final int end;
+
+        SortTask(int[] a, int[] aux, int start, int end) {
+            this.a = a;
+            this.aux = aux;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start <= PARALLEL_CHUNK) {
+                mergeSort(a, aux, start, end);
+                return;
+            }
+            final int mid = (start + end) >>> 1;
+            invokeAll(
+                new SortTask(a, aux, start, mid),
+                new SortTask(a, aux, mid, end));
+            merge(a, aux, start, mid, end);
+        }
+    }
+
+    /**
+     * Holder for the fork-join pool that sorts large sets. Created on first
+     * use, with one thread per processor.
+     */
+    private static class SortPool {
+        static final ForkJoinPool INSTANCE =
+            new ForkJoinPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        final ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                                .newThread(pool);
+                        thread.setName(
+                            "mondrian.olap.fun.NumericSortKeys$SortPool_"
+                            + thread.getPoolIndex());
+                        return thread;
+                    }
+                },
+                null,
+                false);
+    }
+}
+
+// End NumericSortKeys.java
@@ -13,6 +13,7 @@ import mondrian.olap.Axis;
 import mondrian.olap.*;
 import mondrian.rolap.RolapAxis;
 import mondrian.rolap.RolapCell;
+import mondrian.rolap.RolapConnection;
 import mondrian.server.Execution;
 import mondrian.spi.ProfileHandler;
 
@@ -84,9 +85,73 @@ abstract class MondrianOlap4jCellSet
      * @throws org.olap4j.OlapException on error
      */
     void execute() throws OlapException {
-        result =
+        initialize(
             olap4jStatement.olap4jConnection.getMondrianConnection().execute(
-                this);
+                this));
+    }
+
+    /**
+     * Executes a query, evaluating its cells one page at a time. Not part of
+     * the olap4j API; internal to the mondrian driver.
+     *
+     * <p>The axes of this cell set are available when the handler receives
+     * the first page. While the handler runs, {@link #getCell(List)} returns
+     * cells of the current page; once this method returns, no cells are
+     * available. See {@link RolapConnection#execute(Execution,
+     * CellPageHandler, int)}.
+     *
+     * <p>A query with a NON EMPTY axis cannot be evaluated a page at a time.
+     * It is executed as usual, and all of its cells are passed to the
+     * handler as a single page.
+     *
+     * @param pageHandler Handler to receive each page of cells
+     * @param pageSize Number of positions of the last axis in each page
+     *
+     * @throws org.olap4j.OlapException on error
+     */
+    void execute(
+        final CellPageHandler pageHandler,
+        int pageSize)
+        throws OlapException
+    {
+        final RolapConnection connection =
+            olap4jStatement.olap4jConnection.getMondrianConnection();
+        if (RolapConnection.hasNonEmptyAxis(query)) {
+            initialize(connection.execute(this));
+            final Axis[] axes = result.getAxes();
+            pageHandler.onPage(
+                result,
+                0,
+                axes.length == 0
+                    ? 1
+                    : axes[axes.length - 1].getPositions().size());
+            return;
+        }
+        final Result pagedResult =
+            connection.execute(
+                this,
+                new CellPageHandler() {
+                    public void onPage(Result result, int start, int end) {
+                        if (MondrianOlap4jCellSet.this.result == null) {
+                            initialize(result);
+                        }
+                        pageHandler.onPage(result, start, end);
+                    }
+                },
+                pageSize);
+        if (result == null) {
+            // The last axis is empty, so there were no pages.
+            initialize(pagedResult);
+        }
+    }
+
+    /**
+     * Initializes the axes of this cell set from a result.
+     *
+     * @param result Result
+     */
+    private void initialize(Result result) {
+        this.result = result;
 
         // initialize axes
         mondrian.olap.Axis[] axes = result.getAxes();
@@ -440,6 +440,22 @@ class MondrianOlap4jExtra implements XmlaHandler.XmlaExtra {
               mdx,
               parameters);
     }
+
+    public CellSet executeQuery(
+        PreparedOlapStatement statement,
+        final XmlaHandler.XmlaExtra.CellSetPageHandler handler,
+        int pageSize) throws OlapException
+    {
+        final MondrianOlap4jPreparedStatement preparedStatement =
+            (MondrianOlap4jPreparedStatement) statement;
+        return preparedStatement.executeQuery(
+            new CellPageHandler() {
+                public void onPage(Result result, int start, int end) {
+                    handler.onPage(preparedStatement.openCellSet, start, end);
+                }
+            },
+            pageSize);
+    }
 }
 
 // End MondrianOlap4jExtra.java
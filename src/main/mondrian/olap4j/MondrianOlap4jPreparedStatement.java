@@ -96,6 +96,28 @@ abstract class MondrianOlap4jPreparedStatement
         return executeOlapQueryInternal(query, cellSetMetaData);
     }
 
+    /**
+     * Executes this statement, evaluating cells one page at a time and
+     * passing each page to a handler. Only one page of cells is held in
+     * memory; when this method returns, the axes of the cell set are
+     * available but its cells are not.
+     *
+     * <p>A query with a NON EMPTY axis is evaluated in full and passed to
+     * the handler as a single page.
+     *
+     * @param pageHandler Handler to receive each page of cells
+     * @param pageSize Number of positions of the last axis in each page
+     * @return Cell set
+     * @throws OlapException if a database error occurs
+     */
+    public CellSet executeQuery(
+        CellPageHandler pageHandler,
+        int pageSize) throws OlapException
+    {
+        return executeOlapQueryInternal(
+            query, cellSetMetaData, pageHandler, pageSize);
+    }
+
     public OlapParameterMetaData getParameterMetaData() throws OlapException {
         return this;
     }
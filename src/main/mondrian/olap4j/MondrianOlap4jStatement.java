@@ -51,6 +51,13 @@ abstract class MondrianOlap4jStatement
      */
     MondrianOlap4jCellSet openCellSet;
 
+    /**
+     * Query most recently parsed by {@link #parseQuery(String)}, which this
+     * statement holds until it parses another query or is closed; see
+     * {@link Query#release()}.
+     */
+    private Query parsedQuery;
+
     MondrianOlap4jStatement(
         MondrianOlap4jConnection olap4jConnection)
     {
@@ -143,6 +150,11 @@ abstract class MondrianOlap4jStatement
                 openCellSet = null;
                 c.close();
             }
+            if (parsedQuery != null) {
+                final Query q = parsedQuery;
+                parsedQuery = null;
+                q.release();
+            }
         }
     }
 
@@ -351,20 +363,19 @@ abstract class MondrianOlap4jStatement
     parseQuery(final String mdx)
         throws OlapException
     {
+        final Pair<Query, MondrianOlap4jCellSetMetaData> pair;
         try {
             final RolapConnection mondrianConnection = getMondrianConnection();
-            return Locus.execute(
+            pair = Locus.execute(
                 mondrianConnection,
                 "Parsing query",
                 new Locus.Action<Pair<Query, MondrianOlap4jCellSetMetaData>>() {
                     public Pair<Query, MondrianOlap4jCellSetMetaData> execute()
                     {
                         final Query query =
-                            (Query) mondrianConnection.parseStatement(
+                            (Query) mondrianConnection.parseStatementCached(
                                 MondrianOlap4jStatement.this,
-                                mdx,
-                                null,
-                                false);
+                                mdx);
                         final MondrianOlap4jCellSetMetaData cellSetMetaData =
                             new MondrianOlap4jCellSetMetaData(
                                 MondrianOlap4jStatement.this, query);
@@ -375,6 +386,17 @@ abstract class MondrianOlap4jStatement
             throw olap4jConnection.helper.createException(
                 "mondrian gave exception while parsing query", e);
         }
+        // Release the previous query; it remains held by any cell set that
+        // is still open.
+        final Query previousQuery;
+        synchronized (this) {
+            previousQuery = parsedQuery;
+            parsedQuery = pair.left;
+        }
+        if (previousQuery != null) {
+            previousQuery.release();
+        }
+        return pair;
     }
 
     /**
@@ -389,6 +411,27 @@ abstract class MondrianOlap4jStatement
     protected CellSet executeOlapQueryInternal(
         Query query,
         MondrianOlap4jCellSetMetaData cellSetMetaData) throws OlapException
+    {
+        return executeOlapQueryInternal(query, cellSetMetaData, null, 0);
+    }
+
+    /**
+     * Executes a parsed query, closing any previously open cellset, and
+     * optionally evaluating its cells one page at a time.
+     *
+     * @param query Parsed query
+     * @param cellSetMetaData Cell set metadata
+     * @param pageHandler Handler to receive each page of cells, or null to
+     *   evaluate all cells
+     * @param pageSize Number of positions of the last axis in each page
+     * @return Cell set
+     * @throws OlapException if a database error occurs
+     */
+    protected CellSet executeOlapQueryInternal(
+        Query query,
+        MondrianOlap4jCellSetMetaData cellSetMetaData,
+        CellPageHandler pageHandler,
+        int pageSize) throws OlapException
     {
         // Close the previous open CellSet, if there is one.
         synchronized (this) {
@@ -412,7 +455,11 @@ abstract class MondrianOlap4jStatement
         // Release the monitor before executing, to give another thread the
         // opportunity to call cancel.
         try {
-            openCellSet.execute();
+            if (pageHandler != null) {
+                openCellSet.execute(pageHandler, pageSize);
+            } else {
+                openCellSet.execute();
+            }
         } catch (QueryCanceledException e) {
             throw olap4jConnection.helper.createException(
                 "Query canceled", e);
@@ -627,6 +627,10 @@ public class CacheControlImpl implements CacheControl {
         synchronized (MEMBER_CACHE_LOCK) {
             // firstly clear all cache associated with native sets
             connection.getSchema().getNativeRegistry().flushAllNativeSetCache();
+            // and queries, which may reference the flushed members
+            connection.getSchema().getQueryPlanCache().clear();
+            // and SQL results from which the members were read
+            SqlResultCache.instance().flush(connection.getDataSource());
             final List<CellRegion> cellRegionList = new ArrayList<CellRegion>();
             ((MemberSetPlus) memberSet).accept(
                 new MemberSetVisitorImpl() {
@@ -832,6 +836,13 @@ public class CacheControlImpl implements CacheControl {
                     new ArrayList<CellRegion>();
                 ((MemberEditCommandPlus) cmd).execute(cellRegionList);
 
+                // Cached queries may reference the modified members
+                if (connection != null) {
+                    connection.getSchema().getQueryPlanCache().clear();
+                    SqlResultCache.instance().flush(
+                        connection.getDataSource());
+                }
+
                 // Flush the cells touched by the regions
                 for (CellRegion memberRegion : cellRegionList) {
                     // Iterate over the cubes, create a cross region with
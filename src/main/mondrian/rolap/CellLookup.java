@@ -0,0 +1,206 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Member;
+
+import java.util.List;
+
+/**
+ * Looks up a cell in the thread's local segment cache without building a
+ * {@link mondrian.rolap.agg.CellRequest}.
+ *
+ * <p>Most cells that an evaluator asks for are already in a segment in the
+ * local cache. For those cells, {@link RolapAggregationManager#makeRequest}
+ * allocates a request, its predicates, an aggregation key and a cell key only
+ * to throw them away a moment later. A <code>CellLookup</code> instead writes
+ * the keys of the evaluator's members into buffers that belong to the thread
+ * and are reused from one cell to the next.
+ *
+ * <p>Only the common case is handled: a stored measure, no compound slicer,
+ * and members of regular levels, which are neither calculated nor null. In
+ * any other case, and if the cell is not in the local cache, {@link #lookup}
+ * returns null and the caller should make a request as usual.
+ *
+ * <p>Instances are not thread-safe; use {@link #instance()}.
+ */
+class CellLookup {
+    private static final ThreadLocal<CellLookup> THREAD_LOCAL =
+        new ThreadLocal<CellLookup>() {
+            protected CellLookup initialValue() {
+                return new CellLookup();
+            }
+        };
+
+    private RolapStar star;
+
+    /** Constrained columns. */
+    private BitKey bitKey;
+
+    /** Value of each constrained column, indexed by bit position. */
+    private Object[] values;
+
+    /**
+     * Key arrays, indexed by number of constrained columns. Created on
+     * demand.
+     */
+    private Object[][] keysByLength;
+
+    /**
+     * Cell keys, indexed by number of constrained columns. Created on
+     * demand.
+     */
+    private CellKey[] cellKeysByLength;
+
+    private CellLookup() {
+    }
+
+    /**
+     * Returns the instance for the current thread.
+     */
+    static CellLookup instance() {
+        return THREAD_LOCAL.get();
+    }
+
+    /**
+     * Returns the value of the current cell of an evaluator if it is in the
+     * local cache, otherwise null.
+     *
+     * @param evaluator Evaluator
+     * @param pinSet Set into which to pin the segment, or null
+     * @return Cell value, or null if the cell must be requested
+     */
+    Object lookup(
+        RolapEvaluator evaluator,
+        RolapAggregationManager.PinSet pinSet)
+    {
+        final List<List<List<Member>>> aggregationLists =
+            evaluator.getAggregationLists();
+        if (aggregationLists != null && !aggregationLists.isEmpty()) {
+            return null;
+        }
+        final Member[] members = evaluator.getNonAllMembers();
+        if (members.length == 0
+            || !(members[0] instanceof RolapStoredMeasure))
+        {
+            return null;
+        }
+        final RolapStoredMeasure measure = (RolapStoredMeasure) members[0];
+        final RolapStar.Measure starMeasure =
+            (RolapStar.Measure) measure.getStarMeasure();
+        init(starMeasure.getStar());
+        try {
+            final RolapCube baseCube = measure.getCube();
+            for (int i = 1; i < members.length; i++) {
+                if (!(members[i] instanceof RolapCubeMember)) {
+                    continue;
+                }
+                final RolapCubeMember member = (RolapCubeMember) members[i];
+                if (!constrain(
+                        member.getLevel().getLevelReader(),
+                        member, baseCube, this))
+                {
+                    return null;
+                }
+            }
+            final int n = bitKey.cardinality();
+            if (keysByLength[n] == null) {
+                keysByLength[n] = new Object[n];
+                cellKeysByLength[n] = CellKey.Generator.newCellKey(n);
+            }
+            final Object[] keys = keysByLength[n];
+            int k = 0;
+            for (int bit = bitKey.nextSetBit(0); bit >= 0;
+                 bit = bitKey.nextSetBit(bit + 1))
+            {
+                keys[k++] = values[bit];
+            }
+            return star.getCellFromCache(
+                starMeasure, bitKey, keys, cellKeysByLength[n], pinSet);
+        } finally {
+            clear();
+        }
+    }
+
+    /**
+     * Constrains a column to a value.
+     *
+     * @param column Column
+     * @param value Value
+     * @return false if the column is already constrained to a different
+     *   value, in which case there is no such cell
+     */
+    boolean constrain(RolapStar.Column column, Object value) {
+        assert column.getStar() == star;
+        final int bitPosition = column.getBitPosition();
+        if (bitKey.get(bitPosition)) {
+            return value.equals(values[bitPosition]);
+        }
+        bitKey.set(bitPosition);
+        values[bitPosition] = value;
+        return true;
+    }
+
+    /**
+     * Adds the constraints of a member to a lookup, if the member's level
+     * reader supports it.
+     *
+     * @param levelReader Level reader
+     * @param member Member
+     * @param baseCube Base cube
+     * @param lookup Cell lookup
+     * @return Whether the member was handled; if false, the caller must make
+     *   a cell request
+     */
+    static boolean constrain(
+        RolapCubeLevel.LevelReader levelReader,
+        RolapCubeMember member,
+        RolapCube baseCube,
+        CellLookup lookup)
+    {
+        if (levelReader instanceof RolapCubeLevel.RegularLevelReader) {
+            return ((RolapCubeLevel.RegularLevelReader) levelReader)
+                .constrainLookup(member, baseCube, lookup);
+        }
+        // Like constrainRequest, these readers add no constraints.
+        return levelReader instanceof RolapCubeLevel.AllLevelReaderImpl
+            || levelReader instanceof RolapCubeLevel.HangerLevelReaderImpl;
+    }
+
+    /**
+     * Sizes the buffers for a given star.
+     */
+    private void init(RolapStar star) {
+        this.star = star;
+        final int columnCount = star.getColumnCount();
+        if (values == null || values.length != columnCount) {
+            bitKey = BitKey.Factory.makeBitKey(columnCount);
+            values = new Object[columnCount];
+            keysByLength = new Object[columnCount + 1][];
+            cellKeysByLength = new CellKey[columnCount + 1];
+        }
+    }
+
+    /**
+     * Clears the constraints, so that the buffers do not keep the star or
+     * member keys alive between lookups.
+     */
+    private void clear() {
+        for (int bit = bitKey.nextSetBit(0); bit >= 0;
+             bit = bitKey.nextSetBit(bit + 1))
+        {
+            values[bit] = null;
+        }
+        bitKey.clear();
+        star = null;
+    }
+}
+
+// End CellLookup.java
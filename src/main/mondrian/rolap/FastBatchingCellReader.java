@@ -73,6 +73,8 @@ public class FastBatchingCellReader implements CellReader {
 
     private final boolean cacheEnabled;
 
+    private final boolean fastLookupEnabled;
+
     private final SegmentCacheManager cacheMgr;
 
     private final RolapAggregationManager.PinSet pinnedSegments;
@@ -109,6 +111,8 @@ public class FastBatchingCellReader implements CellReader {
         cacheMgr = aggMgr.cacheMgr;
         pinnedSegments = this.aggMgr.createPinSet();
         cacheEnabled = !MondrianProperties.instance().DisableCaching.get();
+        fastLookupEnabled =
+            MondrianProperties.instance().EnableFastCellLookup.get();
 
         cellRequestLimit =
             MondrianProperties.instance().CellBatchSize.get() <= 0
@@ -124,6 +128,17 @@ public class FastBatchingCellReader implements CellReader {
     }
 
     public Object get(RolapEvaluator evaluator) {
+        // Most cells are in a segment already loaded by this statement. Find
+        // them without creating a request.
+        if (fastLookupEnabled) {
+            final Object o =
+                CellLookup.instance().lookup(evaluator, pinnedSegments);
+            if (o != null) {
+                ++hitCount;
+                return o;
+            }
+        }
+
         final CellRequest request =
             RolapAggregationManager.makeRequest(evaluator);
 
@@ -166,6 +181,43 @@ public class FastBatchingCellReader implements CellReader {
         return RolapUtil.valueNotReadyException;
     }
 
+    /**
+     * Creates a reader that collects requests on behalf of this one.
+     *
+     * <p>Used when the cells of a query are evaluated in parallel: each
+     * stripe records its requests in its own reader, and when the stripes
+     * have finished their requests are folded back into this reader by
+     * {@link #merge(FastBatchingCellReader)}, so that they are all loaded in
+     * the same batch.
+     *
+     * @return New reader for the same execution and cube
+     */
+    FastBatchingCellReader fork() {
+        return new FastBatchingCellReader(execution, cube, aggMgr);
+    }
+
+    /**
+     * Adds the requests, statistics and pinned segments of a reader created
+     * by {@link #fork()} to this reader.
+     *
+     * @param reader Forked reader
+     */
+    void merge(FastBatchingCellReader reader) {
+        assert reader != this;
+        missCount += reader.missCount;
+        hitCount += reader.hitCount;
+        pendingCount += reader.pendingCount;
+        dirty |= reader.dirty;
+        cellRequests.addAll(reader.cellRequests);
+        for (RolapNativeRequest request : reader.nativeRequests) {
+            if (!nativeRequests.contains(request)) {
+                nativeRequests.add(request);
+            }
+        }
+        ((AggregationManager.PinSetImpl) pinnedSegments).addAll(
+            (AggregationManager.PinSetImpl) reader.pinnedSegments);
+    }
+
     public int getMissCount() {
         return missCount;
     }
@@ -445,6 +497,14 @@ public class FastBatchingCellReader implements CellReader {
                                 return locus;
                             }
                         });
+
+                    // If queries often roll up to these columns, build a
+                    // virtual aggregate so that they need not.
+                    cacheMgr.virtualAggregates.recordRollup(
+                        rollup.measure,
+                        rollup.constrainedColumns,
+                        rollup.constrainedColumnsBitKey,
+                        rollup.compoundPredicates);
                 }
             }
 
@@ -549,17 +609,49 @@ public class FastBatchingCellReader implements CellReader {
      * thread, potentially causing a deadlock when interleaved with
      * other threads that depend both on db connections and Actor responses.
      *
+     * <p>Columns whose cardinality is not yet known are probed in parallel
+     * on the SQL executor, because on a cold star each probe may be a
+     * separate query.
      */
     private void preloadColumnCardinality(List<CellRequest> cellRequests) {
         List<BitKey> loaded = new ArrayList<BitKey>();
+        final Set<RolapStar.Column> columns =
+            new LinkedHashSet<RolapStar.Column>();
         for (CellRequest req : cellRequests) {
             if (!loaded.contains(req.getConstrainedColumnsBitKey())) {
                 for (RolapStar.Column col : req.getConstrainedColumns()) {
-                    col.getCardinality();
+                    if (!col.isCardinalityKnown()) {
+                        columns.add(col);
+                    }
                 }
                 loaded.add(req.getConstrainedColumnsBitKey());
             }
         }
+        if (columns.size() <= 1) {
+            for (RolapStar.Column col : columns) {
+                col.getCardinality();
+            }
+            return;
+        }
+        final Locus locus = Locus.peek();
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (final RolapStar.Column col : columns) {
+            futures.add(
+                cacheMgr.sqlExecutor.submit(
+                    new Callable<Integer>() {
+                        public Integer call() {
+                            Locus.push(locus);
+                            try {
+                                return col.getCardinality();
+                            } finally {
+                                Locus.pop(locus);
+                            }
+                        }
+                    }));
+        }
+        for (Future<Integer> future : futures) {
+            Util.safeGet(future, "Waiting for column cardinality");
+        }
     }
 
     /**
@@ -1182,6 +1274,7 @@ class BatchLoader {
         final RolapStar.Column[] constrainedColumns;
         final BitKey constrainedColumnsBitKey;
         final RolapStar.Measure measure;
+        final List<String> compoundPredicates;
         final List<List<SegmentHeader>> candidateLists;
 
         RollupInfo(
@@ -1192,6 +1285,7 @@ class BatchLoader {
             constrainedColumns = request.getConstrainedColumns();
             constrainedColumnsBitKey = request.getConstrainedColumnsBitKey();
             measure = request.getMeasure();
+            compoundPredicates = request.getCompoundPredicateStrings();
         }
     }
 
@@ -66,7 +66,7 @@ public class MemberCacheHelper implements MemberCache {
         this.mapLevelToMembers =
             new SmartMemberListCache<RolapLevel, List<RolapMember>>();
         this.mapKeyToMember =
-            new SoftSmartCache<Object, RolapMember>();
+            new ConcurrentSmartCache<Object, RolapMember>(true);
         this.mapMemberToChildren =
             new SmartMemberListCache<RolapMember, List<RolapMember>>();
         this.mapParentToNamedChildren =
@@ -106,10 +106,19 @@ public class MemberCacheHelper implements MemberCache {
         return getMember(key, true);
     }
 
-    public synchronized void checkCacheStatus() {
-        if (changeListener != null) {
-            if (changeListener.isHierarchyChanged(rolapHierarchy)) {
-                flushCache();
+    public void checkCacheStatus() {
+        // Called on every member lookup; only lock if there is a listener.
+        // Read the field once; another thread may set it to null.
+        final DataSourceChangeListener listener = changeListener;
+        if (listener != null) {
+            synchronized (this) {
+                if (listener.isHierarchyChanged(rolapHierarchy)) {
+                    flushCache();
+                    // Cached SQL results would re-create the stale members.
+                    SqlResultCache.instance().flush(
+                        rolapHierarchy.getRolapSchema()
+                            .getInternalConnection().getDataSource());
+                }
             }
         }
     }
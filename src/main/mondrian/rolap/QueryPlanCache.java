@@ -0,0 +1,164 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+
+import java.util.*;
+
+/**
+ * Cache of parsed, validated and compiled queries, so that a query string
+ * that is executed many times is not re-parsed, re-validated and
+ * re-compiled each time.
+ *
+ * <p>A {@link Query} is bound to a statement and holds state during
+ * execution, so it cannot be shared between concurrent executions. The cache
+ * therefore holds a pool of idle queries for each query string. A query is
+ * taken from the pool by {@link #checkOut} when a connection parses the same
+ * string, and is returned to the pool by {@link #checkIn} when it is closed.
+ *
+ * <p>The result of validating a query depends on the schema, the role and
+ * the locale, so each {@link RolapSchema} has its own cache, and the key
+ * contains the role and the locale. When a schema is reloaded, the new
+ * schema starts with an empty cache; when a schema is flushed from the pool,
+ * or members are modified through {@link mondrian.olap.CacheControl}, the
+ * cache is cleared.
+ *
+ * <p>The number of idle queries is bounded by
+ * {@link MondrianProperties#QueryPlanCacheSize}; if the limit is reached,
+ * the queries of the least recently used query string are discarded.
+ */
+public class QueryPlanCache {
+    private final Map<Key, List<Query>> map =
+        new LinkedHashMap<Key, List<Query>>(16, 0.75f, true);
+    private int size;
+
+    /**
+     * Creates a QueryPlanCache.
+     */
+    QueryPlanCache() {
+    }
+
+    /**
+     * Returns whether the cache is enabled.
+     *
+     * @return Whether {@link MondrianProperties#QueryPlanCacheSize} is
+     *   positive
+     */
+    public boolean isEnabled() {
+        return MondrianProperties.instance().QueryPlanCacheSize.get() > 0;
+    }
+
+    /**
+     * Removes an idle query from the cache.
+     *
+     * @param key Key
+     * @return Idle query, or null if there is none
+     */
+    public synchronized Query checkOut(Key key) {
+        final List<Query> queries = map.get(key);
+        if (queries == null) {
+            return null;
+        }
+        final Query query = queries.remove(queries.size() - 1);
+        if (queries.isEmpty()) {
+            map.remove(key);
+        }
+        --size;
+        return query;
+    }
+
+    /**
+     * Returns a query, which is no longer in use, to the cache.
+     *
+     * @param key Key
+     * @param query Query
+     */
+    public synchronized void checkIn(Key key, Query query) {
+        final int maxSize =
+            MondrianProperties.instance().QueryPlanCacheSize.get();
+        if (maxSize <= 0) {
+            return;
+        }
+        List<Query> queries = map.get(key);
+        if (queries == null) {
+            queries = new ArrayList<Query>(1);
+            map.put(key, queries);
+        }
+        queries.add(query);
+        ++size;
+        final Iterator<List<Query>> iterator = map.values().iterator();
+        while (size > maxSize) {
+            // Evict the least recently used query string. Since we just
+            // added 'query', there is always one to evict.
+            final List<Query> eldest = iterator.next();
+            size -= eldest.size();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all queries from the cache.
+     */
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of idle queries in the cache.
+     *
+     * @return Number of idle queries
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Key of a query in a {@link QueryPlanCache}.
+     */
+    public static class Key {
+        private final String mdx;
+        private final Role role;
+        private final Locale locale;
+
+        /**
+         * Creates a Key.
+         *
+         * @param mdx MDX query string
+         * @param role Role of the connection
+         * @param locale Locale of the connection
+         */
+        public Key(String mdx, Role role, Locale locale) {
+            this.mdx = mdx;
+            this.role = role;
+            this.locale = locale;
+        }
+
+        public int hashCode() {
+            return Util.hash(Util.hash(mdx.hashCode(), role), locale);
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return mdx.equals(that.mdx)
+                && Util.equals(role, that.role)
+                && Util.equals(locale, that.locale);
+        }
+    }
+}
+
+// End QueryPlanCache.java
@@ -612,12 +612,87 @@ public class RolapConnection extends ConnectionBase {
                     execution,
                     new Callable<Result>() {
                         public Result call() throws Exception {
-                            return executeInternal(execution);
+                            return executeInternal(execution, null, 0);
                         }
                     });
     }
 
-    private Result executeInternal(final Execution execution) {
+    /**
+     * Executes a statement in streaming mode.
+     *
+     * <p>The axes are evaluated as usual, but cells are evaluated one page
+     * at a time, and each page is passed to a handler before the next is
+     * evaluated. Only one page of cells is held in memory, so this mode is
+     * suitable for extracts whose cells would not fit in memory.
+     *
+     * <p>The handler is called in the thread that executes the statement,
+     * and the time it takes counts towards the statement's timeout. When
+     * this method returns, the cells of the result are no longer available.
+     *
+     * <p>Queries with a NON EMPTY axis are rejected. Empty positions can only
+     * be removed from an axis once every cell has been evaluated, which
+     * defeats the purpose of this mode; execute such queries using
+     * {@link #execute(Execution)}.
+     *
+     * @param execution Execution context (includes statement, query)
+     * @param handler Handler to receive each page of cells
+     * @param pageSize Number of positions of the last axis in each page
+     * @return Result, whose axes are available but whose cells are not
+     *
+     * @throws ResourceLimitExceededException if some resource limit specified
+     *     in the property file was exceeded
+     * @throws QueryCanceledException if query was canceled during execution
+     * @throws QueryTimeoutException if query exceeded timeout specified in
+     *     the property file
+     */
+    public Result execute(
+        final Execution execution,
+        final CellPageHandler handler,
+        final int pageSize)
+    {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException(
+                "page size must be positive: " + pageSize);
+        }
+        if (hasNonEmptyAxis(execution.getMondrianStatement().getQuery())) {
+            throw new IllegalArgumentException(
+                "query with NON EMPTY axis cannot be executed a page at a "
+                + "time");
+        }
+        execution.copyMDC();
+        return
+            server.getResultShepherd()
+                .shepherdExecution(
+                    execution,
+                    new Callable<Result>() {
+                        public Result call() throws Exception {
+                            return executeInternal(
+                                execution, handler, pageSize);
+                        }
+                    });
+    }
+
+    /**
+     * Returns whether any axis of a query is NON EMPTY, and therefore needs
+     * all of its cells to be evaluated before its positions are known.
+     *
+     * @param query Query
+     * @return Whether any axis is NON EMPTY
+     */
+    public static boolean hasNonEmptyAxis(Query query) {
+        for (QueryAxis axis : query.getAxes()) {
+            if (axis.isNonEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Result executeInternal(
+        final Execution execution,
+        CellPageHandler handler,
+        int pageSize)
+    {
         execution.setContextMap();
         final Statement statement = execution.getMondrianStatement();
         // Cleanup any previous executions still running
@@ -661,13 +736,17 @@ public class RolapConnection extends ConnectionBase {
             try {
                 statement.start(execution);
                 ((RolapCube) query.getCube()).clearCachedAggregations(true);
-                result = new RolapResult(execution, true);
-                int i = 0;
-                for (QueryAxis axis : query.getAxes()) {
-                    if (axis.isNonEmpty()) {
-                        result = new NonEmptyResult(result, execution, i);
+                if (handler != null) {
+                    result = new RolapResult(execution, handler, pageSize);
+                } else {
+                    result = new RolapResult(execution, true);
+                    int i = 0;
+                    for (QueryAxis axis : query.getAxes()) {
+                        if (axis.isNonEmpty()) {
+                            result = new NonEmptyResult(result, execution, i);
+                        }
+                        ++i;
                     }
-                    ++i;
                 }
             } finally {
                 Locus.pop(locus);
@@ -749,8 +828,7 @@ public class RolapConnection extends ConnectionBase {
                 null);
         Locus.push(locus);
         try {
-            QueryPart queryPart =
-                parseStatement(statement, query, null, false);
+            QueryPart queryPart = parseStatementCached(statement, query);
             if (queryPart instanceof Query) {
                 ((Query) queryPart).setOwnStatement(true);
                 statement = null;
@@ -764,6 +842,43 @@ public class RolapConnection extends ConnectionBase {
         }
     }
 
+    /**
+     * Parses a statement and binds it to a given statement. If the same
+     * query string has been parsed before and that query is no longer in
+     * use, reuses it rather than parsing, validating and compiling it again.
+     *
+     * <p>A query obtained this way is returned to the schema's
+     * {@link QueryPlanCache} when the statement releases it (see
+     * {@link Query#release()}) and every result that was executed from it
+     * has been closed.
+     *
+     * @param statement Statement
+     * @param query MDX string
+     * @return Parse tree; if a query, its statement is {@code statement}
+     */
+    public QueryPart parseStatementCached(Statement statement, String query) {
+        final QueryPlanCache planCache = schema.getQueryPlanCache();
+        final QueryPlanCache.Key planCacheKey =
+            planCache.isEnabled() && scenario == null
+                ? new QueryPlanCache.Key(query, getRole(), getLocale())
+                : null;
+        if (planCacheKey != null) {
+            final Query cachedQuery = planCache.checkOut(planCacheKey);
+            if (cachedQuery != null) {
+                cachedQuery.rebind(statement);
+                cachedQuery.setOwnStatement(false);
+                cachedQuery.setPlanCache(planCache, planCacheKey);
+                return cachedQuery;
+            }
+        }
+        final QueryPart queryPart =
+            parseStatement(statement, query, null, false);
+        if (planCacheKey != null && queryPart instanceof Query) {
+            ((Query) queryPart).setPlanCache(planCache, planCacheKey);
+        }
+        return queryPart;
+    }
+
     public Exp parseExpression(String expr) {
         boolean debug = false;
         if (getLogger().isDebugEnabled()) {
@@ -1189,6 +1304,9 @@ public class RolapConnection extends ConnectionBase {
             if (!closed) {
                 closed = true;
                 server.removeStatement(this);
+                if (query != null) {
+                    query.release();
+                }
             }
         }
 
@@ -437,6 +437,62 @@ public class RolapCubeLevel extends RolapLevel {
             }
         }
 
+        /**
+         * Adds the key of a member, and of its ancestors, to a cell lookup.
+         * Equivalent to {@link #constrainRequest} in the common case.
+         *
+         * <p>Returns false if the member is not the common case (it is
+         * calculated or null, or an ancestor belongs to a level with a
+         * different kind of reader) or if the request would be unsatisfiable;
+         * the caller must then make a {@link CellRequest}.
+         *
+         * @param member Member to be constrained
+         * @param baseCube base cube if virtual level
+         * @param lookup Cell lookup
+         * @return whether the member's keys were added
+         */
+        boolean constrainLookup(
+            RolapCubeMember member,
+            RolapCube baseCube,
+            CellLookup lookup)
+        {
+            assert member.getLevel() == cubeLevel;
+            final Object memberKey = member.member.getKey();
+            if (memberKey == null || member.member.isCalculated()) {
+                return false;
+            }
+            final RolapStar.Column column =
+                cubeLevel.getBaseStarKeyColumn(baseCube);
+            if (column == null) {
+                // As in constrainRequest, the member does not constrain the
+                // cell if it is the default member of a hierarchy with no
+                // 'all' member; otherwise there is no cell.
+                return member == cubeLevel.hierarchy.getDefaultMember()
+                    && !cubeLevel.hierarchy.hasAll();
+            }
+            if (!lookup.constrain(column, memberKey)) {
+                return false;
+            }
+            if (cubeLevel.isUnique()) {
+                return true;
+            }
+            RolapCubeMember parent = member.getParentMember();
+            while (true) {
+                if (parent == null) {
+                    return true;
+                }
+                final LevelReader levelReader = parent.getLevel().levelReader;
+                if (levelReader == this) {
+                    // Parent in a parent-child hierarchy; see
+                    // constrainRequest.
+                    parent = parent.getParentMember();
+                    continue;
+                }
+                return CellLookup.constrain(
+                    levelReader, parent, baseCube, lookup);
+            }
+        }
+
         public void constrainRegion(
             StarColumnPredicate predicate,
             RolapCube baseCube,
@@ -117,6 +117,10 @@ public class RolapEvaluator implements Evaluator {
 
     List<RolapCube> baseCubes;
 
+    /** Expressions being expanded by this evaluator's thread; shared with
+     * the evaluators pushed from it. */
+    private Set<Exp> activeNativeExpansions;
+
     /**
      * Saves away the base cubes related to the virtual cube
      * referenced in this query
@@ -148,7 +152,17 @@ public class RolapEvaluator implements Evaluator {
      * @return Mutable set of expressions being expanded
      */
     public Set<Exp> getActiveNativeExpansions() {
-        return root.activeNativeExpansions;
+        return activeNativeExpansions;
+    }
+
+    /**
+     * Gives this evaluator, and the evaluators that will be pushed from it,
+     * their own set of expressions being expanded, initially a copy of its
+     * parent's. Call before evaluating in a thread other than the parent's,
+     * so that one thread's expansions do not prevent another's.
+     */
+    void forkActiveNativeExpansions() {
+        activeNativeExpansions = new HashSet<Exp>(activeNativeExpansions);
     }
 
     public CompoundPredicateInfo getSlicerPredicateInfo() {
@@ -206,6 +220,7 @@ public class RolapEvaluator implements Evaluator {
         commandCount = 1;
         activeCellCalcs.addAll(parent.activeCellCalcs);
         baseCubes = parent.baseCubes;
+        activeNativeExpansions = parent.activeNativeExpansions;
         // Build aggregationLists, combining parent's aggregationLists (if not
         // null) and the new aggregation list (if any).
         List<List<List<Member>>> aggregationLists = null;
@@ -256,6 +271,7 @@ public class RolapEvaluator implements Evaluator {
         calculationCount = 0;
         slicerMembers = new ArrayList<Member>();
         aggregationLists = null;
+        activeNativeExpansions = new HashSet<Exp>();
 
         commands = new Object[10];
         commands[0] = Command.SAVEPOINT; // sentinel
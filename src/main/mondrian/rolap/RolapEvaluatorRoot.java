@@ -28,14 +28,12 @@ import java.util.*;
  * @since Nov 11, 2008
  */
 class RolapEvaluatorRoot {
-    final Map<Object, Object> expResultCache = new HashMap<Object, Object>();
-    final Map<Object, Object> tmpExpResultCache =
-        new HashMap<Object, Object>();
+    final Map<Object, Object> expResultCache;
+    final Map<Object, Object> tmpExpResultCache;
     final RolapCube cube;
     final RolapConnection connection;
     final SchemaReader schemaReader;
-    final Map<CompiledExpKey, Calc> compiledExps =
-        new HashMap<CompiledExpKey, Calc>();
+    final Map<CompiledExpKey, Calc> compiledExps;
     final Statement statement;
     final Query query;
     private final Date queryStartTime;
@@ -58,8 +56,6 @@ class RolapEvaluatorRoot {
             MondrianProperties.instance().SolveOrderMode.get().toUpperCase(),
             SolveOrderMode.ABSOLUTE);
 
-    final Set<Exp> activeNativeExpansions = new HashSet<Exp>();
-
     /**
      * The size of the command stack at which we will next check for recursion.
      */
@@ -73,14 +69,33 @@ class RolapEvaluatorRoot {
      * @deprecated
      */
     public RolapEvaluatorRoot(Statement statement) {
-        this(statement, null);
+        this(statement, null, false);
     }
 
     public RolapEvaluatorRoot(Execution execution) {
-        this(execution.getMondrianStatement(), execution);
+        this(execution, false);
     }
 
-    private RolapEvaluatorRoot(Statement statement, Execution execution) {
+    /**
+     * Creates a RolapEvaluatorRoot whose caches may optionally be accessed
+     * by several threads at once.
+     *
+     * @param execution Execution
+     * @param concurrent Whether evaluators in several threads will share
+     *     this root
+     */
+    protected RolapEvaluatorRoot(Execution execution, boolean concurrent) {
+        this(execution.getMondrianStatement(), execution, concurrent);
+    }
+
+    private RolapEvaluatorRoot(
+        Statement statement,
+        Execution execution,
+        boolean concurrent)
+    {
+        this.expResultCache = newMap(concurrent);
+        this.tmpExpResultCache = newMap(concurrent);
+        this.compiledExps = newMap(concurrent);
         this.execution = execution;
         this.statement = statement;
         this.query = statement.getQuery();
@@ -127,6 +142,11 @@ class RolapEvaluatorRoot {
         this.recursionCheckCommandCount = (defaultMembers.length << 4);
     }
 
+    private static <K, V> Map<K, V> newMap(boolean concurrent) {
+        final Map<K, V> map = new HashMap<K, V>();
+        return concurrent ? Collections.synchronizedMap(map) : map;
+    }
+
     /**
      * Implements a cheap-and-cheerful mapping from expressions to compiled
      * expressions.
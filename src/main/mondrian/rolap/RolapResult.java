@@ -29,6 +29,10 @@ import mondrian.util.*;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 
 
 /**
@@ -63,6 +67,25 @@ public class RolapResult extends ResultBase {
     private final Map<Integer, List<List<Member>>> positionsCurrent =
         new HashMap<Integer, List<List<Member>>>();
 
+    /**
+     * Whether cells are evaluated one page at a time; see
+     * {@link RolapConnection#execute(Execution, CellPageHandler, int)}.
+     */
+    private final boolean paged;
+
+    /**
+     * If {@link #paged}, the range of positions on the last axis whose cells
+     * are currently available. Empty when no page is being handled.
+     */
+    private int pageStart;
+    private int pageEnd;
+
+    /**
+     * Whether this result holds its query, which therefore cannot be
+     * returned to the plan cache until this result is closed.
+     */
+    private boolean holdsQuery;
+
     /**
      * Creates a RolapResult.
      *
@@ -72,8 +95,34 @@ public class RolapResult extends ResultBase {
     RolapResult(
         final Execution execution,
         boolean execute)
+    {
+        this(execution, execute, null, 0);
+    }
+
+    /**
+     * Creates a RolapResult that evaluates its cells one page at a time,
+     * and passes each page to a handler.
+     *
+     * @param execution Execution of a statement
+     * @param pageHandler Handler to receive each page of cells
+     * @param pageSize Number of positions of the last axis in each page
+     */
+    RolapResult(
+        final Execution execution,
+        CellPageHandler pageHandler,
+        int pageSize)
+    {
+        this(execution, true, pageHandler, pageSize);
+    }
+
+    private RolapResult(
+        final Execution execution,
+        boolean execute,
+        CellPageHandler pageHandler,
+        int pageSize)
     {
         super(execution, null);
+        this.paged = pageHandler != null;
 
         this.point = CellKey.Generator.newCellKey(axes.length);
         final AggregationManager aggMgr =
@@ -518,12 +567,22 @@ public class RolapResult extends ResultBase {
 
             evaluator.restore(savepoint);
 
+            // Now that the size of each axis is known, switch to dense
+            // storage if the result is small enough.
+            this.cellInfos = chooseCellInfoContainer(this.cellInfos);
+
             // Get value for each Cell
             final Locus locus = new Locus(execution, null, "Loading cells");
             Locus.push(locus);
             try {
-                executeBody(
-                    internalSlicerEvaluator, query, new int[axes.length]);
+                if (pageHandler != null) {
+                    executePages(
+                        internalSlicerEvaluator, query, new int[axes.length],
+                        pageHandler, pageSize);
+                } else {
+                    executeBody(
+                        internalSlicerEvaluator, query, new int[axes.length]);
+                }
             } finally {
                 Locus.pop(locus);
             }
@@ -541,6 +600,11 @@ public class RolapResult extends ResultBase {
             // revert the slicer axis so that the original slicer
             // can be included in the result.
             this.slicerAxis  = savedSlicerAxis;
+
+            // The axes and cells refer to the query's expressions; keep the
+            // query out of the plan cache until this result is closed.
+            query.acquire();
+            holdsQuery = true;
         } catch (ResultLimitExceededException ex) {
             // If one gets a ResultLimitExceededException, then
             // don't count on anything being worth caching.
@@ -691,6 +755,14 @@ public class RolapResult extends ResultBase {
     @Override
     public void close() {
         super.close();
+        final boolean release;
+        synchronized (this) {
+            release = holdsQuery;
+            holdsQuery = false;
+        }
+        if (release) {
+            query.release();
+        }
     }
 
     protected boolean removeDimension(
@@ -948,6 +1020,13 @@ public class RolapResult extends ResultBase {
             throw Util.newError(
                 "coordinates should have dimension " + point.size());
         }
+        if (paged) {
+            final int p = pos.length == 0 ? 0 : pos[pos.length - 1];
+            if (p < pageStart || p >= pageEnd) {
+                throw Util.newError(
+                    "cell is not in the current page of a streaming result");
+            }
+        }
 
         for (int i = 0; i < pos.length; i++) {
             if (positionsHighCardinality.get(i)) {
@@ -1023,15 +1102,40 @@ public class RolapResult extends ResultBase {
         RolapEvaluator evaluator,
         Query query,
         final int[] pos)
+    {
+        executeBody(evaluator, query, pos, 0, -1);
+    }
+
+    /**
+     * Evaluates the cells whose position on the last axis is between
+     * <code>start</code> (inclusive) and <code>end</code> (exclusive), or
+     * all cells if <code>end</code> is negative.
+     */
+    private void executeBody(
+        RolapEvaluator evaluator,
+        Query query,
+        final int[] pos,
+        int start,
+        int end)
     {
         // Compute the cells several times. The first time, use a dummy
         // evaluator which collects requests.
         int count = 0;
+        final int stripeCount = end < 0 ? computeStripeCount(evaluator) : 1;
         final int savepoint = evaluator.savepoint();
         while (true) {
             evaluator.setCellReader(batchingReader);
             try {
-                executeStripe(query.axes.length - 1, evaluator, pos);
+                if (stripeCount > 1) {
+                    executeStripes(evaluator, pos, stripeCount);
+                } else if (end >= 0) {
+                    executeStripeRange(
+                        query.axes.length - 1, evaluator, pos, point, start,
+                        end);
+                } else {
+                    executeStripe(
+                        query.axes.length - 1, evaluator, pos, point, true);
+                }
             } catch (CellRequestQuantumExceededException e) {
                 // Safe to ignore. Need to call 'phase' and loop again.
                 // Decrement count because it wasn't a recursive formula that
@@ -1074,6 +1178,215 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Evaluates the cells a page at a time, and passes each page to a
+     * handler. A page consists of <code>pageSize</code> positions of the
+     * last axis. The cells of a page are discarded before the next page is
+     * evaluated.
+     *
+     * @param evaluator Evaluator
+     * @param query Query
+     * @param pos Cell position
+     * @param pageHandler Handler to receive each page
+     * @param pageSize Number of positions of the last axis in each page
+     */
+    private void executePages(
+        RolapEvaluator evaluator,
+        Query query,
+        final int[] pos,
+        CellPageHandler pageHandler,
+        int pageSize)
+    {
+        if (axes.length == 0) {
+            executeBody(evaluator, query, pos);
+            handlePage(pageHandler, 0, 1);
+            return;
+        }
+
+        // Distinct-count measures must be prepared for every tuple before
+        // any cell is evaluated.
+        for (Axis axis : axes) {
+            for (List<Member> tuple : ((RolapAxis) axis).getTupleList()) {
+                prepareDistinctMeasures(tuple);
+            }
+        }
+
+        final int size = axes[axes.length - 1].getPositions().size();
+        for (int start = 0; start < size; start += pageSize) {
+            final int end = Math.min(size, start + pageSize);
+            executeBody(evaluator, query, pos, start, end);
+            handlePage(pageHandler, start, end);
+            cellInfos.clear();
+        }
+    }
+
+    private void handlePage(CellPageHandler pageHandler, int start, int end) {
+        pageStart = start;
+        pageEnd = end;
+        try {
+            pageHandler.onPage(this, start, end);
+        } finally {
+            pageStart = 0;
+            pageEnd = 0;
+        }
+    }
+
+    /**
+     * Returns the number of stripes into which the cells of this result
+     * should be split for parallel evaluation, or 1 if the cells should be
+     * evaluated on the current thread.
+     *
+     * <p>Parallel evaluation is only used if enabled by
+     * {@link MondrianProperties#StripeParallelism}, and only for queries
+     * whose evaluation does not touch state that is shared between
+     * evaluators: named sets, parameters and calculated cells are
+     * evaluated lazily, on first use, by the root evaluator.
+     *
+     * @param evaluator Evaluator
+     * @return Number of stripes
+     */
+    private int computeStripeCount(RolapEvaluator evaluator) {
+        final int parallelism =
+            MondrianProperties.instance().StripeParallelism.get();
+        if (parallelism <= 1
+            || axes.length == 0
+            || cellInfos instanceof CellInfoMap
+            || evaluator instanceof RolapDependencyTestingEvaluator
+            || statement.getProfileHandler() != null)
+        {
+            return 1;
+        }
+        final RolapCube cube = getCube();
+        if (cube.cellCalcs != null && !cube.cellCalcs.isEmpty()
+            || cube.getNamedSets().length > 0
+            || query.getParameters().length > 0)
+        {
+            return 1;
+        }
+        for (Formula formula : query.getFormulas()) {
+            if (!formula.isMember()) {
+                return 1;
+            }
+        }
+        long cellCount = 1;
+        for (int i = 0; i < axes.length; i++) {
+            final TupleList tupleList = ((RolapAxis) axes[i]).getTupleList();
+            if (isAxisHighCardinality(i, tupleList)) {
+                return 1;
+            }
+            cellCount *= tupleList.size();
+        }
+        if (cellCount
+            < MondrianProperties.instance().StripeMinCellCount.get())
+        {
+            return 1;
+        }
+        // Use a few more stripes than threads, so that a stripe full of
+        // expensive cells does not leave the other threads idle.
+        final int outerSize =
+            ((RolapAxis) axes[axes.length - 1]).getTupleList().size();
+        return Math.min(outerSize, parallelism * 4);
+    }
+
+    /**
+     * Evaluates the cells of this result in parallel.
+     *
+     * <p>The positions of the outermost axis are divided into
+     * <code>stripeCount</code> contiguous stripes. Each stripe is evaluated
+     * in a thread of the stripe pool, using its own evaluator, cell position
+     * and {@link FastBatchingCellReader}. When all stripes have finished,
+     * the requests they recorded are merged into {@link #batchingReader}, so
+     * that the following call to {@link #phase()} loads them all in one
+     * round.
+     *
+     * @param evaluator Evaluator
+     * @param pos Cell position
+     * @param stripeCount Number of stripes
+     *
+     * @throws CellRequestQuantumExceededException if any stripe recorded so
+     *     many requests that it stopped early
+     */
+    private void executeStripes(
+        RolapEvaluator evaluator,
+        final int[] pos,
+        int stripeCount)
+    {
+        final int axisOrdinal = axes.length - 1;
+        final TupleList tupleList =
+            ((RolapAxis) axes[axisOrdinal]).getTupleList();
+
+        // Preparing distinct-count measures modifies this result's evaluator,
+        // so do it for every axis before the stripes start.
+        for (Axis axis : axes) {
+            for (List<Member> tuple : ((RolapAxis) axis).getTupleList()) {
+                prepareDistinctMeasures(tuple);
+            }
+        }
+
+        // Segments are registered in a thread-local cache; give each stripe
+        // a copy of this thread's cache.
+        final List<RolapStar> stars =
+            new ArrayList<RolapStar>(getCube().getSchema().getStars());
+        final Locus locus = Locus.peek();
+        final List<StripeTask> tasks = new ArrayList<StripeTask>();
+        final int size = tupleList.size();
+        for (int i = 0; i < stripeCount; i++) {
+            final int start = (int) ((long) size * i / stripeCount);
+            final int end = (int) ((long) size * (i + 1) / stripeCount);
+            if (start == end) {
+                continue;
+            }
+            final List<RolapStar.Bar> bars = new ArrayList<RolapStar.Bar>();
+            for (RolapStar star : stars) {
+                bars.add(star.copyLocalBar());
+            }
+            final RolapEvaluator stripeEvaluator = evaluator.push();
+            stripeEvaluator.setCellReader(batchingReader.fork());
+            stripeEvaluator.forkActiveNativeExpansions();
+            tasks.add(
+                new StripeTask(
+                    locus, stars, bars, stripeEvaluator, pos, start, end));
+        }
+
+        final CellInfoContainer savedCellInfos = cellInfos;
+        cellInfos = new SynchronizedCellInfoContainer(savedCellInfos);
+        try {
+            final List<Future<Boolean>> futures =
+                new ArrayList<Future<Boolean>>();
+            for (StripeTask task : tasks) {
+                futures.add(StripePool.INSTANCE.submit(task));
+            }
+
+            // Wait for every stripe, even if one fails, so that no stripe is
+            // still writing cells when we return.
+            RuntimeException exception = null;
+            boolean quantumExceeded = false;
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (Util.safeGet(future, "Error while evaluating stripe")) {
+                        quantumExceeded = true;
+                    }
+                } catch (RuntimeException e) {
+                    if (exception == null) {
+                        exception = e;
+                    }
+                }
+            }
+            for (StripeTask task : tasks) {
+                batchingReader.merge(
+                    (FastBatchingCellReader) task.evaluator.cellReader);
+            }
+            if (exception != null) {
+                throw exception;
+            }
+            if (quantumExceeded) {
+                throw CellRequestQuantumExceededException.INSTANCE;
+            }
+        } finally {
+            cellInfos = savedCellInfos;
+        }
+    }
+
     boolean isDirty() {
         return batchingReader.isDirty();
     }
@@ -1155,7 +1468,9 @@ public class RolapResult extends ResultBase {
     private void executeStripe(
         int axisOrdinal,
         RolapEvaluator revaluator,
-        final int[] pos)
+        final int[] pos,
+        final CellKey point,
+        boolean prepareDistinct)
     {
         if (axisOrdinal < 0) {
             RolapAxis axis = (RolapAxis) slicerAxis;
@@ -1251,6 +1566,7 @@ public class RolapResult extends ResultBase {
 
                 if (o != RolapUtil.valueNotReadyException) {
                     ci.value = o;
+                    cellInfos.commit(point.getOrdinals(), ci);
                 }
 
                 // TODO: figure out the correct state management so this call doesn't need to exist
@@ -1305,28 +1621,18 @@ public class RolapResult extends ResultBase {
                     try {
                         revaluator.setContext(tuple);
                         execution.checkCancelOrTimeout();
-                        executeStripe(axisOrdinal - 1, revaluator, pos);
+                        executeStripe(
+                            axisOrdinal - 1, revaluator, pos, point,
+                            prepareDistinct);
                     } finally {
                         revaluator.restore(savepoint);
                     }
                     pi++;
                 }
             } else {
-                for (List<Member> tuple : tupleList) {
-                    List<Member> measures =
-                        new ArrayList<Member>(
-                            statement.getQuery().getMeasuresMembers());
-                    for (Member measure : measures) {
-                        if (measure instanceof RolapBaseCubeMeasure) {
-                            RolapBaseCubeMeasure baseCubeMeasure =
-                                (RolapBaseCubeMeasure) measure;
-                            if (baseCubeMeasure.getAggregator()
-                                == RolapAggregator.DistinctCount)
-                            {
-                                processDistinctMeasureExpr(
-                                    tuple, baseCubeMeasure);
-                            }
-                        }
+                if (prepareDistinct) {
+                    for (List<Member> tuple : tupleList) {
+                        prepareDistinctMeasures(tuple);
                     }
                 }
 
@@ -1337,7 +1643,9 @@ public class RolapResult extends ResultBase {
                     try {
                         revaluator.setContext(tuple);
                         execution.checkCancelOrTimeout();
-                        executeStripe(axisOrdinal - 1, revaluator, pos);
+                        executeStripe(
+                            axisOrdinal - 1, revaluator, pos, point,
+                            prepareDistinct);
                     } finally {
                         revaluator.restore(savepoint);
                     }
@@ -1347,6 +1655,93 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Evaluates the cells whose position on axis <code>axisOrdinal</code> is
+     * between <code>start</code> (inclusive) and <code>end</code>
+     * (exclusive). Used to evaluate one stripe of a parallel evaluation, or
+     * one page of a streaming evaluation.
+     */
+    private void executeStripeRange(
+        int axisOrdinal,
+        RolapEvaluator revaluator,
+        final int[] pos,
+        final CellKey point,
+        int start,
+        int end)
+    {
+        final TupleList tupleList =
+            ((RolapAxis) axes[axisOrdinal]).getTupleList();
+        for (int i = start; i < end; i++) {
+            point.setAxis(axisOrdinal, i);
+            final int savepoint = revaluator.savepoint();
+            try {
+                revaluator.setContext(tupleList.get(i));
+                execution.checkCancelOrTimeout();
+                executeStripe(axisOrdinal - 1, revaluator, pos, point, false);
+            } finally {
+                revaluator.restore(savepoint);
+            }
+        }
+    }
+
+    /**
+     * Prepares the distinct-count measures of the query for evaluation in
+     * the context of a tuple.
+     *
+     * @param tuple Tuple
+     */
+    private void prepareDistinctMeasures(List<Member> tuple) {
+        List<Member> measures =
+            new ArrayList<Member>(
+                statement.getQuery().getMeasuresMembers());
+        for (Member measure : measures) {
+            if (measure instanceof RolapBaseCubeMeasure) {
+                RolapBaseCubeMeasure baseCubeMeasure =
+                    (RolapBaseCubeMeasure) measure;
+                if (baseCubeMeasure.getAggregator()
+                    == RolapAggregator.DistinctCount)
+                {
+                    processDistinctMeasureExpr(
+                        tuple, baseCubeMeasure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a {@link DenseCellInfoContainer} if every axis has a known
+     * size and the number of cells is within
+     * {@link MondrianProperties#DenseCellLimit}; otherwise returns the
+     * given container. A streaming result, which is cleared after every page,
+     * keeps the given container.
+     *
+     * @param container Current container
+     * @return Container in which to store cells
+     */
+    private CellInfoContainer chooseCellInfoContainer(
+        CellInfoContainer container)
+    {
+        final int limit =
+            MondrianProperties.instance().DenseCellLimit.get();
+        if (limit <= 0 || paged) {
+            return container;
+        }
+        final int[] axisSizes = new int[axes.length];
+        long cellCount = 1;
+        for (int i = 0; i < axes.length; i++) {
+            final TupleList tupleList = ((RolapAxis) axes[i]).getTupleList();
+            if (isAxisHighCardinality(i, tupleList)) {
+                return container;
+            }
+            axisSizes[i] = tupleList.size();
+            cellCount *= axisSizes[i];
+            if (cellCount > limit) {
+                return container;
+            }
+        }
+        return new DenseCellInfoContainer(axisSizes);
+    }
+
     private boolean isAxisHighCardinality(
         int axisOrdinal,
         TupleList tupleList)
@@ -1697,7 +2092,9 @@ public class RolapResult extends ResultBase {
         private static final Object NullSentinel = new Object();
 
         public RolapResultEvaluatorRoot(RolapResult result) {
-            super(result.execution);
+            super(
+                result.execution,
+                MondrianProperties.instance().StripeParallelism.get() > 1);
             this.result = result;
         }
 
@@ -1989,8 +2386,9 @@ public class RolapResult extends ResultBase {
 
     /**
      * API for the creation and
-     * lookup of {@link CellInfo} objects. There are two implementations,
-     * one that uses a Map for storage and the other uses an ObjectPool.
+     * lookup of {@link CellInfo} objects. There are three implementations:
+     * one that uses a Map for storage, one that uses an ObjectPool, and one
+     * that stores cells in columnar arrays.
      */
     interface CellInfoContainer {
         /**
@@ -2024,6 +2422,15 @@ public class RolapResult extends ResultBase {
          * @return the CellInfo found or null.
          */
         CellInfo lookup(int[] pos);
+        /**
+         * Stores the contents of a CellInfo object, obtained from
+         * {@link #create(int[])}, after its fields have been set.
+         * Implementations that hand out the stored object itself do nothing.
+         *
+         * @param pos where to store the CellInfo object.
+         * @param ci the CellInfo object.
+         */
+        void commit(int[] pos, CellInfo ci);
     }
 
     /**
@@ -2070,6 +2477,9 @@ public class RolapResult extends ResultBase {
             CellKey key = CellKey.Generator.newCellKey(pos);
             return this.cellInfoMap.get(key);
         }
+        public void commit(int[] pos, CellInfo ci) {
+            // empty
+        }
     }
 
     /**
@@ -2252,6 +2662,309 @@ public class RolapResult extends ResultBase {
             long key = this.cellKeyMaker.generate(pos);
             return this.cellInfoPool.add(new CellInfo(key));
         }
+        public void commit(int[] pos, CellInfo ci) {
+            // empty
+        }
+    }
+
+    /**
+     * Implementation of {@link CellInfoContainer} that stores cells in
+     * columns: arrays indexed by the ordinal of the cell, rather than one
+     * {@link CellInfo} object per cell.
+     *
+     * <p>Used when the size of every axis is known and the number of cells
+     * is no more than {@link MondrianProperties#DenseCellLimit}. Every cell
+     * of the result is evaluated, so the arrays are fully used.
+     *
+     * <p>Values of type {@link Double}, by far the most common, are held in
+     * a <code>double</code> array, and whether a cell is empty, null or an
+     * error is held in a <code>byte</code> array. Other values are held in
+     * an <code>Object</code> array that is only allocated if needed. A result
+     * has only a few distinct format strings and formatters, so they are
+     * interned and each cell holds an index.
+     *
+     * <p>{@link #create} and {@link #lookup} return a new CellInfo each time;
+     * changes to it are not stored until {@link #commit} is called.
+     */
+    static class DenseCellInfoContainer implements CellInfoContainer {
+        private static final byte EMPTY = 0;
+        private static final byte NULL = 1;
+        private static final byte DOUBLE = 2;
+        private static final byte ERROR = 3;
+        private static final byte OBJECT = 4;
+
+        private final int[] axisSizes;
+        private final byte[] states;
+        private final double[] doubles;
+        private final int[] formatStrings;
+        private final int[] valueFormatters;
+        private Object[] objects;
+        private Object[] foreColors;
+        private Object[] backColors;
+        private int size;
+
+        /**
+         * Interned format strings and formatters. Entry 0 is null.
+         */
+        private final List<Object> internList = new ArrayList<Object>();
+        private final Map<Object, Integer> internMap =
+            new HashMap<Object, Integer>();
+
+        /**
+         * Creates a DenseCellInfoContainer.
+         *
+         * @param axisSizes Number of positions on each axis; the product
+         *   must not exceed {@link Integer#MAX_VALUE}
+         */
+        DenseCellInfoContainer(int[] axisSizes) {
+            this.axisSizes = axisSizes.clone();
+            int cellCount = 1;
+            for (int axisSize : axisSizes) {
+                cellCount *= axisSize;
+            }
+            this.states = new byte[cellCount];
+            this.doubles = new double[cellCount];
+            this.formatStrings = new int[cellCount];
+            this.valueFormatters = new int[cellCount];
+            this.internList.add(null);
+        }
+
+        public int size() {
+            return size;
+        }
+        public void trimToSize() {
+            // empty
+        }
+        public void clear() {
+            Arrays.fill(states, EMPTY);
+            Arrays.fill(formatStrings, 0);
+            Arrays.fill(valueFormatters, 0);
+            objects = null;
+            foreColors = null;
+            backColors = null;
+            size = 0;
+        }
+        public CellInfo create(int[] pos) {
+            return lookup(pos);
+        }
+        public CellInfo lookup(int[] pos) {
+            final int ordinal = ordinal(pos);
+            final CellInfo ci = new CellInfo(ordinal);
+            if (ordinal < 0) {
+                return ci;
+            }
+            switch (states[ordinal]) {
+            case NULL:
+                ci.value = Util.nullValue;
+                break;
+            case DOUBLE:
+                ci.value = doubles[ordinal];
+                break;
+            case ERROR:
+            case OBJECT:
+                ci.value = objects[ordinal];
+                break;
+            }
+            ci.formatString = (String) internList.get(formatStrings[ordinal]);
+            if (valueFormatters[ordinal] != 0) {
+                ci.valueFormatter =
+                    (ValueFormatter) internList.get(valueFormatters[ordinal]);
+            }
+            if (foreColors != null) {
+                ci.foreColor = foreColors[ordinal];
+            }
+            if (backColors != null) {
+                ci.backColor = backColors[ordinal];
+            }
+            return ci;
+        }
+        public void commit(int[] pos, CellInfo ci) {
+            final int ordinal = ordinal(pos);
+            if (ordinal < 0) {
+                return;
+            }
+            final Object value = ci.value;
+            final byte state;
+            if (value == null) {
+                state = EMPTY;
+            } else if (value == Util.nullValue) {
+                state = NULL;
+            } else if (value.getClass() == Double.class) {
+                doubles[ordinal] = (Double) value;
+                state = DOUBLE;
+            } else {
+                if (objects == null) {
+                    objects = new Object[states.length];
+                }
+                objects[ordinal] = value;
+                state = value instanceof Throwable ? ERROR : OBJECT;
+            }
+            if (state != ERROR && state != OBJECT && objects != null) {
+                objects[ordinal] = null;
+            }
+            if (states[ordinal] == EMPTY && state != EMPTY) {
+                ++size;
+            } else if (states[ordinal] != EMPTY && state == EMPTY) {
+                --size;
+            }
+            states[ordinal] = state;
+            formatStrings[ordinal] = intern(ci.formatString);
+            valueFormatters[ordinal] = intern(ci.valueFormatter);
+            if (ci.foreColor != null && foreColors == null) {
+                foreColors = new Object[states.length];
+            }
+            if (foreColors != null) {
+                foreColors[ordinal] = ci.foreColor;
+            }
+            if (ci.backColor != null && backColors == null) {
+                backColors = new Object[states.length];
+            }
+            if (backColors != null) {
+                backColors[ordinal] = ci.backColor;
+            }
+        }
+
+        /**
+         * Converts a cell position to an index into the arrays, or -1 if the
+         * position is out of range.
+         */
+        private int ordinal(int[] pos) {
+            int ordinal = 0;
+            for (int i = axisSizes.length - 1; i >= 0; i--) {
+                if (pos[i] < 0 || pos[i] >= axisSizes[i]) {
+                    return -1;
+                }
+                ordinal = ordinal * axisSizes[i] + pos[i];
+            }
+            return ordinal;
+        }
+
+        private int intern(Object o) {
+            if (o == null) {
+                return 0;
+            }
+            Integer id = internMap.get(o);
+            if (id == null) {
+                id = internList.size();
+                internList.add(o);
+                internMap.put(o, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Implementation of {@link CellInfoContainer} that wraps another container
+     * and synchronizes every access to it. Used while stripes are being
+     * evaluated in parallel.
+     */
+    static class SynchronizedCellInfoContainer implements CellInfoContainer {
+        private final CellInfoContainer container;
+
+        SynchronizedCellInfoContainer(CellInfoContainer container) {
+            this.container = container;
+        }
+        public synchronized int size() {
+            return container.size();
+        }
+        public synchronized void trimToSize() {
+            container.trimToSize();
+        }
+        public synchronized void clear() {
+            container.clear();
+        }
+        public synchronized CellInfo create(int[] pos) {
+            return container.create(pos);
+        }
+        public synchronized CellInfo lookup(int[] pos) {
+            return container.lookup(pos);
+        }
+        public synchronized void commit(int[] pos, CellInfo ci) {
+            container.commit(pos, ci);
+        }
+    }
+
+    /**
+     * Task that evaluates one stripe of cells in a thread of the
+     * {@link StripePool}. Returns whether the stripe stopped early because
+     * its reader recorded too many requests.
+     */
+    private class StripeTask implements Callable<Boolean> {
+        private final Locus locus;
+        private final List<RolapStar> stars;
+        private final List<RolapStar.Bar> bars;
+        final RolapEvaluator evaluator;
+        private final int[] pos;
+        private final int start;
+        private final int end;
+
+        StripeTask(
+            Locus locus,
+            List<RolapStar> stars,
+            List<RolapStar.Bar> bars,
+            RolapEvaluator evaluator,
+            int[] pos,
+            int start,
+            int end)
+        {
+            this.locus = locus;
+            this.stars = stars;
+            this.bars = bars;
+            this.evaluator = evaluator;
+            this.pos = pos;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Boolean call() {
+            Locus.push(locus);
+            for (int i = 0; i < stars.size(); i++) {
+                stars.get(i).setLocalBar(bars.get(i));
+            }
+            try {
+                executeStripeRange(
+                    axes.length - 1,
+                    evaluator,
+                    pos,
+                    CellKey.Generator.newCellKey(axes.length),
+                    start,
+                    end);
+                return false;
+            } catch (CellRequestQuantumExceededException e) {
+                return true;
+            } finally {
+                // Pool threads are re-used; do not let them hold on to this
+                // statement's segments.
+                for (RolapStar star : stars) {
+                    star.setLocalBar(null);
+                }
+                Locus.pop(locus);
+            }
+        }
+    }
+
+    /**
+     * Holder for the fork-join pool that evaluates stripes. Created on first
+     * use, with parallelism {@link MondrianProperties#StripeParallelism}.
+     */
+    private static class StripePool {
+        static final ForkJoinPool INSTANCE =
+            new ForkJoinPool(
+                Math.max(
+                    2, MondrianProperties.instance().StripeParallelism.get()),
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        final ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                                .newThread(pool);
+                        thread.setName(
+                            "mondrian.rolap.RolapResult$StripePool_"
+                            + thread.getPoolIndex());
+                        return thread;
+                    }
+                },
+                null,
+                false);
     }
 
     static TupleList mergeAxes(
@@ -367,6 +367,15 @@ public class RolapSchema implements Schema {
 
         // Cleanup the agg JDBC cache
         flushJdbcSchema();
+
+        // Queries validated against this schema must not be reused.
+        queryPlanCache.clear();
+
+        // Nor must the results of member SQL against its data source.
+        if (internalConnection != null) {
+            SqlResultCache.instance().flush(
+                internalConnection.getDataSource());
+        }
     }
 
     protected void finalize() throws Throwable {
@@ -1591,6 +1600,16 @@ System.out.println("RolapSchema.createMemberReader: CONTAINS NAME");
         return nativeRegistry;
     }
 
+    private final QueryPlanCache queryPlanCache = new QueryPlanCache();
+
+    /**
+     * Returns the cache of queries that have been parsed, validated and
+     * compiled against this schema.
+     */
+    public QueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
     /**
      * @return Returns the dataSourceChangeListener.
      */
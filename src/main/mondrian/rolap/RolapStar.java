@@ -16,6 +16,7 @@ import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.agg.*;
 import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.rolap.aggmatcher.AggStarIndex;
 import mondrian.rolap.sql.SqlQuery;
 import mondrian.server.Locus;
 import mondrian.spi.*;
@@ -79,6 +80,19 @@ public class RolapStar {
      */
     private final List<AggStar> aggStars = new LinkedList<AggStar>();
 
+    /**
+     * Index over {@link #aggStars}, or null if it needs to be rebuilt because
+     * the list has changed.
+     */
+    private volatile AggStarIndex aggStarIndex;
+
+    /**
+     * Lock held while changing {@link #aggStars} and while building
+     * {@link #aggStarIndex}, so that an index is never built from a list
+     * that is about to change.
+     */
+    private final Object aggStarLock = new Object();
+
     private DataSourceChangeListener changeListener;
 
     // temporary model, should eventually use RolapStar.Table and
@@ -167,6 +181,40 @@ public class RolapStar {
         return null;
     }
 
+    /**
+     * Looks for a cell in the calling thread's local cache, given the values
+     * of its constrained columns rather than a {@link CellRequest}.
+     *
+     * @param measure Measure
+     * @param constrainedColumnsBitKey Constrained columns
+     * @param keys Values of the constrained columns, in bit position order
+     * @param cellKey Workspace with one axis per constrained column
+     * @param pinSet Set into which to pin the segment, or null
+     * @return Cell value, or null if no local segment contains the cell
+     */
+    Object getCellFromCache(
+        Measure measure,
+        BitKey constrainedColumnsBitKey,
+        Object[] keys,
+        CellKey cellKey,
+        RolapAggregationManager.PinSet pinSet)
+    {
+        final Bar bar = localBars.get();
+        for (SegmentWithData segment : Util.GcIterator.over(bar.segmentRefs)) {
+            if (!segment.matches(constrainedColumnsBitKey, measure)) {
+                continue;
+            }
+            Object o = segment.getCellValue(keys, cellKey);
+            if (o != null) {
+                if (pinSet != null) {
+                    ((AggregationManager.PinSetImpl) pinSet).add(segment);
+                }
+                return o;
+            }
+        }
+        return null;
+    }
+
     public Object getCellFromAllCaches(final CellRequest request) {
         // First, try the local/thread cache.
         Object result = getCellFromCache(request, null);
@@ -192,6 +240,33 @@ public class RolapStar {
             new SoftReference<SegmentWithData>(segment));
     }
 
+    /**
+     * Returns a copy of the calling thread's local cache of segments.
+     *
+     * <p>The copy can be installed, using {@link #setLocalBar(Bar)}, in a
+     * worker thread that evaluates part of the same statement, so that the
+     * worker sees the segments that the statement has already loaded.
+     *
+     * @return Copy of the calling thread's local cache
+     */
+    public Bar copyLocalBar() {
+        return new Bar(localBars.get());
+    }
+
+    /**
+     * Installs a local cache of segments in the calling thread. If
+     * <code>bar</code> is null, discards the calling thread's local cache.
+     *
+     * @param bar Local cache, or null
+     */
+    public void setLocalBar(Bar bar) {
+        if (bar == null) {
+            localBars.remove();
+        } else {
+            localBars.set(bar);
+        }
+    }
+
     public RolapStatisticsCache getStatisticsCache() {
         return statisticsCache;
     }
@@ -210,6 +285,20 @@ public class RolapStar {
 
         private final List<SoftReference<SegmentWithData>> segmentRefs =
             new ArrayList<SoftReference<SegmentWithData>>();
+
+        public Bar() {
+        }
+
+        /**
+         * Creates a copy of a Bar. The copy refers to the same segments and
+         * aggregations, but can be modified independently of the original.
+         *
+         * @param bar Bar to copy
+         */
+        public Bar(Bar bar) {
+            aggregations.putAll(bar.aggregations);
+            segmentRefs.addAll(bar.segmentRefs);
+        }
     }
 
     private final ThreadLocal<Bar> localBars =
@@ -421,7 +510,10 @@ public class RolapStar {
      * i.e., this star has some aggstars, then those aggstars are cleared.
      */
     public void prepareToLoadAggregates() {
-        aggStars.clear();
+        synchronized (aggStarLock) {
+            aggStars.clear();
+            aggStarIndex = null;
+        }
     }
 
     /**
@@ -432,6 +524,13 @@ public class RolapStar {
      * ties do not matter.
      */
     public void addAggStar(AggStar aggStar) {
+        synchronized (aggStarLock) {
+            addAggStarInternal(aggStar);
+            aggStarIndex = null;
+        }
+    }
+
+    private void addAggStarInternal(AggStar aggStar) {
         // Add it before the first AggStar which is larger, if there is one.
         int size = aggStar.getSize();
         ListIterator<AggStar> lit = aggStars.listIterator();
@@ -452,7 +551,10 @@ public class RolapStar {
      * Clears the list of agg stars.
      */
     void clearAggStarList() {
-        aggStars.clear();
+        synchronized (aggStarLock) {
+            aggStars.clear();
+            aggStarIndex = null;
+        }
     }
 
     /**
@@ -460,10 +562,13 @@ public class RolapStar {
      * algorithm used to order the AggStars has been changed.
      */
     public void reOrderAggStarList() {
-        List<AggStar> oldList = new ArrayList<AggStar>(aggStars);
-        aggStars.clear();
-        for (AggStar aggStar : oldList) {
-            addAggStar(aggStar);
+        synchronized (aggStarLock) {
+            List<AggStar> oldList = new ArrayList<AggStar>(aggStars);
+            aggStars.clear();
+            for (AggStar aggStar : oldList) {
+                addAggStarInternal(aggStar);
+            }
+            aggStarIndex = null;
         }
     }
 
@@ -475,6 +580,25 @@ public class RolapStar {
         return aggStars;
     }
 
+    /**
+     * Returns an index over this RolapStar's aggregate table AggStars, which
+     * also remembers which AggStar was chosen for each query. Rebuilt when
+     * the list of AggStars changes.
+     */
+    public AggStarIndex getAggStarIndex() {
+        AggStarIndex index = aggStarIndex;
+        if (index == null) {
+            synchronized (aggStarLock) {
+                index = aggStarIndex;
+                if (index == null) {
+                    index = new AggStarIndex(aggStars);
+                    aggStarIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
     /**
      * Returns the fact table at the center of this RolapStar.
      *
@@ -1104,6 +1228,15 @@ public class RolapStar {
             return approxCardinality.get();
         }
 
+        /**
+         * Returns whether the cardinality of this column is known, that is,
+         * whether {@link #getCardinality()} can return without consulting
+         * the statistics cache.
+         */
+        boolean isCardinalityKnown() {
+            return approxCardinality.get() >= 0;
+        }
+
         /**
          * Generates a predicate that a column matches one of a list of values.
          *
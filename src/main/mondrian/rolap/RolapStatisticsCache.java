@@ -10,12 +10,15 @@
 package mondrian.rolap;
 
 import mondrian.olap.MondrianDef;
+import mondrian.olap.Util;
 import mondrian.rolap.sql.SqlQuery;
 import mondrian.server.Execution;
 import mondrian.spi.Dialect;
 import mondrian.spi.StatisticsProvider;
+import mondrian.util.ByteString;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.sql.DataSource;
 
 /**
@@ -23,13 +26,22 @@ import javax.sql.DataSource;
  *
  * <p>Wrapper around a chain of {@link mondrian.spi.StatisticsProvider}s,
  * followed by a cache to store the results.</p>
+ *
+ * <p>The cache may be called from several threads at once; see
+ * {@link FastBatchingCellReader}, which obtains the cardinalities of the
+ * columns of a batch in parallel. If
+ * {@link mondrian.olap.MondrianProperties#StatisticsCacheFile} is set,
+ * statistics are also saved in a {@link RolapStatisticsStore}, and are read
+ * from it rather than from the providers after a restart.</p>
  */
 public class RolapStatisticsCache {
     private final RolapStar star;
-    private final Map<List, Integer> columnMap = new HashMap<List, Integer>();
-    private final Map<List, Integer> tableMap = new HashMap<List, Integer>();
+    private final Map<List, Integer> columnMap =
+        new ConcurrentHashMap<List, Integer>();
+    private final Map<List, Integer> tableMap =
+        new ConcurrentHashMap<List, Integer>();
     private final Map<String, Integer> queryMap =
-        new HashMap<String, Integer>();
+        new ConcurrentHashMap<String, Integer>();
 
     public RolapStatisticsCache(RolapStar star) {
         this.star = star;
@@ -64,6 +76,8 @@ public class RolapStatisticsCache {
         int rowCount = -1;
         if (tableMap.containsKey(key)) {
             rowCount = tableMap.get(key);
+        } else if ((rowCount = getStored("table", key)) >= 0) {
+            tableMap.put(key, rowCount);
         } else {
             final Dialect dialect = star.getSqlQueryDialect();
             final List<StatisticsProvider> statisticsProviders =
@@ -89,6 +103,7 @@ public class RolapStatisticsCache {
             // Note: If all providers fail, we put -1 into the cache, to ensure
             // that we won't try again.
             tableMap.put(key, rowCount);
+            store("table", key, rowCount);
         }
         return rowCount;
     }
@@ -97,6 +112,8 @@ public class RolapStatisticsCache {
         int rowCount = -1;
         if (queryMap.containsKey(sql)) {
             rowCount = queryMap.get(sql);
+        } else if ((rowCount = getStored("query", sql)) >= 0) {
+            queryMap.put(sql, rowCount);
         } else {
             final Dialect dialect = star.getSqlQueryDialect();
             final List<StatisticsProvider> statisticsProviders =
@@ -117,6 +134,7 @@ public class RolapStatisticsCache {
             // Note: If all providers fail, we put -1 into the cache, to ensure
             // that we won't try again.
             queryMap.put(sql, rowCount);
+            store("query", sql, rowCount);
         }
         return rowCount;
     }
@@ -158,6 +176,8 @@ public class RolapStatisticsCache {
         int rowCount = -1;
         if (columnMap.containsKey(key)) {
             rowCount = columnMap.get(key);
+        } else if ((rowCount = getStored("column", key)) >= 0) {
+            columnMap.put(key, rowCount);
         } else {
             final Dialect dialect = star.getSqlQueryDialect();
             final List<StatisticsProvider> statisticsProviders =
@@ -184,10 +204,68 @@ public class RolapStatisticsCache {
             // Note: If all providers fail, we put -1 into the cache, to ensure
             // that we won't try again.
             columnMap.put(key, rowCount);
+            store("column", key, rowCount);
         }
         return rowCount;
     }
 
+    /**
+     * Returns a statistic from the store, or -1 if there is no store, the
+     * database cannot be identified, or the statistic is not in the store.
+     */
+    private int getStored(String kind, Object key) {
+        final RolapStatisticsStore store = RolapStatisticsStore.instance();
+        if (store == null) {
+            return -1;
+        }
+        final String storeKey = storeKey(kind, key);
+        if (storeKey == null) {
+            return -1;
+        }
+        return store.get(storeKey);
+    }
+
+    private void store(String kind, Object key, int rowCount) {
+        final RolapStatisticsStore store = RolapStatisticsStore.instance();
+        if (store == null) {
+            return;
+        }
+        final String storeKey = storeKey(kind, key);
+        if (storeKey != null) {
+            store.put(storeKey, rowCount);
+        }
+    }
+
+    /**
+     * Returns the key of a statistic in the store. Qualified by the
+     * database that the schema reads from, so that one file can hold
+     * statistics for several databases.
+     *
+     * <p>A JDBC URL may contain a user name and password, and the store is a
+     * plain text file, so the database is identified by a SHA-256 hash of
+     * the URL rather than by the URL itself.
+     *
+     * <p>Returns null if the connect string has neither a JDBC URL nor a
+     * data source name, for example if the connection was given a
+     * {@link DataSource} object. Such a database cannot be told apart from
+     * others, so its statistics are not stored.
+     */
+    private String storeKey(String kind, Object key) {
+        final Util.PropertyList connectInfo =
+            star.getSchema().getInternalConnection().getConnectInfo();
+        String database =
+            connectInfo.get(RolapConnectionProperties.Jdbc.name());
+        if (database == null) {
+            database =
+                connectInfo.get(RolapConnectionProperties.DataSource.name());
+        }
+        if (database == null) {
+            return null;
+        }
+        return new ByteString(Util.digestSha256(database))
+            + "|" + kind + "|" + key;
+    }
+
     public int getColumnCardinality2(
         DataSource dataSource,
         Dialect dialect,
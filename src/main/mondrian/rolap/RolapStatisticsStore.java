@@ -0,0 +1,241 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves statistics to a file, so that they survive a restart.
+ *
+ * <p>Each {@link RolapStatisticsCache} consults the store before asking
+ * the statistics providers, and records in it each cardinality they
+ * return. The file is a {@link Properties} file whose values hold the
+ * cardinality and the time it was obtained; entries older than the time to
+ * live are ignored when read.
+ *
+ * <p>The file is given by {@link MondrianProperties#StatisticsCacheFile};
+ * if that property is not set, there is no store.
+ *
+ * <p>The file is not written by the query thread that records a statistic.
+ * Statistics recorded within a second of each other are saved together,
+ * by a background thread; those recorded in the last second before the JVM
+ * exits may be lost, and will be obtained again.
+ *
+ * <p>This class is thread-safe.
+ */
+class RolapStatisticsStore {
+    private static final Logger LOGGER =
+        Logger.getLogger(RolapStatisticsStore.class);
+
+    /** Delay between recording a statistic and saving the file. */
+    private static final long SAVE_DELAY_MILLIS = 1000;
+
+    private static final ScheduledExecutorService SAVE_EXECUTOR =
+        Util.getScheduledExecutorService(
+            1, "mondrian.rolap.RolapStatisticsStore$saveExecutor");
+
+    private static RolapStatisticsStore instance;
+
+    private final File file;
+    private final long timeToLiveMillis;
+    private final Map<String, Entry> map = new HashMap<String, Entry>();
+
+    /** Whether the map has changed since the file was last written. */
+    private boolean dirty;
+
+    /** Whether a save has been scheduled and has not yet started. */
+    private boolean savePending;
+
+    /**
+     * Held while writing the file, so that saves happen one at a time and
+     * a later snapshot is never overwritten by an earlier one.
+     */
+    private final Object saveLock = new Object();
+
+    /**
+     * Creates a RolapStatisticsStore, and reads the entries in the file that
+     * have not expired.
+     *
+     * @param file File
+     * @param timeToLiveMillis Time for which an entry is valid, in
+     *   milliseconds
+     */
+    RolapStatisticsStore(File file, long timeToLiveMillis) {
+        this.file = file;
+        this.timeToLiveMillis = timeToLiveMillis;
+        load();
+    }
+
+    /**
+     * Returns the store configured by mondrian properties, or null if
+     * statistics are not to be saved.
+     */
+    static synchronized RolapStatisticsStore instance() {
+        final String fileName =
+            MondrianProperties.instance().StatisticsCacheFile.get();
+        if (fileName == null || fileName.length() == 0) {
+            return null;
+        }
+        final long timeToLiveMillis =
+            MondrianProperties.instance().StatisticsCacheTimeToLive.get()
+            * 1000L;
+        if (instance == null
+            || !instance.file.getPath().equals(fileName)
+            || instance.timeToLiveMillis != timeToLiveMillis)
+        {
+            instance =
+                new RolapStatisticsStore(new File(fileName), timeToLiveMillis);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a statistic, or -1 if it is not in the store or has expired.
+     *
+     * @param key Key
+     * @return Cardinality, or -1
+     */
+    synchronized int get(String key) {
+        final Entry entry = map.get(key);
+        if (entry == null) {
+            return -1;
+        }
+        if (isExpired(entry.timestamp)) {
+            map.remove(key);
+            return -1;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Records a statistic, and schedules a save of the store.
+     *
+     * @param key Key
+     * @param value Cardinality; ignored if negative
+     */
+    synchronized void put(String key, int value) {
+        if (value < 0) {
+            return;
+        }
+        map.put(key, new Entry(value, System.currentTimeMillis()));
+        dirty = true;
+        if (!savePending) {
+            savePending = true;
+            SAVE_EXECUTOR.schedule(
+                new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                },
+                SAVE_DELAY_MILLIS,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves the store now, if it has changed since it was last saved.
+     */
+    void flush() {
+        synchronized (saveLock) {
+            final Properties properties;
+            synchronized (this) {
+                savePending = false;
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                properties = new Properties();
+                for (Map.Entry<String, Entry> e : map.entrySet()) {
+                    properties.setProperty(
+                        e.getKey(),
+                        e.getValue().value + "," + e.getValue().timestamp);
+                }
+            }
+            save(properties);
+        }
+    }
+
+    private boolean isExpired(long timestamp) {
+        return System.currentTimeMillis() - timestamp > timeToLiveMillis;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not read statistics from " + file, e);
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            final String s = properties.getProperty(key);
+            final int comma = s.indexOf(',');
+            try {
+                final int value = Integer.parseInt(s.substring(0, comma));
+                final long timestamp = Long.parseLong(s.substring(comma + 1));
+                if (!isExpired(timestamp)) {
+                    map.put(key, new Entry(value, timestamp));
+                }
+            } catch (RuntimeException e) {
+                // Malformed entry; ignore it.
+            }
+        }
+    }
+
+    private void save(Properties properties) {
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            final OutputStream out = new FileOutputStream(tmpFile);
+            try {
+                properties.store(out, "Mondrian statistics");
+            } finally {
+                out.close();
+            }
+            Files.move(
+                tmpFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Could not save statistics to " + file, e);
+        }
+    }
+
+    /**
+     * Cardinality and the time it was obtained.
+     */
+    private static class Entry {
+        final int value;
+        final long timestamp;
+
+        Entry(int value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
+
+// End RolapStatisticsStore.java
@@ -26,7 +26,7 @@ public class SmartIncrementalCache<K, V extends Collection> {
     SmartCache<K, V> cache;
 
     public SmartIncrementalCache() {
-        cache = new SoftSmartCache<K, V>();
+        cache = new ConcurrentSmartCache<K, V>(true);
     }
 
     public V put(final K  key, final V value) {
@@ -11,8 +11,8 @@
 
 package mondrian.rolap;
 
+import mondrian.rolap.cache.ConcurrentSmartCache;
 import mondrian.rolap.cache.SmartCache;
-import mondrian.rolap.cache.SoftSmartCache;
 import mondrian.rolap.sql.SqlConstraint;
 import mondrian.util.Pair;
 
@@ -52,7 +52,7 @@ public class SmartMemberListCache <K, V> {
     SmartCache<Pair<K, Object>, V> cache;
 
     public SmartMemberListCache() {
-        cache = new SoftSmartCache<Pair<K, Object>, V>();
+        cache = new ConcurrentSmartCache<Pair<K, Object>, V>(true);
     }
 
     public Object put(K key, SqlConstraint constraint, V value) {
@@ -0,0 +1,338 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.server.monitor.SqlStatementEvent.Purpose;
+
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.sql.DataSource;
+
+/**
+ * Decides when a SQL statement may be executed.
+ *
+ * <p>Each data source has its own pool of
+ * {@link MondrianProperties#QueryLimit} permits, so that a slow database
+ * does not hold up statements against another database. A statement must
+ * hold a permit while it is executing.
+ *
+ * <p>Statements are queued in priority order of their
+ * {@link Purpose}: {@link Purpose#TUPLES} first, then
+ * {@link Purpose#OTHER}, {@link Purpose#DRILL_THROUGH} and
+ * {@link Purpose#CELL_SEGMENT}. Drill-through and segment loads are "bulk"
+ * statements, and may not use the last
+ * {@link MondrianProperties#InteractiveQueryReserve} permits of a pool, so
+ * that member lookups can run while the database is busy loading segments.
+ * Within a priority, permits are shared in turn between the connections that
+ * are waiting, so that one connection issuing many statements does not make
+ * the others wait.
+ */
+public class SqlAdmissionController {
+    private static final SqlAdmissionController INSTANCE =
+        new SqlAdmissionController();
+
+    private final Map<DataSource, Pool> pools =
+        new WeakHashMap<DataSource, Pool>();
+
+    SqlAdmissionController() {
+    }
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return Admission controller
+     */
+    public static SqlAdmissionController instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits until a statement may be executed against a data source, and
+     * returns a permit, which the caller must release when the statement is
+     * closed.
+     *
+     * @param dataSource Data source
+     * @param purpose Purpose of the statement
+     * @param owner Connection that the statement belongs to; statements of
+     *   different owners with the same priority take turns
+     * @return Permit
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Permit acquire(DataSource dataSource, Purpose purpose, Object owner)
+        throws InterruptedException
+    {
+        return getPool(dataSource).acquire(purpose, owner);
+    }
+
+    private synchronized Pool getPool(DataSource dataSource) {
+        Pool pool = pools.get(dataSource);
+        if (pool == null) {
+            final MondrianProperties properties =
+                MondrianProperties.instance();
+            pool =
+                new Pool(
+                    properties.QueryLimit.get(),
+                    properties.InteractiveQueryReserve.get());
+            pools.put(dataSource, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the number of statements waiting for a permit, summed over all
+     * data sources.
+     *
+     * @return Number of statements waiting
+     */
+    public synchronized int getQueuedCount() {
+        int count = 0;
+        for (Pool pool : pools.values()) {
+            count += pool.getQueuedCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of statements holding a permit, summed over all
+     * data sources.
+     *
+     * @return Number of statements admitted
+     */
+    public synchronized int getAdmittedCount() {
+        int count = 0;
+        for (Pool pool : pools.values()) {
+            count += pool.getAdmittedCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the priority of a statement; 0 is the highest.
+     */
+    static int priority(Purpose purpose) {
+        switch (purpose) {
+        case TUPLES:
+            return 0;
+        case OTHER:
+            return 1;
+        case DRILL_THROUGH:
+            return 2;
+        default:
+            return 3;
+        }
+    }
+
+    private static boolean isBulk(int priority) {
+        return priority >= 2;
+    }
+
+    /**
+     * Permits and queues for one data source.
+     */
+    static class Pool {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int limit;
+        private final int bulkLimit;
+        private int admittedCount;
+        private int bulkAdmittedCount;
+        private int queuedCount;
+
+        /** Waiting statements, for each priority, grouped by owner. The
+         * owner at the front of the map is the next to be admitted. */
+        private final List<LinkedHashMap<Object, ArrayDeque<Waiter>>> queues =
+            new ArrayList<LinkedHashMap<Object, ArrayDeque<Waiter>>>();
+
+        /**
+         * Creates a Pool.
+         *
+         * @param limit Maximum number of statements executing
+         * @param reserve Number of permits that bulk statements may not use
+         */
+        Pool(int limit, int reserve) {
+            this.limit = Math.max(limit, 1);
+            this.bulkLimit = Math.max(this.limit - Math.max(reserve, 0), 1);
+            for (int i = 0; i <= priority(Purpose.CELL_SEGMENT); i++) {
+                queues.add(new LinkedHashMap<Object, ArrayDeque<Waiter>>());
+            }
+        }
+
+        Permit acquire(Purpose purpose, Object owner)
+            throws InterruptedException
+        {
+            final int priority = priority(purpose);
+            lock.lock();
+            try {
+                if (!hasWaiters(priority) && canAdmit(priority)) {
+                    admit(priority);
+                    return new Permit(this, priority);
+                }
+                final Waiter waiter = new Waiter(lock.newCondition());
+                enqueue(priority, owner, waiter);
+                try {
+                    while (!waiter.admitted) {
+                        waiter.condition.await();
+                    }
+                } catch (InterruptedException e) {
+                    if (waiter.admitted) {
+                        release(priority);
+                    } else {
+                        dequeue(priority, owner, waiter);
+                    }
+                    throw e;
+                }
+                return new Permit(this, priority);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(int priority) {
+            lock.lock();
+            try {
+                --admittedCount;
+                if (isBulk(priority)) {
+                    --bulkAdmittedCount;
+                }
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getQueuedCount() {
+            lock.lock();
+            try {
+                return queuedCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getAdmittedCount() {
+            lock.lock();
+            try {
+                return admittedCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean hasWaiters(int priority) {
+            for (int i = 0; i <= priority; i++) {
+                if (!queues.get(i).isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean canAdmit(int priority) {
+            return admittedCount < limit
+                && (!isBulk(priority) || bulkAdmittedCount < bulkLimit);
+        }
+
+        private void admit(int priority) {
+            ++admittedCount;
+            if (isBulk(priority)) {
+                ++bulkAdmittedCount;
+            }
+        }
+
+        private void enqueue(int priority, Object owner, Waiter waiter) {
+            final Map<Object, ArrayDeque<Waiter>> queue = queues.get(priority);
+            ArrayDeque<Waiter> waiters = queue.get(owner);
+            if (waiters == null) {
+                waiters = new ArrayDeque<Waiter>();
+                queue.put(owner, waiters);
+            }
+            waiters.add(waiter);
+            ++queuedCount;
+        }
+
+        private void dequeue(int priority, Object owner, Waiter waiter) {
+            final Map<Object, ArrayDeque<Waiter>> queue = queues.get(priority);
+            final ArrayDeque<Waiter> waiters = queue.get(owner);
+            waiters.remove(waiter);
+            if (waiters.isEmpty()) {
+                queue.remove(owner);
+            }
+            --queuedCount;
+            // A waiter of lower priority may have been blocked behind this
+            // one.
+            dispatch();
+        }
+
+        /**
+         * Admits as many waiting statements as permits allow, highest
+         * priority first. A statement is never admitted ahead of a waiting
+         * statement of higher priority.
+         */
+        private void dispatch() {
+            for (int priority = 0; priority < queues.size(); priority++) {
+                final Map<Object, ArrayDeque<Waiter>> queue =
+                    queues.get(priority);
+                while (!queue.isEmpty() && canAdmit(priority)) {
+                    // Take the oldest waiter of the owner at the front, and
+                    // move that owner to the back.
+                    final Map.Entry<Object, ArrayDeque<Waiter>> entry =
+                        queue.entrySet().iterator().next();
+                    final Object owner = entry.getKey();
+                    final ArrayDeque<Waiter> waiters = entry.getValue();
+                    final Waiter waiter = waiters.poll();
+                    queue.remove(owner);
+                    if (!waiters.isEmpty()) {
+                        queue.put(owner, waiters);
+                    }
+                    --queuedCount;
+                    admit(priority);
+                    waiter.admitted = true;
+                    waiter.condition.signal();
+                }
+                if (!queue.isEmpty()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Statement waiting for a permit.
+     */
+    private static class Waiter {
+        final Condition condition;
+        boolean admitted;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * Permission to execute a statement. Must be released, once only, when
+     * the statement has finished.
+     */
+    static class Permit {
+        private final Pool pool;
+        private final int priority;
+
+        Permit(Pool pool, int priority) {
+            this.pool = pool;
+            this.priority = priority;
+        }
+
+        void release() {
+            pool.release(priority);
+        }
+    }
+}
+
+// End SqlAdmissionController.java
@@ -0,0 +1,759 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.SqlStatement.Type;
+import mondrian.util.DelegatingInvocationHandler;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+
+/**
+ * Cache of the results of SQL statements that read members and tuples,
+ * shared by all connections.
+ *
+ * <p>Different connections, and different evaluations of the same native
+ * set, often generate the same SQL. When a {@link SqlStatement} reads all of
+ * the rows of a result, the cache keeps the rows, one array per column, so
+ * that the next statement with the same SQL against the same data source
+ * reads them from memory, without a round trip to the database.
+ *
+ * <p>Columns whose type is {@link Type#INT}, {@link Type#LONG} or
+ * {@link Type#DOUBLE} are held in primitive arrays, with a bit set of the
+ * rows where the value is null.
+ *
+ * <p>The total number of cells is bounded by
+ * {@link MondrianProperties#SqlResultCacheMaxCells}; if the limit is reached,
+ * the least recently used results are discarded. A result is discarded
+ * {@link MondrianProperties#SqlResultCacheTimeout} seconds after it was
+ * read from the database. The results for a data source are also discarded
+ * when members are flushed or modified through
+ * {@link mondrian.olap.CacheControl}, when a schema is flushed, or when a
+ * {@link mondrian.spi.DataSourceChangeListener} reports that a hierarchy has
+ * changed.
+ */
+public class SqlResultCache {
+    private static final SqlResultCache INSTANCE = new SqlResultCache();
+
+    private final Map<Key, Result> map =
+        new LinkedHashMap<Key, Result>(16, 0.75f, true);
+    private long cellCount;
+    private long hitCount;
+    private long missCount;
+
+    /** Incremented each time results are flushed, so that a result which
+     * was being read from the database during a flush is not cached. */
+    private int generation;
+
+    SqlResultCache() {
+    }
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return SQL result cache
+     */
+    public static SqlResultCache instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns whether the cache is enabled.
+     *
+     * @return Whether {@link MondrianProperties#SqlResultCacheMaxCells} is
+     *   positive
+     */
+    public boolean isEnabled() {
+        return MondrianProperties.instance().SqlResultCacheMaxCells.get() > 0;
+    }
+
+    /**
+     * Looks up a result.
+     *
+     * @param key Key
+     * @return Result, or null if not cached or expired
+     */
+    public synchronized Result get(Key key) {
+        final Result result = map.get(key);
+        if (result == null) {
+            ++missCount;
+            return null;
+        }
+        final int timeout =
+            MondrianProperties.instance().SqlResultCacheTimeout.get();
+        if (timeout > 0
+            && System.currentTimeMillis() - result.timestamp
+            > timeout * 1000L)
+        {
+            remove(key);
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return result;
+    }
+
+    /**
+     * Adds a result to the cache, unless the cache has been flushed since
+     * the result was started.
+     *
+     * @param key Key
+     * @param builder Builder containing the rows of the result
+     */
+    synchronized void put(Key key, Builder builder) {
+        final long maxCells =
+            MondrianProperties.instance().SqlResultCacheMaxCells.get();
+        if (builder.generation != generation
+            || builder.cellCount() > maxCells)
+        {
+            return;
+        }
+        remove(key);
+        final Result result = builder.build();
+        map.put(key, result);
+        cellCount += result.cellCount();
+        final Iterator<Result> iterator = map.values().iterator();
+        while (cellCount > maxCells) {
+            cellCount -= iterator.next().cellCount();
+            iterator.remove();
+        }
+    }
+
+    private void remove(Key key) {
+        final Result result = map.remove(key);
+        if (result != null) {
+            cellCount -= result.cellCount();
+        }
+    }
+
+    /**
+     * Removes all results that were read from a given data source.
+     *
+     * @param dataSource Data source
+     */
+    public synchronized void flush(DataSource dataSource) {
+        ++generation;
+        for (Iterator<Map.Entry<Key, Result>> iterator =
+                 map.entrySet().iterator();
+             iterator.hasNext();)
+        {
+            final Map.Entry<Key, Result> entry = iterator.next();
+            if (entry.getKey().dataSource.equals(dataSource)) {
+                cellCount -= entry.getValue().cellCount();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all results.
+     */
+    public synchronized void clear() {
+        ++generation;
+        map.clear();
+        cellCount = 0;
+    }
+
+    /**
+     * Returns the number of results in the cache.
+     *
+     * @return Number of results
+     */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the number of cells in the cache.
+     *
+     * @return Number of cells
+     */
+    public synchronized long getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Returns the number of lookups that found a result.
+     *
+     * @return Number of hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a result.
+     *
+     * @return Number of misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Creates a handler that reads from a JDBC result set, and adds the
+     * rows to the cache if all of them are read.
+     *
+     * @param key Key
+     * @param types Types of the columns
+     * @param resultSet Result set, positioned before the first row to be
+     *   cached
+     * @return Handler
+     */
+    RecordingHandler record(Key key, List<Type> types, ResultSet resultSet) {
+        final Builder builder;
+        synchronized (this) {
+            builder = new Builder(types, generation);
+        }
+        return new RecordingHandler(this, key, builder, resultSet);
+    }
+
+    /**
+     * Returns the value of a cell of a column-wise table, boxed if the
+     * column is of a primitive type.
+     */
+    private static Object get(
+        List<Type> types,
+        Object[] columns,
+        BitSet[] nulls,
+        int row,
+        int column)
+    {
+        switch (types.get(column)) {
+        case INT:
+            return nulls[column].get(row)
+                ? null
+                : (Object) ((int[]) columns[column])[row];
+        case LONG:
+            return nulls[column].get(row)
+                ? null
+                : (Object) ((long[]) columns[column])[row];
+        case DOUBLE:
+            return nulls[column].get(row)
+                ? null
+                : (Object) ((double[]) columns[column])[row];
+        default:
+            return ((Object[]) columns[column])[row];
+        }
+    }
+
+    private static String toString(Object o) {
+        return o == null ? null : o.toString();
+    }
+
+    private static int toInt(Object o) {
+        return o == null
+            ? 0
+            : o instanceof Number
+            ? ((Number) o).intValue()
+            : Integer.parseInt(o.toString());
+    }
+
+    private static long toLong(Object o) {
+        return o == null
+            ? 0L
+            : o instanceof Number
+            ? ((Number) o).longValue()
+            : Long.parseLong(o.toString());
+    }
+
+    private static double toDouble(Object o) {
+        return o == null
+            ? 0D
+            : o instanceof Number
+            ? ((Number) o).doubleValue()
+            : Double.parseDouble(o.toString());
+    }
+
+    /**
+     * Key of a result in a {@link SqlResultCache}.
+     */
+    public static class Key {
+        private final DataSource dataSource;
+        private final String sql;
+        private final List<Type> types;
+        private final int maxRows;
+        private final int firstRowOrdinal;
+
+        /**
+         * Creates a Key.
+         *
+         * @param dataSource Data source
+         * @param sql SQL string
+         * @param types Suggested types of columns, or null
+         * @param maxRows Maximum number of rows, or <= 0 if unlimited
+         * @param firstRowOrdinal Ordinal of first row, or <= 0 to start from
+         *   the beginning
+         */
+        public Key(
+            DataSource dataSource,
+            String sql,
+            List<Type> types,
+            int maxRows,
+            int firstRowOrdinal)
+        {
+            this.dataSource = dataSource;
+            this.sql = sql;
+            this.types = types;
+            this.maxRows = maxRows;
+            this.firstRowOrdinal = firstRowOrdinal;
+        }
+
+        public int hashCode() {
+            int h = Util.hash(sql.hashCode(), dataSource);
+            h = Util.hash(h, types);
+            return Util.hash(Util.hash(h, maxRows), firstRowOrdinal);
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return sql.equals(that.sql)
+                && dataSource.equals(that.dataSource)
+                && Util.equals(types, that.types)
+                && maxRows == that.maxRows
+                && firstRowOrdinal == that.firstRowOrdinal;
+        }
+    }
+
+    /**
+     * Rows of the result of a SQL statement, held as one array per column.
+     */
+    public static class Result {
+        final List<Type> types;
+        private final Object[] columns;
+        private final BitSet[] nulls;
+        final int rowCount;
+        private final long timestamp;
+
+        Result(
+            List<Type> types,
+            Object[] columns,
+            BitSet[] nulls,
+            int rowCount,
+            long timestamp)
+        {
+            this.types = types;
+            this.columns = columns;
+            this.nulls = nulls;
+            this.rowCount = rowCount;
+            this.timestamp = timestamp;
+        }
+
+        long cellCount() {
+            return (long) rowCount * columns.length;
+        }
+
+        /**
+         * Returns the value of a cell, boxed if the column is of a
+         * primitive type.
+         *
+         * @param row Row ordinal, 0-based
+         * @param column Column ordinal, 0-based
+         * @return Value, or null
+         */
+        Object get(int row, int column) {
+            return SqlResultCache.get(types, columns, nulls, row, column);
+        }
+    }
+
+    /**
+     * Accumulates the rows of a result as they are read from the database.
+     */
+    static class Builder {
+        private final List<Type> types;
+        private final int generation;
+        private final Object[] columns;
+        private final BitSet[] nulls;
+        private int rowCount;
+        private int capacity = 16;
+
+        Builder(List<Type> types, int generation) {
+            this.types = types;
+            this.generation = generation;
+            this.columns = new Object[types.size()];
+            this.nulls = new BitSet[types.size()];
+            for (int i = 0; i < columns.length; i++) {
+                switch (types.get(i)) {
+                case INT:
+                    columns[i] = new int[capacity];
+                    nulls[i] = new BitSet();
+                    break;
+                case LONG:
+                    columns[i] = new long[capacity];
+                    nulls[i] = new BitSet();
+                    break;
+                case DOUBLE:
+                    columns[i] = new double[capacity];
+                    nulls[i] = new BitSet();
+                    break;
+                case STRING:
+                    columns[i] = new String[capacity];
+                    break;
+                default:
+                    columns[i] = new Object[capacity];
+                    break;
+                }
+            }
+        }
+
+        long cellCount() {
+            return (long) rowCount * columns.length;
+        }
+
+        /**
+         * Returns the value of a cell that has been added.
+         *
+         * @param row Row ordinal, 0-based
+         * @param column Column ordinal, 0-based
+         * @return Value, or null
+         */
+        Object get(int row, int column) {
+            return SqlResultCache.get(types, columns, nulls, row, column);
+        }
+
+        /**
+         * Adds the current row of a result set.
+         *
+         * @param resultSet Result set
+         * @throws SQLException on error
+         */
+        void add(ResultSet resultSet) throws SQLException {
+            if (rowCount == capacity) {
+                capacity *= 2;
+                resize(capacity);
+            }
+            for (int i = 0; i < columns.length; i++) {
+                switch (types.get(i)) {
+                case INT:
+                    ((int[]) columns[i])[rowCount] = resultSet.getInt(i + 1);
+                    if (resultSet.wasNull()) {
+                        nulls[i].set(rowCount);
+                    }
+                    break;
+                case LONG:
+                    ((long[]) columns[i])[rowCount] = resultSet.getLong(i + 1);
+                    if (resultSet.wasNull()) {
+                        nulls[i].set(rowCount);
+                    }
+                    break;
+                case DOUBLE:
+                    ((double[]) columns[i])[rowCount] =
+                        resultSet.getDouble(i + 1);
+                    if (resultSet.wasNull()) {
+                        nulls[i].set(rowCount);
+                    }
+                    break;
+                case STRING:
+                    ((String[]) columns[i])[rowCount] =
+                        resultSet.getString(i + 1);
+                    break;
+                default:
+                    ((Object[]) columns[i])[rowCount] =
+                        resultSet.getObject(i + 1);
+                    break;
+                }
+            }
+            ++rowCount;
+        }
+
+        private void resize(int length) {
+            for (int i = 0; i < columns.length; i++) {
+                final Object newColumn =
+                    Array.newInstance(
+                        columns[i].getClass().getComponentType(), length);
+                System.arraycopy(
+                    columns[i], 0, newColumn, 0, Math.min(rowCount, length));
+                columns[i] = newColumn;
+            }
+        }
+
+        Result build() {
+            if (rowCount < capacity) {
+                resize(rowCount);
+                capacity = rowCount;
+            }
+            return new Result(
+                types, columns, nulls, rowCount, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Implements {@link ResultSet} by forwarding to a JDBC result set, and
+     * copying each row into a {@link Builder}. When the last row has been
+     * read, adds the result to the cache.
+     *
+     * <p>Each column of a row is read from the JDBC result set only once,
+     * because some drivers do not allow a column to be read twice. While a
+     * row is being recorded, {@code getObject}, {@code getString},
+     * {@code getInt}, {@code getLong}, {@code getDouble}, {@code wasNull}
+     * and the accessors created by {@link #createAccessor} return the
+     * recorded values; after recording stops, they read from the JDBC result
+     * set.
+     */
+    // must be public for reflection to work
+    public static class RecordingHandler extends DelegatingInvocationHandler {
+        private final SqlResultCache cache;
+        private final Key key;
+        private Builder builder;
+        private final ResultSet resultSet;
+
+        /** Ordinal of the current row in {@link #builder}, or -1 if the
+         * current row was not recorded. */
+        private int row = -1;
+        private boolean wasNull;
+
+        RecordingHandler(
+            SqlResultCache cache,
+            Key key,
+            Builder builder,
+            ResultSet resultSet)
+        {
+            this.cache = cache;
+            this.key = key;
+            this.builder = builder;
+            this.resultSet = resultSet;
+        }
+
+        protected Object getTarget() {
+            return resultSet;
+        }
+
+        /**
+         * Creates a result set that reads from this handler.
+         *
+         * @return Result set
+         */
+        ResultSet createResultSet() {
+            return (ResultSet) Proxy.newProxyInstance(
+                null,
+                new Class<?>[] {ResultSet.class},
+                this);
+        }
+
+        /**
+         * Creates an accessor for a column, which returns the recorded value
+         * of the current row, or calls an accessor that reads from the JDBC
+         * result set if the row was not recorded.
+         *
+         * @param column Column ordinal, 0-based
+         * @param accessor Accessor that reads from the JDBC result set
+         * @return Accessor
+         */
+        SqlStatement.Accessor createAccessor(
+            final int column,
+            final SqlStatement.Accessor accessor)
+        {
+            return new SqlStatement.Accessor() {
+                public Object get() throws SQLException {
+                    if (row < 0) {
+                        return accessor.get();
+                    }
+                    return builder.get(row, column);
+                }
+            };
+        }
+
+        private Object get(int column) {
+            final Object o = builder.get(row, column - 1);
+            wasNull = o == null;
+            return o;
+        }
+
+        /**
+         * Helper method to implement {@link java.sql.ResultSet#next()}.
+         *
+         * @return Whether there is another row
+         * @throws SQLException on error
+         */
+        public boolean next() throws SQLException {
+            final boolean next = resultSet.next();
+            row = -1;
+            if (builder != null) {
+                if (!next) {
+                    cache.put(key, builder);
+                    builder = null;
+                } else if (builder.cellCount()
+                    >= MondrianProperties.instance().SqlResultCacheMaxCells
+                    .get())
+                {
+                    // Too big to cache. Stop recording.
+                    builder = null;
+                } else {
+                    builder.add(resultSet);
+                    row = builder.rowCount - 1;
+                }
+            }
+            return next;
+        }
+
+        public Object getObject(int column) throws SQLException {
+            return row < 0 ? resultSet.getObject(column) : get(column);
+        }
+
+        public String getString(int column) throws SQLException {
+            return row < 0
+                ? resultSet.getString(column)
+                : SqlResultCache.toString(get(column));
+        }
+
+        public int getInt(int column) throws SQLException {
+            return row < 0 ? resultSet.getInt(column) : toInt(get(column));
+        }
+
+        public long getLong(int column) throws SQLException {
+            return row < 0 ? resultSet.getLong(column) : toLong(get(column));
+        }
+
+        public double getDouble(int column) throws SQLException {
+            return row < 0
+                ? resultSet.getDouble(column)
+                : toDouble(get(column));
+        }
+
+        public boolean wasNull() throws SQLException {
+            return row < 0 ? resultSet.wasNull() : wasNull;
+        }
+    }
+
+    /**
+     * Implements {@link ResultSet} by reading the rows of a cached
+     * {@link Result}.
+     *
+     * <p>Supports the methods used to read members and tuples: {@code next},
+     * {@code getObject}, {@code getString}, {@code getInt}, {@code getLong},
+     * {@code getDouble}, {@code wasNull}, {@code getMetaData} (for the
+     * column count) and {@code close}; other methods throw
+     * {@link UnsupportedOperationException}.
+     */
+    // must be public for reflection to work
+    public static class CachedResultSetHandler
+        extends DelegatingInvocationHandler
+    {
+        private final Result result;
+        private int row = -1;
+        private boolean wasNull;
+
+        /**
+         * Creates a CachedResultSetHandler.
+         *
+         * @param result Cached result
+         */
+        CachedResultSetHandler(Result result) {
+            this.result = result;
+        }
+
+        /**
+         * Creates a result set that reads from this handler.
+         *
+         * @return Result set
+         */
+        ResultSet createResultSet() {
+            return (ResultSet) Proxy.newProxyInstance(
+                null,
+                new Class<?>[] {ResultSet.class},
+                this);
+        }
+
+        /**
+         * Creates an accessor for a column, which reads the cached value
+         * directly rather than via the result set.
+         *
+         * @param column Column ordinal, 0-based
+         * @return Accessor
+         */
+        SqlStatement.Accessor createAccessor(final int column) {
+            return new SqlStatement.Accessor() {
+                public Object get() {
+                    return result.get(row, column);
+                }
+            };
+        }
+
+        private Object get(int column) throws SQLException {
+            if (row < 0 || row >= result.rowCount) {
+                throw new SQLException("No current row");
+            }
+            final Object o = result.get(row, column - 1);
+            wasNull = o == null;
+            return o;
+        }
+
+        public boolean next() {
+            if (row < result.rowCount) {
+                ++row;
+            }
+            return row < result.rowCount;
+        }
+
+        public Object getObject(int column) throws SQLException {
+            return get(column);
+        }
+
+        public String getString(int column) throws SQLException {
+            return SqlResultCache.toString(get(column));
+        }
+
+        public int getInt(int column) throws SQLException {
+            return toInt(get(column));
+        }
+
+        public long getLong(int column) throws SQLException {
+            return toLong(get(column));
+        }
+
+        public double getDouble(int column) throws SQLException {
+            return toDouble(get(column));
+        }
+
+        public boolean wasNull() {
+            return wasNull;
+        }
+
+        public ResultSetMetaData getMetaData() {
+            return (ResultSetMetaData) Proxy.newProxyInstance(
+                null,
+                new Class<?>[] {ResultSetMetaData.class},
+                new MetaDataHandler(result.types.size()));
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * Implements the {@link ResultSetMetaData#getColumnCount()} method of a
+     * cached result.
+     */
+    // must be public for reflection to work
+    public static class MetaDataHandler extends DelegatingInvocationHandler {
+        private final int columnCount;
+
+        MetaDataHandler(int columnCount) {
+            this.columnCount = columnCount;
+        }
+
+        public int getColumnCount() {
+            return columnCount;
+        }
+    }
+}
+
+// End SqlResultCache.java
@@ -27,7 +27,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.sql.DataSource;
@@ -67,9 +66,6 @@ public class SqlStatement {
     // used for SQL logging, allows for a SQL Statement UID
     private static final AtomicLong ID_GENERATOR = new AtomicLong();
 
-    private static final Semaphore querySemaphore = new Semaphore(
-        MondrianProperties.instance().QueryLimit.get(), true);
-
     private final DataSource dataSource;
     private Connection jdbcConnection;
     private ResultSet resultSet;
@@ -80,7 +76,9 @@ public class SqlStatement {
     private final Locus locus;
     private final int resultSetType;
     private final int resultSetConcurrency;
-    private boolean haveSemaphore;
+    private SqlAdmissionController.Permit permit;
+    private ResultSet recordingResultSet;
+    private boolean cached;
     public int rowCount;
     private long startTimeNanos;
     private long startTimeMillis;
@@ -134,6 +132,20 @@ public class SqlStatement {
     public void execute() {
         assert state == State.FRESH : "cannot re-execute";
         state = State.ACTIVE;
+        SqlResultCache.Key cacheKey = null;
+        if (getPurpose() == Purpose.TUPLES
+            && SqlResultCache.instance().isEnabled())
+        {
+            cacheKey =
+                new SqlResultCache.Key(
+                    dataSource, sql, types, maxRows, firstRowOrdinal);
+            final SqlResultCache.Result result =
+                SqlResultCache.instance().get(cacheKey);
+            if (result != null) {
+                executeCached(result);
+                return;
+            }
+        }
         Counters.SQL_STATEMENT_EXECUTE_COUNT.incrementAndGet();
         Counters.SQL_STATEMENT_EXECUTING_IDS.add(id);
         String status = "failed";
@@ -143,8 +155,9 @@ public class SqlStatement {
             locus.execution.checkCancelOrTimeout();
 
             this.jdbcConnection = dataSource.getConnection();
-            querySemaphore.acquire();
-            haveSemaphore = true;
+            permit =
+                SqlAdmissionController.instance().acquire(
+                    dataSource, getPurpose(), getOwner());
             // Trace start of execution.
             if (RolapUtil.SQL_LOGGER.isDebugEnabled()) {
                 StringBuilder sqllog = new StringBuilder();
@@ -268,9 +281,25 @@ public class SqlStatement {
             // return something daft like a BigDecimal (does, on the Oracle JDBC
             // driver).
             accessors.clear();
-            for (Type type : guessTypes()) {
+            final List<Type> guessedTypes = guessTypes();
+            for (Type type : guessedTypes) {
                 accessors.add(createAccessor(accessors.size(), type));
             }
+
+            // If all rows are read, keep them for the next statement with
+            // the same SQL.
+            // Columns are read once, by the recorder; accessors return the
+            // recorded values.
+            if (cacheKey != null && state == State.ACTIVE) {
+                final SqlResultCache.RecordingHandler handler =
+                    SqlResultCache.instance().record(
+                        cacheKey, guessedTypes, resultSet);
+                recordingResultSet = handler.createResultSet();
+                for (int i = 0; i < accessors.size(); i++) {
+                    accessors.set(
+                        i, handler.createAccessor(i, accessors.get(i)));
+                }
+            }
         } catch (Throwable e) {
             status = ", failed (" + e + ")";
 
@@ -290,6 +319,29 @@ public class SqlStatement {
         }
     }
 
+    /**
+     * Serves the rows of this statement from the SQL result cache, without
+     * accessing the database.
+     *
+     * @param result Cached result
+     */
+    private void executeCached(SqlResultCache.Result result) {
+        cached = true;
+        startTimeMillis = System.currentTimeMillis();
+        final SqlResultCache.CachedResultSetHandler handler =
+            new SqlResultCache.CachedResultSetHandler(result);
+        resultSet = handler.createResultSet();
+        accessors.clear();
+        for (int i = 0; i < result.types.size(); i++) {
+            accessors.add(handler.createAccessor(i));
+        }
+        if (RolapUtil.SQL_LOGGER.isDebugEnabled()) {
+            RolapUtil.SQL_LOGGER.debug(
+                id + ": " + locus.component + ": reading cached result of sql ["
+                + sql + "]");
+        }
+    }
+
     /**
      * Closes all resources (statement, result set) held by this
      * SqlStatement.
@@ -308,9 +360,18 @@ public class SqlStatement {
         }
         state = State.CLOSED;
 
-        if (haveSemaphore) {
-            haveSemaphore = false;
-            querySemaphore.release();
+        if (cached) {
+            // No JDBC resources to close, and no statement was executed.
+            resultSet = null;
+            executor.shutdown();
+            RolapUtil.SQL_LOGGER.debug(
+                id + ": cached, " + rowCount + " rows");
+            return;
+        }
+
+        if (permit != null) {
+            permit.release();
+            permit = null;
         }
 
         // According to the JDBC spec, closing a statement automatically closes
@@ -319,6 +380,7 @@ public class SqlStatement {
         // explicitly.
         SQLException ex = Util.close(resultSet, null, jdbcConnection);
         resultSet = null;
+        recordingResultSet = null;
         jdbcConnection = null;
 
         if (!executor.isShutdown()) {
@@ -380,7 +442,7 @@ public class SqlStatement {
     }
 
     public ResultSet getResultSet() {
-        return resultSet;
+        return recordingResultSet != null ? recordingResultSet : resultSet;
     }
 
     /**
@@ -507,6 +569,18 @@ public class SqlStatement {
         }
     }
 
+    /**
+     * Returns the connection that this statement is executing on behalf of,
+     * or null.
+     */
+    private Object getOwner() {
+        final mondrian.server.Statement statement =
+            locus.execution.getMondrianStatement();
+        return statement == null
+            ? null
+            : statement.getMondrianConnection();
+    }
+
     private int getCellRequestCount() {
         if (locus instanceof StatementLocus) {
             return ((StatementLocus) locus).cellRequestCount;
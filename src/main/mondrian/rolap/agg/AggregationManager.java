@@ -16,6 +16,7 @@ import mondrian.olap.*;
 import mondrian.rolap.*;
 import mondrian.rolap.SqlStatement.Type;
 import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.rolap.aggmatcher.AggStarIndex;
 import mondrian.server.Locus;
 import mondrian.util.Pair;
 
@@ -338,12 +339,37 @@ public class AggregationManager extends RolapAggregationManager {
      * @param rollup Out parameter, is set to true if the aggregate is not
      *   an exact match
      * @return An aggregate, or null if none is suitable.
+     *
+     * @see RolapStar#getAggStarIndex()
      */
     public static AggStar findAgg(
         RolapStar star,
         final BitKey levelBitKey,
         final BitKey measureBitKey,
         boolean[] rollup)
+    {
+        assert rollup != null;
+        final AggStarIndex index = star.getAggStarIndex();
+        final AggStarIndex.Choice choice =
+            index.getChoice(levelBitKey, measureBitKey);
+        if (choice != null) {
+            if (choice.aggStar != null) {
+                rollup[0] = choice.rollup;
+            }
+            return choice.aggStar;
+        }
+        final AggStar aggStar =
+            findAgg(star, index, levelBitKey, measureBitKey, rollup);
+        index.putChoice(levelBitKey, measureBitKey, aggStar, rollup[0]);
+        return aggStar;
+    }
+
+    private static AggStar findAgg(
+        RolapStar star,
+        AggStarIndex index,
+        final BitKey levelBitKey,
+        final BitKey measureBitKey,
+        boolean[] rollup)
     {
         // If there is no distinct count measure, isDistinct == false,
         // then all we want is an AggStar whose BitKey is a superset
@@ -354,7 +380,6 @@ public class AggregationManager extends RolapAggregationManager {
         // whose measure BitKey is a superset of the measure BitKey,
         // whose level BitKey is an exact match and the aggregate table
         // can NOT have any foreign keys.
-        assert rollup != null;
         BitKey fullBitKey = levelBitKey.or(measureBitKey);
 
         // a levelBitKey with all parent bits set.
@@ -362,12 +387,10 @@ public class AggregationManager extends RolapAggregationManager {
             star, levelBitKey.copy());
 
         // The AggStars are already ordered from smallest to largest so
-        // we need only find the first one and return it.
-        for (AggStar aggStar : star.getAggStars()) {
-            // superset match
-            if (!aggStar.superSetMatch(fullBitKey)) {
-                continue;
-            }
+        // we need only find the first one and return it. The index returns
+        // only the superset matches, in the same order.
+        for (AggStar aggStar : index.getSuperSets(fullBitKey)) {
+            assert aggStar.superSetMatch(fullBitKey);
             boolean isDistinct = measureBitKey.intersects(
                 aggStar.getDistinctMeasureBitKey());
 
@@ -304,6 +304,27 @@ public class Segment {
             && matchesInternal(aggregationKey);
     }
 
+    /**
+     * Returns whether this segment has a given measure, constrained columns,
+     * and no compound predicates. Equivalent to
+     * {@link #matches(AggregationKey, mondrian.rolap.RolapStar.Measure)}
+     * for a request without compound predicates, but does not require an
+     * {@link AggregationKey}.
+     *
+     * @param constrainedColumnsBitKey Constrained columns
+     * @param measure Measure
+     * @return Whether this segment matches
+     */
+    public boolean matches(
+        BitKey constrainedColumnsBitKey,
+        RolapStar.Measure measure)
+    {
+        return this.measure == measure
+            && compoundPredicateList != null
+            && compoundPredicateList.isEmpty()
+            && this.constrainedColumnsBitKey.equals(constrainedColumnsBitKey);
+    }
+
     private boolean matchesInternal(AggregationKey aggKey) {
         return
             constrainedColumnsBitKey.equals(
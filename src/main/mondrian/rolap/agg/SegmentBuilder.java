@@ -99,6 +99,43 @@ public class SegmentBuilder {
         return dataSet;
     }
 
+    /**
+     * Creates a dense segment body from an array of native values.
+     *
+     * <p>Used by {@link SegmentCache} implementations that store segment
+     * bodies in their own format, and need to re-create the bodies when they
+     * are read.</p>
+     *
+     * @param values Cell values; a <code>double[]</code> or
+     *     <code>int[]</code>
+     * @param nullValues Null value indicators
+     * @param axisValueSets Values of each axis
+     * @param nullAxisFlags Whether each axis contains the null value
+     * @return Segment body
+     */
+    public static SegmentBody createDenseNativeBody(
+        Object values,
+        BitSet nullValues,
+        SortedSet<Comparable>[] axisValueSets,
+        boolean[] nullAxisFlags)
+    {
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (int i = 0; i < axisValueSets.length; i++) {
+            axes.add(Pair.of(axisValueSets[i], nullAxisFlags[i]));
+        }
+        if (values instanceof double[]) {
+            return new DenseDoubleSegmentBody(
+                nullValues, (double[]) values, axes);
+        } else if (values instanceof int[]) {
+            return new DenseIntSegmentBody(
+                nullValues, (int[]) values, axes);
+        } else {
+            throw Util.newInternal(
+                "Unknown value array type: " + values.getClass());
+        }
+    }
+
     /**
      * Creates a segment from a SegmentHeader. The star,
      * constrainedColsBitKey, constrainedColumns and measure arguments are a
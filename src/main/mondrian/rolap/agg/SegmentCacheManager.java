@@ -25,6 +25,7 @@ import org.apache.log4j.Logger;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Active object that maintains the "global cache" (in JVM, but shared between
@@ -42,7 +43,8 @@ import java.util.concurrent.*;
  *
  * <p>1. Create variant of actor that processes all requests synchronously,
  * and does not need a thread. This would be a more 'embedded' mode of operation
- * (albeit with worse scale-out).</p>
+ * (albeit with worse scale-out). (Done; see {@link SynchronousActor} and
+ * {@link MondrianProperties#SegmentCacheManagerSynchronous}.)</p>
  *
  * <p>2. Move functionality into AggregationManager?</p>
  *
@@ -208,7 +210,12 @@ import java.util.concurrent.*;
  */
 public class SegmentCacheManager {
     private final Handler handler = new Handler();
-    private final Actor ACTOR;
+    private final AbstractActor ACTOR;
+
+    /**
+     * Thread on which the actor processes commands and events, or null if
+     * the actor is synchronous.
+     */
     public final Thread thread;
     private final Set<String> starFactTablesToSync;
 
@@ -277,17 +284,38 @@ public class SegmentCacheManager {
     public final SegmentCache compositeCache;
     private final SegmentCacheIndexRegistry indexRegistry;
 
+    /**
+     * Load time, size and hit count of each segment. The local segment cache
+     * uses them to decide which segments to evict.
+     */
+    public final SegmentStatistics statistics = new SegmentStatistics();
+
+    /**
+     * Segments rolled up in memory, in the background, at granularities that
+     * queries often roll up to.
+     */
+    public final VirtualAggregateManager virtualAggregates =
+        new VirtualAggregateManager(this);
+
     private static final Logger LOGGER =
         Logger.getLogger(AggregationManager.class);
     private final MondrianServer server;
 
     public SegmentCacheManager(MondrianServer server) {
         this.server = server;
-        ACTOR = new Actor();
-        thread = new Thread(
-            ACTOR, "mondrian.rolap.agg.SegmentCacheManager$ACTOR");
-        thread.setDaemon(true);
-        thread.start();
+        if (MondrianProperties.instance().SegmentCacheManagerSynchronous
+            .get())
+        {
+            ACTOR = new SynchronousActor();
+            thread = null;
+        } else {
+            final Actor actor = new Actor();
+            ACTOR = actor;
+            thread = new Thread(
+                actor, "mondrian.rolap.agg.SegmentCacheManager$ACTOR");
+            thread.setDaemon(true);
+            thread.start();
+        }
 
         // Create the index registry.
         this.indexRegistry = new SegmentCacheIndexRegistry();
@@ -296,7 +324,8 @@ public class SegmentCacheManager {
         if (!MondrianProperties.instance().DisableLocalSegmentCache.get()
             && !MondrianProperties.instance().DisableCaching.get())
         {
-            final MemorySegmentCache cache = new MemorySegmentCache();
+            final MemorySegmentCache cache =
+                new MemorySegmentCache(statistics);
             segmentCacheWorkers.add(
                 new SegmentCacheWorker(cache, thread));
         }
@@ -313,7 +342,9 @@ public class SegmentCacheManager {
                 new AsyncCacheListener(this, server));
         }
 
-        compositeCache = new CompositeSegmentCache(segmentCacheWorkers);
+        compositeCache =
+            new CompositeSegmentCache(
+                segmentCacheWorkers, statistics, virtualAggregates);
         // sync elements already in external cache:
         // we're not able to have indexes at this point,
         // have to wait until the schema has been loaded
@@ -522,6 +553,18 @@ public class SegmentCacheManager {
         execute(new ShutdownCommand());
         cacheExecutor.shutdown();
         sqlExecutor.shutdown();
+        virtualAggregates.shutdown();
+    }
+
+    /**
+     * Returns the body of a segment from the caches, without recording a hit.
+     * For reads that are not on behalf of a query.
+     *
+     * @param header Segment header
+     * @return Segment body, or null
+     */
+    SegmentBody peekBody(SegmentHeader header) {
+        return ((CompositeSegmentCache) compositeCache).peek(header);
     }
 
     public SegmentBuilder.SegmentConverter getConverter(
@@ -542,8 +585,9 @@ public class SegmentCacheManager {
      * Makes a quick request to the aggregation manager to see whether the
      * cell value required by a particular cell request is in external cache.
      *
-     * <p>'Quick' is relative. It is an asynchronous request (due to
-     * the aggregation manager being an actor) and therefore somewhat slow. If
+     * <p>The lookup runs on the calling thread, concurrently with other
+     * lookups, unless the star has a data source change listener, in which
+     * case it is an asynchronous request to the actor. If
      * the segment is in cache, will save batching up future requests and
      * re-executing the query. Win should be particularly noticeable for queries
      * running on a populated cache. Without this feature, every query would
@@ -559,9 +603,17 @@ public class SegmentCacheManager {
      * @return Segment with data, or null if not in cache
      */
     public SegmentWithData peek(final CellRequest request) {
-        final SegmentCacheManager.PeekResponse response =
-            execute(
-                new PeekCommand(request, Locus.peek()));
+        final PeekCommand command = new PeekCommand(request, Locus.peek());
+        final SegmentCacheManager.PeekResponse response;
+        if (request.getMeasure().getStar().getChangeListener() == null) {
+            // The index allows concurrent lookups, so there is no need to
+            // queue behind other commands on the actor.
+            response = command.call();
+        } else {
+            // The change listener may cause segments to be removed from the
+            // index, which only the actor may do.
+            response = execute(command);
+        }
         for (SegmentHeader header : response.headerMap.keySet()) {
             final SegmentBody body = compositeCache.get(header);
             if (body != null) {
@@ -988,11 +1040,39 @@ public class SegmentCacheManager {
         public abstract void acceptWithoutResponse(Visitor visitor);
     }
 
+    /**
+     * Processes commands and events one at a time.
+     */
+    private static abstract class AbstractActor {
+        /**
+         * Processes a command, and returns its result.
+         */
+        abstract <T> T execute(Handler handler, Command<T> command);
+
+        /**
+         * Processes an event. May return before the event has been processed.
+         */
+        abstract void event(Handler handler, Event event);
+
+        /**
+         * Rethrows an exception thrown by a command.
+         */
+        static RuntimeException rethrow(Throwable e) {
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            } else {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * Copy-pasted from {@link mondrian.server.monitor.Monitor}. Consider
      * abstracting common code.
      */
-    private static class Actor implements Runnable {
+    private static class Actor extends AbstractActor implements Runnable {
 
         private final BlockingQueue<Pair<Handler, Message>> eventQueue =
             new ArrayBlockingQueue<Pair<Handler, Message>>(1000);
@@ -1065,13 +1145,7 @@ public class SegmentCacheManager {
                 final Pair<Object, Throwable> pair =
                     responseMap.get(command);
                 if (pair.right != null) {
-                    if (pair.right instanceof RuntimeException) {
-                        throw (RuntimeException) pair.right;
-                    } else if (pair.right instanceof Error) {
-                        throw (Error) pair.right;
-                    } else {
-                        throw new RuntimeException(pair.right);
-                    }
+                    throw rethrow(pair.right);
                 } else {
                     return (T) pair.left;
                 }
@@ -1089,6 +1163,97 @@ public class SegmentCacheManager {
         }
     }
 
+    /**
+     * Actor that processes each command on the thread that submits it,
+     * rather than on a dedicated thread. Removes the cost of handing off
+     * to another thread, at the expense of throughput when there are many
+     * concurrent clients.
+     *
+     * <p>Commands are serialized by a lock, as they would be by the queue of
+     * an asynchronous actor. An event does not wait for the lock: it is
+     * queued, and processed by whichever thread next holds the lock, before
+     * that thread releases it. (An event raised while processing a command is
+     * processed after the command completes, as it would be by an
+     * asynchronous actor. And a SQL thread that reports a segment load never
+     * blocks waiting for a command that is waiting for it.)</p>
+     */
+    private static class SynchronousActor extends AbstractActor {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Queue<Pair<Handler, Event>> eventQueue =
+            new ConcurrentLinkedQueue<Pair<Handler, Event>>();
+
+        <T> T execute(Handler handler, Command<T> command) {
+            lock.lock();
+            try {
+                processEvents();
+                Locus.push(command.getLocus());
+                try {
+                    return command.call();
+                } catch (PleaseShutdownException e) {
+                    return null;
+                } catch (Throwable e) {
+                    throw rethrow(e);
+                } finally {
+                    Locus.pop(command.getLocus());
+                }
+            } finally {
+                try {
+                    processEvents();
+                } finally {
+                    lock.unlock();
+                }
+                drain();
+            }
+        }
+
+        void event(Handler handler, Event event) {
+            eventQueue.add(Pair.of(handler, event));
+            drain();
+        }
+
+        /**
+         * Processes queued events if no other thread holds the lock. Checks
+         * again after releasing the lock, in case an event arrived while
+         * another thread was failing to acquire it.
+         */
+        private void drain() {
+            while (!eventQueue.isEmpty() && lock.tryLock()) {
+                try {
+                    processEvents();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Processes queued events. Must hold the lock. Does nothing if this
+         * thread is within a nested command.
+         */
+        private void processEvents() {
+            if (lock.getHoldCount() > 1) {
+                return;
+            }
+            for (;;) {
+                final Pair<Handler, Event> entry = eventQueue.poll();
+                if (entry == null) {
+                    return;
+                }
+                try {
+                    entry.right.acceptWithoutResponse(entry.left);
+
+                    // Broadcast the event to anyone who is interested.
+                    RolapUtil.MONITOR_LOGGER.debug(entry.right);
+                } catch (Throwable e) {
+                    // Nobody waits for an event, so there is nobody to
+                    // rethrow to; log, and carry on with the next one.
+                    LOGGER.error("Error while processing " + entry.right, e);
+                }
+            }
+        }
+    }
+
     private static class SegmentLoadSucceededEvent extends Event {
         private final SegmentHeader header;
         private final SegmentBody body;
@@ -1361,15 +1526,55 @@ public class SegmentCacheManager {
      * was removed from any of them.) This class just does what seems
      * most typical. If you want another behavior for a particular operation,
      * operate on the workers directly.</p>
+     *
+     * <p>Virtual aggregates are read and removed through this cache too, but
+     * are not listed by {@link #getSegmentHeaders()}.</p>
      */
     static class CompositeSegmentCache implements SegmentCache {
         final List<SegmentCacheWorker> workers;
+        final SegmentStatistics statistics;
+        final VirtualAggregateManager virtualAggregates;
 
-        public CompositeSegmentCache(List<SegmentCacheWorker> workers) {
+        public CompositeSegmentCache(
+            List<SegmentCacheWorker> workers,
+            SegmentStatistics statistics,
+            VirtualAggregateManager virtualAggregates)
+        {
             this.workers = workers;
+            this.statistics = statistics;
+            this.virtualAggregates = virtualAggregates;
         }
 
         public SegmentBody get(SegmentHeader header) {
+            // Record the hit first, so that a cache which ranks its segments
+            // by hit count (see MemorySegmentCache.EvictionPolicy.COST)
+            // includes this hit in the priority it computes during the
+            // lookup. A request for a segment that is no longer in any cache
+            // still counts, because the segment will be loaded again.
+            statistics.recordHit(header);
+            return get(header, true);
+        }
+
+        /**
+         * Returns the body of a segment, like {@link #get(SegmentHeader)},
+         * but without recording a hit or a use of a virtual aggregate. For
+         * reads that are not on behalf of a query.
+         *
+         * @param header Segment header
+         * @return Segment body, or null
+         */
+        SegmentBody peek(SegmentHeader header) {
+            return get(header, false);
+        }
+
+        private SegmentBody get(SegmentHeader header, boolean use) {
+            final SegmentBody virtualBody =
+                use
+                    ? virtualAggregates.get(header)
+                    : virtualAggregates.peek(header);
+            if (virtualBody != null) {
+                return virtualBody;
+            }
             for (SegmentCacheWorker worker : workers) {
                 final SegmentBody body = worker.get(header);
                 if (body != null) {
@@ -1408,6 +1613,9 @@ public class SegmentCacheManager {
             if (MondrianProperties.instance().DisableCaching.get()) {
                 return true;
             }
+            // A segment loaded afresh supersedes any virtual aggregate with
+            // the same header.
+            virtualAggregates.remove(header);
             for (SegmentCacheWorker worker : workers) {
                 worker.put(header, body);
             }
@@ -1415,7 +1623,8 @@ public class SegmentCacheManager {
         }
 
         public boolean remove(SegmentHeader header) {
-            boolean result = false;
+            statistics.remove(header);
+            boolean result = virtualAggregates.remove(header);
             for (SegmentCacheWorker worker : workers) {
                 if (worker.remove(header)) {
                     result = true;
@@ -1587,17 +1796,21 @@ public class SegmentCacheManager {
                 "SegmentCacheManager.SegmentCacheIndexRegistry.getIndex:"
                 + System.identityHashCode(star));
 
-            if (!indexes.containsKey(star.getSchema().getChecksum())) {
-                final SegmentCacheIndexImpl index =
-                    new SegmentCacheIndexImpl(thread);
-                LOGGER.trace(
-                    "SegmentCacheManager.SegmentCacheIndexRegistry.getIndex:"
-                    + "Creating New Index "
-                    + System.identityHashCode(index));
-                indexes.put(star.getSchema().getChecksum(), index);
+            // Lookups call this method from query threads, so check and
+            // create atomically.
+            final SegmentCacheIndex index;
+            synchronized (indexes) {
+                if (!indexes.containsKey(star.getSchema().getChecksum())) {
+                    final SegmentCacheIndexImpl newIndex =
+                        new SegmentCacheIndexImpl(thread);
+                    LOGGER.trace(
+                        "SegmentCacheManager.SegmentCacheIndexRegistry"
+                        + ".getIndex:Creating New Index "
+                        + System.identityHashCode(newIndex));
+                    indexes.put(star.getSchema().getChecksum(), newIndex);
+                }
+                index = indexes.get(star.getSchema().getChecksum());
             }
-            final SegmentCacheIndex index =
-                indexes.get(star.getSchema().getChecksum());
             LOGGER.trace(
                 "SegmentCacheManager.SegmentCacheIndexRegistry.getIndex:"
                 + "Returning Index "
@@ -1630,7 +1843,13 @@ public class SegmentCacheManager {
             }
         }
         public void cancelExecutionSegments(Execution exec) {
-            for (SegmentCacheIndex index : indexes.values()) {
+            // Query threads may add indexes while we cancel, so iterate over
+            // a copy.
+            final List<SegmentCacheIndex> indexList;
+            synchronized (indexes) {
+                indexList = new ArrayList<SegmentCacheIndex>(indexes.values());
+            }
+            for (SegmentCacheIndex index : indexList) {
                 index.cancel(exec);
             }
         }
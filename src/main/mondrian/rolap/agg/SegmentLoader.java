@@ -16,6 +16,7 @@ import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.*;
 import mondrian.rolap.agg.SegmentCacheManager.AbortException;
+import mondrian.rolap.aggmatcher.AggWorkload;
 import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.server.Locus;
 import mondrian.server.monitor.SqlStatementEvent;
@@ -192,6 +193,7 @@ public class SegmentLoader {
             SortedSet<Comparable>[] axisValueSets =
                 getDistinctValueWorkspace(arity);
 
+            final long startNanos = System.nanoTime();
             stmt = createExecuteSql(
                 cellRequestCount,
                 groupingSetsList,
@@ -228,10 +230,21 @@ public class SegmentLoader {
             loadDataToDataSets(
                 groupingSetsList, rows, groupingDataSetsMap);
 
+            final long loadNanos = System.nanoTime() - startNanos;
             setDataToSegments(
                 groupingSetsList,
                 groupingDataSetsMap,
-                segmentMap);
+                segmentMap,
+                loadNanos);
+
+            AggWorkload.record(
+                groupingSetsList.getStar(),
+                groupingSetsList.getDefaultSegments().get(0).measure
+                    .getCubeName(),
+                groupingSetsList.getDefaultLevelBitKey(),
+                groupingSetsList.getDefaultMeasureBitKey(),
+                loadNanos,
+                rows.size());
 
             return segmentMap;
         } catch (Throwable e) {
@@ -255,11 +268,13 @@ public class SegmentLoader {
      *
      * @param header Segment header
      * @param body Segment body
+     * @param loadNanos Time taken to load the segment, in nanoseconds
      */
     private void cacheSegment(
         RolapStar star,
         SegmentHeader header,
-        SegmentBody body)
+        SegmentBody body,
+        long loadNanos)
     {
         // Write the segment into external cache.
         //
@@ -271,6 +286,9 @@ public class SegmentLoader {
         // called cacheMgr.loadSucceeded. That call will allow the current
         // query to proceed.
         if (!MondrianProperties.instance().DisableCaching.get()) {
+            // Record the cost of the segment before caching it, so that the
+            // cache can decide how long it is worth keeping.
+            cacheMgr.statistics.recordLoad(header, body, loadNanos);
             cacheMgr.compositeCache.put(header, body);
             cacheMgr.loadSucceeded(star, header, body);
         }
@@ -318,6 +336,20 @@ public class SegmentLoader {
 
         final List<SqlStatement.Type> types = rows.getTypes();
         final boolean useGroupingSet = groupingSetsList.useGroupingSets();
+
+        // For dictionary-encoded axis columns, map each distinct value to its
+        // offset on the axis once, rather than once per row.
+        final int[][] keyOffsets = new int[arity][];
+        for (int j = 0; j < arity; j++) {
+            if (rows.isKeyColumn(j)) {
+                final List<Comparable> keys = rows.getKeys(j);
+                keyOffsets[j] = new int[keys.size()];
+                for (int c = 0; c < keyOffsets[j].length; c++) {
+                    keyOffsets[j][c] = axes[j].getOffset(keys.get(c));
+                }
+            }
+        }
+
         for (rows.first(); rows.next();) {
             final BitKey groupingBitKey;
             final GroupingSetsList.Cohort cohort;
@@ -332,9 +364,15 @@ public class SegmentLoader {
             }
             final int[] pos = cohort.pos;
             for (int j = 0, k = 0; j < arity; j++) {
+                if (keyOffsets[j] != null) {
+                    final int code = rows.getCode(j);
+                    if (code >= 0) {
+                        pos[k++] = keyOffsets[j][code];
+                        continue;
+                    }
+                }
                 final SqlStatement.Type type = types.get(j);
                 switch (type) {
-                // TODO: different treatment for INT, LONG, DOUBLE
                 case OBJECT:
                 case STRING:
                 case INT:
@@ -414,7 +452,8 @@ public class SegmentLoader {
     private void setDataToSegments(
         GroupingSetsList groupingSetsList,
         Map<BitKey, GroupingSetsList.Cohort> datasetsMap,
-        Map<Segment, SegmentWithData> segmentSlotMap)
+        Map<Segment, SegmentWithData> segmentSlotMap,
+        long loadNanos)
     {
         List<GroupingSet> groupingSets = groupingSetsList.getGroupingSets();
         for (int i = 0; i < groupingSets.size(); i++) {
@@ -454,7 +493,7 @@ public class SegmentLoader {
 
                 // Send a message to the agg manager. It will place the segment
                 // in the index.
-                cacheSegment(segment.star, header, body);
+                cacheSegment(segment.star, header, body, loadNanos);
             }
         }
     }
@@ -673,7 +712,16 @@ public class SegmentLoader {
         } else {
             processedTypes = types;
         }
-        final RowList processedRows = new RowList(processedTypes, 100);
+        // Axis columns are dictionary-encoded: each row holds the ordinal of
+        // its value among the distinct values seen so far.
+        final RowList processedRows = new RowList(processedTypes, arity, 100);
+
+        // pre-compute which measures are numeric
+        final boolean[] numeric = new boolean[measureCount];
+        int k = 0;
+        for (Segment segment : segments) {
+            numeric[k++] = segment.measure.getDatatype().isNumeric();
+        }
 
         CancellationChecker cancellationChecker =
             new CancellationChecker(Locus.peek().execution);
@@ -695,7 +743,6 @@ public class SegmentLoader {
                 case STRING:
                     Object o = rawRows.getObject(columnIndex + 1);
                     if (o == null) {
-                        o = RolapUtil.sqlNullValue;
                         if (!groupingSetsList.useGroupingSets()
                             || !isAggregateNull(
                                 rawRows, groupingColumnStartIndex,
@@ -704,13 +751,10 @@ public class SegmentLoader {
                         {
                             axisContainsNull[axisIndex] = true;
                         }
+                        processedRows.setNull(columnIndex, true);
                     } else {
-                        // We assume that all values are Comparable. Boolean
-                        // wasn't Comparable until JDK 1.5, but we can live with
-                        // that bug because JDK 1.4 is no longer important.
-                        axisValueSets[axisIndex].add((Comparable) o);
+                        processedRows.setObject(columnIndex, o);
                     }
-                    processedRows.setObject(columnIndex, o);
                     break;
                 case INT:
                     final int intValue = rawRows.getInt(columnIndex + 1);
@@ -725,7 +769,6 @@ public class SegmentLoader {
                         }
                         processedRows.setNull(columnIndex, true);
                     } else {
-                        axisValueSets[axisIndex].add(intValue);
                         processedRows.setInt(columnIndex, intValue);
                     }
                     break;
@@ -743,7 +786,6 @@ public class SegmentLoader {
                         }
                         processedRows.setNull(columnIndex, true);
                     } else {
-                        axisValueSets[axisIndex].add(longValue);
                         processedRows.setLong(columnIndex, longValue);
                     }
                     break;
@@ -761,7 +803,6 @@ public class SegmentLoader {
                         }
                         processedRows.setNull(columnIndex, true);
                     } else {
-                        axisValueSets[axisIndex].add(doubleValue);
                         processedRows.setDouble(columnIndex, doubleValue);
                     }
                     break;
@@ -770,13 +811,6 @@ public class SegmentLoader {
                 }
             }
 
-            // pre-compute which measures are numeric
-            final boolean[] numeric = new boolean[measureCount];
-            int k = 0;
-            for (Segment segment : segments) {
-                numeric[k++] = segment.measure.getDatatype().isNumeric();
-            }
-
             // get the measure
             for (int i = 0; i < measureCount; i++, columnIndex++) {
                 final SqlStatement.Type type =
@@ -837,6 +871,13 @@ public class SegmentLoader {
                         rawRows, columnIndex));
             }
         }
+
+        // Distinct values of each axis. We assume that all values are
+        // Comparable. Boolean wasn't Comparable until JDK 1.5, but we can live
+        // with that bug because JDK 1.4 is no longer important.
+        for (int axisIndex = 0; axisIndex < arity; axisIndex++) {
+            axisValueSets[axisIndex].addAll(processedRows.getKeys(axisIndex));
+        }
         return processedRows;
     }
 
@@ -975,6 +1016,11 @@ public class SegmentLoader {
     /**
      * Collection of rows, each with a set of columns of type Object, double, or
      * int. Native types are not boxed.
+     *
+     * <p>The first few columns may be key columns, which are
+     * dictionary-encoded: each distinct value is stored once, and each row
+     * holds the ordinal of its value in an {@code int} array. Values of
+     * native type are looked up without being boxed.
      */
     protected static class RowList {
         private final Column[] columns;
@@ -998,10 +1044,24 @@ public class SegmentLoader {
          * @param capacity Initial capacity
          */
         RowList(List<SqlStatement.Type> types, int capacity) {
+            this(types, 0, capacity);
+        }
+
+        /**
+         * Creates a RowList whose first few columns are key columns.
+         *
+         * @param types Column types
+         * @param keyCount Number of key columns
+         * @param capacity Initial capacity
+         */
+        RowList(List<SqlStatement.Type> types, int keyCount, int capacity) {
             this.columns = new Column[types.size()];
             this.capacity = capacity;
             for (int i = 0; i < columns.length; i++) {
-                columns[i] = Column.forType(i, types.get(i), capacity);
+                columns[i] =
+                    i < keyCount
+                        ? new KeyColumn(i, types.get(i), capacity)
+                        : Column.forType(i, types.get(i), capacity);
             }
         }
 
@@ -1120,6 +1180,40 @@ public class SegmentLoader {
             columns[columnIndex].setNull(currentRow, b);
         }
 
+        /**
+         * Returns whether a column is a dictionary-encoded key column.
+         *
+         * @param columnIndex Column index
+         * @return Whether column is a key column
+         */
+        public boolean isKeyColumn(int columnIndex) {
+            return columns[columnIndex] instanceof KeyColumn;
+        }
+
+        /**
+         * Returns the ordinal, in the list returned by {@link #getKeys(int)},
+         * of the value of a key column in the current row, or -1 if the value
+         * is null.
+         *
+         * @param columnIndex Column index
+         * @return Ordinal of value
+         */
+        public int getCode(int columnIndex) {
+            return ((KeyColumn) columns[columnIndex]).getCode(currentRow);
+        }
+
+        /**
+         * Returns the distinct non-null values of a key column, in the order
+         * they were first seen.
+         *
+         * @param columnIndex Column index
+         * @return Distinct values
+         */
+        public List<Comparable> getKeys(int columnIndex) {
+            return Collections.unmodifiableList(
+                ((KeyColumn) columns[columnIndex]).keys);
+        }
+
         static abstract class Column {
             final int ordinal;
             final SqlStatement.Type type;
@@ -1377,6 +1471,225 @@ public class SegmentLoader {
             }
         }
 
+        /**
+         * Dictionary-encoded column. Holds each distinct value once, and for
+         * each row the ordinal of its value, or -1 if null.
+         *
+         * <p>Values of type INT, LONG and DOUBLE are looked up in an
+         * open-addressing hash table of their bits, and boxed only the first
+         * time they are seen. Other values are looked up in a
+         * {@link HashMap}.
+         */
+        static class KeyColumn extends Column {
+            private static final int NULL_CODE = -1;
+
+            private int[] codes;
+            private final List<Comparable> keys = new ArrayList<Comparable>();
+            private final Map<Object, Integer> objectCodes;
+            private long[] bitsTable;
+            private int[] codeTable;
+
+            KeyColumn(int ordinal, SqlStatement.Type type, int size) {
+                super(ordinal, type);
+                codes = new int[size];
+                switch (type) {
+                case OBJECT:
+                case STRING:
+                    objectCodes = new HashMap<Object, Integer>();
+                    break;
+                case INT:
+                case LONG:
+                case DOUBLE:
+                    objectCodes = null;
+                    bitsTable = new long[16];
+                    codeTable = new int[16];
+                    break;
+                default:
+                    throw Util.unexpected(type);
+                }
+            }
+
+            protected int getCapacity() {
+                return codes.length;
+            }
+
+            public void resize(int newSize) {
+                codes = Util.copyOf(codes, newSize);
+            }
+
+            public void populateFrom(int row, ResultSet resultSet)
+                throws SQLException
+            {
+                switch (type) {
+                case INT:
+                    final int i = resultSet.getInt(ordinal + 1);
+                    if (i == 0 && resultSet.wasNull()) {
+                        setNull(row, true);
+                    } else {
+                        setInt(row, i);
+                    }
+                    break;
+                case LONG:
+                    final long n = resultSet.getLong(ordinal + 1);
+                    if (n == 0 && resultSet.wasNull()) {
+                        setNull(row, true);
+                    } else {
+                        setLong(row, n);
+                    }
+                    break;
+                case DOUBLE:
+                    final double d = resultSet.getDouble(ordinal + 1);
+                    if (d == 0d && resultSet.wasNull()) {
+                        setNull(row, true);
+                    } else {
+                        setDouble(row, d);
+                    }
+                    break;
+                default:
+                    setObject(row, resultSet.getObject(ordinal + 1));
+                }
+            }
+
+            public void setObject(int row, Object value) {
+                if (value == null || value == RolapUtil.sqlNullValue) {
+                    codes[row] = NULL_CODE;
+                    return;
+                }
+                if (objectCodes == null) {
+                    // Native column; called with a boxed value.
+                    switch (type) {
+                    case INT:
+                        setInt(row, ((Number) value).intValue());
+                        break;
+                    case LONG:
+                        setLong(row, ((Number) value).longValue());
+                        break;
+                    default:
+                        setDouble(row, ((Number) value).doubleValue());
+                    }
+                    return;
+                }
+                Integer code = objectCodes.get(value);
+                if (code == null) {
+                    code = keys.size();
+                    keys.add((Comparable) value);
+                    objectCodes.put(value, code);
+                }
+                codes[row] = code;
+            }
+
+            public void setInt(int row, int value) {
+                codes[row] = codeOf(value);
+            }
+
+            public void setLong(int row, long value) {
+                codes[row] = codeOf(value);
+            }
+
+            public void setDouble(int row, double value) {
+                codes[row] = codeOf(Double.doubleToLongBits(value));
+            }
+
+            public void setNull(int row, boolean b) {
+                if (b) {
+                    codes[row] = NULL_CODE;
+                }
+            }
+
+            public boolean isNull(int row) {
+                return codes[row] == NULL_CODE;
+            }
+
+            int getCode(int row) {
+                return codes[row];
+            }
+
+            public Object getObject(int row) {
+                final int code = codes[row];
+                return code == NULL_CODE ? null : keys.get(code);
+            }
+
+            public int getInt(int row) {
+                final int code = codes[row];
+                return code == NULL_CODE
+                    ? 0
+                    : ((Number) keys.get(code)).intValue();
+            }
+
+            public double getDouble(int row) {
+                final int code = codes[row];
+                return code == NULL_CODE
+                    ? 0d
+                    : ((Number) keys.get(code)).doubleValue();
+            }
+
+            /**
+             * Returns the code of a native value, given as its bits (the
+             * value itself for INT and LONG columns, its IEEE 754 bits for
+             * DOUBLE columns), adding it to the dictionary if it is new.
+             *
+             * <p>Slots in {@link #codeTable} hold code + 1, so that zero means
+             * empty.
+             */
+            private int codeOf(long bits) {
+                int mask = codeTable.length - 1;
+                int slot = hash(bits) & mask;
+                for (;;) {
+                    final int entry = codeTable[slot];
+                    if (entry == 0) {
+                        break;
+                    }
+                    if (bitsTable[slot] == bits) {
+                        return entry - 1;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                final int code = keys.size();
+                switch (type) {
+                case INT:
+                    keys.add((int) bits);
+                    break;
+                case LONG:
+                    keys.add(bits);
+                    break;
+                default:
+                    keys.add(Double.longBitsToDouble(bits));
+                }
+                bitsTable[slot] = bits;
+                codeTable[slot] = code + 1;
+                if (keys.size() * 2 > codeTable.length) {
+                    rehash();
+                }
+                return code;
+            }
+
+            private void rehash() {
+                final long[] oldBits = bitsTable;
+                final int[] oldCodes = codeTable;
+                bitsTable = new long[oldBits.length * 2];
+                codeTable = new int[oldCodes.length * 2];
+                final int mask = codeTable.length - 1;
+                for (int i = 0; i < oldCodes.length; i++) {
+                    if (oldCodes[i] != 0) {
+                        int slot = hash(oldBits[i]) & mask;
+                        while (codeTable[slot] != 0) {
+                            slot = (slot + 1) & mask;
+                        }
+                        bitsTable[slot] = oldBits[i];
+                        codeTable[slot] = oldCodes[i];
+                    }
+                }
+            }
+
+            private static int hash(long bits) {
+                int h = (int) (bits ^ (bits >>> 32));
+                h ^= h >>> 16;
+                h *= 0x85ebca6b;
+                h ^= h >>> 13;
+                return h;
+            }
+        }
+
         public interface Handler {
         }
     }
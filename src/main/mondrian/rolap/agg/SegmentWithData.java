@@ -147,9 +147,23 @@ public class SegmentWithData extends Segment {
      * @see mondrian.olap.Util#deprecated(Object) make package-private?
      */
     public Object getCellValue(Object[] keys) {
+        return getCellValue(keys, CellKey.Generator.newCellKey(axes.length));
+    }
+
+    /**
+     * Retrieves the value at the location identified by
+     * <code>keys</code>, using a given cell key as workspace.
+     *
+     * @param keys Values of the constrained columns
+     * @param cellKey Cell key with the same number of axes as this segment;
+     *   its contents are overwritten
+     * @return Cell value, {@link mondrian.olap.Util#nullValue} if the cell
+     *   is empty, or null if this segment does not contain the cell
+     */
+    public Object getCellValue(Object[] keys, CellKey cellKey) {
         assert keys.length == axes.length;
+        assert cellKey.size() == axes.length;
         int missed = 0;
-        CellKey cellKey = CellKey.Generator.newCellKey(axes.length);
         for (int i = 0; i < keys.length; i++) {
             Comparable key = (Comparable) keys[i];
             int offset = axes[i].getOffset(key);
@@ -0,0 +1,495 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.*;
+import mondrian.rolap.cache.MemorySegmentCache;
+import mondrian.rolap.cache.SegmentCacheIndex;
+import mondrian.server.Locus;
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentHeader;
+import mondrian.util.Pair;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Builds and holds virtual aggregates: segments that are rolled up in memory
+ * from other segments in the cache, ahead of the queries that need them.
+ *
+ * <p>If {@link MondrianProperties#EnableInMemoryRollup} is true, a request
+ * for cells that are not in the cache can be answered by rolling up
+ * segments that are. But the rolled-up segment is not cached, so the next
+ * query at the same granularity rolls up again. The cell reader tells this
+ * manager about each such rollup. Once a measure has been rolled up to the
+ * same combination of columns
+ * {@link MondrianProperties#VirtualAggregateThreshold} times, the manager
+ * builds a virtual aggregate on a thread of its own, from any set of
+ * segments in the cache that has all values of the columns being
+ * aggregated away, and adds it to the segment index.</p>
+ *
+ * <p>Builds do not run on the cache manager's
+ * {@link SegmentCacheManager#cacheExecutor}: a build waits for the cache
+ * manager's actor, and the actor's handlers wait for tasks on that
+ * executor.</p>
+ *
+ * <p>Virtual aggregates are held by strong references, within a budget of
+ * their own ({@link MondrianProperties#VirtualAggregateCacheSize}), and are
+ * read through the composite segment cache like any other segment, so
+ * flushing a region of the cache removes them too. When one is evicted to
+ * make room for another, its header stays in the index until a reader finds
+ * that the body is missing, just as when the garbage collector clears a
+ * segment in the local cache.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class VirtualAggregateManager {
+    private static final Logger LOGGER =
+        Logger.getLogger(VirtualAggregateManager.class);
+
+    /**
+     * Maximum number of combinations of measure and columns whose rollups
+     * are counted. When reached, the counts start again.
+     */
+    private static final int MAX_TRACKER_COUNT = 1000;
+
+    private final SegmentCacheManager cacheMgr;
+    private final int threshold;
+    private final long byteBudget;
+
+    private final ConcurrentHashMap<List<Object>, Tracker> trackers =
+        new ConcurrentHashMap<List<Object>, Tracker>();
+
+    private final Map<SegmentHeader, Entry> map =
+        new ConcurrentHashMap<SegmentHeader, Entry>();
+
+    /** Approximate number of bytes used by the virtual aggregates. */
+    private final AtomicLong byteSize = new AtomicLong();
+
+    /** Executor on which virtual aggregates are built, one at a time. */
+    private final ExecutorService buildExecutor =
+        Util.getExecutorService(
+            1,
+            1,
+            1,
+            "mondrian.rolap.agg.VirtualAggregateManager$buildExecutor",
+            null);
+
+    /**
+     * Creates a VirtualAggregateManager with a threshold and budget from the
+     * current properties.
+     *
+     * @param cacheMgr Segment cache manager
+     */
+    VirtualAggregateManager(SegmentCacheManager cacheMgr) {
+        this(
+            cacheMgr,
+            MondrianProperties.instance().VirtualAggregateThreshold.get(),
+            (long) MondrianProperties.instance().VirtualAggregateCacheSize.get()
+                * 1024L * 1024L);
+    }
+
+    /**
+     * Creates a VirtualAggregateManager.
+     *
+     * @param cacheMgr Segment cache manager
+     * @param threshold Number of rollups to a combination of columns after
+     *     which to build a virtual aggregate, or 0 to never build one
+     * @param byteBudget Maximum number of bytes to use
+     */
+    VirtualAggregateManager(
+        SegmentCacheManager cacheMgr,
+        int threshold,
+        long byteBudget)
+    {
+        this.cacheMgr = cacheMgr;
+        this.threshold = threshold;
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Records that segments have been rolled up in memory to answer a cell
+     * request, and if the same rollup has now been needed often enough,
+     * starts building a virtual aggregate for it.
+     *
+     * <p>Must be called from a thread that has a {@link Locus}.</p>
+     *
+     * @param measure Measure
+     * @param columns Columns that were not aggregated away
+     * @param bitKey Bit key of the columns
+     * @param compoundPredicates Compound predicates of the request
+     */
+    public void recordRollup(
+        final RolapStar.Measure measure,
+        final RolapStar.Column[] columns,
+        BitKey bitKey,
+        List<String> compoundPredicates)
+    {
+        if (threshold <= 0
+            || byteBudget <= 0
+            || !compoundPredicates.isEmpty())
+        {
+            return;
+        }
+        final RolapStar star = measure.getStar();
+        final RolapSchema schema = star.getSchema();
+        final BitKey bitKeyCopy = bitKey.copy();
+        final Tracker tracker =
+            track(
+                Arrays.<Object>asList(
+                    schema.getName(),
+                    schema.getChecksum(),
+                    measure.getCubeName(),
+                    measure.getName(),
+                    star.getFactTable().getAlias(),
+                    bitKeyCopy));
+        if (tracker == null) {
+            return;
+        }
+        final Locus locus = Locus.peek();
+        buildExecutor.submit(
+            new Runnable() {
+                public void run() {
+                    Locus.push(locus);
+                    try {
+                        if (!build(
+                                locus, measure, columns, bitKeyCopy, tracker))
+                        {
+                            tracker.reset();
+                        }
+                    } catch (Throwable e) {
+                        LOGGER.warn("Could not build virtual aggregate", e);
+                        tracker.reset();
+                    } finally {
+                        Locus.pop(locus);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Counts a rollup to a combination of measure and columns, and returns
+     * its tracker if the count has reached the threshold and no virtual
+     * aggregate has been scheduled since the count was last reset.
+     *
+     * @param key Schema, cube, measure, fact table and bit key
+     * @return Tracker, or null if no virtual aggregate is to be built
+     */
+    Tracker track(List<Object> key) {
+        Tracker tracker = trackers.get(key);
+        if (tracker == null) {
+            if (trackers.size() >= MAX_TRACKER_COUNT) {
+                trackers.clear();
+            }
+            final Tracker newTracker = new Tracker();
+            tracker = trackers.putIfAbsent(key, newTracker);
+            if (tracker == null) {
+                tracker = newTracker;
+            }
+        }
+        if (tracker.count.incrementAndGet() >= threshold
+            && tracker.scheduled.compareAndSet(false, true))
+        {
+            return tracker;
+        }
+        return null;
+    }
+
+    /**
+     * Rolls up segments in the cache to the given columns, keeps the result,
+     * and adds it to the segment index. Called on the build executor.
+     *
+     * @return Whether a virtual aggregate was built
+     */
+    private boolean build(
+        final Locus locus,
+        final RolapStar.Measure measure,
+        RolapStar.Column[] columns,
+        final BitKey bitKey,
+        Tracker tracker)
+    {
+        final RolapStar star = measure.getStar();
+        final RolapSchema schema = star.getSchema();
+        final List<List<SegmentHeader>> candidateLists =
+            cacheMgr.execute(
+                new SegmentCacheManager.Command<List<List<SegmentHeader>>>() {
+                    public List<List<SegmentHeader>> call() {
+                        return cacheMgr.getIndexRegistry().getIndex(star)
+                            .findRollupCandidates(
+                                schema.getName(),
+                                schema.getChecksum(),
+                                measure.getCubeName(),
+                                measure.getName(),
+                                star.getFactTable().getAlias(),
+                                bitKey,
+                                Collections.<String, Comparable>emptyMap(),
+                                Collections.<String>emptyList());
+                    }
+
+                    public Locus getLocus() {
+                        return locus;
+                    }
+                });
+
+        final Set<String> keepColumns = new HashSet<String>();
+        for (RolapStar.Column column : columns) {
+            keepColumns.add(column.getExpression().getGenericExpression());
+        }
+
+        // Candidates with fewer columns come first, and are cheaper to roll
+        // up. Use the first whose segments are all in the cache.
+        candidateLoop:
+        for (List<SegmentHeader> headers : candidateLists) {
+            final Map<SegmentHeader, SegmentBody> bodies =
+                new HashMap<SegmentHeader, SegmentBody>();
+            for (SegmentHeader header : headers) {
+                if (header.getConstrainedColumnsBitKey().equals(bitKey)) {
+                    // Already at the target granularity; rolling up would
+                    // merely copy it.
+                    continue candidateLoop;
+                }
+                // Not a read on behalf of a query; don't count it as a hit.
+                final SegmentBody body = cacheMgr.peekBody(header);
+                if (body == null) {
+                    continue candidateLoop;
+                }
+                bodies.put(header, body);
+            }
+            final Pair<SegmentHeader, SegmentBody> rollup =
+                SegmentBuilder.rollup(
+                    bodies,
+                    keepColumns,
+                    bitKey,
+                    measure.getAggregator().getRollup(),
+                    measure.getDatatype());
+            final SegmentHeader header = rollup.left;
+            if (!pin(header, rollup.right, tracker)) {
+                return false;
+            }
+            cacheMgr.execute(
+                new SegmentCacheManager.Command<Void>() {
+                    public Void call() {
+                        final SegmentCacheIndex index =
+                            cacheMgr.getIndexRegistry().getIndex(star);
+                        if (!index.contains(header)) {
+                            index.add(
+                                header,
+                                new SegmentBuilder.StarSegmentConverter(
+                                    measure,
+                                    Collections.<StarPredicate>emptyList()),
+                                false);
+                        }
+                        return null;
+                    }
+
+                    public Locus getLocus() {
+                        return locus;
+                    }
+                });
+            LOGGER.debug("Built virtual aggregate " + header);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Keeps a virtual aggregate, if it fits in the budget. To make room, it
+     * may evict the virtual aggregates that have been used least, provided
+     * that each has been used fewer times than the new one has been
+     * requested.
+     *
+     * <p>Whenever a new virtual aggregate competes for room, the use counts
+     * of the existing ones are halved afterwards, so that an aggregate that
+     * was popular but is no longer used eventually gives up its room.
+     *
+     * @param header Segment header
+     * @param body Segment body
+     * @param tracker Tracker of the requests for the virtual aggregate
+     * @return Whether the virtual aggregate is kept
+     */
+    synchronized boolean pin(
+        SegmentHeader header,
+        SegmentBody body,
+        Tracker tracker)
+    {
+        if (map.containsKey(header)) {
+            return true;
+        }
+        final long size = MemorySegmentCache.estimateByteSize(body);
+        if (size > byteBudget) {
+            return false;
+        }
+        final long excess = byteSize.get() + size - byteBudget;
+        if (excess > 0) {
+            final List<Map.Entry<SegmentHeader, Entry>> entries =
+                new ArrayList<Map.Entry<SegmentHeader, Entry>>(map.entrySet());
+            Collections.sort(
+                entries,
+                new Comparator<Map.Entry<SegmentHeader, Entry>>() {
+                    public int compare(
+                        Map.Entry<SegmentHeader, Entry> o1,
+                        Map.Entry<SegmentHeader, Entry> o2)
+                    {
+                        final long u1 = o1.getValue().useCount.get();
+                        final long u2 = o2.getValue().useCount.get();
+                        return u1 < u2 ? -1 : u1 == u2 ? 0 : 1;
+                    }
+                });
+            final long requestCount = tracker.count.get();
+            final List<SegmentHeader> victims = new ArrayList<SegmentHeader>();
+            long freed = 0;
+            for (Map.Entry<SegmentHeader, Entry> entry : entries) {
+                if (freed >= excess
+                    || entry.getValue().useCount.get() >= requestCount)
+                {
+                    break;
+                }
+                victims.add(entry.getKey());
+                freed += entry.getValue().byteSize;
+            }
+            for (Map.Entry<SegmentHeader, Entry> entry : entries) {
+                entry.getValue().decay();
+            }
+            if (freed < excess) {
+                return false;
+            }
+            for (SegmentHeader victim : victims) {
+                remove(victim);
+            }
+        }
+        map.put(header, new Entry(body, size, tracker));
+        byteSize.addAndGet(size);
+        return true;
+    }
+
+    /**
+     * Returns the body of a virtual aggregate, or null if there is no
+     * virtual aggregate with the given header.
+     *
+     * @param header Segment header
+     * @return Segment body, or null
+     */
+    public SegmentBody get(SegmentHeader header) {
+        final Entry entry = map.get(header);
+        if (entry == null) {
+            return null;
+        }
+        entry.useCount.incrementAndGet();
+        return entry.body;
+    }
+
+    /**
+     * Returns the body of a virtual aggregate, like {@link #get}, but
+     * without counting a use.
+     *
+     * @param header Segment header
+     * @return Segment body, or null
+     */
+    SegmentBody peek(SegmentHeader header) {
+        final Entry entry = map.get(header);
+        return entry == null ? null : entry.body;
+    }
+
+    /**
+     * Removes a virtual aggregate. Its combination of columns starts to be
+     * counted again, so that it is rebuilt if it is still needed.
+     *
+     * @param header Segment header
+     * @return Whether there was a virtual aggregate with the given header
+     */
+    public synchronized boolean remove(SegmentHeader header) {
+        final Entry entry = map.remove(header);
+        if (entry == null) {
+            return false;
+        }
+        byteSize.addAndGet(-entry.byteSize);
+        entry.tracker.reset();
+        return true;
+    }
+
+    /**
+     * Removes all virtual aggregates and forgets all rollup counts.
+     */
+    public synchronized void clear() {
+        map.clear();
+        byteSize.set(0);
+        trackers.clear();
+    }
+
+    /**
+     * Stops building virtual aggregates, and removes them all.
+     */
+    public void shutdown() {
+        buildExecutor.shutdown();
+        clear();
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the virtual
+     * aggregates.
+     */
+    public long getByteSize() {
+        return byteSize.get();
+    }
+
+    /**
+     * Returns the headers of the virtual aggregates.
+     */
+    Set<SegmentHeader> getSegmentHeaders() {
+        return new HashSet<SegmentHeader>(map.keySet());
+    }
+
+    /**
+     * Number of rollups to a combination of measure and columns, and
+     * whether a virtual aggregate has been scheduled for it.
+     */
+    static class Tracker {
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void reset() {
+            count.set(0);
+            scheduled.set(false);
+        }
+    }
+
+    /**
+     * A virtual aggregate and the number of times it has been used.
+     */
+    private static class Entry {
+        final SegmentBody body;
+        final long byteSize;
+        final Tracker tracker;
+        final AtomicLong useCount;
+
+        Entry(SegmentBody body, long byteSize, Tracker tracker) {
+            this.body = body;
+            this.byteSize = byteSize;
+            this.tracker = tracker;
+            this.useCount = new AtomicLong(tracker.count.get());
+        }
+
+        /** Halves the use count. */
+        void decay() {
+            long count;
+            do {
+                count = useCount.get();
+            } while (!useCount.compareAndSet(count, count / 2));
+        }
+    }
+}
+
+// End VirtualAggregateManager.java
@@ -52,6 +52,11 @@ public class AggGen {
     private final List<JdbcSchema.Table.Column.Usage> measures =
         new ArrayList<JdbcSchema.Table.Column.Usage>();
 
+    /** map JdbcSchema Column Usage to the RolapStar.Column it holds */
+    private final Map<JdbcSchema.Table.Column.Usage, RolapStar.Column>
+        usageColumns =
+        new HashMap<JdbcSchema.Table.Column.Usage, RolapStar.Column>();
+
     private boolean isReady;
 
     public AggGen(
@@ -334,6 +339,7 @@ public class AggGen {
                 usage.setSymbolicName(rColumn.getName());
             }
             measures.add(usage);
+            usageColumns.put(usage, rMeasure);
         }
 
         // If we got to here, then everything is ok.
@@ -400,7 +406,10 @@ public class AggGen {
         // NOTE: this creates a new usage for the fact table
         // I do not know if this is a problem is AggGen is run before
         // Mondrian uses aggregate tables.
-        list.add(c.newUsage(JdbcSchema.UsageType.FOREIGN_KEY));
+        JdbcSchema.Table.Column.Usage usage =
+            c.newUsage(JdbcSchema.UsageType.FOREIGN_KEY);
+        list.add(usage);
+        usageColumns.put(usage, rColumn);
 
         RolapStar.Column prColumn = rColumn;
         while (prColumn.getParentColumn() != null) {
@@ -427,7 +436,9 @@ public class AggGen {
             // NOTE: this creates a new usage for the fact table
             // I do not know if this is a problem is AggGen is run before
             // Mondrian uses aggregate tables.
-            list.add(c.newUsage(JdbcSchema.UsageType.FOREIGN_KEY));
+            usage = c.newUsage(JdbcSchema.UsageType.FOREIGN_KEY);
+            list.add(usage);
+            usageColumns.put(usage, prColumn);
         }
 
         return true;
@@ -509,6 +520,7 @@ public class AggGen {
             usage.usagePrefix = rc.getUsagePrefix();
 
             list.add(usage);
+            usageColumns.put(usage, rc);
 
             if (rname.equals(name)) {
                 break;
@@ -703,6 +715,32 @@ public class AggGen {
         return sw.toString();
     }
 
+    /**
+     * Return the columns of the table created by {@link #createCollapsed()},
+     * other than the fact count, in the order they are created. Each column
+     * name is mapped to the RolapStar.Column (or RolapStar.Measure) whose
+     * values it holds.
+     */
+    public Map<String, RolapStar.Column> getCollapsedColumns() {
+        Map<String, RolapStar.Column> map =
+            new LinkedHashMap<String, RolapStar.Column>();
+        for (List<JdbcSchema.Table.Column.Usage> list
+            : collapsedColumnUsages.values())
+        {
+            for (JdbcSchema.Table.Column.Usage usage : list) {
+                String name = getUsageName(usage);
+                if (usage.usagePrefix != null) {
+                    name = usage.usagePrefix + name;
+                }
+                map.put(name, usageColumns.get(usage));
+            }
+        }
+        for (JdbcSchema.Table.Column.Usage usage : measures) {
+            map.put(getUsageName(usage), usageColumns.get(usage));
+        }
+        return map;
+    }
+
     /**
      * Return the sql code to populate a collapsed dimension table from
      * the fact table.
@@ -0,0 +1,447 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.*;
+import mondrian.rolap.*;
+
+import org.eigenbase.xom.XMLUtil;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Recommends aggregate tables for a workload recorded by {@link AggWorkload}.
+ *
+ * <p>Each combination of level columns loaded from a fact table is a node
+ * in the lattice of possible aggregate tables. The recommender chooses
+ * nodes greedily, after Harinarayan, Rajaraman and Ullman, "Implementing
+ * Data Cubes Efficiently" (SIGMOD 1996). A query costs the number of rows
+ * of the smallest chosen table (or the fact table) that contains its
+ * columns, weighted by the time its loads took; at each step the node
+ * whose benefit per row is greatest is chosen.
+ *
+ * <p>Candidates are the recorded combinations and, if there are not too
+ * many, the unions of pairs of them. The number of rows of a candidate is
+ * estimated from the cardinalities of its columns, and is at most the
+ * number of rows in the fact table.
+ *
+ * <p>For each chosen table, the output contains the
+ * <code>CREATE TABLE</code> and <code>INSERT</code> statements generated by
+ * {@link AggGen}, and an <code>&lt;AggName&gt;</code> element to add to the
+ * cube's fact table in the schema.
+ *
+ * <p>Usage:
+ *
+ * <blockquote><code>java mondrian.rolap.aggmatcher.AggRecommender
+ * <i>connect-string</i> <i>workload-file</i>
+ * [<i>max-table-count</i>]</code></blockquote>
+ */
+public class AggRecommender {
+    /**
+     * Largest number of recorded combinations for which unions of pairs are
+     * also considered.
+     */
+    private static final int MAX_PAIRED_PATTERN_COUNT = 50;
+
+    private final RolapSchema schema;
+    private final int maxTableCount;
+
+    /** Number of tables recommended so far for each fact table. */
+    private final Map<String, Integer> tableCounts =
+        new HashMap<String, Integer>();
+
+    /**
+     * Creates an AggRecommender.
+     *
+     * @param schema Schema that the workload was recorded against
+     * @param maxTableCount Maximum number of tables to recommend per fact
+     *   table
+     */
+    public AggRecommender(RolapSchema schema, int maxTableCount) {
+        this.schema = schema;
+        this.maxTableCount = maxTableCount;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println(
+                "Usage: java " + AggRecommender.class.getName()
+                + " <connect-string> <workload-file> [<max-table-count>]");
+            System.exit(1);
+        }
+        final int maxTableCount =
+            args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        final List<AggWorkload.Pattern> patterns;
+        final Reader reader = new FileReader(args[1]);
+        try {
+            patterns = AggWorkload.read(reader);
+        } finally {
+            reader.close();
+        }
+        final Connection connection =
+            DriverManager.getConnection(args[0], null);
+        try {
+            final PrintWriter pw = new PrintWriter(System.out);
+            new AggRecommender(
+                ((RolapConnection) connection).getSchema(), maxTableCount)
+                .recommend(patterns, pw);
+            pw.flush();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Writes the recommended aggregate tables for a workload.
+     *
+     * @param patterns Workload
+     * @param pw Writer for the SQL script and schema elements
+     */
+    public void recommend(List<AggWorkload.Pattern> patterns, PrintWriter pw) {
+        // Group the patterns by cube and fact table.
+        final Map<List<String>, List<AggWorkload.Pattern>> groups =
+            new LinkedHashMap<List<String>, List<AggWorkload.Pattern>>();
+        for (AggWorkload.Pattern pattern : patterns) {
+            if (!pattern.schemaName.equals(schema.getName())) {
+                continue;
+            }
+            final List<String> key =
+                Arrays.asList(pattern.cubeName, pattern.factTableAlias);
+            List<AggWorkload.Pattern> list = groups.get(key);
+            if (list == null) {
+                list = new ArrayList<AggWorkload.Pattern>();
+                groups.put(key, list);
+            }
+            list.add(pattern);
+        }
+        final StringWriter aggNames = new StringWriter();
+        final PrintWriter aggNamePw = new PrintWriter(aggNames);
+        for (Map.Entry<List<String>, List<AggWorkload.Pattern>> entry
+            : groups.entrySet())
+        {
+            final String cubeName = entry.getKey().get(0);
+            final String factTableAlias = entry.getKey().get(1);
+            final RolapStar star = schema.getStar(factTableAlias);
+            final RolapCube cube =
+                (RolapCube) schema.lookupCube(cubeName, false);
+            if (star == null || cube == null) {
+                pw.println(
+                    "-- Cube '" + cubeName + "' or fact table '"
+                    + factTableAlias + "' not found; skipped");
+                continue;
+            }
+            recommend(star, cube, entry.getValue(), pw, aggNamePw);
+        }
+        aggNamePw.flush();
+        if (aggNames.getBuffer().length() > 0) {
+            pw.println();
+            pw.println("-- Schema elements:");
+            pw.println("/*");
+            pw.print(aggNames.toString());
+            pw.println("*/");
+        }
+    }
+
+    private void recommend(
+        RolapStar star,
+        RolapCube cube,
+        List<AggWorkload.Pattern> patterns,
+        PrintWriter pw,
+        PrintWriter aggNamePw)
+    {
+        final String factTableAlias = star.getFactTable().getAlias();
+        final long factRowCount =
+            star.getStatisticsCache().getRelationCardinality(
+                star.getFactTable().getRelation(), factTableAlias, -1);
+        if (factRowCount <= 0) {
+            pw.println(
+                "-- Row count of fact table '" + factTableAlias
+                + "' is not known; skipped");
+            return;
+        }
+
+        final List<Query> queries = new ArrayList<Query>();
+        final Set<BitKey> bitKeys = new LinkedHashSet<BitKey>();
+        for (AggWorkload.Pattern pattern : patterns) {
+            final BitKey bitKey = toBitKey(star, pattern.levelBits);
+            if (bitKey == null) {
+                continue;
+            }
+            queries.add(
+                new Query(bitKey, Math.max(pattern.totalMillis, 1)));
+            bitKeys.add(bitKey);
+        }
+        if (bitKeys.size() <= MAX_PAIRED_PATTERN_COUNT) {
+            final List<BitKey> list = new ArrayList<BitKey>(bitKeys);
+            for (int i = 0; i < list.size(); i++) {
+                for (int j = i + 1; j < list.size(); j++) {
+                    bitKeys.add(list.get(i).or(list.get(j)));
+                }
+            }
+        }
+        final List<Node> candidates = new ArrayList<Node>();
+        for (BitKey bitKey : bitKeys) {
+            candidates.add(
+                new Node(bitKey, estimateRowCount(star, bitKey, factRowCount)));
+        }
+
+        final List<Node> nodes =
+            select(candidates, queries, factRowCount, maxTableCount);
+        for (Node node : nodes) {
+            final Integer count = tableCounts.get(factTableAlias);
+            final int n = count == null ? 1 : count + 1;
+            tableCounts.put(factTableAlias, n);
+            final String tableName = "agg_r" + n + "_" + factTableAlias;
+            final RolapStar.Column[] columns = toColumns(star, node.bitKey);
+            final AggGen aggGen =
+                new AggGen(cube.getName(), star, columns) {
+                    String makeCollapsedAggregateTableName(String name) {
+                        return tableName;
+                    }
+                };
+            if (!aggGen.isReady()) {
+                pw.println(
+                    "-- Could not generate SQL for " + tableName);
+                continue;
+            }
+            pw.println(
+                "-- " + tableName + ": about " + node.rowCount
+                + " rows; benefit per row "
+                + String.format("%.3g", node.benefit));
+            pw.println(aggGen.createCollapsed());
+            pw.println(aggGen.insertIntoCollapsed());
+            printAggName(cube, tableName, aggGen, aggNamePw);
+        }
+    }
+
+    /**
+     * Chooses nodes greedily to minimize the weighted cost of a set of
+     * queries.
+     *
+     * @param candidates Candidate nodes
+     * @param queries Queries
+     * @param factRowCount Number of rows in the fact table, which answers
+     *   every query
+     * @param maxCount Maximum number of nodes to choose
+     * @return Chosen nodes, in order of choice, each with its benefit per
+     *   row when it was chosen
+     */
+    static List<Node> select(
+        List<Node> candidates,
+        List<Query> queries,
+        long factRowCount,
+        int maxCount)
+    {
+        final long[] costs = new long[queries.size()];
+        Arrays.fill(costs, factRowCount);
+        final List<Node> remaining = new ArrayList<Node>(candidates);
+        final List<Node> selected = new ArrayList<Node>();
+        while (selected.size() < maxCount) {
+            Node best = null;
+            double bestBenefit = 0;
+            for (Node node : remaining) {
+                double benefit = 0;
+                for (int i = 0; i < queries.size(); i++) {
+                    final Query query = queries.get(i);
+                    if (costs[i] > node.rowCount
+                        && node.bitKey.isSuperSetOf(query.bitKey))
+                    {
+                        benefit +=
+                            query.weight * (costs[i] - node.rowCount)
+                            / factRowCount;
+                    }
+                }
+                benefit /= Math.max(node.rowCount, 1);
+                if (benefit > bestBenefit) {
+                    best = node;
+                    bestBenefit = benefit;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            remaining.remove(best);
+            best.benefit = bestBenefit;
+            selected.add(best);
+            for (int i = 0; i < queries.size(); i++) {
+                if (best.bitKey.isSuperSetOf(queries.get(i).bitKey)) {
+                    costs[i] = Math.min(costs[i], best.rowCount);
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Estimates the number of rows in an aggregate table grouped by a set of
+     * columns, as the product of the cardinalities of the columns, ignoring
+     * columns which are the parent of another column in the set.
+     */
+    private static long estimateRowCount(
+        RolapStar star,
+        BitKey bitKey,
+        long factRowCount)
+    {
+        final BitKey ancestors = bitKey.emptyCopy();
+        for (int bit = bitKey.nextSetBit(0); bit >= 0;
+             bit = bitKey.nextSetBit(bit + 1))
+        {
+            RolapStar.Column parent = star.getColumn(bit).getParentColumn();
+            for (; parent != null; parent = parent.getParentColumn()) {
+                ancestors.set(parent.getBitPosition());
+            }
+        }
+        double rowCount = 1;
+        for (int bit = bitKey.nextSetBit(0); bit >= 0;
+             bit = bitKey.nextSetBit(bit + 1))
+        {
+            if (ancestors.get(bit)) {
+                continue;
+            }
+            final int cardinality = star.getColumn(bit).getCardinality();
+            if (cardinality <= 0) {
+                return factRowCount;
+            }
+            rowCount *= cardinality;
+        }
+        return (long) Math.min(rowCount, factRowCount);
+    }
+
+    /**
+     * Converts recorded bit positions to a bit key, or returns null if they
+     * do not belong to the star (for example because the schema has
+     * changed).
+     */
+    private static BitKey toBitKey(RolapStar star, BitSet bits) {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(star.getColumnCount());
+        for (int bit = bits.nextSetBit(0); bit >= 0;
+             bit = bits.nextSetBit(bit + 1))
+        {
+            if (bit >= star.getColumnCount()
+                || star.getColumn(bit) instanceof RolapStar.Measure)
+            {
+                return null;
+            }
+            bitKey.set(bit);
+        }
+        return bitKey;
+    }
+
+    private static RolapStar.Column[] toColumns(RolapStar star, BitKey bitKey) {
+        final List<RolapStar.Column> list = new ArrayList<RolapStar.Column>();
+        for (int bit = bitKey.nextSetBit(0); bit >= 0;
+             bit = bitKey.nextSetBit(bit + 1))
+        {
+            list.add(star.getColumn(bit));
+        }
+        return list.toArray(new RolapStar.Column[list.size()]);
+    }
+
+    /**
+     * Prints the <code>&lt;AggName&gt;</code> element that maps an aggregate
+     * table generated by {@link AggGen#createCollapsed()} to the cube. The
+     * column names are those that {@link AggGen} generated.
+     */
+    private static void printAggName(
+        RolapCube cube,
+        String tableName,
+        AggGen aggGen,
+        PrintWriter pw)
+    {
+        // Map each star column to the level whose key it is.
+        final Map<RolapStar.Column, RolapCubeLevel> levels =
+            new HashMap<RolapStar.Column, RolapCubeLevel>();
+        for (Hierarchy hierarchy : cube.getHierarchies()) {
+            for (Level level : hierarchy.getLevels()) {
+                final RolapStar.Column column =
+                    ((RolapCubeLevel) level).getStarKeyColumn();
+                if (column != null) {
+                    levels.put(column, (RolapCubeLevel) level);
+                }
+            }
+        }
+        pw.print("<!-- In cube ");
+        pw.print(cube.getName());
+        pw.println(": -->");
+        pw.print("<AggName");
+        XMLUtil.printAtt(pw, "name", tableName);
+        pw.println(">");
+        pw.print("    <AggFactCount");
+        XMLUtil.printAtt(pw, "column", aggGen.getFactCount());
+        pw.println("/>");
+        final Map<String, RolapStar.Column> columns =
+            aggGen.getCollapsedColumns();
+        // Columns that hold neither a measure nor the key of a level of
+        // this cube, such as those of another dimension on the same table
+        for (Map.Entry<String, RolapStar.Column> entry : columns.entrySet()) {
+            if (!(entry.getValue() instanceof RolapStar.Measure)
+                && !levels.containsKey(entry.getValue()))
+            {
+                pw.print("    <AggIgnoreColumn");
+                XMLUtil.printAtt(pw, "column", entry.getKey());
+                pw.println("/>");
+            }
+        }
+        for (Map.Entry<String, RolapStar.Column> entry : columns.entrySet()) {
+            if (entry.getValue() instanceof RolapStar.Measure) {
+                pw.print("    <AggMeasure");
+                XMLUtil.printAtt(
+                    pw, "name",
+                    Util.makeFqName(
+                        Util.quoteMdxIdentifier(Dimension.MEASURES_NAME),
+                        entry.getValue().getName()));
+                XMLUtil.printAtt(pw, "column", entry.getKey());
+                pw.println("/>");
+            }
+        }
+        for (Map.Entry<String, RolapStar.Column> entry : columns.entrySet()) {
+            final RolapCubeLevel level = levels.get(entry.getValue());
+            if (level != null) {
+                pw.print("    <AggLevel");
+                XMLUtil.printAtt(pw, "name", level.getUniqueName());
+                XMLUtil.printAtt(pw, "column", entry.getKey());
+                pw.println("/>");
+            }
+        }
+        pw.println("</AggName>");
+    }
+
+    /**
+     * Candidate aggregate table: a node of the lattice.
+     */
+    static class Node {
+        final BitKey bitKey;
+        final long rowCount;
+        /** Benefit per row, set when the node is chosen. */
+        double benefit;
+
+        Node(BitKey bitKey, long rowCount) {
+            this.bitKey = bitKey;
+            this.rowCount = rowCount;
+        }
+    }
+
+    /**
+     * Recorded query: the columns it grouped by, weighted by the time its
+     * loads took.
+     */
+    static class Query {
+        final BitKey bitKey;
+        final double weight;
+
+        Query(BitKey bitKey, double weight) {
+            this.bitKey = bitKey;
+            this.weight = weight;
+        }
+    }
+}
+
+// End AggRecommender.java
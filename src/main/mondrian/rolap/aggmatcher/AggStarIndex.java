@@ -0,0 +1,162 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.aggmatcher;
+
+import mondrian.rolap.BitKey;
+import mondrian.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index over the aggregate tables of a star, used to choose an aggregate
+ * table for a query.
+ *
+ * <p>For each column of the star, the index holds the set of aggregate
+ * tables that contain that column, as a bit set of their ordinals. The
+ * aggregate tables that contain all of a query's columns, that is, the
+ * nodes of the aggregate lattice above the query, are the intersection of
+ * the sets of the query's columns. Ordinals follow the order of
+ * {@link mondrian.rolap.RolapStar#getAggStars()}, smallest first, so the
+ * candidates are produced in the same order as a scan of that list.
+ *
+ * <p>The index also remembers the aggregate table chosen for each
+ * combination of level and measure columns, and whether it requires a
+ * rollup. A star discards its index, and with it the memo, when its list
+ * of aggregate tables changes.
+ *
+ * <p>This class is thread-safe.
+ */
+public class AggStarIndex {
+    /** Maximum number of choices to remember. */
+    private static final int MAX_CHOICE_COUNT = 1000;
+
+    private final AggStar[] aggStars;
+
+    /**
+     * For each column bit position, the ordinals of the aggregate tables
+     * that contain the column.
+     */
+    private final BitSet[] aggStarsByColumn;
+
+    private final Map<Pair<BitKey, BitKey>, Choice> choices =
+        new ConcurrentHashMap<Pair<BitKey, BitKey>, Choice>();
+
+    /**
+     * Creates an AggStarIndex.
+     *
+     * @param aggStars Aggregate tables, in order of preference
+     */
+    public AggStarIndex(List<AggStar> aggStars) {
+        this.aggStars = aggStars.toArray(new AggStar[aggStars.size()]);
+        int columnCount = 0;
+        for (AggStar aggStar : this.aggStars) {
+            columnCount =
+                Math.max(columnCount, aggStar.getBitKey().toBitSet().length());
+        }
+        aggStarsByColumn = new BitSet[columnCount];
+        for (int i = 0; i < this.aggStars.length; i++) {
+            final BitKey bitKey = this.aggStars[i].getBitKey();
+            for (int bit = bitKey.nextSetBit(0); bit >= 0;
+                 bit = bitKey.nextSetBit(bit + 1))
+            {
+                if (aggStarsByColumn[bit] == null) {
+                    aggStarsByColumn[bit] = new BitSet(this.aggStars.length);
+                }
+                aggStarsByColumn[bit].set(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the aggregate tables whose columns are a superset of the given
+     * columns, in order of preference.
+     *
+     * <p>Equivalent to calling {@link AggStar#superSetMatch(BitKey)} on each
+     * aggregate table, but does not look at tables that lack a column.
+     *
+     * @param bitKey Columns
+     * @return Aggregate tables containing all of the columns
+     */
+    public List<AggStar> getSuperSets(BitKey bitKey) {
+        final BitSet ordinals = new BitSet(aggStars.length);
+        ordinals.set(0, aggStars.length);
+        for (int bit = bitKey.nextSetBit(0);
+             bit >= 0 && !ordinals.isEmpty();
+             bit = bitKey.nextSetBit(bit + 1))
+        {
+            if (bit >= aggStarsByColumn.length
+                || aggStarsByColumn[bit] == null)
+            {
+                return Collections.emptyList();
+            }
+            ordinals.and(aggStarsByColumn[bit]);
+        }
+        final List<AggStar> list = new ArrayList<AggStar>();
+        for (int i = ordinals.nextSetBit(0); i >= 0;
+             i = ordinals.nextSetBit(i + 1))
+        {
+            list.add(aggStars[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the remembered choice for a combination of level and measure
+     * columns, or null if there is none.
+     *
+     * @param levelBitKey Level columns
+     * @param measureBitKey Measure columns
+     * @return Choice, or null
+     */
+    public Choice getChoice(BitKey levelBitKey, BitKey measureBitKey) {
+        return choices.get(Pair.of(levelBitKey, measureBitKey));
+    }
+
+    /**
+     * Remembers the aggregate table chosen for a combination of level and
+     * measure columns.
+     *
+     * @param levelBitKey Level columns
+     * @param measureBitKey Measure columns
+     * @param aggStar Aggregate table, or null if none is suitable
+     * @param rollup Whether the aggregate table needs to be rolled up
+     */
+    public void putChoice(
+        BitKey levelBitKey,
+        BitKey measureBitKey,
+        AggStar aggStar,
+        boolean rollup)
+    {
+        if (choices.size() >= MAX_CHOICE_COUNT) {
+            choices.clear();
+        }
+        // Copy the keys; the caller may modify them.
+        choices.put(
+            Pair.of(levelBitKey.copy(), measureBitKey.copy()),
+            new Choice(aggStar, rollup));
+    }
+
+    /**
+     * Aggregate table chosen for a query, and whether it needs to be rolled
+     * up.
+     */
+    public static class Choice {
+        public final AggStar aggStar;
+        public final boolean rollup;
+
+        Choice(AggStar aggStar, boolean rollup) {
+            this.aggStar = aggStar;
+            this.rollup = rollup;
+        }
+    }
+}
+
+// End AggStarIndex.java
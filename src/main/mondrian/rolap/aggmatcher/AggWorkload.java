@@ -0,0 +1,253 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapStar;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log of the segment loads that make up a workload, used to recommend
+ * aggregate tables.
+ *
+ * <p>If {@link MondrianProperties#AggregateWorkloadFile} is set, each segment
+ * load from SQL appends one tab-separated line to the file: the schema,
+ * cube and fact table, the bit positions of the level and measure columns,
+ * the time taken in milliseconds, and the number of rows returned.
+ * {@link #read(Reader)} reads the lines back, combining loads of the same
+ * columns into one {@link Pattern}.
+ *
+ * <p>The file is not written by the thread that loads the segment. Loads
+ * recorded within a second of each other are appended together, by a
+ * background thread; those recorded in the last second before the JVM
+ * exits may be lost.
+ *
+ * @see AggRecommender
+ */
+public class AggWorkload {
+    private static final Logger LOGGER = Logger.getLogger(AggWorkload.class);
+
+    /** Delay between recording a load and appending it to the file. */
+    private static final long FLUSH_DELAY_MILLIS = 1000;
+
+    private static final ScheduledExecutorService FLUSH_EXECUTOR =
+        Util.getScheduledExecutorService(
+            1, "mondrian.rolap.aggmatcher.AggWorkload$flushExecutor");
+
+    /** Lines not yet written, by file name. Guarded by itself. */
+    private static final Map<String, StringBuilder> PENDING =
+        new LinkedHashMap<String, StringBuilder>();
+
+    /** Whether a flush has been scheduled and has not yet started. Guarded
+     * by {@link #PENDING}. */
+    private static boolean flushPending;
+
+    /**
+     * Held while writing, so that flushes happen one at a time and lines
+     * are appended in the order they were recorded.
+     */
+    private static final Object WRITE_LOCK = new Object();
+
+    private AggWorkload() {
+    }
+
+    /**
+     * Records a segment load, if workload recording is enabled, and
+     * schedules a flush.
+     *
+     * @param star Star
+     * @param cubeName Name of the cube that the measures belong to
+     * @param levelBitKey Columns grouped by
+     * @param measureBitKey Measures loaded
+     * @param loadNanos Time taken by the load, in nanoseconds
+     * @param rowCount Number of rows returned
+     */
+    public static void record(
+        RolapStar star,
+        String cubeName,
+        BitKey levelBitKey,
+        BitKey measureBitKey,
+        long loadNanos,
+        int rowCount)
+    {
+        final String fileName =
+            MondrianProperties.instance().AggregateWorkloadFile.get();
+        if (fileName == null || fileName.length() == 0) {
+            return;
+        }
+        final String line =
+            star.getSchema().getName()
+            + '\t' + cubeName
+            + '\t' + star.getFactTable().getAlias()
+            + '\t' + toString(levelBitKey)
+            + '\t' + toString(measureBitKey)
+            + '\t' + loadNanos / 1000000L
+            + '\t' + rowCount;
+        synchronized (PENDING) {
+            StringBuilder buf = PENDING.get(fileName);
+            if (buf == null) {
+                buf = new StringBuilder();
+                PENDING.put(fileName, buf);
+            }
+            buf.append(line).append('\n');
+            if (!flushPending) {
+                flushPending = true;
+                FLUSH_EXECUTOR.schedule(
+                    new Runnable() {
+                        public void run() {
+                            flush();
+                        }
+                    },
+                    FLUSH_DELAY_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Appends the loads recorded so far to the workload file now.
+     */
+    public static void flush() {
+        synchronized (WRITE_LOCK) {
+            final Map<String, StringBuilder> pending;
+            synchronized (PENDING) {
+                flushPending = false;
+                if (PENDING.isEmpty()) {
+                    return;
+                }
+                pending = new LinkedHashMap<String, StringBuilder>(PENDING);
+                PENDING.clear();
+            }
+            for (Map.Entry<String, StringBuilder> entry : pending.entrySet()) {
+                final String fileName = entry.getKey();
+                try {
+                    final Writer writer = new FileWriter(fileName, true);
+                    try {
+                        writer.write(entry.getValue().toString());
+                    } finally {
+                        writer.close();
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn(
+                        "Could not record workload in " + fileName, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a workload, combining the loads of each combination of schema,
+     * cube, fact table and level columns. Ignores malformed lines.
+     *
+     * @param reader Reader
+     * @return Patterns, in order of first occurrence
+     * @throws IOException on read error
+     */
+    public static List<Pattern> read(Reader reader) throws IOException {
+        final Map<List<Object>, Pattern> map =
+            new LinkedHashMap<List<Object>, Pattern>();
+        final BufferedReader bufferedReader = new BufferedReader(reader);
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            final String[] fields = line.split("\t", -1);
+            if (fields.length != 7) {
+                continue;
+            }
+            final BitSet levelBits;
+            final BitSet measureBits;
+            final long millis;
+            final long rowCount;
+            try {
+                levelBits = parseBits(fields[3]);
+                measureBits = parseBits(fields[4]);
+                millis = Long.parseLong(fields[5]);
+                rowCount = Long.parseLong(fields[6]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            final List<Object> key =
+                Arrays.<Object>asList(
+                    fields[0], fields[1], fields[2], levelBits);
+            Pattern pattern = map.get(key);
+            if (pattern == null) {
+                pattern =
+                    new Pattern(fields[0], fields[1], fields[2], levelBits);
+                map.put(key, pattern);
+            }
+            pattern.measureBits.or(measureBits);
+            pattern.loadCount++;
+            pattern.totalMillis += millis;
+            pattern.maxRowCount = Math.max(pattern.maxRowCount, rowCount);
+        }
+        return new ArrayList<Pattern>(map.values());
+    }
+
+    private static String toString(BitKey bitKey) {
+        final StringBuilder buf = new StringBuilder();
+        for (int bit = bitKey.nextSetBit(0); bit >= 0;
+             bit = bitKey.nextSetBit(bit + 1))
+        {
+            if (buf.length() > 0) {
+                buf.append(',');
+            }
+            buf.append(bit);
+        }
+        return buf.toString();
+    }
+
+    private static BitSet parseBits(String s) {
+        final BitSet bitSet = new BitSet();
+        if (s.length() > 0) {
+            for (String bit : s.split(",")) {
+                bitSet.set(Integer.parseInt(bit));
+            }
+        }
+        return bitSet;
+    }
+
+    /**
+     * The loads of one combination of level columns from one fact table.
+     */
+    public static class Pattern {
+        public final String schemaName;
+        public final String cubeName;
+        public final String factTableAlias;
+        public final BitSet levelBits;
+        /** Union of the measures loaded. */
+        public final BitSet measureBits = new BitSet();
+        public int loadCount;
+        /** Total time taken by the loads, in milliseconds. */
+        public long totalMillis;
+        /** Largest number of rows returned by a load. */
+        public long maxRowCount;
+
+        Pattern(
+            String schemaName,
+            String cubeName,
+            String factTableAlias,
+            BitSet levelBits)
+        {
+            this.schemaName = schemaName;
+            this.cubeName = cubeName;
+            this.factTableAlias = factTableAlias;
+            this.levelBits = levelBits;
+        }
+    }
+}
+
+// End AggWorkload.java
@@ -12,6 +12,7 @@ package mondrian.rolap.aggmatcher;
 
 import mondrian.olap.MondrianDef;
 import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapAggregator;
 import mondrian.rolap.RolapLevel;
@@ -28,6 +29,7 @@ import java.io.StringWriter;
 import java.lang.ref.SoftReference;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.sql.DataSource;
 
 /**
@@ -69,6 +71,11 @@ public class JdbcSchema {
         void removeDB(JdbcSchema db);
     }
 
+    /**
+     * Map from data source to its JdbcSchema. Guarded by its own monitor,
+     * which is held only briefly, so that loading or clearing the schema of
+     * one data source does not block access to the others.
+     */
     private static final Map<DataSource, SoftReference<JdbcSchema>> dbMap =
         new HashMap<DataSource, SoftReference<JdbcSchema>>();
 
@@ -92,7 +99,7 @@ public class JdbcSchema {
         }
     }
 
-    private static Factory factory;
+    private static volatile Factory factory;
 
     private synchronized static void makeFactory() {
         if (factory != null) {
@@ -124,22 +131,24 @@ public class JdbcSchema {
      * @param dataSource DataSource
      * @return instance of the JdbcSchema for the given DataSource
      */
-    public static synchronized JdbcSchema makeDB(DataSource dataSource) {
+    public static JdbcSchema makeDB(DataSource dataSource) {
         makeFactory();
 
-        JdbcSchema db = null;
-        SoftReference<JdbcSchema> ref = dbMap.get(dataSource);
-        if (ref != null) {
-            db = ref.get();
-        }
-        if (db == null) {
-            db = factory.makeDB(dataSource);
-            dbMap.put(dataSource, new SoftReference<JdbcSchema>(db));
-        }
+        synchronized (dbMap) {
+            JdbcSchema db = null;
+            SoftReference<JdbcSchema> ref = dbMap.get(dataSource);
+            if (ref != null) {
+                db = ref.get();
+            }
+            if (db == null) {
+                db = factory.makeDB(dataSource);
+                dbMap.put(dataSource, new SoftReference<JdbcSchema>(db));
+            }
 
-        sweepDB();
+            sweepDB();
 
-        return db;
+            return db;
+        }
     }
 
     /**
@@ -147,20 +156,26 @@ public class JdbcSchema {
      *
      * @param dataSource DataSource
      */
-    public static synchronized void clearDB(DataSource dataSource) {
+    public static void clearDB(DataSource dataSource) {
         makeFactory();
 
-        SoftReference<JdbcSchema> ref = dbMap.get(dataSource);
-        if (ref != null) {
-            JdbcSchema db = ref.get();
-            if (db != null) {
-                factory.clearDB(db);
-                db.clear();
-            } else {
-                dbMap.remove(dataSource);
+        JdbcSchema db = null;
+        synchronized (dbMap) {
+            SoftReference<JdbcSchema> ref = dbMap.get(dataSource);
+            if (ref != null) {
+                db = ref.get();
+                if (db == null) {
+                    dbMap.remove(dataSource);
+                }
             }
+            sweepDB();
+        }
+        // Clear outside the map's lock: clearing waits for any thread that
+        // is loading this data source's tables.
+        if (db != null) {
+            factory.clearDB(db);
+            db.clear();
         }
-        sweepDB();
     }
 
     /**
@@ -168,24 +183,28 @@ public class JdbcSchema {
      *
      * @param dataSource DataSource
      */
-    public static synchronized void removeDB(DataSource dataSource) {
+    public static void removeDB(DataSource dataSource) {
         makeFactory();
 
-        SoftReference<JdbcSchema> ref = dbMap.remove(dataSource);
-        if (ref != null) {
-            JdbcSchema db = ref.get();
-            if (db != null) {
-                factory.removeDB(db);
-                db.remove();
+        JdbcSchema db = null;
+        synchronized (dbMap) {
+            SoftReference<JdbcSchema> ref = dbMap.remove(dataSource);
+            if (ref != null) {
+                db = ref.get();
             }
+            sweepDB();
+        }
+        if (db != null) {
+            factory.removeDB(db);
+            db.remove();
         }
-        sweepDB();
     }
 
     /**
      * Every SWEEP_COUNT calls to this method, go through all elements of
      * the dbMap removing all that either have null values (null SoftReference)
-     * or those with SoftReference with null content.
+     * or those with SoftReference with null content. Caller must hold the
+     * lock on dbMap.
      */
     private static void sweepDB() {
         if (sweepDBCount++ > SWEEP_COUNT) {
@@ -1051,7 +1070,7 @@ public class JdbcSchema {
          *
          * @throws SQLException
          */
-        private void loadColumns() throws SQLException {
+        private synchronized void loadColumns() throws SQLException {
             if (! allColumnsLoaded) {
                 Connection conn = getDataSource().getConnection();
                 try {
@@ -1142,6 +1161,65 @@ public class JdbcSchema {
         loadTables();
     }
 
+    /**
+     * Loads the columns of several tables. Uses up to
+     * {@link MondrianProperties#AggregateMetadataThreads} threads, each
+     * reading the metadata of one table at a time on its own connection.
+     *
+     * @param tables Tables whose columns to load
+     * @throws SQLException on error
+     */
+    public void loadColumns(Collection<Table> tables) throws SQLException {
+        final List<Table> unloaded = new ArrayList<Table>();
+        for (Table table : tables) {
+            if (!table.allColumnsLoaded) {
+                unloaded.add(table);
+            }
+        }
+        final int threadCount =
+            Math.min(
+                unloaded.size(),
+                MondrianProperties.instance().AggregateMetadataThreads.get());
+        if (threadCount <= 1) {
+            for (Table table : unloaded) {
+                table.load();
+            }
+            return;
+        }
+        final ExecutorService executor =
+            Util.getExecutorService(
+                threadCount, threadCount, 1,
+                "mondrian.rolap.aggmatcher.JdbcSchema$loadColumns", null);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final Table table : unloaded) {
+                futures.add(
+                    executor.submit(
+                        new Callable<Void>() {
+                            public Void call() throws SQLException {
+                                table.load();
+                                return null;
+                            }
+                        }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    throw Util.newError(e, "Interrupted loading columns");
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof SQLException) {
+                        throw (SQLException) cause;
+                    }
+                    throw Util.newError(cause, "Error loading columns");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     protected synchronized void clear() {
         // keep the DataSource, clear/reset everything else
         allTablesLoaded = false;
@@ -1150,7 +1228,7 @@ public class JdbcSchema {
         tables.clear();
     }
 
-    protected void remove() {
+    protected synchronized void remove() {
         // set ALL instance variables to null
         clear();
         dataSource = null;
@@ -5,29 +5,227 @@
 // You must accept the terms of that agreement to use this software.
 //
 // Copyright (C) 2004-2005 Julian Hyde
-// Copyright (C) 2005-2009 Pentaho and others
+// Copyright (C) 2005-2017 Pentaho and others
 // All Rights Reserved.
 */
 
 package mondrian.rolap.cache;
 
+import mondrian.olap.MondrianProperties;
+
+import org.apache.log4j.Logger;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A <code>CachePool</code> manages the objects in a collection of
  * caches.
  *
+ * <p>Caches register with the pool, and tell it when they grow. When the
+ * combined size of all registered caches exceeds the budget set by
+ * {@link MondrianProperties#CachePoolSize}, the pool asks each cache to
+ * evict entries, in proportion to its size, until the total is back below
+ * 90% of the budget.</p>
+ *
+ * <p>Sizes are estimates; the budget is not a hard limit on heap usage.
+ * The pool holds caches via weak references, so a cache that is no longer
+ * used by its owner does not need to deregister.</p>
+ *
  * @author av
  */
 public class CachePool {
+    private static final Logger LOGGER = Logger.getLogger(CachePool.class);
+
+    /**
+     * Number of bytes that caches may grow between checks of the budget.
+     * Keeps the cost of {@link #reportGrowth(long)} low.
+     */
+    private static final long CHECK_BYTES = 1024 * 1024;
 
     /** The singleton. */
     private static CachePool instance = new CachePool();
 
+    private final List<WeakReference<Cache>> caches =
+        new ArrayList<WeakReference<Cache>>();
+
+    private final AtomicLong growthSinceCheck = new AtomicLong();
+
+    private final AtomicBoolean enforcing = new AtomicBoolean();
+
+    private long evictedByteCount;
+
     /** Returns the singleton. */
     public static CachePool instance() {
         return instance;
     }
 
-    private CachePool() {
+    CachePool() {
+    }
+
+    /**
+     * Registers a cache.
+     *
+     * @param cache Cache
+     */
+    public synchronized void register(Cache cache) {
+        // Forget caches that have been garbage-collected. Otherwise, if the
+        // budget is never checked, the list would grow each time a schema is
+        // loaded.
+        for (Iterator<WeakReference<Cache>> iterator = caches.iterator();
+             iterator.hasNext();)
+        {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+        caches.add(new WeakReference<Cache>(cache));
+    }
+
+    /**
+     * Deregisters a cache. Does nothing if the cache is not registered.
+     *
+     * @param cache Cache
+     */
+    public synchronized void deregister(Cache cache) {
+        for (Iterator<WeakReference<Cache>> iterator = caches.iterator();
+             iterator.hasNext();)
+        {
+            final Cache c = iterator.next().get();
+            if (c == null || c == cache) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Tells the pool that a cache has grown. Caches should call this method
+     * after adding an entry, and not while holding a lock that
+     * {@link Cache#evict(long)} would need.
+     *
+     * @param byteCount Approximate number of bytes added
+     */
+    public void reportGrowth(long byteCount) {
+        if (growthSinceCheck.addAndGet(byteCount) >= CHECK_BYTES) {
+            growthSinceCheck.set(0);
+            checkBudget();
+        }
+    }
+
+    /**
+     * Compares the size of the registered caches to the budget, and evicts
+     * entries if it is exceeded. If another thread is already evicting,
+     * returns immediately.
+     */
+    public void checkBudget() {
+        final long budget =
+            MondrianProperties.instance().CachePoolSize.get()
+            * 1024L * 1024L;
+        if (budget <= 0) {
+            return;
+        }
+        if (!enforcing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            enforce(budget);
+        } finally {
+            enforcing.set(false);
+        }
+    }
+
+    /**
+     * Returns the approximate combined size, in bytes, of all registered
+     * caches.
+     */
+    public long getByteSize() {
+        long total = 0;
+        for (Cache cache : getCaches()) {
+            total += cache.getByteSize();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of bytes evicted from caches since the pool was
+     * created.
+     */
+    public synchronized long getEvictedByteCount() {
+        return evictedByteCount;
+    }
+
+    /**
+     * Returns the registered caches that are still alive, and forgets the
+     * others.
+     */
+    private synchronized List<Cache> getCaches() {
+        final List<Cache> list = new ArrayList<Cache>(caches.size());
+        for (Iterator<WeakReference<Cache>> iterator = caches.iterator();
+             iterator.hasNext();)
+        {
+            final Cache cache = iterator.next().get();
+            if (cache == null) {
+                iterator.remove();
+            } else {
+                list.add(cache);
+            }
+        }
+        return list;
+    }
+
+    private void enforce(long budget) {
+        final List<Cache> list = getCaches();
+        final long[] sizes = new long[list.size()];
+        long total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = list.get(i).getByteSize();
+            total += sizes[i];
+        }
+        if (total <= budget) {
+            return;
+        }
+        final long excess = total - budget / 10 * 9;
+        long freed = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] <= 0) {
+                continue;
+            }
+            // Each cache gives up its share of the excess. Compute in
+            // double to avoid overflow.
+            final long share =
+                (long) Math.ceil((double) excess * sizes[i] / total);
+            freed += list.get(i).evict(Math.min(share, sizes[i]));
+        }
+        synchronized (this) {
+            evictedByteCount += freed;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "Cache pool exceeded budget of " + budget + " bytes (total "
+                + total + " bytes in " + list.size() + " caches); evicted "
+                + freed + " bytes");
+        }
+    }
+
+    /**
+     * A cache whose memory usage is governed by a {@link CachePool}.
+     */
+    public interface Cache {
+        /**
+         * Returns the approximate number of bytes used by this cache.
+         */
+        long getByteSize();
+
+        /**
+         * Removes entries from this cache to free at least a given number
+         * of bytes, if possible.
+         *
+         * @param byteCount Number of bytes to free
+         * @return Approximate number of bytes freed
+         */
+        long evict(long byteCount);
     }
 }
 
@@ -0,0 +1,337 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An implementation of {@link SmartCache} backed by a
+ * {@link ConcurrentHashMap}, for caches that are read by many threads at
+ * once, such as the member caches.
+ *
+ * <p>Unlike {@link SmartCacheImpl}, {@link #get} takes no lock. Writes
+ * ({@link #put}, {@link #remove}, {@link #clear}) share a lock with each
+ * other, so they also run concurrently, and only
+ * {@link #execute(SmartCacheTask)} takes the lock exclusively, to keep its
+ * guarantee that no other thread writes while the task runs.
+ *
+ * <p>In soft mode, values are held by soft references, like
+ * {@link SoftSmartCache}, and the garbage collector may clear them when
+ * memory is short; entries whose values have been cleared are removed the
+ * next time the cache is written. Keys are held by hard references until
+ * then. In hard mode, values are held by hard references, like
+ * {@link HardSmartCache}.
+ *
+ * <p>Registers itself with the {@link CachePool}. When asked to evict
+ * entries, it evicts the least recently used first, in two segments, like
+ * a segmented LRU cache: an entry starts in the probation segment, and
+ * moves to the protected segment when it is read. Entries in probation are
+ * evicted before protected entries, so an entry that is read once, for
+ * example by a scan over a large level, does not push out entries that are
+ * read again and again. After an eviction, the least recently used
+ * protected entries move back to probation, so that at most
+ * {@link #PROTECTED_RATIO} of the entries are protected. Reads only stamp
+ * the entry, so they still take no lock; eviction sorts the entries by
+ * their stamps while holding the lock shared, like any other write, so
+ * readers and writers are not blocked.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class ConcurrentSmartCache<K, V>
+    implements SmartCache<K, V>, CachePool.Cache
+{
+    /**
+     * Largest fraction of the entries that remain in the protected segment
+     * after an eviction.
+     */
+    static final double PROTECTED_RATIO = 0.8;
+
+    private final ConcurrentHashMap<K, Node> map =
+        new ConcurrentHashMap<K, Node>();
+
+    /** Source of access stamps; higher stamps are more recent. */
+    private final AtomicLong clock = new AtomicLong();
+    private final boolean soft;
+    private final ReferenceQueue<V> queue = new ReferenceQueue<V>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates a ConcurrentSmartCache.
+     *
+     * @param soft Whether to hold values by soft references
+     */
+    public ConcurrentSmartCache(boolean soft) {
+        this.soft = soft;
+        CachePool.instance().register(this);
+    }
+
+    public V put(K key, V value) {
+        if (value == null) {
+            // Null values are the same as a 'remove', as in SoftSmartCache.
+            return remove(key);
+        }
+        final V previous;
+        lock.readLock().lock();
+        try {
+            expungeStaleEntries();
+            final Node node =
+                new Node(wrap(key, value), clock.incrementAndGet());
+            final Node previousNode = map.put(key, node);
+            if (previousNode != null) {
+                // Replacing a value does not demote the entry.
+                node.inProtected = previousNode.inProtected;
+            }
+            previous = unwrap(previousNode);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (previous == null) {
+            CachePool.instance().reportGrowth(SmartCacheImpl.ENTRY_BYTE_SIZE);
+        }
+        return previous;
+    }
+
+    public V get(K key) {
+        final Node node = map.get(key);
+        final V value = unwrap(node);
+        if (value != null) {
+            node.stamp = clock.incrementAndGet();
+            if (!node.inProtected) {
+                node.inProtected = true;
+            }
+        }
+        return value;
+    }
+
+    public V remove(K key) {
+        lock.readLock().lock();
+        try {
+            expungeStaleEntries();
+            return unwrap(map.remove(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.readLock().lock();
+        try {
+            map.clear();
+            expungeStaleEntries();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            expungeStaleEntries();
+            return map.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void execute(SmartCacheTask<K, V> task) {
+        lock.writeLock().lock();
+        try {
+            expungeStaleEntries();
+            task.execute(new EntryIterator());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long getByteSize() {
+        return map.size() * SmartCacheImpl.ENTRY_BYTE_SIZE;
+    }
+
+    public long evict(long byteCount) {
+        long freed = 0;
+        lock.readLock().lock();
+        try {
+            expungeStaleEntries();
+            final List<Map.Entry<K, Node>> probation =
+                new ArrayList<Map.Entry<K, Node>>();
+            final List<Map.Entry<K, Node>> protectedEntries =
+                new ArrayList<Map.Entry<K, Node>>();
+            for (Map.Entry<K, Node> entry : map.entrySet()) {
+                if (entry.getValue().inProtected) {
+                    protectedEntries.add(entry);
+                } else {
+                    probation.add(entry);
+                }
+            }
+            Collections.sort(probation, STAMP_COMPARATOR);
+            Collections.sort(protectedEntries, STAMP_COMPARATOR);
+            int protectedCount = protectedEntries.size();
+            for (List<Map.Entry<K, Node>> segment
+                : Arrays.asList(probation, protectedEntries))
+            {
+                final Iterator<Map.Entry<K, Node>> iterator =
+                    segment.iterator();
+                while (freed < byteCount && iterator.hasNext()) {
+                    final Map.Entry<K, Node> entry = iterator.next();
+                    iterator.remove();
+                    if (segment == protectedEntries) {
+                        --protectedCount;
+                    }
+                    // The entry may have been replaced or removed since;
+                    // only count what this call removes.
+                    if (map.remove(entry.getKey(), entry.getValue())) {
+                        freed += SmartCacheImpl.ENTRY_BYTE_SIZE;
+                    }
+                }
+            }
+            // Move the least recently used protected entries to probation,
+            // so that they are the next to go unless they are read again.
+            final int maxProtected = (int) (map.size() * PROTECTED_RATIO);
+            for (Map.Entry<K, Node> entry : protectedEntries) {
+                if (protectedCount <= maxProtected) {
+                    break;
+                }
+                entry.getValue().inProtected = false;
+                --protectedCount;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return freed;
+    }
+
+    private Object wrap(K key, V value) {
+        return soft ? new ValueReference<K, V>(key, value, queue) : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V unwrap(Node node) {
+        if (node == null) {
+            return null;
+        }
+        return soft
+            ? ((ValueReference<K, V>) node.value).get()
+            : (V) node.value;
+    }
+
+    /**
+     * Removes the entries whose values have been cleared by the garbage
+     * collector.
+     */
+    @SuppressWarnings("unchecked")
+    private void expungeStaleEntries() {
+        ValueReference<K, V> ref;
+        while ((ref = (ValueReference<K, V>) queue.poll()) != null) {
+            // Only remove the entry if it still holds the cleared reference;
+            // the key may have been given a new value since.
+            final Node node = map.get(ref.key);
+            if (node != null && node.value == ref) {
+                map.remove(ref.key, node);
+            }
+        }
+    }
+
+    /**
+     * Orders entries from least to most recently used.
+     */
+    private static final Comparator<Map.Entry<?, Node>> STAMP_COMPARATOR =
+        new Comparator<Map.Entry<?, Node>>() {
+            public int compare(Map.Entry<?, Node> o1, Map.Entry<?, Node> o2) {
+                final long stamp1 = o1.getValue().stamp;
+                final long stamp2 = o2.getValue().stamp;
+                return stamp1 < stamp2 ? -1 : stamp1 == stamp2 ? 0 : 1;
+            }
+        };
+
+    /**
+     * Entry in the map: a value, or a soft reference to it, and when and
+     * how the entry has been used.
+     */
+    private static class Node {
+        /** Value, or {@link ValueReference} to it in soft mode. */
+        final Object value;
+
+        /** When the entry was last written or read. */
+        volatile long stamp;
+
+        /** Whether the entry is in the protected segment. */
+        volatile boolean inProtected;
+
+        Node(Object value, long stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Soft reference to a value, which remembers its key so that the entry
+     * can be removed when the value is cleared.
+     */
+    private static class ValueReference<K, V> extends SoftReference<V> {
+        private final K key;
+
+        ValueReference(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Iterator over the entries whose values have not been cleared.
+     * {@link #remove()} removes the entry most recently returned by
+     * {@link #next()}.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final Iterator<Map.Entry<K, Node>> iterator =
+            map.entrySet().iterator();
+        private Map.Entry<K, V> next;
+        private K lastKey;
+
+        public boolean hasNext() {
+            while (next == null && iterator.hasNext()) {
+                final Map.Entry<K, Node> entry = iterator.next();
+                final V value = unwrap(entry.getValue());
+                if (value != null) {
+                    next =
+                        new AbstractMap.SimpleImmutableEntry<K, V>(
+                            entry.getKey(), value);
+                }
+            }
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<K, V> entry = next;
+            next = null;
+            lastKey = entry.getKey();
+            return entry;
+        }
+
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            map.remove(lastKey);
+            lastKey = null;
+        }
+    }
+}
+
+// End ConcurrentSmartCache.java
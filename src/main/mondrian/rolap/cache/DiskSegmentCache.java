@@ -0,0 +1,664 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.spi.*;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that stores segments
+ * in a file, so that they survive a restart of the JVM.
+ *
+ * <p>Segments are stored in an append-only log in the directory given by
+ * {@link MondrianProperties#DiskSegmentCacheDirectory}. Each record holds a
+ * serialized header and body, or, if the segment has been removed, just the
+ * header. An index of the live segments, keyed by header, is kept in memory.
+ * When more than half of the log is dead records, the log is rewritten.</p>
+ *
+ * <p>On startup, the log is read and the index rebuilt. A record that was
+ * partly written when the previous process died fails its checksum, and is
+ * discarded along with everything after it. The reloaded headers are
+ * returned by {@link #getSegmentHeaders()}, which
+ * {@link mondrian.rolap.agg.SegmentCacheManager} calls when it starts, so
+ * that each star's segment index is populated as soon as its schema is
+ * loaded. In addition, each listener is sent an
+ * {@link SegmentCacheListener.SegmentCacheEvent.EventType#ENTRY_CREATED}
+ * event for each reloaded header when it is added. These events are not
+ * local, because the segments were created by another process.</p>
+ *
+ * <p>Segments removed by {@link mondrian.olap.CacheControl} are removed
+ * from the log too, so that they are not reloaded after a restart.</p>
+ *
+ * <p>Only one process may use a directory at a time. To use this cache, set
+ * {@link MondrianProperties#SegmentCache} to
+ * <code>mondrian.rolap.cache.DiskSegmentCache</code>.</p>
+ */
+public class DiskSegmentCache implements SegmentCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(DiskSegmentCache.class);
+
+    private static final String LOG_FILE_NAME = "segments.log";
+    private static final String LOCK_FILE_NAME = "segments.lck";
+
+    private static final int MAGIC = 0x4d534331; // "MSC1"
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * Minimum number of dead bytes before the log is compacted. Avoids
+     * rewriting a small log over and over.
+     */
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    private final File directory;
+    private final boolean sync;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private RandomAccessFile log;
+
+    /** Location of each live segment in the log. */
+    private final Map<SegmentHeader, Location> index =
+        new HashMap<SegmentHeader, Location>();
+
+    /** Headers that were read from the log when the cache started. */
+    private final List<SegmentHeader> reloadedHeaders;
+
+    /** Number of bytes in the log that belong to live segments. */
+    private long liveBytes;
+
+    /** Number of bytes in the log that belong to dead records. */
+    private long deadBytes;
+
+    private final List<SegmentCacheListener> listeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    /**
+     * Creates a DiskSegmentCache configured by mondrian properties.
+     * This is the constructor used when the cache is selected by the
+     * {@link MondrianProperties#SegmentCache} property.
+     */
+    public DiskSegmentCache() {
+        this(
+            defaultDirectory(),
+            MondrianProperties.instance().DiskSegmentCacheSync.get());
+    }
+
+    /**
+     * Creates a DiskSegmentCache, reloading any segments already stored in
+     * the directory.
+     *
+     * @param directory Directory in which to store the log; created if it
+     *     does not exist
+     * @param sync Whether to force each write to the storage device before
+     *     returning
+     */
+    public DiskSegmentCache(File directory, boolean sync) {
+        this.directory = directory;
+        this.sync = sync;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw Util.newError(
+                "Unable to create segment cache directory '" + directory
+                + "'");
+        }
+        RandomAccessFile lockFile = null;
+        FileLock lock = null;
+        boolean opened = false;
+        try {
+            lockFile =
+                new RandomAccessFile(
+                    new File(directory, LOCK_FILE_NAME), "rw");
+            lock = tryLock(lockFile);
+            if (lock == null) {
+                throw Util.newError(
+                    "Segment cache directory '" + directory
+                    + "' is in use by another process");
+            }
+            log =
+                new RandomAccessFile(new File(directory, LOG_FILE_NAME), "rw");
+            reload();
+            if (deadBytes > liveBytes && deadBytes > 0) {
+                compact();
+            }
+            opened = true;
+        } catch (IOException e) {
+            throw Util.newError(
+                e, "Unable to open segment cache in '" + directory + "'");
+        } finally {
+            if (!opened) {
+                // Release the directory, so that it can be opened again.
+                close(log);
+                if (lock != null) {
+                    try {
+                        lock.release();
+                    } catch (IOException e) {
+                        LOGGER.warn("Unable to release " + LOCK_FILE_NAME, e);
+                    }
+                }
+                close(lockFile);
+            }
+        }
+        this.lockFile = lockFile;
+        this.lock = lock;
+        this.reloadedHeaders = new ArrayList<SegmentHeader>(index.keySet());
+        LOGGER.info(
+            "Reloaded " + reloadedHeaders.size() + " segments from "
+            + directory);
+    }
+
+    private static FileLock tryLock(RandomAccessFile file)
+        throws IOException
+    {
+        try {
+            return file.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Another cache in this JVM holds the lock.
+            return null;
+        }
+    }
+
+    private static void close(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close segment cache file", e);
+            }
+        }
+    }
+
+    private static File defaultDirectory() {
+        final String name =
+            MondrianProperties.instance().DiskSegmentCacheDirectory.get();
+        if (name != null && !name.equals("")) {
+            return new File(name);
+        }
+        return new File(
+            System.getProperty("java.io.tmpdir"), "mondrian-segment-cache");
+    }
+
+    /**
+     * Reads the log and rebuilds the index. Truncates the log after the last
+     * valid record.
+     */
+    private void reload() throws IOException {
+        final long length = log.length();
+        if (length == 0) {
+            log.writeInt(MAGIC);
+            return;
+        }
+        if (length < 4 || log.readInt() != MAGIC) {
+            throw Util.newError(
+                "File '" + new File(directory, LOG_FILE_NAME)
+                + "' is not a segment cache log");
+        }
+        // Read through a stream of our own. A stream on the log's file
+        // descriptor would close the log when closed.
+        final DataInputStream in =
+            new DataInputStream(
+                new BufferedInputStream(
+                    new FileInputStream(new File(directory, LOG_FILE_NAME))));
+        try {
+            // Skip the magic number, which we have already checked.
+            in.readInt();
+            readRecords(in, length);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the records that follow the magic number, rebuilding the index,
+     * and truncates the log after the last valid record.
+     */
+    private void readRecords(DataInputStream in, long length)
+        throws IOException
+    {
+        long offset = 4;
+        while (offset < length) {
+            Record record;
+            try {
+                record = Record.read(in, length - offset);
+            } catch (EOFException e) {
+                record = null;
+            }
+            if (record == null) {
+                LOGGER.warn(
+                    "Discarding " + (length - offset) + " bytes of "
+                    + "incomplete segment cache log at offset " + offset);
+                break;
+            }
+            final SegmentHeader header;
+            try {
+                header = (SegmentHeader) deserialize(record.header);
+            } catch (Exception e) {
+                // Typically, the SegmentHeader class has changed
+                // incompatibly since the segment was written. Skip it.
+                LOGGER.warn("Unable to read segment header; skipping", e);
+                deadBytes += record.length;
+                offset += record.length;
+                continue;
+            }
+            final Location previous = index.remove(header);
+            if (previous != null) {
+                liveBytes -= previous.length;
+                deadBytes += previous.length;
+            }
+            if (record.type == PUT) {
+                index.put(
+                    header,
+                    new Location(
+                        offset, record.length, record.header.length,
+                        record.body.length));
+                liveBytes += record.length;
+            } else {
+                deadBytes += record.length;
+            }
+            offset += record.length;
+        }
+        log.setLength(offset);
+        log.seek(offset);
+    }
+
+    public SegmentBody get(SegmentHeader header) {
+        synchronized (this) {
+            final Location location = index.get(header);
+            if (location == null) {
+                return null;
+            }
+            try {
+                final byte[] bytes = new byte[location.bodyLength];
+                log.seek(location.bodyOffset());
+                log.readFully(bytes);
+                return (SegmentBody) deserialize(bytes);
+            } catch (Exception e) {
+                LOGGER.error("Unable to read segment " + header, e);
+            }
+        }
+        // The entry is unreadable, and would fail again next time. Remove
+        // it, so that the segment is loaded afresh.
+        remove(header);
+        return null;
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return index.containsKey(header);
+    }
+
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
+        return new ArrayList<SegmentHeader>(index.keySet());
+    }
+
+    public boolean put(final SegmentHeader header, SegmentBody body) {
+        assert header != null;
+        assert body != null;
+        final Record record;
+        try {
+            record = new Record(PUT, serialize(header), serialize(body));
+        } catch (IOException e) {
+            LOGGER.error("Unable to serialize segment " + header, e);
+            return false;
+        }
+        synchronized (this) {
+            try {
+                final long offset = append(record);
+                discard(index.put(
+                    header,
+                    new Location(
+                        offset, record.length, record.header.length,
+                        record.body.length)));
+                liveBytes += record.length;
+                compactIfNeeded();
+            } catch (IOException e) {
+                LOGGER.error("Unable to write segment " + header, e);
+                return false;
+            }
+        }
+        fireSegmentCacheEvent(
+            new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return SegmentCacheListener.SegmentCacheEvent
+                        .EventType.ENTRY_CREATED;
+                }
+            });
+        return true;
+    }
+
+    public boolean remove(final SegmentHeader header) {
+        synchronized (this) {
+            final Location location = index.remove(header);
+            if (location == null) {
+                return false;
+            }
+            discard(location);
+            try {
+                // Write a tombstone, so that the segment is not reloaded
+                // after a restart.
+                final Record record =
+                    new Record(REMOVE, serialize(header), null);
+                append(record);
+                deadBytes += record.length;
+                compactIfNeeded();
+            } catch (IOException e) {
+                LOGGER.error("Unable to remove segment " + header, e);
+            }
+        }
+        fireSegmentCacheEvent(
+            new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return
+                        SegmentCacheListener.SegmentCacheEvent
+                            .EventType.ENTRY_DELETED;
+                }
+            });
+        return true;
+    }
+
+    /**
+     * Closes the log and releases the directory. The stored segments are
+     * kept, and will be reloaded by the next cache to open the directory.
+     */
+    public synchronized void tearDown() {
+        index.clear();
+        listeners.clear();
+        try {
+            log.close();
+            lock.release();
+            lockFile.close();
+        } catch (IOException e) {
+            LOGGER.warn("Error while closing segment cache", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Also sends the listener a non-local
+     * {@link SegmentCacheListener.SegmentCacheEvent.EventType#ENTRY_CREATED}
+     * event for each segment that was reloaded from disk and is still in
+     * the cache.</p>
+     */
+    public void addListener(SegmentCacheListener listener) {
+        listeners.add(listener);
+        final List<SegmentHeader> headers = new ArrayList<SegmentHeader>();
+        synchronized (this) {
+            for (SegmentHeader header : reloadedHeaders) {
+                if (index.containsKey(header)) {
+                    headers.add(header);
+                }
+            }
+        }
+        for (final SegmentHeader header : headers) {
+            listener.handle(
+                new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
+                    public boolean isLocal() {
+                        return false;
+                    }
+                    public SegmentHeader getSource() {
+                        return header;
+                    }
+                    public EventType getEventType() {
+                        return SegmentCacheListener.SegmentCacheEvent
+                            .EventType.ENTRY_CREATED;
+                    }
+                });
+        }
+    }
+
+    public void removeListener(SegmentCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean supportsRichIndex() {
+        return true;
+    }
+
+    public void fireSegmentCacheEvent(
+        SegmentCache.SegmentCacheListener.SegmentCacheEvent evt)
+    {
+        for (SegmentCacheListener listener : listeners) {
+            listener.handle(evt);
+        }
+    }
+
+    /**
+     * Appends a record to the log, and returns its offset. Must be called
+     * while holding the lock.
+     */
+    private long append(Record record) throws IOException {
+        final long offset = log.length();
+        log.seek(offset);
+        final ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(record.length);
+        record.write(new DataOutputStream(bytes));
+        log.write(bytes.toByteArray());
+        if (sync) {
+            log.getFD().sync();
+        }
+        return offset;
+    }
+
+    /**
+     * Accounts for a live record becoming dead. Must be called while holding
+     * the lock.
+     */
+    private void discard(Location location) {
+        if (location != null) {
+            liveBytes -= location.length;
+            deadBytes += location.length;
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (deadBytes > liveBytes && deadBytes > MIN_COMPACT_BYTES) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the log so that it contains only live segments. Must be
+     * called while holding the lock.
+     */
+    private void compact() throws IOException {
+        final File file = new File(directory, LOG_FILE_NAME);
+        final File tmpFile = new File(directory, LOG_FILE_NAME + ".tmp");
+        final Map<SegmentHeader, Location> newIndex =
+            new HashMap<SegmentHeader, Location>();
+        final DataOutputStream out =
+            new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            long offset = 4;
+            for (Map.Entry<SegmentHeader, Location> entry : index.entrySet()) {
+                final Location location = entry.getValue();
+                final byte[] bytes = new byte[location.length];
+                log.seek(location.offset);
+                log.readFully(bytes);
+                out.write(bytes);
+                newIndex.put(
+                    entry.getKey(),
+                    new Location(
+                        offset, location.length, location.headerLength,
+                        location.bodyLength));
+                offset += location.length;
+            }
+            out.flush();
+            written = true;
+        } finally {
+            out.close();
+            if (!written) {
+                tmpFile.delete();
+            }
+        }
+        // Some platforms cannot replace a file that is open, so close the
+        // log first. Whether or not the move succeeds, reopen whichever log
+        // is in place; if it is the old one, the old index still applies.
+        log.close();
+        boolean moved = false;
+        try {
+            Files.move(
+                tmpFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            if (!moved) {
+                tmpFile.delete();
+            }
+            log = new RandomAccessFile(file, "rw");
+        }
+        log.seek(log.length());
+        if (sync) {
+            log.getFD().sync();
+        }
+        index.clear();
+        index.putAll(newIndex);
+        deadBytes = 0;
+        LOGGER.debug(
+            "Compacted segment cache log to " + liveBytes + " bytes");
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(o);
+        oos.close();
+        return out.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes)
+        throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream ois =
+            new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * Location of a segment in the log.
+     */
+    private static class Location {
+        final long offset;
+        final int length;
+        final int headerLength;
+        final int bodyLength;
+
+        Location(long offset, int length, int headerLength, int bodyLength) {
+            this.offset = offset;
+            this.length = length;
+            this.headerLength = headerLength;
+            this.bodyLength = bodyLength;
+        }
+
+        long bodyOffset() {
+            // type, header length, header, body length
+            return offset + 1 + 4 + headerLength + 4;
+        }
+    }
+
+    /**
+     * Record in the log.
+     *
+     * <p>Format: type (byte), header length (int), header, body length (int),
+     * body, CRC-32 of all preceding fields (int). A {@link #REMOVE} record
+     * has a body of length 0.</p>
+     */
+    private static class Record {
+        final byte type;
+        final byte[] header;
+        final byte[] body;
+        final int length;
+
+        Record(byte type, byte[] header, byte[] body) {
+            this.type = type;
+            this.header = header;
+            this.body = body == null ? new byte[0] : body;
+            this.length = 1 + 4 + header.length + 4 + this.body.length + 4;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            out.writeInt(header.length);
+            out.write(header);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeInt(checksum(type, header, body));
+            out.flush();
+        }
+
+        /**
+         * Reads a record, or returns null if the record is not valid.
+         *
+         * @param in Input stream
+         * @param remaining Number of bytes remaining in the log
+         */
+        static Record read(DataInputStream in, long remaining)
+            throws IOException
+        {
+            final byte type = in.readByte();
+            if (type != PUT && type != REMOVE) {
+                return null;
+            }
+            final int headerLength = in.readInt();
+            if (headerLength < 0 || headerLength > remaining) {
+                return null;
+            }
+            final byte[] header = new byte[headerLength];
+            in.readFully(header);
+            final int bodyLength = in.readInt();
+            if (bodyLength < 0 || bodyLength > remaining - headerLength) {
+                return null;
+            }
+            final byte[] body = new byte[bodyLength];
+            in.readFully(body);
+            if (in.readInt() != checksum(type, header, body)) {
+                return null;
+            }
+            return new Record(type, header, body);
+        }
+
+        static int checksum(byte type, byte[] header, byte[] body) {
+            final CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(header);
+            crc.update(body);
+            return (int) crc.getValue();
+        }
+    }
+}
+
+// End DiskSegmentCache.java
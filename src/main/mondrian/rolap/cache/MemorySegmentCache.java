@@ -9,12 +9,17 @@
 
 package mondrian.rolap.cache;
 
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
 import mondrian.spi.*;
+import mondrian.util.Pair;
 
 import java.lang.ref.SoftReference;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of {@link mondrian.spi.SegmentCache} that stores segments
@@ -23,36 +28,126 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * <p>Segments are held via soft references, so the garbage collector can remove
  * them if it sees fit.</p>
  *
+ * <p>The cache registers with the {@link CachePool}, and may also have a
+ * budget of its own, set by
+ * {@link mondrian.olap.MondrianProperties#MemorySegmentCacheSize}. If either
+ * budget is exceeded, segments are removed, just as if the garbage collector
+ * had cleared them. Which segments are removed depends on the
+ * {@link EvictionPolicy}.</p>
+ *
  * @author Julian Hyde
  */
-public class MemorySegmentCache implements SegmentCache {
+public class MemorySegmentCache implements SegmentCache, CachePool.Cache {
+    /**
+     * Policy that decides which segments to remove when a budget is
+     * exceeded.
+     */
+    public enum EvictionPolicy {
+        /** Removes the least recently used segments. */
+        LRU,
+
+        /**
+         * Removes the segments that are cheapest to keep out of the cache,
+         * using the GreedyDual-Size-Frequency algorithm. A segment's
+         * priority is the time it took to load, times the number of times it
+         * has been read, divided by its size, plus an inflation value that
+         * is raised to the priority of each evicted segment, so that
+         * segments that are no longer read eventually age out. Segments with
+         * the lowest priority are removed first.
+         */
+        COST
+    }
+
     // Use a thread-safe map because the SegmentCache
     // interface requires thread safety.
-    private final Map<SegmentHeader, SoftReference<SegmentBody>> map =
-        new ConcurrentHashMap<SegmentHeader, SoftReference<SegmentBody>>();
+    private final ConcurrentMap<SegmentHeader, BodyRef> map =
+        new ConcurrentHashMap<SegmentHeader, BodyRef>();
     private final List<SegmentCacheListener> listeners =
         new CopyOnWriteArrayList<SegmentCacheListener>();
 
+    private final SegmentStatistics statistics;
+    private final long byteBudget;
+    private final EvictionPolicy evictionPolicy;
+
+    /** Approximate number of bytes used by the segments in the map. */
+    private final AtomicLong byteSize = new AtomicLong();
+
+    /** Logical clock, used to find the least recently used segments. */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Inflation value of the COST policy: the highest priority of any
+     * segment evicted so far.
+     */
+    private volatile double inflation;
+
+    /**
+     * Creates a MemorySegmentCache with its own statistics, and a budget
+     * and eviction policy from the current properties.
+     */
+    public MemorySegmentCache() {
+        this(new SegmentStatistics());
+    }
+
+    /**
+     * Creates a MemorySegmentCache with a budget and eviction policy from the
+     * current properties.
+     *
+     * @param statistics Statistics of segment load costs and hits
+     */
+    public MemorySegmentCache(SegmentStatistics statistics) {
+        this(
+            statistics,
+            (long) MondrianProperties.instance().MemorySegmentCacheSize.get()
+                * 1024L * 1024L,
+            Util.lookup(
+                EvictionPolicy.class,
+                MondrianProperties.instance()
+                    .MemorySegmentCacheEvictionPolicy.get().toUpperCase(),
+                EvictionPolicy.COST));
+    }
+
+    /**
+     * Creates a MemorySegmentCache.
+     *
+     * @param statistics Statistics of segment load costs and hits
+     * @param byteBudget Maximum number of bytes to use, or 0 to be limited
+     *     only by the {@link CachePool}
+     * @param evictionPolicy Eviction policy
+     */
+    public MemorySegmentCache(
+        SegmentStatistics statistics,
+        long byteBudget,
+        EvictionPolicy evictionPolicy)
+    {
+        this.statistics = statistics;
+        this.byteBudget = byteBudget;
+        this.evictionPolicy = evictionPolicy;
+        CachePool.instance().register(this);
+    }
+
     public SegmentBody get(SegmentHeader header) {
-        final SoftReference<SegmentBody> ref = map.get(header);
+        final BodyRef ref = map.get(header);
         if (ref == null) {
             return null;
         }
         final SegmentBody body = ref.get();
         if (body == null) {
-            map.remove(header);
+            removeRef(header, ref);
+        } else {
+            ref.priority = priority(header, ref.byteSize);
         }
         return body;
     }
 
     public boolean contains(SegmentHeader header) {
-        final SoftReference<SegmentBody> ref = map.get(header);
+        final BodyRef ref = map.get(header);
         if (ref == null) {
             return false;
         }
         final SegmentBody body = ref.get();
         if (body == null) {
-            map.remove(header);
+            removeRef(header, ref);
             return false;
         }
         return true;
@@ -67,7 +162,11 @@ public class MemorySegmentCache implements SegmentCache {
         // and throwing an exception?
         assert header != null;
         assert body != null;
-        map.put(header, new SoftReference<SegmentBody>(body));
+        final long size = estimateByteSize(body);
+        final BodyRef ref = new BodyRef(body, size, priority(header, size));
+        final BodyRef previous = map.put(header, ref);
+        byteSize.addAndGet(
+            previous == null ? size : size - previous.byteSize);
         fireSegmentCacheEvent(
             new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
                 public boolean isLocal() {
@@ -81,13 +180,23 @@ public class MemorySegmentCache implements SegmentCache {
                         .EventType.ENTRY_CREATED;
                 }
             });
+        CachePool.instance().reportGrowth(ref.byteSize);
+        if (byteBudget > 0) {
+            final long total = byteSize.get();
+            if (total > byteBudget) {
+                // Like the cache pool, evict down to 90% of the budget, so
+                // that we do not evict on every put.
+                evict(total - byteBudget / 10 * 9);
+            }
+        }
         return true; // success
     }
 
     public boolean remove(final SegmentHeader header) {
-        final boolean result =
-            map.remove(header) != null;
+        final BodyRef ref = map.remove(header);
+        final boolean result = ref != null;
         if (result) {
+            byteSize.addAndGet(-ref.byteSize);
             fireSegmentCacheEvent(
                 new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
                     public boolean isLocal() {
@@ -108,6 +217,7 @@ public class MemorySegmentCache implements SegmentCache {
 
     public void tearDown() {
         map.clear();
+        byteSize.set(0);
         listeners.clear();
     }
 
@@ -130,6 +240,123 @@ public class MemorySegmentCache implements SegmentCache {
             listener.handle(evt);
         }
     }
+
+    public long getByteSize() {
+        return byteSize.get();
+    }
+
+    public synchronized long evict(long byteCount) {
+        // Take a snapshot of the priorities. They change as segments are
+        // read, and the sort requires a consistent order.
+        final List<Pair<Double, Map.Entry<SegmentHeader, BodyRef>>> entries =
+            new ArrayList<Pair<Double, Map.Entry<SegmentHeader, BodyRef>>>(
+                map.size());
+        for (Map.Entry<SegmentHeader, BodyRef> entry : map.entrySet()) {
+            entries.add(Pair.of(entry.getValue().priority, entry));
+        }
+        Collections.sort(
+            entries,
+            new Comparator<Pair<Double, Map.Entry<SegmentHeader, BodyRef>>>()
+            {
+                public int compare(
+                    Pair<Double, Map.Entry<SegmentHeader, BodyRef>> o1,
+                    Pair<Double, Map.Entry<SegmentHeader, BodyRef>> o2)
+                {
+                    return Double.compare(o1.left, o2.left);
+                }
+            });
+        long freed = 0;
+        for (Pair<Double, Map.Entry<SegmentHeader, BodyRef>> pair : entries) {
+            if (freed >= byteCount) {
+                break;
+            }
+            // Like a soft reference being cleared, eviction does not fire
+            // an event. The segment index finds out on its next access.
+            final BodyRef ref = pair.right.getValue();
+            if (removeRef(pair.right.getKey(), ref)) {
+                freed += ref.byteSize;
+                if (evictionPolicy == EvictionPolicy.COST
+                    && pair.left > inflation)
+                {
+                    inflation = pair.left;
+                }
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Returns the eviction priority of a segment that has just been added
+     * or read. Segments with lower priority are evicted first.
+     */
+    private double priority(SegmentHeader header, long size) {
+        switch (evictionPolicy) {
+        case COST:
+            final SegmentStatistics.Entry entry = statistics.get(header);
+            // Add a millisecond to the load time, so that segments whose
+            // cost is unknown (for example, those that came from an external
+            // cache) are still ranked by size and frequency.
+            final double cost =
+                1d + (entry == null ? 0d : entry.getLoadNanos() / 1000000d);
+            final long hitCount = entry == null ? 0 : entry.getHitCount();
+            return inflation + cost * (hitCount + 1) / Math.max(size, 1L);
+        default:
+            return clock.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes a segment from the map, if it is still mapped to a given
+     * reference.
+     */
+    private boolean removeRef(SegmentHeader header, BodyRef ref) {
+        if (map.remove(header, ref)) {
+            byteSize.addAndGet(-ref.byteSize);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Estimates the number of bytes used by a segment body.
+     */
+    public static long estimateByteSize(SegmentBody body) {
+        long size = 64;
+        for (SortedSet<Comparable> axisValueSet : body.getAxisValueSets()) {
+            // Tree node plus a boxed or string value.
+            size += axisValueSet.size() * 64L;
+        }
+        Object values;
+        try {
+            values = body.getValueArray();
+        } catch (UnsupportedOperationException e) {
+            // Sparse body: a key and a boxed value per cell.
+            return size + body.getValueMap().size() * 64L;
+        }
+        if (values instanceof double[]) {
+            size += ((double[]) values).length * 8L;
+        } else if (values instanceof int[]) {
+            size += ((int[]) values).length * 4L;
+        } else if (values instanceof Object[]) {
+            size += ((Object[]) values).length * 24L;
+        }
+        return size;
+    }
+
+    /**
+     * Soft reference to a segment body, with the information needed to
+     * choose segments to evict.
+     */
+    private static class BodyRef extends SoftReference<SegmentBody> {
+        final long byteSize;
+        volatile double priority;
+
+        BodyRef(SegmentBody body, long byteSize, double priority) {
+            super(body);
+            this.byteSize = byteSize;
+            this.priority = priority;
+        }
+    }
 }
 
 // End MemorySegmentCache.java
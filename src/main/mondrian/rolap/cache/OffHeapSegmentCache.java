@@ -0,0 +1,519 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.agg.SegmentBuilder;
+import mondrian.spi.*;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that stores segments
+ * outside the Java heap, within a fixed memory budget.
+ *
+ * <p>Segment bodies are written into an arena of fixed-size blocks. The
+ * arena is a direct {@link ByteBuffer} or, if
+ * {@link MondrianProperties#OffHeapSegmentCacheFile} is set, a memory-mapped
+ * file. Its size, given by {@link MondrianProperties#OffHeapSegmentCacheSize},
+ * is a hard limit: when a new segment does not fit, segments are evicted
+ * according to {@link MondrianProperties#OffHeapSegmentCacheEvictionPolicy}
+ * until it does. Unlike {@link MemorySegmentCache}, segments are never
+ * cleared by the garbage collector.</p>
+ *
+ * <p>The values of dense double and int segments are stored as raw
+ * primitives and read back with a bulk copy, without going through Java
+ * serialization. Other segment bodies are stored serialized.</p>
+ *
+ * <p>To use this cache, set {@link MondrianProperties#SegmentCache} to
+ * <code>mondrian.rolap.cache.OffHeapSegmentCache</code>. You will usually
+ * also want to set {@link MondrianProperties#DisableLocalSegmentCache}, so
+ * that segments are not held on the heap as well.</p>
+ */
+public class OffHeapSegmentCache implements SegmentCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(OffHeapSegmentCache.class);
+
+    /**
+     * Size of a block of the arena. Must be a multiple of 8, so that a block
+     * holds a whole number of doubles.
+     */
+    static final int BLOCK_SIZE = 4096;
+
+    private static final byte KIND_SERIALIZED = 0;
+    private static final byte KIND_DOUBLE = 1;
+    private static final byte KIND_INT = 2;
+
+    /**
+     * Policy that decides which segment to evict when the cache is full.
+     */
+    public enum EvictionPolicy {
+        /** Evicts the least recently used segment. */
+        LRU,
+        /**
+         * Evicts the least frequently used segment; among segments used
+         * equally often, the least recently used.
+         */
+        LFU
+    }
+
+    private final ByteBuffer arena;
+    private final int blockCount;
+    private final EvictionPolicy evictionPolicy;
+
+    /** Stack of free block numbers. */
+    private final int[] freeBlocks;
+    private int freeBlockCount;
+
+    /** Entries, in order of access (least recently used first). */
+    private final LinkedHashMap<SegmentHeader, Entry> map =
+        new LinkedHashMap<SegmentHeader, Entry>(16, 0.75f, true);
+
+    private final List<SegmentCacheListener> listeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    private long evictionCount;
+
+    /**
+     * Creates an OffHeapSegmentCache configured by mondrian properties.
+     * This is the constructor used when the cache is selected by the
+     * {@link MondrianProperties#SegmentCache} property.
+     */
+    public OffHeapSegmentCache() {
+        this(
+            (long) MondrianProperties.instance().OffHeapSegmentCacheSize.get()
+                * 1024L * 1024L,
+            MondrianProperties.instance().OffHeapSegmentCacheFile.get(),
+            Util.lookup(
+                EvictionPolicy.class,
+                MondrianProperties.instance()
+                    .OffHeapSegmentCacheEvictionPolicy.get().toUpperCase(),
+                EvictionPolicy.LRU));
+    }
+
+    /**
+     * Creates an OffHeapSegmentCache.
+     *
+     * @param byteBudget Maximum number of bytes to use; rounded down to a
+     *     whole number of blocks, and to at most 2GB
+     * @param fileName Name of file to map into memory, or null to use a
+     *     direct buffer
+     * @param evictionPolicy Eviction policy
+     */
+    public OffHeapSegmentCache(
+        long byteBudget,
+        String fileName,
+        EvictionPolicy evictionPolicy)
+    {
+        this.blockCount =
+            (int) (Math.min(byteBudget, Integer.MAX_VALUE) / BLOCK_SIZE);
+        if (blockCount <= 0) {
+            throw Util.newError(
+                "Off-heap segment cache must have at least " + BLOCK_SIZE
+                + " bytes; got " + byteBudget);
+        }
+        this.evictionPolicy = evictionPolicy;
+        this.arena = allocateArena(blockCount * BLOCK_SIZE, fileName);
+        this.freeBlocks = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            freeBlocks[i] = blockCount - 1 - i;
+        }
+        this.freeBlockCount = blockCount;
+    }
+
+    private static ByteBuffer allocateArena(int capacity, String fileName) {
+        if (fileName == null || fileName.equals("")) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        try {
+            final RandomAccessFile file =
+                new RandomAccessFile(fileName, "rw");
+            try {
+                file.setLength(capacity);
+                return file.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } finally {
+                // The mapping remains valid after the channel is closed.
+                file.close();
+            }
+        } catch (IOException e) {
+            throw Util.newError(
+                e, "Unable to map segment cache file '" + fileName + "'");
+        }
+    }
+
+    public synchronized SegmentBody get(SegmentHeader header) {
+        final Entry entry = map.get(header);
+        if (entry == null) {
+            return null;
+        }
+        ++entry.hitCount;
+        try {
+            return read(entry);
+        } catch (Exception e) {
+            LOGGER.error("Unable to read segment " + header, e);
+            release(map.remove(header));
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return map.containsKey(header);
+    }
+
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
+        return new ArrayList<SegmentHeader>(map.keySet());
+    }
+
+    public boolean put(final SegmentHeader header, SegmentBody body) {
+        assert header != null;
+        assert body != null;
+        final Entry entry;
+        try {
+            entry = encode(body);
+        } catch (IOException e) {
+            LOGGER.error("Unable to serialize segment " + header, e);
+            return false;
+        }
+        final List<SegmentHeader> victims = new ArrayList<SegmentHeader>();
+        synchronized (this) {
+            if (entry.blocks.length > blockCount) {
+                // Larger than the whole cache. Do not evict everything else
+                // to make room for it.
+                return false;
+            }
+            release(map.remove(header));
+            while (freeBlockCount < entry.blocks.length) {
+                victims.add(evict());
+            }
+            for (int i = 0; i < entry.blocks.length; i++) {
+                entry.blocks[i] = freeBlocks[--freeBlockCount];
+            }
+            write(entry);
+            map.put(header, entry);
+        }
+        // Fire events outside the lock, as remove does.
+        for (SegmentHeader victim : victims) {
+            fireDeleted(victim);
+        }
+        fireSegmentCacheEvent(
+            new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return SegmentCacheListener.SegmentCacheEvent
+                        .EventType.ENTRY_CREATED;
+                }
+            });
+        return true;
+    }
+
+    public boolean remove(final SegmentHeader header) {
+        final boolean result;
+        synchronized (this) {
+            final Entry entry = map.remove(header);
+            release(entry);
+            result = entry != null;
+        }
+        if (result) {
+            fireDeleted(header);
+        }
+        return result;
+    }
+
+    private void fireDeleted(final SegmentHeader header) {
+        fireSegmentCacheEvent(
+            new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return
+                        SegmentCacheListener.SegmentCacheEvent
+                            .EventType.ENTRY_DELETED;
+                }
+            });
+    }
+
+    public synchronized void tearDown() {
+        for (Entry entry : map.values()) {
+            release(entry);
+        }
+        map.clear();
+        listeners.clear();
+    }
+
+    public void addListener(SegmentCacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SegmentCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean supportsRichIndex() {
+        return true;
+    }
+
+    public void fireSegmentCacheEvent(
+        SegmentCache.SegmentCacheListener.SegmentCacheEvent evt)
+    {
+        for (SegmentCacheListener listener : listeners) {
+            listener.handle(evt);
+        }
+    }
+
+    /**
+     * Returns the number of bytes occupied by segments, including the unused
+     * part of their last block.
+     */
+    public synchronized long getUsedBytes() {
+        return (long) (blockCount - freeBlockCount) * BLOCK_SIZE;
+    }
+
+    /**
+     * Returns the number of segments that have been evicted to make room for
+     * other segments.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Evicts one segment, chosen by the eviction policy, and returns its
+     * header. Must be called while holding the lock.
+     */
+    private SegmentHeader evict() {
+        final Iterator<Map.Entry<SegmentHeader, Entry>> iterator =
+            map.entrySet().iterator();
+        assert iterator.hasNext() : "no room, but nothing to evict";
+        SegmentHeader victim = null;
+        switch (evictionPolicy) {
+        case LRU:
+            victim = iterator.next().getKey();
+            break;
+        case LFU:
+            long minHitCount = Long.MAX_VALUE;
+            while (iterator.hasNext()) {
+                final Map.Entry<SegmentHeader, Entry> e = iterator.next();
+                if (e.getValue().hitCount < minHitCount) {
+                    minHitCount = e.getValue().hitCount;
+                    victim = e.getKey();
+                }
+            }
+            break;
+        default:
+            throw Util.unexpected(evictionPolicy);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Evicting segment " + victim);
+        }
+        release(map.remove(victim));
+        ++evictionCount;
+        return victim;
+    }
+
+    /**
+     * Returns the blocks of an entry to the free list. Must be called while
+     * holding the lock.
+     */
+    private void release(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        for (int block : entry.blocks) {
+            freeBlocks[freeBlockCount++] = block;
+        }
+    }
+
+    /**
+     * Converts a segment body into an entry, whose blocks have not yet been
+     * allocated.
+     */
+    private static Entry encode(SegmentBody body) throws IOException {
+        Object values;
+        try {
+            values = body.getValueArray();
+        } catch (UnsupportedOperationException e) {
+            // Sparse body. Store it serialized.
+            values = null;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(out);
+        final Entry entry;
+        if (values instanceof double[] || values instanceof int[]) {
+            final boolean isDouble = values instanceof double[];
+            final int valueCount =
+                isDouble
+                    ? ((double[]) values).length
+                    : ((int[]) values).length;
+            oos.writeObject(body.getAxisValueSets());
+            oos.writeObject(body.getNullAxisFlags());
+            oos.writeObject(body.getNullValueIndicators());
+            oos.close();
+            final byte[] meta = out.toByteArray();
+            entry =
+                new Entry(
+                    isDouble ? KIND_DOUBLE : KIND_INT,
+                    meta,
+                    values,
+                    valueCount,
+                    blocksFor(meta.length)
+                    + blocksFor(valueCount * (isDouble ? 8L : 4L)));
+        } else {
+            oos.writeObject(body);
+            oos.close();
+            final byte[] meta = out.toByteArray();
+            entry =
+                new Entry(
+                    KIND_SERIALIZED, meta, null, 0, blocksFor(meta.length));
+        }
+        return entry;
+    }
+
+    private static int blocksFor(long byteCount) {
+        return (int) ((byteCount + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    /**
+     * Returns a buffer over a block of the arena, positioned at its start.
+     */
+    private ByteBuffer block(int block) {
+        final ByteBuffer buffer = arena.duplicate();
+        buffer.position(block * BLOCK_SIZE);
+        buffer.limit(block * BLOCK_SIZE + BLOCK_SIZE);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes an entry's data into its blocks, then discards the on-heap copy.
+     * Must be called while holding the lock.
+     */
+    private void write(Entry entry) {
+        int b = 0;
+        for (int offset = 0; offset < entry.metaLength; offset += BLOCK_SIZE) {
+            block(entry.blocks[b++]).put(
+                entry.meta,
+                offset,
+                Math.min(BLOCK_SIZE, entry.metaLength - offset));
+        }
+        if (entry.kind == KIND_DOUBLE) {
+            final double[] values = (double[]) entry.values;
+            final int perBlock = BLOCK_SIZE / 8;
+            for (int offset = 0; offset < values.length; offset += perBlock) {
+                block(entry.blocks[b++]).asDoubleBuffer().put(
+                    values, offset, Math.min(perBlock, values.length - offset));
+            }
+        } else if (entry.kind == KIND_INT) {
+            final int[] values = (int[]) entry.values;
+            final int perBlock = BLOCK_SIZE / 4;
+            for (int offset = 0; offset < values.length; offset += perBlock) {
+                block(entry.blocks[b++]).asIntBuffer().put(
+                    values, offset, Math.min(perBlock, values.length - offset));
+            }
+        }
+        entry.meta = null;
+        entry.values = null;
+    }
+
+    /**
+     * Reads an entry's data from its blocks and creates a segment body. Must
+     * be called while holding the lock.
+     */
+    private SegmentBody read(Entry entry)
+        throws IOException, ClassNotFoundException
+    {
+        final byte[] meta = new byte[entry.metaLength];
+        int b = 0;
+        for (int offset = 0; offset < meta.length; offset += BLOCK_SIZE) {
+            block(entry.blocks[b++]).get(
+                meta, offset, Math.min(BLOCK_SIZE, meta.length - offset));
+        }
+        final ObjectInputStream ois =
+            new ObjectInputStream(new ByteArrayInputStream(meta));
+        if (entry.kind == KIND_SERIALIZED) {
+            return (SegmentBody) ois.readObject();
+        }
+        @SuppressWarnings("unchecked")
+        final SortedSet<Comparable>[] axisValueSets =
+            (SortedSet<Comparable>[]) ois.readObject();
+        final boolean[] nullAxisFlags = (boolean[]) ois.readObject();
+        final BitSet nullValues = (BitSet) ois.readObject();
+        final Object values;
+        if (entry.kind == KIND_DOUBLE) {
+            final double[] doubles = new double[entry.valueCount];
+            final int perBlock = BLOCK_SIZE / 8;
+            for (int offset = 0; offset < doubles.length; offset += perBlock) {
+                block(entry.blocks[b++]).asDoubleBuffer().get(
+                    doubles,
+                    offset,
+                    Math.min(perBlock, doubles.length - offset));
+            }
+            values = doubles;
+        } else {
+            final int[] ints = new int[entry.valueCount];
+            final int perBlock = BLOCK_SIZE / 4;
+            for (int offset = 0; offset < ints.length; offset += perBlock) {
+                block(entry.blocks[b++]).asIntBuffer().get(
+                    ints, offset, Math.min(perBlock, ints.length - offset));
+            }
+            values = ints;
+        }
+        return SegmentBuilder.createDenseNativeBody(
+            values, nullValues, axisValueSets, nullAxisFlags);
+    }
+
+    /**
+     * Location and format of a segment body in the arena.
+     */
+    private static class Entry {
+        final byte kind;
+        final int metaLength;
+        final int valueCount;
+        final int[] blocks;
+        long hitCount;
+
+        /** Serialized metadata; null once written to the arena. */
+        byte[] meta;
+        /** Native value array; null once written to the arena. */
+        Object values;
+
+        Entry(
+            byte kind,
+            byte[] meta,
+            Object values,
+            int valueCount,
+            int blockCount)
+        {
+            this.kind = kind;
+            this.meta = meta;
+            this.metaLength = meta.length;
+            this.values = values;
+            this.valueCount = valueCount;
+            this.blocks = new int[blockCount];
+        }
+    }
+}
+
+// End OffHeapSegmentCache.java
@@ -24,7 +24,9 @@ import java.util.concurrent.Future;
 /**
  * Data structure that identifies which segments contain cells.
  *
- * <p>Not thread-safe.</p>
+ * <p>Implementations must allow lookups from any thread. Modifications
+ * are made only by the {@link mondrian.rolap.agg.SegmentCacheManager}
+ * actor.</p>
  *
  * @author Julian Hyde
  */
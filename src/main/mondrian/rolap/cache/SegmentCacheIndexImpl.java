@@ -27,12 +27,19 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
  * Data structure that identifies which segments contain cells.
  *
- * <p>Not thread safe.</p>
+ * <p>Thread safe. Methods that modify the index must be called from the
+ * thread given to the constructor (the {@link SegmentCacheManager} actor),
+ * or, if that is null, from one thread at a time.
+ * Methods that only read the index, such as {@link #locate} and
+ * {@link #intersectRegion}, may be called from any thread; they take a
+ * shared lock, and so run in parallel with each other.</p>
  *
  * @author Julian Hyde
  */
@@ -68,14 +75,21 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
 
     private final Thread thread;
 
+    /**
+     * Lock that guards the maps. Readers share it; the actor takes it
+     * exclusively to modify the index.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
     /**
      * Creates a SegmentCacheIndexImpl.
      *
-     * @param thread Thread that must be used to execute commands.
+     * @param thread Thread that must be used to execute commands, or null
+     *     if commands may be executed on any thread (in which case the
+     *     caller must ensure that they are not executed concurrently)
      */
     public SegmentCacheIndexImpl(Thread thread) {
         this.thread = thread;
-        assert thread != null;
     }
 
     public static List makeConverterKey(SegmentHeader header) {
@@ -109,64 +123,67 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         Map<String, Comparable> coordinates,
         List<String> compoundPredicates)
     {
-        checkThread();
-
-        if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace(
-                "SegmentCacheIndexImpl("
-                + System.identityHashCode(this)
-                + ")locate:"
-                + "\nschemaName:" + schemaName
-                + "\nschemaChecksum:" + schemaChecksum
-                + "\ncubeName:" + cubeName
-                + "\nmeasureName:" + measureName
-                + "\nrolapStarFactTableName:" + rolapStarFactTableName
-                + "\nconstrainedColsBitKey:" + constrainedColsBitKey
-                + "\ncoordinates:" + coordinates
-                + "\ncompoundPredicates:" + compoundPredicates);
-        }
-
-        List<SegmentHeader> list = Collections.emptyList();
-        final List starKey =
-            makeBitkeyKey(
-                schemaName,
-                schemaChecksum,
-                cubeName,
-                rolapStarFactTableName,
-                constrainedColsBitKey,
-                measureName,
-                compoundPredicates);
-        final List<SegmentHeader> headerList = bitkeyMap.get(starKey);
-        if (headerList == null) {
-            LOGGER.trace(
-                "SegmentCacheIndexImpl("
-                + System.identityHashCode(this)
-                + ").locate:NOMATCH");
-            return Collections.emptyList();
-        }
-        for (SegmentHeader header : headerList) {
-            if (matches(header, coordinates, compoundPredicates)) {
-                // Be lazy. Don't allocate a list unless there is at least one
-                // entry.
-                if (list.isEmpty()) {
-                    list = new ArrayList<SegmentHeader>();
-                }
-                list.add(header);
+        lock.readLock().lock();
+        try {
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace(
+                    "SegmentCacheIndexImpl("
+                    + System.identityHashCode(this)
+                    + ")locate:"
+                    + "\nschemaName:" + schemaName
+                    + "\nschemaChecksum:" + schemaChecksum
+                    + "\ncubeName:" + cubeName
+                    + "\nmeasureName:" + measureName
+                    + "\nrolapStarFactTableName:" + rolapStarFactTableName
+                    + "\nconstrainedColsBitKey:" + constrainedColsBitKey
+                    + "\ncoordinates:" + coordinates
+                    + "\ncompoundPredicates:" + compoundPredicates);
             }
-        }
-        if (LOGGER.isTraceEnabled()) {
-            final StringBuilder sb =
-                new StringBuilder(
+
+            List<SegmentHeader> list = Collections.emptyList();
+            final List starKey =
+                makeBitkeyKey(
+                    schemaName,
+                    schemaChecksum,
+                    cubeName,
+                    rolapStarFactTableName,
+                    constrainedColsBitKey,
+                    measureName,
+                    compoundPredicates);
+            final List<SegmentHeader> headerList = bitkeyMap.get(starKey);
+            if (headerList == null) {
+                LOGGER.trace(
                     "SegmentCacheIndexImpl("
                     + System.identityHashCode(this)
-                    + ").locate:MATCH");
-            for (SegmentHeader header : list) {
-                sb.append("\n");
-                sb.append(header.toString());
+                    + ").locate:NOMATCH");
+                return Collections.emptyList();
+            }
+            for (SegmentHeader header : headerList) {
+                if (matches(header, coordinates, compoundPredicates)) {
+                    // Be lazy. Don't allocate a list unless there is at least
+                    // one entry.
+                    if (list.isEmpty()) {
+                        list = new ArrayList<SegmentHeader>();
+                    }
+                    list.add(header);
+                }
             }
-            LOGGER.trace(sb.toString());
+            if (LOGGER.isTraceEnabled()) {
+                final StringBuilder sb =
+                    new StringBuilder(
+                        "SegmentCacheIndexImpl("
+                        + System.identityHashCode(this)
+                        + ").locate:MATCH");
+                for (SegmentHeader header : list) {
+                    sb.append("\n");
+                    sb.append(header.toString());
+                }
+                LOGGER.trace(sb.toString());
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
         }
-        return list;
     }
 
     public void add(
@@ -176,59 +193,64 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     {
         checkThread();
 
-        LOGGER.debug(
-            "SegmentCacheIndexImpl("
-            + System.identityHashCode(this)
-            + ").add:\n"
-            + header.toString());
-
-        HeaderInfo headerInfo = headerMap.get(header);
-        if (headerInfo == null) {
-            headerInfo = new HeaderInfo();
-            if (loading) {
-                // We are currently loading this segment. It isnt' in cache.
-                // We put a slot into which the data will become available.
-                headerInfo.slot = new SlotFuture<SegmentBody>();
+        lock.writeLock().lock();
+        try {
+            LOGGER.debug(
+                "SegmentCacheIndexImpl("
+                + System.identityHashCode(this)
+                + ").add:\n"
+                + header.toString());
+
+            HeaderInfo headerInfo = headerMap.get(header);
+            if (headerInfo == null) {
+                headerInfo = new HeaderInfo();
+                if (loading) {
+                    // We are currently loading this segment. It isnt' in cache.
+                    // We put a slot into which the data will become available.
+                    headerInfo.slot = new SlotFuture<SegmentBody>();
+                }
+                headerMap.put(header, headerInfo);
             }
-            headerMap.put(header, headerInfo);
-        }
 
-        final List bitkeyKey = makeBitkeyKey(header);
-        List<SegmentHeader> headerList = bitkeyMap.get(bitkeyKey);
-        if (headerList == null) {
-            headerList = new ArrayList<SegmentHeader>();
-            bitkeyMap.put(bitkeyKey, headerList);
-        }
-        if (!headerList.contains(header)) {
-            headerList.add(header);
-        }
+            final List bitkeyKey = makeBitkeyKey(header);
+            List<SegmentHeader> headerList = bitkeyMap.get(bitkeyKey);
+            if (headerList == null) {
+                headerList = new ArrayList<SegmentHeader>();
+                bitkeyMap.put(bitkeyKey, headerList);
+            }
+            if (!headerList.contains(header)) {
+                headerList.add(header);
+            }
 
-        final List factKey = makeFactKey(header);
-        FactInfo factInfo = factMap.get(factKey);
-        if (factInfo == null) {
-            factInfo = new FactInfo();
-            factMap.put(factKey, factInfo);
-        }
-        if (!factInfo.headerList.contains(header)) {
-            factInfo.headerList.add(header);
-        }
-        if (!factInfo.bitkeyPoset
-            .contains(header.getConstrainedColumnsBitKey()))
-        {
-            factInfo.bitkeyPoset.add(header.getConstrainedColumnsBitKey());
-        }
-        if (converter != null) {
-            factInfo.converter = converter;
-        }
+            final List factKey = makeFactKey(header);
+            FactInfo factInfo = factMap.get(factKey);
+            if (factInfo == null) {
+                factInfo = new FactInfo();
+                factMap.put(factKey, factInfo);
+            }
+            if (!factInfo.headerList.contains(header)) {
+                factInfo.headerList.add(header);
+            }
+            if (!factInfo.bitkeyPoset
+                .contains(header.getConstrainedColumnsBitKey()))
+            {
+                factInfo.bitkeyPoset.add(header.getConstrainedColumnsBitKey());
+            }
+            if (converter != null) {
+                factInfo.converter = converter;
+            }
 
-        final List fuzzyFactKey = makeFuzzyFactKey(header);
-        FuzzyFactInfo fuzzyFactInfo = fuzzyFactMap.get(fuzzyFactKey);
-        if (fuzzyFactInfo == null) {
-            fuzzyFactInfo = new FuzzyFactInfo();
-            fuzzyFactMap.put(fuzzyFactKey, fuzzyFactInfo);
-        }
-        if (!fuzzyFactInfo.headerList.contains(header)) {
-            fuzzyFactInfo.headerList.add(header);
+            final List fuzzyFactKey = makeFuzzyFactKey(header);
+            FuzzyFactInfo fuzzyFactInfo = fuzzyFactMap.get(fuzzyFactKey);
+            if (fuzzyFactInfo == null) {
+                fuzzyFactInfo = new FuzzyFactInfo();
+                fuzzyFactMap.put(fuzzyFactKey, fuzzyFactInfo);
+            }
+            if (!fuzzyFactInfo.headerList.contains(header)) {
+                fuzzyFactInfo.headerList.add(header);
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -238,130 +260,153 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     {
         checkThread();
 
-        LOGGER.trace(
-            "SegmentCacheIndexImpl.update: Updating header from:\n"
-            + oldHeader.toString()
-            + "\n\nto\n\n"
-            + newHeader.toString());
-        final HeaderInfo headerInfo = headerMap.get(oldHeader);
-        headerMap.remove(oldHeader);
-        headerMap.put(newHeader, headerInfo);
-
-        final List oldBitkeyKey = makeBitkeyKey(oldHeader);
-        List<SegmentHeader> headerList = bitkeyMap.get(oldBitkeyKey);
-        headerList.remove(oldHeader);
-        headerList.add(newHeader);
-
-        final List oldFactKey = makeFactKey(oldHeader);
-        final FactInfo factInfo = factMap.get(oldFactKey);
-        factInfo.headerList.remove(oldHeader);
-        factInfo.headerList.add(newHeader);
-
-        final List oldFuzzyFactKey = makeFuzzyFactKey(oldHeader);
-        final FuzzyFactInfo fuzzyFactInfo = fuzzyFactMap.get(oldFuzzyFactKey);
-        fuzzyFactInfo.headerList.remove(oldHeader);
-        fuzzyFactInfo.headerList.add(newHeader);
+        lock.writeLock().lock();
+        try {
+            LOGGER.trace(
+                "SegmentCacheIndexImpl.update: Updating header from:\n"
+                + oldHeader.toString()
+                + "\n\nto\n\n"
+                + newHeader.toString());
+            final HeaderInfo headerInfo = headerMap.get(oldHeader);
+            headerMap.remove(oldHeader);
+            headerMap.put(newHeader, headerInfo);
+
+            final List oldBitkeyKey = makeBitkeyKey(oldHeader);
+            List<SegmentHeader> headerList = bitkeyMap.get(oldBitkeyKey);
+            headerList.remove(oldHeader);
+            headerList.add(newHeader);
+
+            final List oldFactKey = makeFactKey(oldHeader);
+            final FactInfo factInfo = factMap.get(oldFactKey);
+            factInfo.headerList.remove(oldHeader);
+            factInfo.headerList.add(newHeader);
+
+            final List oldFuzzyFactKey = makeFuzzyFactKey(oldHeader);
+            final FuzzyFactInfo fuzzyFactInfo =
+                fuzzyFactMap.get(oldFuzzyFactKey);
+            fuzzyFactInfo.headerList.remove(oldHeader);
+            fuzzyFactInfo.headerList.add(newHeader);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public void loadSucceeded(SegmentHeader header, SegmentBody body) {
         checkThread();
 
-        final HeaderInfo headerInfo = headerMap.get(header);
-        assert headerInfo != null
-            : "segment header " + header.getUniqueID() + " is missing";
-        if (!headerInfo.slot.isDone()) {
-            headerInfo.slot.put(body);
-        }
-        if (headerInfo.removeAfterLoad) {
-            remove(header);
+        lock.writeLock().lock();
+        try {
+            final HeaderInfo headerInfo = headerMap.get(header);
+            assert headerInfo != null
+                : "segment header " + header.getUniqueID() + " is missing";
+            if (!headerInfo.slot.isDone()) {
+                headerInfo.slot.put(body);
+            }
+            if (headerInfo.removeAfterLoad) {
+                remove(header);
+            }
+            // Cleanup the HeaderInfo
+            headerInfo.stmt = null;
+            headerInfo.clients.clear();
+        } finally {
+            lock.writeLock().unlock();
         }
-        // Cleanup the HeaderInfo
-        headerInfo.stmt = null;
-        headerInfo.clients.clear();
     }
 
     public void loadFailed(SegmentHeader header, Throwable throwable) {
         checkThread();
 
-        final HeaderInfo headerInfo = headerMap.get(header);
-        if (headerInfo == null) {
-            LOGGER.trace("loadFailed: Missing header " + header);
-            return;
+        lock.writeLock().lock();
+        try {
+            final HeaderInfo headerInfo = headerMap.get(header);
+            if (headerInfo == null) {
+                LOGGER.trace("loadFailed: Missing header " + header);
+                return;
+            }
+            assert headerInfo.slot != null
+                : "segment header " + header.getUniqueID() + " is not loading";
+            headerInfo.slot.fail(throwable);
+            remove(header);
+            // Cleanup the HeaderInfo
+            headerInfo.stmt = null;
+            headerInfo.clients.clear();
+        } finally {
+            lock.writeLock().unlock();
         }
-        assert headerInfo.slot != null
-            : "segment header " + header.getUniqueID() + " is not loading";
-        headerInfo.slot.fail(throwable);
-        remove(header);
-        // Cleanup the HeaderInfo
-        headerInfo.stmt = null;
-        headerInfo.clients.clear();
     }
 
     public void remove(SegmentHeader header) {
         checkThread();
 
-        if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace(
-                "SegmentCacheIndexImpl("
-                + System.identityHashCode(this)
-                + ").remove:\n"
-                + header.toString(),
-                new Throwable("Removal."));
-        } else {
-            LOGGER.debug(
-                "SegmentCacheIndexImpl.remove:\n"
-                + header.toString());
-        }
+        lock.writeLock().lock();
+        try {
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace(
+                    "SegmentCacheIndexImpl("
+                    + System.identityHashCode(this)
+                    + ").remove:\n"
+                    + header.toString(),
+                    new Throwable("Removal."));
+            } else {
+                LOGGER.debug(
+                    "SegmentCacheIndexImpl.remove:\n"
+                    + header.toString());
+            }
 
-        final HeaderInfo headerInfo = headerMap.get(header);
-        if (headerInfo == null) {
-            LOGGER.debug(
-                "SegmentCacheIndexImpl("
-                + System.identityHashCode(this)
-                + ").remove:UNKNOWN HEADER");
-            return;
-        }
-        if (headerInfo.slot != null && !headerInfo.slot.isDone()) {
-            // Cannot remove while load is pending; flag for removal after load
-            headerInfo.removeAfterLoad = true;
-            LOGGER.debug(
-                "SegmentCacheIndexImpl("
-                + System.identityHashCode(this)
-                + ").remove:DEFFERED");
-            return;
-        }
+            final HeaderInfo headerInfo = headerMap.get(header);
+            if (headerInfo == null) {
+                LOGGER.debug(
+                    "SegmentCacheIndexImpl("
+                    + System.identityHashCode(this)
+                    + ").remove:UNKNOWN HEADER");
+                return;
+            }
+            if (headerInfo.slot != null && !headerInfo.slot.isDone()) {
+                // Cannot remove while load is pending; flag for removal
+                // after load
+                headerInfo.removeAfterLoad = true;
+                LOGGER.debug(
+                    "SegmentCacheIndexImpl("
+                    + System.identityHashCode(this)
+                    + ").remove:DEFFERED");
+                return;
+            }
 
-        headerMap.remove(header);
+            headerMap.remove(header);
 
-        final List factKey = makeFactKey(header);
-        final FactInfo factInfo = factMap.get(factKey);
-        if (factInfo != null) {
-            factInfo.headerList.remove(header);
-            factInfo.bitkeyPoset.remove(header.getConstrainedColumnsBitKey());
-            if (factInfo.headerList.size() == 0) {
-                factMap.remove(factKey);
+            final List factKey = makeFactKey(header);
+            final FactInfo factInfo = factMap.get(factKey);
+            if (factInfo != null) {
+                factInfo.headerList.remove(header);
+                factInfo.bitkeyPoset.remove(
+                    header.getConstrainedColumnsBitKey());
+                if (factInfo.headerList.size() == 0) {
+                    factMap.remove(factKey);
+                }
             }
-        }
 
-        final List fuzzyFactKey = makeFuzzyFactKey(header);
-        final FuzzyFactInfo fuzzyFactInfo = fuzzyFactMap.get(fuzzyFactKey);
-        if (fuzzyFactInfo != null) {
-            fuzzyFactInfo.headerList.remove(header);
-            if (fuzzyFactInfo.headerList.size() == 0) {
-                fuzzyFactMap.remove(fuzzyFactKey);
+            final List fuzzyFactKey = makeFuzzyFactKey(header);
+            final FuzzyFactInfo fuzzyFactInfo = fuzzyFactMap.get(fuzzyFactKey);
+            if (fuzzyFactInfo != null) {
+                fuzzyFactInfo.headerList.remove(header);
+                if (fuzzyFactInfo.headerList.size() == 0) {
+                    fuzzyFactMap.remove(fuzzyFactKey);
+                }
             }
-        }
 
-        final List bitkeyKey = makeBitkeyKey(header);
-        final List<SegmentHeader> headerList = bitkeyMap.get(bitkeyKey);
-        headerList.remove(header);
-        if (headerList.size() == 0) {
-            bitkeyMap.remove(bitkeyKey);
+            final List bitkeyKey = makeBitkeyKey(header);
+            final List<SegmentHeader> headerList = bitkeyMap.get(bitkeyKey);
+            headerList.remove(header);
+            if (headerList.size() == 0) {
+                bitkeyMap.remove(bitkeyKey);
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     private void checkThread() {
-        assert thread == Thread.currentThread()
+        assert thread == null || thread == Thread.currentThread()
             : "expected " + thread + ", but was " + Thread.currentThread();
     }
 
@@ -414,34 +459,37 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         String rolapStarFactTableName,
         SegmentColumn[] region)
     {
-        checkThread();
-
-        final List factKey = makeFuzzyFactKey(
-            schemaName,
-            schemaChecksum,
-            cubeName,
-            rolapStarFactTableName,
-            measureName);
-        final FuzzyFactInfo factInfo = fuzzyFactMap.get(factKey);
-        List<SegmentHeader> list = Collections.emptyList();
-        if (factInfo == null) {
-            return list;
-        }
-        for (SegmentHeader header : factInfo.headerList) {
-            // Don't return stale segments.
-            if (headerMap.get(header).removeAfterLoad) {
-                continue;
+        lock.readLock().lock();
+        try {
+            final List factKey = makeFuzzyFactKey(
+                schemaName,
+                schemaChecksum,
+                cubeName,
+                rolapStarFactTableName,
+                measureName);
+            final FuzzyFactInfo factInfo = fuzzyFactMap.get(factKey);
+            List<SegmentHeader> list = Collections.emptyList();
+            if (factInfo == null) {
+                return list;
             }
-            if (intersects(header, region)) {
-                // Be lazy. Don't allocate a list unless there is at least one
-                // entry.
-                if (list.isEmpty()) {
-                    list = new ArrayList<SegmentHeader>();
+            for (SegmentHeader header : factInfo.headerList) {
+                // Don't return stale segments.
+                if (headerMap.get(header).removeAfterLoad) {
+                    continue;
+                }
+                if (intersects(header, region)) {
+                    // Be lazy. Don't allocate a list unless there is at least
+                    // one entry.
+                    if (list.isEmpty()) {
+                        list = new ArrayList<SegmentHeader>();
+                    }
+                    list.add(header);
                 }
-                list.add(header);
             }
+            return list;
+        } finally {
+            lock.readLock().unlock();
         }
-        return list;
     }
 
     private boolean intersects(
@@ -479,91 +527,120 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     }
 
     public void printCacheState(PrintWriter pw) {
-        checkThread();
-        final List<List<SegmentHeader>> values =
-            new ArrayList<List<SegmentHeader>>(
-                bitkeyMap.values());
-        Collections.sort(
-            values,
-            new Comparator<List<SegmentHeader>>() {
-                public int compare(
-                    List<SegmentHeader> o1,
-                    List<SegmentHeader> o2)
-                {
-                    if (o1.size() == 0) {
-                        return -1;
-                    }
-                    if (o2.size() == 0) {
-                        return 1;
-                    }
-                    return o1.get(0).getUniqueID()
-                        .compareTo(o2.get(0).getUniqueID());
-                }
-            });
-        for (List<SegmentHeader> key : values) {
-            final List<SegmentHeader> headerList =
-                new ArrayList<SegmentHeader>(key);
+        lock.readLock().lock();
+        try {
+            final List<List<SegmentHeader>> values =
+                new ArrayList<List<SegmentHeader>>(
+                    bitkeyMap.values());
             Collections.sort(
-                headerList,
-                new Comparator<SegmentHeader>() {
-                    public int compare(SegmentHeader o1, SegmentHeader o2) {
-                        return o1.getUniqueID().compareTo(o2.getUniqueID());
+                values,
+                new Comparator<List<SegmentHeader>>() {
+                    public int compare(
+                        List<SegmentHeader> o1,
+                        List<SegmentHeader> o2)
+                    {
+                        if (o1.size() == 0) {
+                            return -1;
+                        }
+                        if (o2.size() == 0) {
+                            return 1;
+                        }
+                        return o1.get(0).getUniqueID()
+                            .compareTo(o2.get(0).getUniqueID());
                     }
                 });
-            for (SegmentHeader header : headerList) {
-                pw.println(header.getDescription());
+            for (List<SegmentHeader> key : values) {
+                final List<SegmentHeader> headerList =
+                    new ArrayList<SegmentHeader>(key);
+                Collections.sort(
+                    headerList,
+                    new Comparator<SegmentHeader>() {
+                        public int compare(SegmentHeader o1, SegmentHeader o2) {
+                            return o1.getUniqueID().compareTo(o2.getUniqueID());
+                        }
+                    });
+                for (SegmentHeader header : headerList) {
+                    pw.println(header.getDescription());
+                }
             }
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     public Future<SegmentBody> getFuture(Execution exec, SegmentHeader header) {
-        checkThread();
-        HeaderInfo hi = headerMap.get(header);
-        if (!hi.clients.contains(exec)) {
-            hi.clients.add(exec);
+        lock.readLock().lock();
+        try {
+            HeaderInfo hi = headerMap.get(header);
+            if (hi == null) {
+                // Removed by the actor since the caller located it.
+                return null;
+            }
+            hi.clients.addIfAbsent(exec);
+            return hi.slot;
+        } finally {
+            lock.readLock().unlock();
         }
-        return hi.slot;
     }
 
     public void linkSqlStatement(SegmentHeader header, Statement stmt) {
         checkThread();
-        headerMap.get(header).stmt = stmt;
+
+        lock.writeLock().lock();
+        try {
+            headerMap.get(header).stmt = stmt;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public boolean contains(SegmentHeader header) {
-        return headerMap.containsKey(header);
+        lock.readLock().lock();
+        try {
+            return headerMap.containsKey(header);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public void cancel(Execution exec) {
         checkThread();
-        List<SegmentHeader> toRemove = new ArrayList<SegmentHeader>();
-        for (Entry<SegmentHeader, HeaderInfo> entry : headerMap.entrySet()) {
-            if (entry.getValue().clients.remove(exec)) {
-                if (entry.getValue().slot != null
-                    && !entry.getValue().slot.isDone()
-                    && entry.getValue().clients.isEmpty())
-                {
-                    toRemove.add(entry.getKey());
+
+        lock.writeLock().lock();
+        try {
+            List<SegmentHeader> toRemove = new ArrayList<SegmentHeader>();
+            for (Entry<SegmentHeader, HeaderInfo> entry
+                : headerMap.entrySet())
+            {
+                if (entry.getValue().clients.remove(exec)) {
+                    if (entry.getValue().slot != null
+                        && !entry.getValue().slot.isDone()
+                        && entry.getValue().clients.isEmpty())
+                    {
+                        toRemove.add(entry.getKey());
+                    }
                 }
             }
-        }
-        // Make sure to cleanup the orphaned segments.
-        for (SegmentHeader header : toRemove) {
-            final Statement stmt = headerMap.get(header).stmt;
-            loadFailed(
-                header,
-                new QueryCanceledException(
-                    "Canceling due to an absence of interested parties."));
-            // We only want to cancel the statement, but we can't close it.
-            // Some drivers will not notice the interruption flag on their
-            // own thread before a considerable time has passed. If we were
-            // using a pooling layer, calling close() would make the
-            // underlying connection available again, despite the first
-            // statement still being processed. Some drivers will fail
-            // there. It is therefore important to close and release the
-            // resources on the proper thread, namely, the thread which
-            // runs the actual statement.
-            Util.cancelStatement(stmt);
+            // Make sure to cleanup the orphaned segments.
+            for (SegmentHeader header : toRemove) {
+                final Statement stmt = headerMap.get(header).stmt;
+                loadFailed(
+                    header,
+                    new QueryCanceledException(
+                        "Canceling due to an absence of interested parties."));
+                // We only want to cancel the statement, but we can't close it.
+                // Some drivers will not notice the interruption flag on their
+                // own thread before a considerable time has passed. If we were
+                // using a pooling layer, calling close() would make the
+                // underlying connection available again, despite the first
+                // statement still being processed. Some drivers will fail
+                // there. It is therefore important to close and release the
+                // resources on the proper thread, namely, the thread which
+                // runs the actual statement.
+                Util.cancelStatement(stmt);
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -575,20 +652,23 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         String measureName,
         List<String> compoundPredicates)
     {
-        checkThread();
-
-        final List factKey = makeFactKey(
-            schemaName,
-            schemaChecksum,
-            cubeName,
-            rolapStarFactTableName,
-            measureName,
-            compoundPredicates);
-        final FactInfo factInfo = factMap.get(factKey);
-        if (factInfo == null) {
-            return null;
+        lock.readLock().lock();
+        try {
+            final List factKey = makeFactKey(
+                schemaName,
+                schemaChecksum,
+                cubeName,
+                rolapStarFactTableName,
+                measureName,
+                compoundPredicates);
+            final FactInfo factInfo = factMap.get(factKey);
+            if (factInfo == null) {
+                return null;
+            }
+            return factInfo.converter;
+        } finally {
+            lock.readLock().unlock();
         }
-        return factInfo.converter;
     }
 
     public void setConverter(
@@ -602,19 +682,24 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     {
         checkThread();
 
-        final List factKey = makeFactKey(
-            schemaName,
-            schemaChecksum,
-            cubeName,
-            rolapStarFactTableName,
-            measureName,
-            compoundPredicates);
-        final FactInfo factInfo = factMap.get(factKey);
-        assert factInfo != null : "should have called 'add' first";
-        if (factInfo == null) {
-            return;
+        lock.writeLock().lock();
+        try {
+            final List factKey = makeFactKey(
+                schemaName,
+                schemaChecksum,
+                cubeName,
+                rolapStarFactTableName,
+                measureName,
+                compoundPredicates);
+            final FactInfo factInfo = factMap.get(factKey);
+            assert factInfo != null : "should have called 'add' first";
+            if (factInfo == null) {
+                return;
+            }
+            factInfo.converter = converter;
+        } finally {
+            lock.writeLock().unlock();
         }
-        factInfo.converter = converter;
     }
 
     private List makeBitkeyKey(SegmentHeader header) {
@@ -708,49 +793,56 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         Map<String, Comparable> coordinates,
         List<String> compoundPredicates)
     {
-        final List factKey = makeFactKey(
-            schemaName,
-            schemaChecksum,
-            cubeName,
-            rolapStarFactTableName,
-            measureName,
-            compoundPredicates);
-        final FactInfo factInfo = factMap.get(factKey);
-        if (factInfo == null) {
-            return Collections.emptyList();
-        }
-
-        // Iterate over all dimensionalities that are a superset of the desired
-        // columns and for which a segment is known to exist.
-        //
-        // It helps that getAncestors returns dimensionalities with fewer bits
-        // set first. These will contain fewer cells, and therefore be less
-        // effort to roll up.
-
-        final List<List<SegmentHeader>> list =
-            new ArrayList<List<SegmentHeader>>();
-        final List<BitKey> ancestors =
-            factInfo.bitkeyPoset.getAncestors(constrainedColsBitKey);
-        for (BitKey bitKey : ancestors) {
-            final List bitkeyKey = makeBitkeyKey(
+        lock.readLock().lock();
+        try {
+            final List factKey = makeFactKey(
                 schemaName,
                 schemaChecksum,
                 cubeName,
                 rolapStarFactTableName,
-                bitKey,
                 measureName,
                 compoundPredicates);
-            final List<SegmentHeader> headers = bitkeyMap.get(bitkeyKey);
-            assert headers != null : "bitkeyPoset / bitkeyMap inconsistency";
-
-            // For columns that are still present after roll up, make sure that
-            // the required value is in the range covered by the segment.
-            // Of the columns that are being aggregated away, are all of
-            // them wildcarded? If so, this segment is a match. If not, we
-            // will need to combine with other segments later.
-            findRollupCandidatesAmong(coordinates, list, headers);
+            final FactInfo factInfo = factMap.get(factKey);
+            if (factInfo == null) {
+                return Collections.emptyList();
+            }
+
+            // Iterate over all dimensionalities that are a superset of the
+            // desired columns and for which a segment is known to exist.
+            //
+            // It helps that getAncestors returns dimensionalities with fewer
+            // bits set first. These will contain fewer cells, and therefore be
+            // less effort to roll up.
+
+            final List<List<SegmentHeader>> list =
+                new ArrayList<List<SegmentHeader>>();
+            final List<BitKey> ancestors =
+                factInfo.bitkeyPoset.getAncestors(constrainedColsBitKey);
+            for (BitKey bitKey : ancestors) {
+                final List bitkeyKey = makeBitkeyKey(
+                    schemaName,
+                    schemaChecksum,
+                    cubeName,
+                    rolapStarFactTableName,
+                    bitKey,
+                    measureName,
+                    compoundPredicates);
+                final List<SegmentHeader> headers = bitkeyMap.get(bitkeyKey);
+                assert headers != null
+                    : "bitkeyPoset / bitkeyMap inconsistency";
+
+                // For columns that are still present after roll up, make sure
+                // that the required value is in the range covered by the
+                // segment.
+                // Of the columns that are being aggregated away, are all of
+                // them wildcarded? If so, this segment is a match. If not, we
+                // will need to combine with other segments later.
+                findRollupCandidatesAmong(coordinates, list, headers);
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
         }
-        return list;
     }
 
     /**
@@ -1063,7 +1155,7 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         /**
          * A list of clients interested in this segment.
          */
-        private final List<Execution> clients =
+        private final CopyOnWriteArrayList<Execution> clients =
             new CopyOnWriteArrayList<Execution>();
         /**
          * Whether this segment is already considered stale and must
@@ -0,0 +1,155 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentHeader;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records, for each segment, how long it took to load from SQL, its
+ * approximate size, and how many times it has been read from cache.
+ *
+ * <p>Maintained by the segment cache manager, and used by
+ * {@link MemorySegmentCache} to decide which segments to evict: a segment
+ * that was expensive to load, or is read often, is kept in preference to a
+ * cheap or rarely used one of the same size.</p>
+ *
+ * <p>Statistics outlive eviction, so that a segment that is reloaded
+ * remembers how often it was read. To bound memory use, the number of
+ * segments recorded is limited; beyond that, arbitrary entries are
+ * forgotten.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class SegmentStatistics {
+    /** Maximum number of segments to record. */
+    private static final int MAX_ENTRY_COUNT = 10000;
+
+    private final ConcurrentHashMap<SegmentHeader, Entry> map =
+        new ConcurrentHashMap<SegmentHeader, Entry>();
+
+    /**
+     * Records that a segment has been loaded from SQL.
+     *
+     * @param header Segment header
+     * @param body Segment body
+     * @param loadNanos Time taken to load the segment, in nanoseconds
+     */
+    public void recordLoad(
+        SegmentHeader header,
+        SegmentBody body,
+        long loadNanos)
+    {
+        final Entry entry = getOrCreate(header);
+        entry.loadNanos = loadNanos;
+        entry.byteSize = MemorySegmentCache.estimateByteSize(body);
+    }
+
+    /**
+     * Records that a segment has been read from cache.
+     *
+     * @param header Segment header
+     */
+    public void recordHit(SegmentHeader header) {
+        getOrCreate(header).hitCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the statistics of a segment, or null if none have been
+     * recorded.
+     *
+     * @param header Segment header
+     * @return Statistics, or null
+     */
+    public Entry get(SegmentHeader header) {
+        return map.get(header);
+    }
+
+    /**
+     * Forgets the statistics of a segment. Called when the segment is
+     * flushed.
+     *
+     * @param header Segment header
+     */
+    public void remove(SegmentHeader header) {
+        map.remove(header);
+    }
+
+    /**
+     * Returns the number of segments that have statistics.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    private Entry getOrCreate(SegmentHeader header) {
+        Entry entry = map.get(header);
+        if (entry == null) {
+            if (map.size() >= MAX_ENTRY_COUNT) {
+                trim();
+            }
+            final Entry newEntry = new Entry();
+            entry = map.putIfAbsent(header, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Removes entries until the map is three quarters full.
+     */
+    private void trim() {
+        final Iterator<SegmentHeader> iterator = map.keySet().iterator();
+        while (iterator.hasNext() && map.size() > MAX_ENTRY_COUNT / 4 * 3) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Statistics of one segment.
+     */
+    public static class Entry {
+        private volatile long loadNanos;
+        private volatile long byteSize;
+        private final AtomicLong hitCount = new AtomicLong();
+
+        /**
+         * Returns the time it took to load the segment from SQL, in
+         * nanoseconds, or 0 if the segment came from an external cache.
+         */
+        public long getLoadNanos() {
+            return loadNanos;
+        }
+
+        /**
+         * Returns the approximate size of the segment in bytes, or 0 if not
+         * known.
+         */
+        public long getByteSize() {
+            return byteSize;
+        }
+
+        /**
+         * Returns the number of times the segment has been read from cache.
+         */
+        public long getHitCount() {
+            return hitCount.get();
+        }
+    }
+}
+
+// End SegmentStatistics.java
@@ -16,12 +16,25 @@ import java.util.concurrent.locks.*;
 /**
  * A base implementation of the {@link SmartCache} interface which
  * enforces synchronization with a ReadWrite lock.
+ *
+ * <p>Registers itself with the {@link CachePool}, which may ask it to evict
+ * entries when the combined size of all caches exceeds its budget.</p>
  */
 public abstract class SmartCacheImpl<K, V>
-    implements SmartCache<K, V>
+    implements SmartCache<K, V>, CachePool.Cache
 {
+    /**
+     * Estimated size of an entry, in bytes, including the key, the value,
+     * and the map entry that holds them.
+     */
+    static final long ENTRY_BYTE_SIZE = 256;
+
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
+    protected SmartCacheImpl() {
+        CachePool.instance().register(this);
+    }
+
     /**
      * Must provide an iterator on the contents of the cache.
      * It does not need to be thread safe because we will handle
@@ -36,12 +49,17 @@ public abstract class SmartCacheImpl<K, V>
     protected abstract int sizeImpl();
 
     public V put(K key, V value) {
+        final V previous;
         lock.writeLock().lock();
         try {
-            return putImpl(key, value);
+            previous = putImpl(key, value);
         } finally {
             lock.writeLock().unlock();
         }
+        if (previous == null && value != null) {
+            CachePool.instance().reportGrowth(ENTRY_BYTE_SIZE);
+        }
+        return previous;
     }
 
     public V get(K key) {
@@ -80,6 +98,26 @@ public abstract class SmartCacheImpl<K, V>
         }
     }
 
+    public long getByteSize() {
+        return size() * ENTRY_BYTE_SIZE;
+    }
+
+    public long evict(long byteCount) {
+        long freed = 0;
+        lock.writeLock().lock();
+        try {
+            final Iterator<Entry<K, V>> iterator = iteratorImpl();
+            while (freed < byteCount && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                freed += ENTRY_BYTE_SIZE;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return freed;
+    }
+
     public void execute(SmartCache.SmartCacheTask<K, V> task) {
         lock.writeLock().lock();
         try {
@@ -12,6 +12,7 @@ package mondrian.server;
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 import mondrian.rolap.RolapUtil;
+import mondrian.rolap.SqlAdmissionController;
 import mondrian.server.monitor.*;
 import mondrian.server.monitor.MonitorMXBean;
 import mondrian.util.*;
@@ -237,7 +238,9 @@ class MonitorImpl
                 aggExec.cellCacheSegmentCreateViaRollupCount,
                 aggExec.cellCacheSegmentCreateViaSqlCount,
                 aggExec.cellCacheSegmentCellCount,
-                aggExec.cellCacheSegmentCoordinateSum);
+                aggExec.cellCacheSegmentCoordinateSum,
+                SqlAdmissionController.instance().getQueuedCount(),
+                SqlAdmissionController.instance().getAdmittedCount());
         }
     }
 
@@ -102,6 +102,19 @@ public class ServerInfo extends Info {
      */
     public final int cellCoordinateCount;
 
+    /**
+     * The number of SQL statements waiting for permission to execute.
+     *
+     * @see mondrian.rolap.SqlAdmissionController
+     */
+    public final int sqlStatementQueuedCount;
+
+    /**
+     * The number of SQL statements that have permission to execute and are
+     * executing or fetching rows.
+     */
+    public final int sqlStatementAdmittedCount;
+
     public ServerInfo(
         String stack,
         int connectionStartCount,
@@ -130,7 +143,9 @@ public class ServerInfo extends Info {
         int segmentCreateViaRollupCount,
         int segmentCreateViaSqlCount,
         int cellCount,
-        int cellCoordinateCount)
+        int cellCoordinateCount,
+        int sqlStatementQueuedCount,
+        int sqlStatementAdmittedCount)
     {
         super(stack);
         this.connectionStartCount = connectionStartCount;
@@ -160,6 +175,8 @@ public class ServerInfo extends Info {
         this.segmentCreateViaSqlCount = segmentCreateViaSqlCount;
         this.cellCount = cellCount;
         this.cellCoordinateCount = cellCoordinateCount;
+        this.sqlStatementQueuedCount = sqlStatementQueuedCount;
+        this.sqlStatementAdmittedCount = sqlStatementAdmittedCount;
     }
 
     public int getCellCacheMissCount() {
@@ -297,6 +314,14 @@ public class ServerInfo extends Info {
     public int getCellCoordinateCount() {
         return cellCoordinateCount;
     }
+
+    public int getSqlStatementQueuedCount() {
+        return sqlStatementQueuedCount;
+    }
+
+    public int getSqlStatementAdmittedCount() {
+        return sqlStatementAdmittedCount;
+    }
 }
 
 // End ServerInfo.java
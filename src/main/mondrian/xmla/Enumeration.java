@@ -99,7 +99,8 @@ public class Enumeration {
 
     public enum ResponseMimeType {
         SOAP("text/xml"),
-        JSON("application/json");
+        JSON("application/json"),
+        BINARY("application/x-mondrian-binary");
 
         public static final Map<String, ResponseMimeType> MAP =
             UnmodifiableArrayMap.of(
@@ -107,6 +108,7 @@ public class Enumeration {
                 "application/xml", SOAP,
                 "text/xml", SOAP,
                 "application/json", JSON,
+                "application/x-mondrian-binary", BINARY,
                 "*/*", SOAP);
 
         private final String mimeType;
@@ -205,8 +205,9 @@ public enum PropertyDefinition {
         "None",
         XmlaConstants.Method.DISCOVER_AND_EXECUTE,
         "Accepted mime type for RPC response; accepted are 'text/xml' "
-        + "(default), 'application/xml' (equivalent to 'text/xml'), or "
-        + "'application/json'. If not specified, value in the 'Accept' header "
+        + "(default), 'application/xml' (equivalent to 'text/xml'), "
+        + "'application/json', or 'application/x-mondrian-binary' (compact "
+        + "binary encoding). If not specified, value in the 'Accept' header "
         + "of the HTTP request is used."),
 
     SspropInitAppName(
@@ -779,13 +779,13 @@ public class XmlaHandler {
         Enumeration.ResponseMimeType responseMimeType =
             getResponseMimeType(request);
 
-        // Default value is SchemaData, or Data for JSON responses.
+        // Default value is SchemaData, or Data for JSON and binary responses.
         final String contentName =
             properties.get(PropertyDefinition.Content.name());
         Content content = Util.lookup(
             Content.class,
             contentName,
-            responseMimeType == Enumeration.ResponseMimeType.JSON
+            responseMimeType != Enumeration.ResponseMimeType.SOAP
                 ? Content.Data
                 : Content.DEFAULT);
 
@@ -1419,6 +1419,7 @@ public class XmlaHandler {
         OlapStatement statement = null;
         ResultSet resultSet = null;
         SessionConnection sc = null;
+        boolean success = false;
         try {
             sc = getConnectionGrant(
                 request,
@@ -1433,7 +1434,10 @@ public class XmlaHandler {
                     tabFields,
                     rowCountSlot);
             int rowCount = enableRowCount ? rowCountSlot[0] : -1;
-            return new TabularRowSet(resultSet, rowCount);
+            final TabularRowSet rowSet =
+                new TabularRowSet(resultSet, rowCount, statement, sc);
+            success = true;
+            return rowSet;
         } catch (XmlaException xex) {
             throw xex;
         } catch (SQLException sqle) {
@@ -1450,24 +1454,38 @@ public class XmlaHandler {
                 HSB_DRILL_THROUGH_SQL_FAULT_FS,
                 e);
         } finally {
-            if (resultSet != null) {
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                    // ignore
-                }
+            if (!success) {
+                closeDrillThrough(resultSet, statement, sc);
             }
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (SQLException e) {
-                    // ignore
-                }
+        }
+    }
+
+    /**
+     * Closes the result set and statement of a drill-through query, and
+     * releases its connection. Any of the arguments may be null.
+     */
+    private void closeDrillThrough(
+        ResultSet resultSet,
+        OlapStatement statement,
+        SessionConnection sc)
+    {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                // ignore
             }
-            if (sc != null) {
-                releaseConnection(sc);
+        }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // ignore
             }
         }
+        if (sc != null) {
+            releaseConnection(sc);
+        }
     }
 
     static class Column {
@@ -1487,29 +1505,41 @@ public class XmlaHandler {
         }
     }
 
-    static class TabularRowSet implements QueryResult {
+    class TabularRowSet implements QueryResult {
         private final List<Column> columns = new ArrayList<Column>();
-        private final List<Object[]> rows;
+        private final ResultSet rs;
+        private final OlapStatement statement;
+        private final SessionConnection sc;
         private int totalCount;
 
         /**
          * Creates a TabularRowSet based upon a SQL statement result.
          *
-         * <p>Does not close the ResultSet, on success or failure. Client
-         * must do it.
+         * <p>Rows are read from the ResultSet as they are written by
+         * {@link #unparse}, so that they are not all held in memory. The
+         * row set owns the ResultSet, the statement that produced it and
+         * the connection; {@link #close} closes the first two and releases
+         * the connection.
          *
          * @param rs Result set
          * @param totalCount Total number of rows. If >= 0, writes the
          *   "totalCount" attribute into the XMLA response.
+         * @param statement Statement that produced the result set
+         * @param sc Connection of the statement
          *
          * @throws SQLException on error
          */
         public TabularRowSet(
             ResultSet rs,
-            int totalCount)
+            int totalCount,
+            OlapStatement statement,
+            SessionConnection sc)
             throws SQLException
         {
+            this.rs = rs;
             this.totalCount = totalCount;
+            this.statement = statement;
+            this.sc = sc;
             ResultSetMetaData md = rs.getMetaData();
             int columnCount = md.getColumnCount();
 
@@ -1521,51 +1551,10 @@ public class XmlaHandler {
                         md.getColumnType(i + 1),
                         md.getScale(i + 1)));
             }
-
-            // Populate data; assume that SqlStatement is already positioned
-            // on first row (or isDone() is true), and assume that the
-            // number of rows returned is limited.
-            rows = new ArrayList<Object[]>();
-            while (rs.next()) {
-                Object[] row = new Object[columnCount];
-                for (int i = 0; i < columnCount; i++) {
-                    row[i] = rs.getObject(i + 1);
-                }
-                rows.add(row);
-            }
-        }
-
-        /**
-         * Alternate constructor for advanced drill-through.
-         *
-         * @param tableFieldMap Map from table name to a list of the names of
-         *      the fields in the table
-         * @param tableList List of table names
-         */
-        public TabularRowSet(
-            Map<String, List<String>> tableFieldMap, List<String> tableList)
-        {
-            for (String tableName : tableList) {
-                List<String> fieldNames = tableFieldMap.get(tableName);
-                for (String fieldName : fieldNames) {
-                    columns.add(
-                        new Column(
-                            tableName + "." + fieldName,
-                            Types.VARCHAR, // don't know the real type
-                            0));
-                }
-            }
-
-            rows = new ArrayList<Object[]>();
-            Object[] row = new Object[columns.size()];
-            for (int k = 0; k < row.length; k++) {
-                row[k] = k;
-            }
-            rows.add(row);
         }
 
         public void close() {
-            // no resources to close
+            closeDrillThrough(rs, statement, sc);
         }
 
         public void unparse(SaxWriter writer) throws SAXException {
@@ -1581,28 +1570,39 @@ public class XmlaHandler {
                 writer.endElement(); // row
             }
 
-            for (Object[] row : rows) {
-                writer.startElement("row");
-                for (int i = 0; i < row.length; i++) {
-                    writer.startElement(
-                        columns.get(i).encodedName,
-                        new Object[] {
-                            "xsi:type",
-                            columns.get(i).xsdType});
-                    Object value = row[i];
-                    if (value == null) {
-                        writer.characters("null");
-                    } else {
-                        String valueString = value.toString();
-                        if (value instanceof Number) {
-                            valueString =
-                                XmlaUtil.normalizeNumericString(valueString);
+            // Write each row as it is read; the ResultSet is positioned
+            // before the first row.
+            try {
+                while (rs.next()) {
+                    writer.startElement("row");
+                    for (int i = 0; i < columns.size(); i++) {
+                        writer.startElement(
+                            columns.get(i).encodedName,
+                            new Object[] {
+                                "xsi:type",
+                                columns.get(i).xsdType});
+                        Object value = rs.getObject(i + 1);
+                        if (value == null) {
+                            writer.characters("null");
+                        } else {
+                            String valueString = value.toString();
+                            if (value instanceof Number) {
+                                valueString =
+                                    XmlaUtil.normalizeNumericString(
+                                        valueString);
+                            }
+                            writer.characters(valueString);
                         }
-                        writer.characters(valueString);
+                        writer.endElement();
                     }
-                    writer.endElement();
+                    writer.endElement(); // row
                 }
-                writer.endElement(); // row
+            } catch (SQLException e) {
+                throw new XmlaException(
+                    SERVER_FAULT_FC,
+                    HSB_DRILL_THROUGH_SQL_CODE,
+                    HSB_DRILL_THROUGH_SQL_FAULT_FS,
+                    Util.newError(e, "Error in drill through"));
             }
         }
 
@@ -1760,26 +1760,43 @@ public class XmlaHandler {
                     ex);
             }
             try {
-                cellSet = statement.executeQuery();
-
                 final Format format = getFormat(request, null);
                 final Content content = getContent(request);
                 final Enumeration.ResponseMimeType responseMimeType =
                     getResponseMimeType(request);
+                final int pageSize =
+                    MondrianProperties.instance().XmlaCellPageSize.get();
                 final MDDataSet dataSet;
                 if (format == Format.Multidimensional) {
                     boolean alwaysIncludeSlicer =
                         MondrianProperties.instance()
                             .XmlaAlwaysIncludeDefaultSlicer.get();
-                    dataSet =
-                        new MDDataSet_Multidimensional(
-                            cellSet,
-                            !alwaysIncludeSlicer
-                            && (content != Content.DataIncludeDefaultSlicer),
-                            responseMimeType
-                            == Enumeration.ResponseMimeType.JSON,
-                            fullUniqueNames);
+                    final boolean omitDefaultSlicerInfo =
+                        !alwaysIncludeSlicer
+                        && (content != Content.DataIncludeDefaultSlicer);
+                    final boolean json =
+                        responseMimeType != Enumeration.ResponseMimeType.SOAP;
+                    if (pageSize > 0) {
+                        // The statement is executed as the data set is
+                        // written, one page of cells at a time.
+                        dataSet =
+                            new MDDataSet_Multidimensional(
+                                statement,
+                                pageSize,
+                                omitDefaultSlicerInfo,
+                                json,
+                                fullUniqueNames);
+                    } else {
+                        cellSet = statement.executeQuery();
+                        dataSet =
+                            new MDDataSet_Multidimensional(
+                                cellSet,
+                                omitDefaultSlicerInfo,
+                                json,
+                                fullUniqueNames);
+                    }
                 } else {
+                    cellSet = statement.executeQuery();
                     dataSet =
                         new MDDataSet_Tabular(cellSet);
                 }
@@ -1857,7 +1874,8 @@ public class XmlaHandler {
     }
 
     static abstract class MDDataSet implements QueryResult {
-        protected final CellSet cellSet;
+        private final OlapStatement statement;
+        protected CellSet cellSet;
 
         protected static final List<Property> cellProps =
             Arrays.asList(
@@ -1894,12 +1912,24 @@ public class XmlaHandler {
             longProps.put("DisplayInfo", StandardMemberProperty.DISPLAY_INFO);
         }
 
-        protected MDDataSet(CellSet cellSet) {
+        protected MDDataSet(CellSet cellSet) throws SQLException {
+            this(cellSet.getStatement(), cellSet);
+        }
+
+        /**
+         * Creates a data set.
+         *
+         * @param statement Statement
+         * @param cellSet Cell set, or null if the statement has not been
+         *   executed yet
+         */
+        protected MDDataSet(OlapStatement statement, CellSet cellSet) {
+            this.statement = statement;
             this.cellSet = cellSet;
         }
 
         public void close() throws SQLException {
-            cellSet.getStatement().getConnection().close();
+            statement.getConnection().close();
         }
 
         private static Property rename(
@@ -1951,6 +1981,14 @@ public class XmlaHandler {
         private XmlaExtra extra;
         private final boolean fullUniqueNames;
 
+        /**
+         * Statement to execute when the data set is written, and the number
+         * of positions of the last axis to evaluate and write at a time;
+         * null and 0 if the cell set has already been executed.
+         */
+        private final PreparedOlapStatement pagedStatement;
+        private final int pageSize;
+
         protected MDDataSet_Multidimensional(
             CellSet cellSet,
             boolean omitDefaultSlicerInfo,
@@ -1963,14 +2001,89 @@ public class XmlaHandler {
             this.json = json;
             this.extra = getExtra(cellSet.getStatement().getConnection());
             this.fullUniqueNames = fullUniqueNames;
+            this.pagedStatement = null;
+            this.pageSize = 0;
         }
 
-        public void unparse(SaxWriter writer)
+        /**
+         * Creates a data set that executes a statement when it is written,
+         * and evaluates and writes its cells one page at a time.
+         *
+         * @param statement Statement
+         * @param pageSize Number of positions of the last axis per page
+         * @param omitDefaultSlicerInfo Whether to omit default slicer info
+         * @param json Whether the response is JSON
+         * @param fullUniqueNames Whether to write full unique names
+         */
+        protected MDDataSet_Multidimensional(
+            PreparedOlapStatement statement,
+            int pageSize,
+            boolean omitDefaultSlicerInfo,
+            boolean json,
+            boolean fullUniqueNames)
+            throws SQLException
+        {
+            super(statement, null);
+            this.omitDefaultSlicerInfo = omitDefaultSlicerInfo;
+            this.json = json;
+            this.extra = getExtra(statement.getConnection());
+            this.fullUniqueNames = fullUniqueNames;
+            this.pagedStatement = statement;
+            this.pageSize = pageSize;
+        }
+
+        public void unparse(final SaxWriter writer)
             throws SAXException, OlapException
         {
-            olapInfo(writer);
-            axes(writer);
-            cellData(writer);
+            if (pagedStatement == null) {
+                olapInfo(writer);
+                axes(writer);
+                cellData(writer);
+                return;
+            }
+
+            // Execute the statement, and write each page of cells as soon as
+            // it has been evaluated. The axes are known when the first page
+            // arrives; if the last axis is empty, no page arrives.
+            final CellSet executedCellSet =
+                extra.executeQuery(
+                    pagedStatement,
+                    new XmlaExtra.CellSetPageHandler() {
+                        public void onPage(
+                            CellSet pageCellSet,
+                            int start,
+                            int end)
+                        {
+                            if (cellSet == null) {
+                                startCellData(writer, pageCellSet);
+                            }
+                            cellPage(writer, start, end);
+                        }
+                    },
+                    pageSize);
+            if (cellSet == null) {
+                startCellData(writer, executedCellSet);
+            }
+            writer.endSequence(); // CellData
+        }
+
+        /**
+         * Writes the OlapInfo and Axes elements of a cell set whose cells
+         * are evaluated a page at a time, and starts its CellData element.
+         */
+        private void startCellData(SaxWriter writer, CellSet cellSet) {
+            this.cellSet = cellSet;
+            try {
+                olapInfo(writer);
+                axes(writer);
+            } catch (OlapException e) {
+                throw new XmlaException(
+                    SERVER_FAULT_FC,
+                    HSB_EXECUTE_UNPARSE_CODE,
+                    HSB_EXECUTE_UNPARSE_FAULT_FS,
+                    e);
+            }
+            writer.startSequence("CellData", "Cell");
         }
 
         public void metadata(SaxWriter writer) {
@@ -2502,17 +2615,45 @@ public class XmlaHandler {
 
         private void cellData(SaxWriter writer) {
             writer.startSequence("CellData", "Cell");
-            final int axisCount = cellSet.getAxes().size();
+            final List<CellSetAxis> axes = cellSet.getAxes();
+            cellPage(
+                writer,
+                0,
+                axes.isEmpty()
+                    ? 1
+                    : axes.get(axes.size() - 1).getPositionCount());
+            writer.endSequence(); // CellData
+        }
+
+        /**
+         * Writes the cells whose position on the last axis is between
+         * <code>start</code> (inclusive) and <code>end</code> (exclusive).
+         * If the cell set has no axes, writes its only cell.
+         */
+        private void cellPage(SaxWriter writer, int start, int end) {
+            final List<CellSetAxis> axes = cellSet.getAxes();
+            final int axisCount = axes.size();
             List<Integer> pos = new ArrayList<Integer>();
             for (int i = 0; i < axisCount; i++) {
                 pos.add(-1);
             }
-            int[] cellOrdinal = new int[] {0};
+            if (axisCount == 0) {
+                emitCell(writer, pos, 0);
+                return;
+            }
 
-            int axisOrdinal = axisCount - 1;
-            recurse(writer, pos, axisOrdinal, cellOrdinal);
+            // Ordinals vary fastest along the first axis.
+            int cellsPerPosition = 1;
+            for (int i = 0; i < axisCount - 1; i++) {
+                cellsPerPosition *= axes.get(i).getPositionCount();
+            }
+            int[] cellOrdinal = new int[] {start * cellsPerPosition};
 
-            writer.endSequence(); // CellData
+            int axisOrdinal = axisCount - 1;
+            for (int i = start; i < end; i++) {
+                pos.set(axisOrdinal, i);
+                recurse(writer, pos, axisOrdinal - 1, cellOrdinal);
+            }
         }
 
         private void recurse(
@@ -3321,6 +3462,46 @@ public class XmlaHandler {
             OlapConnection connection,
             String mdx,
             List<Parameter> parameters) throws OlapException;
+
+        /**
+         * Executes a prepared statement, and passes its cells to a handler
+         * one page at a time. A page is a range of positions of the last
+         * axis, and contains the cells at those positions.
+         *
+         * <p>While the handler runs, the axes of the cell set and the cells
+         * of the current page are available. Once this method returns, the
+         * cells may no longer be available.
+         *
+         * @param statement Statement
+         * @param handler Handler to receive each page of cells
+         * @param pageSize Number of positions of the last axis in each page
+         * @return Cell set
+         * @throws OlapException on error
+         */
+        CellSet executeQuery(
+            PreparedOlapStatement statement,
+            CellSetPageHandler handler,
+            int pageSize) throws OlapException;
+
+        /**
+         * Receives the cells of a cell set one page at a time.
+         *
+         * @see XmlaExtra#executeQuery(PreparedOlapStatement,
+         *   CellSetPageHandler, int)
+         */
+        interface CellSetPageHandler {
+            /**
+             * Called when the cells whose position on the last axis is
+             * between <code>start</code> (inclusive) and <code>end</code>
+             * (exclusive) are available.
+             *
+             * @param cellSet Cell set
+             * @param start Position on the last axis of the first row
+             * @param end Position on the last axis after the last row
+             */
+            void onPage(CellSet cellSet, int start, int end);
+        }
+
         class FunctionDefinition {
             public final String functionName;
             public final String description;
@@ -3503,6 +3684,23 @@ public class XmlaHandler {
         {
             return connection.prepareOlapStatement(mdx);
         }
+
+        public CellSet executeQuery(
+            PreparedOlapStatement statement,
+            CellSetPageHandler handler,
+            int pageSize) throws OlapException
+        {
+            // Evaluate every cell, and pass them as a single page.
+            final CellSet cellSet = statement.executeQuery();
+            final List<CellSetAxis> axes = cellSet.getAxes();
+            handler.onPage(
+                cellSet,
+                0,
+                axes.isEmpty()
+                    ? 1
+                    : axes.get(axes.size() - 1).getPositionCount());
+            return cellSet;
+        }
     }
 
     private static String createCsv(Iterable<? extends Object> iterable) {
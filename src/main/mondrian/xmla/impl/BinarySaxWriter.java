@@ -0,0 +1,455 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.xmla.impl;
+
+import mondrian.olap.Util;
+import mondrian.util.ArrayStack;
+import mondrian.xmla.SaxWriter;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Implementation of {@link SaxWriter} that generates a compact binary
+ * encoding of the document, for clients that set the
+ * {@code ResponseMimeType} property to
+ * {@code application/x-mondrian-binary}
+ * ({@link mondrian.xmla.Enumeration.ResponseMimeType#BINARY}).
+ *
+ * <p>The document is a sequence of records, each an opcode byte followed by
+ * its operands, after a four byte header ("MXB" and a version number).
+ * Records map one to one onto the methods of {@link SaxWriter}, so
+ * {@link #replay(InputStream, SaxWriter)} can turn a binary document back
+ * into XML or JSON.
+ *
+ * <p>Strings (element names, attribute names and values, text) are written
+ * through a dictionary that the writer and reader build as they go: the
+ * first occurrence of a string is written in full, and later occurrences as
+ * its index. Member unique names and captions, which are repeated in every
+ * tuple of an axis, therefore cost a few bytes each. Numeric values are
+ * written in binary: integers as variable-length integers, floating-point
+ * values as IEEE 754 bytes.
+ *
+ * <p>Records are written as they are generated, so a large response can be
+ * streamed.
+ */
+public class BinarySaxWriter implements SaxWriter {
+    private static final byte[] MAGIC = {'M', 'X', 'B', 1};
+
+    // Opcodes.
+    private static final int START_DOCUMENT = 1;
+    private static final int END_DOCUMENT = 2;
+    private static final int START_ELEMENT = 3;
+    private static final int END_ELEMENT = 4;
+    private static final int ELEMENT = 5;
+    private static final int CHARACTERS = 6;
+    private static final int START_SEQUENCE = 7;
+    private static final int END_SEQUENCE = 8;
+    private static final int TEXT_ELEMENT = 9;
+    private static final int VERBATIM = 10;
+
+    // Value types.
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int LONG = 2;
+    private static final int DOUBLE = 3;
+    private static final int FLOAT = 4;
+    private static final int TRUE = 5;
+    private static final int FALSE = 6;
+    private static final int DECIMAL = 7;
+
+    // String references. Values 2 and above are dictionary indexes plus 2.
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+
+    /** Maximum number of strings in the dictionary. */
+    private static final int MAX_DICTIONARY_SIZE = 1 << 20;
+
+    /** Strings longer than this are written in full every time. */
+    private static final int MAX_DICTIONARY_STRING_LENGTH = 1024;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> dictionary =
+        new HashMap<String, Integer>();
+    private final ArrayStack<Frame> stack = new ArrayStack<Frame>();
+    private boolean started;
+
+    /**
+     * Creates a BinarySaxWriter.
+     *
+     * @param outputStream Output stream
+     */
+    public BinarySaxWriter(OutputStream outputStream) {
+        this.out =
+            new DataOutputStream(new BufferedOutputStream(outputStream));
+    }
+
+    public void startDocument() {
+        try {
+            if (!started) {
+                out.write(MAGIC);
+                started = true;
+            }
+            out.write(START_DOCUMENT);
+        } catch (IOException e) {
+            throw newError(e);
+        }
+    }
+
+    public void endDocument() {
+        write(END_DOCUMENT);
+        flush();
+    }
+
+    public void startElement(String name) {
+        startElement(name, new Object[0]);
+    }
+
+    public void startElement(String name, Object... attrs) {
+        stack.push(new Frame(name, false));
+        writeElement(START_ELEMENT, name, attrs);
+    }
+
+    public void endElement() {
+        stack.pop();
+        write(END_ELEMENT);
+    }
+
+    public void element(String name, Object... attrs) {
+        writeElement(ELEMENT, name, attrs);
+    }
+
+    public void characters(String data) {
+        try {
+            out.write(CHARACTERS);
+            writeString(data);
+        } catch (IOException e) {
+            throw newError(e);
+        }
+    }
+
+    public void startSequence(String name, String subName) {
+        stack.push(new Frame(name, true));
+        try {
+            out.write(START_SEQUENCE);
+            writeString(name);
+            writeString(subName);
+        } catch (IOException e) {
+            throw newError(e);
+        }
+    }
+
+    public void endSequence() {
+        stack.pop();
+        write(END_SEQUENCE);
+    }
+
+    public void textElement(String name, Object data) {
+        try {
+            out.write(TEXT_ELEMENT);
+            writeString(name);
+            writeValue(data);
+        } catch (IOException e) {
+            throw newError(e);
+        }
+    }
+
+    public void completeBeforeElement(String tagName) {
+        boolean found = false;
+        for (Frame frame : stack) {
+            if (tagName.equals(frame.name)) {
+                found = true;
+                break;
+            }
+        }
+        if (!found) {
+            return;
+        }
+        while (!tagName.equals(stack.peek().name)) {
+            if (stack.pop().sequence) {
+                write(END_SEQUENCE);
+            } else {
+                write(END_ELEMENT);
+            }
+        }
+    }
+
+    public void verbatim(String text) {
+        try {
+            out.write(VERBATIM);
+            writeString(text);
+        } catch (IOException e) {
+            throw newError(e);
+        }
+    }
+
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw newError(e);
+        }
+    }
+
+    /**
+     * Reads a binary document and sends its events to another writer.
+     *
+     * @param inputStream Binary document, as written by a BinarySaxWriter
+     * @param writer Writer to receive the events
+     * @throws IOException if the document cannot be read or is not valid
+     */
+    public static void replay(InputStream inputStream, SaxWriter writer)
+        throws IOException
+    {
+        new Reader(inputStream).replay(writer);
+    }
+
+    // helper methods
+
+    private static RuntimeException newError(IOException e) {
+        return Util.newError(e, "While encoding binary response");
+    }
+
+    private void write(int opcode) {
+        try {
+            out.write(opcode);
+        } catch (IOException e) {
+            throw newError(e);
+        }
+    }
+
+    private void writeElement(int opcode, String name, Object[] attrs) {
+        try {
+            out.write(opcode);
+            writeString(name);
+            writeVarInt(attrs.length / 2);
+            for (int i = 0; i < attrs.length;) {
+                writeString((String) attrs[i++]);
+                writeValue(attrs[i++]);
+            }
+        } catch (IOException e) {
+            throw newError(e);
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.write(NULL);
+        } else if (value instanceof String) {
+            out.write(STRING);
+            writeString((String) value);
+        } else if (value instanceof Integer
+            || value instanceof Long
+            || value instanceof Short
+            || value instanceof Byte)
+        {
+            out.write(LONG);
+            final long n = ((Number) value).longValue();
+            // Zig-zag encoding, so that small negative numbers are short.
+            writeVarLong((n << 1) ^ (n >> 63));
+        } else if (value instanceof Double) {
+            out.write(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.write(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Number) {
+            // BigDecimal, BigInteger
+            out.write(DECIMAL);
+            writeString(value.toString());
+        } else {
+            out.write(STRING);
+            writeString(value.toString());
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarInt(NULL_STRING);
+            return;
+        }
+        final Integer index = dictionary.get(s);
+        if (index != null) {
+            writeVarInt(index + 2);
+            return;
+        }
+        writeVarInt(NEW_STRING);
+        final byte[] bytes = s.getBytes("UTF-8");
+        writeVarInt(bytes.length);
+        out.write(bytes);
+        if (isDictionaryCandidate(s, dictionary.size())) {
+            dictionary.put(s, dictionary.size());
+        }
+    }
+
+    private void writeVarInt(int n) throws IOException {
+        writeVarLong(n);
+    }
+
+    private void writeVarLong(long n) throws IOException {
+        while ((n & ~0x7FL) != 0) {
+            out.write((int) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.write((int) n);
+    }
+
+    /**
+     * Returns whether a string that is not yet in the dictionary should be
+     * added to it. The writer and reader must agree.
+     */
+    private static boolean isDictionaryCandidate(String s, int size) {
+        return size < MAX_DICTIONARY_SIZE
+            && s.length() <= MAX_DICTIONARY_STRING_LENGTH;
+    }
+
+    /**
+     * Element or sequence that has been started but not ended.
+     */
+    private static class Frame {
+        final String name;
+        final boolean sequence;
+
+        Frame(String name, boolean sequence) {
+            this.name = name;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Decodes a binary document.
+     */
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> dictionary = new ArrayList<String>();
+
+        Reader(InputStream inputStream) {
+            this.in =
+                new DataInputStream(new BufferedInputStream(inputStream));
+        }
+
+        void replay(SaxWriter writer) throws IOException {
+            final byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a binary XML/A document");
+            }
+            int opcode;
+            while ((opcode = in.read()) >= 0) {
+                switch (opcode) {
+                case START_DOCUMENT:
+                    writer.startDocument();
+                    break;
+                case END_DOCUMENT:
+                    writer.endDocument();
+                    break;
+                case START_ELEMENT:
+                    writer.startElement(readString(), readAttributes());
+                    break;
+                case END_ELEMENT:
+                    writer.endElement();
+                    break;
+                case ELEMENT:
+                    writer.element(readString(), readAttributes());
+                    break;
+                case CHARACTERS:
+                    writer.characters(readString());
+                    break;
+                case START_SEQUENCE:
+                    writer.startSequence(readString(), readString());
+                    break;
+                case END_SEQUENCE:
+                    writer.endSequence();
+                    break;
+                case TEXT_ELEMENT:
+                    writer.textElement(readString(), readValue());
+                    break;
+                case VERBATIM:
+                    writer.verbatim(readString());
+                    break;
+                default:
+                    throw new IOException("Invalid opcode " + opcode);
+                }
+            }
+        }
+
+        private Object[] readAttributes() throws IOException {
+            final Object[] attrs = new Object[readVarInt() * 2];
+            for (int i = 0; i < attrs.length;) {
+                attrs[i++] = readString();
+                attrs[i++] = readValue();
+            }
+            return attrs;
+        }
+
+        private Object readValue() throws IOException {
+            final int type = in.readUnsignedByte();
+            switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString();
+            case LONG:
+                final long n = readVarLong();
+                return (n >>> 1) ^ -(n & 1);
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DECIMAL:
+                return new BigDecimal(readString());
+            default:
+                throw new IOException("Invalid value type " + type);
+            }
+        }
+
+        private String readString() throws IOException {
+            final int ref = readVarInt();
+            switch (ref) {
+            case NULL_STRING:
+                return null;
+            case NEW_STRING:
+                final byte[] bytes = new byte[readVarInt()];
+                in.readFully(bytes);
+                final String s = new String(bytes, "UTF-8");
+                if (isDictionaryCandidate(s, dictionary.size())) {
+                    dictionary.add(s);
+                }
+                return s;
+            default:
+                return dictionary.get(ref - 2);
+            }
+        }
+
+        private int readVarInt() throws IOException {
+            return (int) readVarLong();
+        }
+
+        private long readVarLong() throws IOException {
+            long n = 0;
+            for (int shift = 0;; shift += 7) {
+                final int b = in.readUnsignedByte();
+                n |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return n;
+                }
+            }
+        }
+    }
+}
+
+// End BinarySaxWriter.java
@@ -37,6 +37,9 @@ public class DefaultXmlaResponse implements XmlaResponse  {
             case JSON:
                 writer = new JsonSaxWriter(outputStream);
                 break;
+            case BINARY:
+                writer = new BinarySaxWriter(outputStream);
+                break;
             case SOAP:
             default:
                 writer = new DefaultSaxWriter(outputStream, encoding);
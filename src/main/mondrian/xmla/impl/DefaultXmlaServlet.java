@@ -28,7 +28,9 @@ import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.*;
+import javax.xml.stream.*;
 
 /**
  * Default implementation of XML/A servlet.
@@ -46,10 +48,30 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
     private static final String REQUIRE_AUTHENTICATED_SESSIONS =
         "requireAuthenticatedSessions";
 
+    /**
+     * Servlet config parameter that determines whether the xmla servlet
+     * streams requests and responses. If true, requests are read with a StAX
+     * pull parser, and the response body is written straight to the servlet
+     * output stream as it is produced, rather than being held in memory
+     * until the request has been processed. Default false.
+     */
+    private static final String STREAMING = "streaming";
+
+    /**
+     * Value of the body part of the response when the body has already been
+     * written to the servlet output stream. Callbacks' postAction methods see
+     * this value, and cannot change the body of a streamed response.
+     */
+    protected static final byte[] STREAMED_BODY = new byte[0];
+
     private DocumentBuilderFactory domFactory = null;
 
+    private XMLInputFactory staxFactory = null;
+
     private boolean requireAuthenticatedSessions = false;
 
+    private boolean streaming = false;
+
     /**
      * Session properties, keyed by session ID. Currently just username and
      * password.
@@ -63,6 +85,11 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         this.requireAuthenticatedSessions =
             Boolean.parseBoolean(
                 servletConfig.getInitParameter(REQUIRE_AUTHENTICATED_SESSIONS));
+        this.streaming =
+            Boolean.parseBoolean(servletConfig.getInitParameter(STREAMING));
+        if (streaming) {
+            this.staxFactory = getXMLInputFactory();
+        }
     }
 
     protected static DocumentBuilderFactory getDocumentBuilderFactory() {
@@ -73,6 +100,16 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         return factory;
     }
 
+    protected static XMLInputFactory getXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
     protected void unmarshallSoapMessage(
         HttpServletRequest request,
         Element[] requestSoapParts)
@@ -110,7 +147,10 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
 
             Document soapDoc;
             try {
-                soapDoc = domBuilder.parse(new InputSource(inputStream));
+                soapDoc =
+                    streaming
+                        ? parse(domBuilder, inputStream)
+                        : domBuilder.parse(new InputSource(inputStream));
             } catch (IOException ex) {
                 // This is either Client or Server
                 throw new XmlaException(
@@ -125,6 +165,13 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
                     USM_DOM_PARSE_CODE,
                     USM_DOM_PARSE_FAULT_FS,
                     ex);
+            } catch (XMLStreamException ex) {
+                // Assume client passed bad xml
+                throw new XmlaException(
+                    CLIENT_FAULT_FC,
+                    USM_DOM_PARSE_CODE,
+                    USM_DOM_PARSE_FAULT_FS,
+                    ex);
             }
 
             /* Check SOAP message */
@@ -191,6 +238,89 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         }
     }
 
+    /**
+     * Reads a SOAP request into a DOM document using a StAX pull parser.
+     *
+     * <p>Builds the document directly from the parser's events, without the
+     * intermediate SAX layer of {@link DocumentBuilder#parse}. Only
+     * elements, attributes and text are kept; comments and processing
+     * instructions, which the request handler never looks at, are dropped.
+     * DTDs and external entities are not resolved.
+     *
+     * @param domBuilder Builder used to create the document
+     * @param inputStream Request stream
+     * @return Document
+     * @throws XMLStreamException if the request is not well-formed XML
+     */
+    private Document parse(
+        DocumentBuilder domBuilder,
+        InputStream inputStream)
+        throws XMLStreamException
+    {
+        final Document doc = domBuilder.newDocument();
+        final XMLStreamReader reader =
+            staxFactory.createXMLStreamReader(inputStream);
+        try {
+            Node parent = doc;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final Element element =
+                        doc.createElementNS(
+                            emptyToNull(reader.getNamespaceURI()),
+                            qualify(
+                                reader.getPrefix(), reader.getLocalName()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        final String prefix =
+                            emptyToNull(reader.getNamespacePrefix(i));
+                        element.setAttributeNS(
+                            XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                            prefix == null
+                                ? XMLConstants.XMLNS_ATTRIBUTE
+                                : qualify(XMLConstants.XMLNS_ATTRIBUTE, prefix),
+                            reader.getNamespaceURI(i));
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        element.setAttributeNS(
+                            emptyToNull(reader.getAttributeNamespace(i)),
+                            qualify(
+                                reader.getAttributePrefix(i),
+                                reader.getAttributeLocalName(i)),
+                            reader.getAttributeValue(i));
+                    }
+                    parent.appendChild(element);
+                    parent = element;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    parent = parent.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (parent != doc) {
+                        parent.appendChild(
+                            doc.createTextNode(reader.getText()));
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return doc;
+    }
+
+    private static String qualify(String prefix, String localName) {
+        prefix = emptyToNull(prefix);
+        return prefix == null ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.length() == 0 ? null : s;
+    }
+
     protected void logXmlaRequest(Element envElem) {
         final StringWriter writer = new StringWriter();
         writer.write("XML/A request content");
@@ -478,8 +608,6 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
 
             Element xmlaReqElem = (dreqs.length == 0 ? ereqs[0] : dreqs[0]);
 
-            ByteArrayOutputStream osBuf = new ByteArrayOutputStream();
-
             // use context variable 'role_name' as this request's XML/A role
             String roleName = (String) context.get(CONTEXT_ROLE_NAME);
 
@@ -506,8 +634,32 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
                 }
             }
 
+            // When streaming, write the start of the envelope now, and the
+            // body as the handler produces it. Otherwise buffer the body
+            // until marshallSoapMessage.
+            final ByteArrayOutputStream osBuf;
+            final OutputStream outputStream;
+            final Enumeration.ResponseMimeType envelopeMimeType =
+                (Enumeration.ResponseMimeType) context.get(CONTEXT_MIME_TYPE);
+            if (streaming) {
+                osBuf = null;
+                encoding = setContentType(response, envelopeMimeType);
+                outputStream = response.getOutputStream();
+                if (envelopeMimeType == Enumeration.ResponseMimeType.SOAP) {
+                    outputStream.write(getSoapPrefix(encoding));
+                    if (responseSoapParts[0] != null) {
+                        outputStream.write(responseSoapParts[0]);
+                    }
+                    outputStream.write(getSoapInfix(encoding));
+                }
+            } else {
+                osBuf = new ByteArrayOutputStream();
+                outputStream = osBuf;
+            }
+
             XmlaResponse xmlaRes =
-                new DefaultXmlaResponse(osBuf, encoding, responseMimeType);
+                new DefaultXmlaResponse(
+                    outputStream, encoding, responseMimeType);
 
             try {
                 getXmlaHandler().process(xmlaReq, xmlaRes);
@@ -521,7 +673,15 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
                     ex);
             }
 
-            responseSoapParts[1] = osBuf.toByteArray();
+            if (streaming) {
+                if (envelopeMimeType == Enumeration.ResponseMimeType.SOAP) {
+                    outputStream.write(getSoapSuffix(encoding));
+                }
+                outputStream.flush();
+                responseSoapParts[1] = STREAMED_BODY;
+            } else {
+                responseSoapParts[1] = osBuf.toByteArray();
+            }
         } catch (XmlaException xex) {
             throw xex;
         } catch (Exception ex) {
@@ -540,27 +700,20 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         throws XmlaException
     {
         try {
-            // If CharacterEncoding was set in web.xml, use this value
-            String encoding =
-                (charEncoding != null)
-                    ? charEncoding
-                    : response.getCharacterEncoding();
-
-            // Since we just reset response, encoding and content-type were
-            // reset too
-            if (charEncoding != null) {
-                response.setCharacterEncoding(charEncoding);
-            }
-            switch (responseMimeType) {
-            case JSON:
-                response.setContentType("application/json");
-                break;
-            case SOAP:
-            default:
-                response.setContentType("text/xml");
-                break;
+            if (responseSoapParts[1] == STREAMED_BODY) {
+                // handleSoapBody has already written the whole response.
+                try {
+                    response.getOutputStream().flush();
+                } catch (IOException ioe) {
+                    LOGGER.warn(
+                        "Exception when transferring bytes over sockets",
+                        ioe);
+                }
+                return;
             }
 
+            String encoding = setContentType(response, responseMimeType);
+
              // The setCharacterEncoding, setContentType, or setLocale method
              // must be called BEFORE getWriter or getOutputStream and before
              // committing the response for the character encoding to be used.
@@ -577,6 +730,7 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
             try {
                 switch (responseMimeType) {
                 case JSON:
+                case BINARY:
                     byteChunks = new Object[] {
                         soapBody,
                     };
@@ -584,26 +738,12 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
 
                 case SOAP:
                 default:
-                    String s0 =
-                        "<?xml version=\"1.0\" encoding=\"" + encoding
-                        + "\"?>\n<" + SOAP_PREFIX + ":Envelope xmlns:"
-                        + SOAP_PREFIX + "=\"" + NS_SOAP_ENV_1_1 + "\" "
-                        + SOAP_PREFIX + ":encodingStyle=\""
-                        + NS_SOAP_ENC_1_1 + "\" >" + "\n<" + SOAP_PREFIX
-                        + ":Header>\n";
-                    String s2 =
-                        "</" + SOAP_PREFIX + ":Header>\n<" + SOAP_PREFIX
-                        + ":Body>\n";
-                    String s4 =
-                        "\n</" + SOAP_PREFIX + ":Body>\n</" + SOAP_PREFIX
-                        + ":Envelope>\n";
-
                     byteChunks = new Object[] {
-                        s0.getBytes(encoding),
+                        getSoapPrefix(encoding),
                         soapHeader,
-                        s2.getBytes(encoding),
+                        getSoapInfix(encoding),
                         soapBody,
-                        s4.getBytes(encoding),
+                        getSoapSuffix(encoding),
                     };
                     break;
                 }
@@ -676,9 +816,92 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         }
     }
 
+    /**
+     * Sets the character encoding and content type of a response.
+     *
+     * <p>Must be called before the response's output stream is obtained.
+     *
+     * @param response Response
+     * @param responseMimeType Mime type of response
+     * @return Character encoding of the response
+     */
+    private String setContentType(
+        HttpServletResponse response,
+        Enumeration.ResponseMimeType responseMimeType)
+    {
+        // If CharacterEncoding was set in web.xml, use this value
+        String encoding =
+            (charEncoding != null)
+                ? charEncoding
+                : response.getCharacterEncoding();
+
+        // Since we just reset response, encoding and content-type were
+        // reset too
+        if (charEncoding != null) {
+            response.setCharacterEncoding(charEncoding);
+        }
+        switch (responseMimeType) {
+        case JSON:
+            response.setContentType("application/json");
+            break;
+        case BINARY:
+            response.setContentType(responseMimeType.getMimeType());
+            break;
+        case SOAP:
+        default:
+            response.setContentType("text/xml");
+            break;
+        }
+        return encoding;
+    }
+
+    /**
+     * Returns the start of a SOAP envelope, up to and including the start of
+     * the Header element.
+     */
+    private static byte[] getSoapPrefix(String encoding)
+        throws UnsupportedEncodingException
+    {
+        String s0 =
+            "<?xml version=\"1.0\" encoding=\"" + encoding
+            + "\"?>\n<" + SOAP_PREFIX + ":Envelope xmlns:"
+            + SOAP_PREFIX + "=\"" + NS_SOAP_ENV_1_1 + "\" "
+            + SOAP_PREFIX + ":encodingStyle=\""
+            + NS_SOAP_ENC_1_1 + "\" >" + "\n<" + SOAP_PREFIX
+            + ":Header>\n";
+        return s0.getBytes(encoding);
+    }
+
+    /**
+     * Returns the part of a SOAP envelope between the header and the body.
+     */
+    private static byte[] getSoapInfix(String encoding)
+        throws UnsupportedEncodingException
+    {
+        String s2 =
+            "</" + SOAP_PREFIX + ":Header>\n<" + SOAP_PREFIX
+            + ":Body>\n";
+        return s2.getBytes(encoding);
+    }
+
+    /**
+     * Returns the end of a SOAP envelope, after the body.
+     */
+    private static byte[] getSoapSuffix(String encoding)
+        throws UnsupportedEncodingException
+    {
+        String s4 =
+            "\n</" + SOAP_PREFIX + ":Body>\n</" + SOAP_PREFIX
+            + ":Envelope>\n";
+        return s4.getBytes(encoding);
+    }
+
     /**
      * This produces a SOAP 1.1 version Fault element - not a 1.2 version.
      *
+     * <p>If the response has been streamed and part of it has already been
+     * sent to the client, it is too late to send a fault; the error is
+     * logged and the response is left truncated.
      */
     protected void handleFault(
         HttpServletResponse response,
@@ -686,6 +909,13 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         Phase phase,
         Throwable t)
     {
+        if (streaming && response.isCommitted()) {
+            LOGGER.error(
+                "Cannot send XML/A fault; response has already been sent", t);
+            responseSoapParts[1] = STREAMED_BODY;
+            return;
+        }
+
         // Regardless of whats been put into the response so far, clear
         // it out.
         response.reset();
@@ -0,0 +1,74 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.olap.fun;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for the sorting utilities in {@link FunUtil} used by
+ * <code>Order</code>, <code>TopCount</code> and <code>BottomCount</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunUtilSortBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    /** Number of items required at the head of the sorted list. */
+    @Param({"10", "1000"})
+    public int limit;
+
+    private static final Comparator<Double> DESCENDING =
+        new Comparator<Double>() {
+            public int compare(Double o1, Double o2) {
+                return o2.compareTo(o1);
+            }
+        };
+
+    private List<Double> values;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        values = new ArrayList<Double>(size);
+        for (int i = 0; i < size; i++) {
+            // Many duplicates, to exercise stability.
+            values.add((double) random.nextInt(size / 10 + 1));
+        }
+    }
+
+    @Benchmark
+    public List<Double> stablePartialSort() {
+        return FunUtil.stablePartialSort(
+            values, DESCENDING, Math.min(limit, size));
+    }
+
+    @Benchmark
+    public Double[] partialSort() {
+        final Double[] array = values.toArray(new Double[size]);
+        FunUtil.partialSort(array, DESCENDING, Math.min(limit, size));
+        return array;
+    }
+
+    @Benchmark
+    public List<Double> fullSort() {
+        final List<Double> list = new ArrayList<Double>(values);
+        Collections.sort(list, DESCENDING);
+        return list;
+    }
+}
+
+// End FunUtilSortBenchmark.java
@@ -0,0 +1,104 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for {@link BitKey} operations, for each of the
+ * implementations ({@link BitKey.Small}, {@link BitKey.Mid128} and
+ * {@link BitKey.Big}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitKeyBenchmark {
+    /** Number of bits; 64, 128 and 300 select the three implementations. */
+    @Param({"64", "128", "300"})
+    public int size;
+
+    private BitKey key;
+    private BitKey subKey;
+    private BitKey otherKey;
+
+    @Setup
+    public void setup() {
+        key = BitKey.Factory.makeBitKey(size);
+        subKey = BitKey.Factory.makeBitKey(size);
+        otherKey = BitKey.Factory.makeBitKey(size);
+        for (int i = 0; i < size; i += 3) {
+            key.set(i);
+            if (i % 2 == 0) {
+                subKey.set(i);
+            }
+        }
+        for (int i = 1; i < size; i += 5) {
+            otherKey.set(i);
+        }
+    }
+
+    @Benchmark
+    public BitKey makeAndSet() {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(size);
+        bitKey.set(size - 1);
+        bitKey.set(size / 2);
+        return bitKey;
+    }
+
+    @Benchmark
+    public BitKey and() {
+        return key.and(otherKey);
+    }
+
+    @Benchmark
+    public BitKey or() {
+        return key.or(otherKey);
+    }
+
+    @Benchmark
+    public BitKey andNot() {
+        return key.andNot(subKey);
+    }
+
+    @Benchmark
+    public boolean isSuperSetOf() {
+        return key.isSuperSetOf(subKey);
+    }
+
+    @Benchmark
+    public boolean intersects() {
+        return key.intersects(otherKey);
+    }
+
+    @Benchmark
+    public int cardinality() {
+        return key.cardinality();
+    }
+
+    @Benchmark
+    public int iterate() {
+        int sum = 0;
+        for (int i = key.nextSetBit(0); i >= 0; i = key.nextSetBit(i + 1)) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int hashCodeAndEquals() {
+        return key.equals(subKey) ? 0 : key.hashCode();
+    }
+}
+
+// End BitKeyBenchmark.java
@@ -0,0 +1,74 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for the creation, hashing and comparison of
+ * {@link CellKey} objects.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellKeyBenchmark {
+    /** Number of axes of the key; exercises each implementation. */
+    @Param({"1", "2", "3", "4", "6"})
+    public int axisCount;
+
+    private int[] ordinals;
+    private CellKey key;
+    private CellKey otherKey;
+    private final Map<CellKey, Object> map = new HashMap<CellKey, Object>();
+    private int counter;
+
+    @Setup
+    public void setup() {
+        ordinals = new int[axisCount];
+        for (int i = 0; i < axisCount; i++) {
+            ordinals[i] = i * 7 + 3;
+        }
+        key = CellKey.Generator.newCellKey(ordinals);
+        otherKey = CellKey.Generator.newCellKey(ordinals);
+        final int[] pos = new int[axisCount];
+        for (int i = 0; i < 1000; i++) {
+            pos[axisCount - 1] = i;
+            map.put(CellKey.Generator.newCellKey(pos), i);
+        }
+    }
+
+    @Benchmark
+    public CellKey newCellKey() {
+        return CellKey.Generator.newCellKey(ordinals);
+    }
+
+    @Benchmark
+    public CellKey copy() {
+        return key.copy();
+    }
+
+    @Benchmark
+    public int hashCodeAndEquals() {
+        return otherKey.equals(key) ? key.hashCode() : 0;
+    }
+
+    @Benchmark
+    public Object mapLookup() {
+        ordinals[axisCount - 1] = counter++ % 1000;
+        return map.get(CellKey.Generator.newCellKey(ordinals));
+    }
+}
+
+// End CellKeyBenchmark.java
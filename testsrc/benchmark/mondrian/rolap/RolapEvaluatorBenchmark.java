@@ -0,0 +1,96 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.server.Execution;
+import mondrian.test.TestContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for changing the context of a {@link RolapEvaluator}:
+ * {@link RolapEvaluator#push()}, and setting members between a
+ * {@link RolapEvaluator#savepoint()} and a
+ * {@link RolapEvaluator#restore(int)}.
+ *
+ * <p>No cells are evaluated, but loading the schema requires the FoodMart
+ * database, as configured for the test suite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RolapEvaluatorBenchmark {
+    private static final String[] MEMBER_NAMES = {
+        "[Time].[1997].[Q1]",
+        "[Store].[USA].[CA]",
+        "[Product].[Food]",
+        "[Gender].[F]",
+        "[Measures].[Store Sales]",
+    };
+
+    private Connection connection;
+    private RolapEvaluator evaluator;
+    private Member[] members;
+
+    @Setup
+    public void setup() {
+        connection = TestContext.instance().getConnection();
+        final Query query = connection.parseQuery("select from [Sales]");
+        final Execution execution = new Execution(query.getStatement(), 0L);
+        evaluator = new RolapEvaluator(new RolapEvaluatorRoot(execution));
+        final SchemaReader schemaReader = query.getSchemaReader(true);
+        members = new Member[MEMBER_NAMES.length];
+        for (int i = 0; i < members.length; i++) {
+            members[i] =
+                schemaReader.getMemberByUniqueName(
+                    Util.parseIdentifier(MEMBER_NAMES[i]), true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Benchmark
+    public RolapEvaluator push() {
+        return evaluator.push();
+    }
+
+    @Benchmark
+    public RolapEvaluator pushAndSetContext() {
+        final RolapEvaluator child = evaluator.push();
+        child.setContext(members);
+        return child;
+    }
+
+    @Benchmark
+    public int setContextAndRestore() {
+        final int savepoint = evaluator.savepoint();
+        evaluator.setContext(members);
+        evaluator.restore(savepoint);
+        return savepoint;
+    }
+
+    @Benchmark
+    public int setOneMemberAndRestore() {
+        final int savepoint = evaluator.savepoint();
+        evaluator.setContext(members[0]);
+        evaluator.restore(savepoint);
+        return savepoint;
+    }
+}
+
+// End RolapEvaluatorBenchmark.java
@@ -0,0 +1,92 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for cell lookups in a {@link DenseDoubleSegmentDataset}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DenseDoubleSegmentDatasetBenchmark {
+    /** Number of axes of the segment. */
+    @Param({"1", "2", "3"})
+    public int axisCount;
+
+    private static final int VALUES_PER_AXIS = 20;
+
+    private DenseDoubleSegmentDataset dataset;
+    private CellKey[] keys;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        final SegmentAxis[] axes = new SegmentAxis[axisCount];
+        int size = 1;
+        for (int i = 0; i < axisCount; i++) {
+            final SortedSet<Comparable> values = new TreeSet<Comparable>();
+            for (int j = 0; j < VALUES_PER_AXIS; j++) {
+                values.add(j);
+            }
+            axes[i] =
+                new SegmentAxis(
+                    new LiteralStarPredicate(null, true), values, false);
+            size *= VALUES_PER_AXIS;
+        }
+        final double[] values = new double[size];
+        final BitSet nullIndicators = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (i % 10 == 0) {
+                nullIndicators.set(i);
+            } else {
+                values[i] = i;
+            }
+        }
+        dataset = new DenseDoubleSegmentDataset(axes, values, nullIndicators);
+
+        // Pre-compute keys in a scattered order, so that lookups do not
+        // simply walk the array.
+        final Random random = new Random(1);
+        keys = new CellKey[1024];
+        for (int i = 0; i < keys.length; i++) {
+            final int[] ordinals = new int[axisCount];
+            for (int j = 0; j < axisCount; j++) {
+                ordinals[j] = random.nextInt(VALUES_PER_AXIS);
+            }
+            keys[i] = CellKey.Generator.newCellKey(ordinals);
+        }
+    }
+
+    @Benchmark
+    public double getDouble() {
+        return dataset.getDouble(keys[counter++ & 1023]);
+    }
+
+    @Benchmark
+    public Object getObject() {
+        return dataset.getObject(keys[counter++ & 1023]);
+    }
+
+    @Benchmark
+    public boolean isNull() {
+        return dataset.isNull(keys[counter++ & 1023]);
+    }
+}
+
+// End DenseDoubleSegmentDatasetBenchmark.java
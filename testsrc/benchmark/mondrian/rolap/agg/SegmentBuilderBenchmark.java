@@ -0,0 +1,91 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+import mondrian.util.Pair;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for {@link SegmentBuilder#rollup}, rolling up an in-memory
+ * dense segment of three columns to one or two of its columns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentBuilderBenchmark {
+    /** Number of values in each of the three columns of the segment. */
+    @Param({"10", "40"})
+    public int valueCount;
+
+    private Map<SegmentHeader, SegmentBody> map;
+    private final Set<String> oneColumn = Collections.singleton("col1");
+    private final Set<String> twoColumns =
+        new HashSet<String>(Arrays.asList("col1", "col2"));
+
+    @Setup
+    public void setup() {
+        final String[] columnNames = {"col0", "col1", "col2"};
+        final List<SegmentColumn> columns = new ArrayList<SegmentColumn>();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (String columnName : columnNames) {
+            final SortedSet<Comparable> values = new TreeSet<Comparable>();
+            for (int i = 0; i < valueCount; i++) {
+                values.add(columnName + "v" + i);
+            }
+            columns.add(new SegmentColumn(columnName, valueCount, null, true));
+            axes.add(Pair.of(values, false));
+        }
+        final int cellCount = valueCount * valueCount * valueCount;
+        final double[] cells = new double[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            cells[i] = i % 97;
+        }
+        final SegmentHeader header =
+            new SegmentHeader(
+                "dummySchemaName",
+                new ByteString(new byte[0]),
+                "dummyCubeName",
+                "dummyMeasureName",
+                columns,
+                Collections.<String>emptyList(),
+                "dummyFactTable",
+                BitKey.Factory.makeBitKey(3),
+                Collections.<SegmentColumn>emptyList());
+        map = Collections.<SegmentHeader, SegmentBody>singletonMap(
+            header, new DenseDoubleSegmentBody(new BitSet(), cells, axes));
+    }
+
+    @Benchmark
+    public Pair<SegmentHeader, SegmentBody> rollupToOneColumn() {
+        return SegmentBuilder.rollup(
+            map, oneColumn, null, RolapAggregator.Sum,
+            Dialect.Datatype.Numeric);
+    }
+
+    @Benchmark
+    public Pair<SegmentHeader, SegmentBody> rollupToTwoColumns() {
+        return SegmentBuilder.rollup(
+            map, twoColumns, null, RolapAggregator.Sum,
+            Dialect.Datatype.Numeric);
+    }
+}
+
+// End SegmentBuilderBenchmark.java
@@ -0,0 +1,543 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.test;
+
+import mondrian.olap.*;
+import mondrian.rolap.RolapUtil;
+import mondrian.server.Locus;
+import mondrian.server.monitor.ServerInfo;
+import mondrian.test.comp.XmlUtility;
+import mondrian.test.loader.MondrianFoodMartLoader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import javax.xml.parsers.DocumentBuilder;
+
+/**
+ * End-to-end throughput benchmark. Replays a corpus of MDX queries against
+ * FoodMart with several concurrent virtual users, and writes latency
+ * percentiles, SQL statement counts, cell cache hit ratio and allocation rate
+ * as JSON.
+ *
+ * <p>The run is controlled by the same properties as the regression suite
+ * (see {@link Main}):<ul>
+ * <li>{@link MondrianProperties#VUsers} is the number of virtual users, each
+ *     a thread with its own connection;</li>
+ * <li>{@link MondrianProperties#Iterations} is the number of times each user
+ *     runs through the corpus;</li>
+ * <li>{@link MondrianProperties#TimeLimit} stops the run after a number of
+ *     seconds (0 means no limit);</li>
+ * <li>if {@link MondrianProperties#Warmup} is true, each query is executed
+ *     once before the measured run, and is not measured;</li>
+ * <li>the corpus is the files called <code>query<i>whatever</i>.xml</code>
+ *     in {@link MondrianProperties#QueryFileDirectory} (default
+ *     <code>testsrc/queryFiles</code>) that match
+ *     {@link MondrianProperties#QueryFilePattern}, in the format read by
+ *     {@link mondrian.test.comp.ResultComparatorTest}.</li>
+ * </ul>
+ *
+ * <p>Command-line arguments:<ul>
+ * <li><code>-db=hsqldb</code> (the default) or <code>-db=derby</code> runs
+ *     against an embedded database under <code>build/benchmark-db</code>,
+ *     loading FoodMart into it using {@link MondrianFoodMartLoader} if it is
+ *     not already loaded; <code>-db=configured</code> uses the database
+ *     configured for the test suite;</li>
+ * <li><code>-output=<i>file</i></code> writes the JSON report to a file
+ *     rather than to standard output.</li>
+ * </ul>
+ *
+ * <p>SQL statements are attributed to the query whose execution issued them.
+ * Cell cache statistics come from the server's {@link
+ * mondrian.server.monitor.Monitor}, so are totals for the run. Allocation is
+ * measured on the virtual user threads only (if the JVM supports it), so does
+ * not include allocation by SQL threads.
+ */
+public class ThroughputBenchmark {
+    private final Database database;
+    private final File outputFile;
+    private final MondrianProperties properties =
+        MondrianProperties.instance();
+
+    /** Statistics of each query, keyed by the statement that is executing
+     * it. Used to attribute SQL statements to queries. */
+    private final Map<mondrian.server.Statement, QueryStats> executing =
+        new ConcurrentHashMap<mondrian.server.Statement, QueryStats>();
+
+    /**
+     * Creates a ThroughputBenchmark.
+     *
+     * @param database Database to run against
+     * @param outputFile File to write report to, or null to write to
+     *   standard output
+     */
+    public ThroughputBenchmark(Database database, File outputFile) {
+        this.database = database;
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Command-line entry point.
+     *
+     * @param args Command-line arguments
+     * @throws Exception on error
+     */
+    public static void main(String[] args) throws Exception {
+        Database database = Database.HSQLDB;
+        File outputFile = null;
+        for (String arg : args) {
+            if (arg.startsWith("-db=")) {
+                database = Database.valueOf(
+                    arg.substring("-db=".length()).toUpperCase());
+            } else if (arg.startsWith("-output=")) {
+                outputFile = new File(arg.substring("-output=".length()));
+            } else {
+                throw new IllegalArgumentException(
+                    "Usage: ThroughputBenchmark "
+                    + "[-db={hsqldb|derby|configured}] [-output=<file>]");
+            }
+        }
+        new ThroughputBenchmark(database, outputFile).run();
+    }
+
+    private void run() throws Exception {
+        final Util.PropertyList connectProperties =
+            Util.parseConnectString(TestContext.getDefaultConnectString());
+        if (database.url != null) {
+            connectProperties.put("Jdbc", database.url);
+            connectProperties.put("JdbcDrivers", database.driver);
+            connectProperties.remove("JdbcUser");
+            connectProperties.remove("JdbcPassword");
+            load();
+        }
+
+        final List<QueryStats> corpus = readCorpus();
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException(
+                "No query files found in " + getQueryDirectory());
+        }
+
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    final Locus locus;
+                    try {
+                        locus = Locus.peek();
+                    } catch (EmptyStackException e) {
+                        return;
+                    }
+                    final QueryStats stats =
+                        executing.get(locus.execution.getMondrianStatement());
+                    if (stats != null) {
+                        stats.sqlCount.incrementAndGet();
+                    }
+                }
+            });
+        final Connection connection =
+            DriverManager.getConnection(connectProperties, null);
+        try {
+            if (properties.Warmup.get()) {
+                for (QueryStats stats : corpus) {
+                    execute(connection, stats, false);
+                }
+            }
+            final MondrianServer server =
+                MondrianServer.forConnection(connection);
+            final ServerInfo before = server.getMonitor().getServer();
+            final long elapsedNanos = runUsers(connectProperties, corpus);
+            final ServerInfo after = server.getMonitor().getServer();
+            report(corpus, before, after, elapsedNanos);
+        } finally {
+            RolapUtil.setHook(null);
+            connection.close();
+        }
+    }
+
+    /**
+     * Loads FoodMart into the embedded database, unless it is already
+     * loaded.
+     */
+    private void load() throws Exception {
+        if (isLoaded()) {
+            return;
+        }
+        System.err.println("Loading FoodMart into " + database.url);
+        MondrianFoodMartLoader.main(
+            new String[] {
+                "-tables", "-data", "-indexes", "-aggregates",
+                "-jdbcDrivers=" + database.driver,
+                "-outputJdbcURL=" + database.url,
+            });
+        // The loader logs rather than throws errors, so check that it worked.
+        if (!isLoaded()) {
+            throw new IllegalStateException(
+                "Failed to load FoodMart into " + database.url);
+        }
+    }
+
+    private boolean isLoaded() throws Exception {
+        RolapUtil.loadDrivers(database.driver);
+        final java.sql.Connection jdbcConnection =
+            java.sql.DriverManager.getConnection(database.url);
+        try {
+            final ResultSet resultSet =
+                jdbcConnection.createStatement().executeQuery(
+                    "select count(*) from \"sales_fact_1997\"");
+            return resultSet.next() && resultSet.getInt(1) > 0;
+        } catch (java.sql.SQLException e) {
+            return false;
+        } finally {
+            jdbcConnection.close();
+        }
+    }
+
+    private String getQueryDirectory() {
+        final String fileDirectory = properties.QueryFileDirectory.get();
+        return fileDirectory == null
+            ? "testsrc" + File.separatorChar + "queryFiles"
+            : fileDirectory;
+    }
+
+    /**
+     * Reads the MDX queries to run, in the same way as
+     * {@link mondrian.test.comp.ResultComparatorTest#suite()}.
+     */
+    private List<QueryStats> readCorpus() throws Exception {
+        final String filePattern = properties.QueryFilePattern.get();
+        final Pattern pattern =
+            filePattern == null
+                ? null
+                : Pattern.compile(filePattern);
+        File[] files = new File(getQueryDirectory()).listFiles(
+            new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return name.startsWith("query")
+                        && name.endsWith(".xml")
+                        && (pattern == null
+                            || pattern.matcher(name).matches());
+                }
+            });
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files);
+        final DocumentBuilder db = XmlUtility.createDomParser(
+            false, true, false, new XmlUtility.UtilityErrorHandler());
+        final List<QueryStats> corpus = new ArrayList<QueryStats>();
+        for (File file : files) {
+            final Document doc = db.parse(file);
+            final Element queryNode =
+                (Element) doc.getElementsByTagName("mdxQuery").item(0);
+            corpus.add(
+                new QueryStats(
+                    file.getName(),
+                    XmlUtility.decodeEncodedString(
+                        queryNode.getFirstChild().getNodeValue())));
+        }
+        return corpus;
+    }
+
+    /**
+     * Runs the virtual users, and returns the elapsed time in nanoseconds.
+     */
+    private long runUsers(
+        final Util.PropertyList connectProperties,
+        final List<QueryStats> corpus)
+        throws Exception
+    {
+        final int vUsers = properties.VUsers.get();
+        final int iterations = properties.Iterations.get();
+        final int timeLimit = properties.TimeLimit.get();
+        final long startNanos = System.nanoTime();
+        final long deadlineNanos =
+            timeLimit > 0
+                ? startNanos + TimeUnit.SECONDS.toNanos(timeLimit)
+                : Long.MAX_VALUE;
+        final ExecutorService executor = Executors.newFixedThreadPool(vUsers);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < vUsers; i++) {
+                // Each user starts at a different place in the corpus, so
+                // that users are not in lock-step.
+                final int offset = i * corpus.size() / vUsers;
+                futures.add(
+                    executor.submit(
+                        new Callable<Void>() {
+                            public Void call() {
+                                runUser(
+                                    connectProperties, corpus, offset,
+                                    iterations, deadlineNanos);
+                                return null;
+                            }
+                        }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    private void runUser(
+        Util.PropertyList connectProperties,
+        List<QueryStats> corpus,
+        int offset,
+        int iterations,
+        long deadlineNanos)
+    {
+        final Connection connection =
+            DriverManager.getConnection(connectProperties, null);
+        try {
+            for (int i = 0; i < iterations; i++) {
+                for (int j = 0; j < corpus.size(); j++) {
+                    if (System.nanoTime() > deadlineNanos) {
+                        return;
+                    }
+                    execute(
+                        connection,
+                        corpus.get((offset + j) % corpus.size()),
+                        true);
+                }
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void execute(
+        Connection connection,
+        QueryStats stats,
+        boolean measure)
+    {
+        final long startBytes = measure ? allocatedBytes() : 0L;
+        final long startNanos = System.nanoTime();
+        Query query = null;
+        boolean succeeded = false;
+        try {
+            query = connection.parseQuery(stats.mdx);
+            if (measure) {
+                executing.put(query.getStatement(), stats);
+            }
+            connection.execute(query);
+            succeeded = true;
+        } catch (RuntimeException e) {
+            if (measure) {
+                stats.errorCount.incrementAndGet();
+            }
+        } finally {
+            if (query != null) {
+                executing.remove(query.getStatement());
+            }
+        }
+        // Failed executions are counted in errorCount, and their latency is
+        // not recorded, so that they do not distort the percentiles.
+        if (measure && succeeded) {
+            stats.addLatency(System.nanoTime() - startNanos);
+            stats.allocatedBytes.addAndGet(allocatedBytes() - startBytes);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread, or 0 if
+     * the JVM cannot measure it.
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunBean =
+                (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                && sunBean.isThreadAllocatedMemoryEnabled())
+            {
+                return sunBean.getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+            }
+        }
+        return 0L;
+    }
+
+    private void report(
+        List<QueryStats> corpus,
+        ServerInfo before,
+        ServerInfo after,
+        long elapsedNanos)
+        throws IOException
+    {
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        final double elapsedSeconds = elapsedNanos / 1e9;
+        int executionCount = 0;
+        int errorCount = 0;
+        long allocated = 0;
+        for (QueryStats stats : corpus) {
+            executionCount += stats.getCount();
+            errorCount += stats.errorCount.get();
+            allocated += stats.allocatedBytes.get();
+        }
+        final int cellRequests =
+            after.cellCacheRequestCount - before.cellCacheRequestCount;
+        final int cellHits = after.cellCacheHitCount - before.cellCacheHitCount;
+        pw.println("{");
+        pw.println("  \"database\": " + quote(database.name()) + ",");
+        pw.println("  \"vUsers\": " + properties.VUsers.get() + ",");
+        pw.println("  \"iterations\": " + properties.Iterations.get() + ",");
+        pw.println("  \"elapsedSeconds\": " + elapsedSeconds + ",");
+        pw.println("  \"executionCount\": " + executionCount + ",");
+        pw.println("  \"errorCount\": " + errorCount + ",");
+        pw.println(
+            "  \"queriesPerSecond\": "
+            + (executionCount / elapsedSeconds) + ",");
+        pw.println(
+            "  \"sqlExecuteCount\": "
+            + (after.sqlStatementExecuteCount
+               - before.sqlStatementExecuteCount) + ",");
+        pw.println("  \"cellCacheRequestCount\": " + cellRequests + ",");
+        pw.println("  \"cellCacheHitCount\": " + cellHits + ",");
+        pw.println(
+            "  \"cellCacheHitRatio\": "
+            + (cellRequests == 0 ? 0d : (double) cellHits / cellRequests)
+            + ",");
+        pw.println(
+            "  \"allocatedBytesPerSecond\": "
+            + (long) (allocated / elapsedSeconds) + ",");
+        pw.println("  \"queries\": [");
+        for (int i = 0; i < corpus.size(); i++) {
+            final QueryStats stats = corpus.get(i);
+            final long[] latencies = stats.sortedLatencies();
+            pw.println("    {");
+            pw.println("      \"name\": " + quote(stats.name) + ",");
+            pw.println("      \"count\": " + latencies.length + ",");
+            pw.println("      \"errorCount\": " + stats.errorCount + ",");
+            for (int percent : new int[] {50, 95, 99}) {
+                pw.println(
+                    "      \"p" + percent + "Millis\": "
+                    + percentile(latencies, percent) + ",");
+            }
+            pw.println("      \"sqlExecuteCount\": " + stats.sqlCount + ",");
+            pw.println(
+                "      \"allocatedBytesPerExecution\": "
+                + (latencies.length == 0
+                    ? 0L
+                    : stats.allocatedBytes.get() / latencies.length));
+            pw.println(i < corpus.size() - 1 ? "    }," : "    }");
+        }
+        pw.println("  ]");
+        pw.println("}");
+        pw.flush();
+        if (outputFile == null) {
+            System.out.print(sw);
+        } else {
+            final Writer writer = new FileWriter(outputFile);
+            try {
+                writer.write(sw.toString());
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Returns a percentile of a sorted array of latencies in nanoseconds,
+     * converted to milliseconds, using the nearest-rank method.
+     */
+    static double percentile(long[] sortedLatencies, int percent) {
+        if (sortedLatencies.length == 0) {
+            return 0d;
+        }
+        final int rank =
+            (int) Math.ceil(percent / 100d * sortedLatencies.length);
+        return sortedLatencies[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    private static String quote(String s) {
+        final StringBuilder buf = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                buf.append('\\').append(c);
+            } else if (c < ' ') {
+                buf.append(String.format("\\u%04x", (int) c));
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.append('"').toString();
+    }
+
+    /**
+     * Database to run the benchmark against.
+     */
+    public enum Database {
+        HSQLDB(
+            "org.hsqldb.jdbcDriver",
+            "jdbc:hsqldb:file:build/benchmark-db/hsqldb/foodmart"),
+        DERBY(
+            "org.apache.derby.jdbc.EmbeddedDriver",
+            "jdbc:derby:build/benchmark-db/derby/foodmart;create=true"),
+        /** The database configured for the test suite; see
+         * {@link TestContext#getDefaultConnectString()}. */
+        CONFIGURED(null, null);
+
+        final String driver;
+        final String url;
+
+        Database(String driver, String url) {
+            this.driver = driver;
+            this.url = url;
+        }
+    }
+
+    /**
+     * Statistics for one query in the corpus.
+     */
+    private static class QueryStats {
+        final String name;
+        final String mdx;
+        private final List<Long> latencies = new ArrayList<Long>();
+        final AtomicInteger errorCount = new AtomicInteger();
+        final AtomicInteger sqlCount = new AtomicInteger();
+        final AtomicLong allocatedBytes = new AtomicLong();
+
+        QueryStats(String name, String mdx) {
+            this.name = name;
+            this.mdx = mdx;
+        }
+
+        synchronized void addLatency(long nanos) {
+            latencies.add(nanos);
+        }
+
+        /** Returns the number of successful executions. */
+        synchronized int getCount() {
+            return latencies.size();
+        }
+
+        synchronized long[] sortedLatencies() {
+            final long[] array = new long[latencies.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = latencies.get(i);
+            }
+            Arrays.sort(array);
+            return array;
+        }
+    }
+}
+
+// End ThroughputBenchmark.java
@@ -10,6 +10,7 @@
 package mondrian.olap.fun;
 
 import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
 
 /**
  * <code>SortTest</code> tests the collation order of positive and negative
@@ -161,6 +162,70 @@ public class SortTest extends FoodMartTestCase
             + "Row #13: Infinity\n"
             + "Row #13: 1\n");
     }
+
+    /**
+     * Tests that sorting by numeric keys evaluated up front, sequentially or
+     * in parallel, gives the same results as sorting with comparators.
+     */
+    public void testNumericSortKeys() {
+        final String foo =
+            "with member [Measures].[Foo] as '\n"
+            + "  Iif([Promotion Media].CurrentMember IS [Promotion Media].[TV],"
+            + " 1.0 / 0.0,\n"
+            + "  Iif([Promotion Media].CurrentMember IS"
+            + " [Promotion Media].[Radio], -1.0 / 0.0,\n"
+            + "  Iif([Promotion Media].CurrentMember IS"
+            + " [Promotion Media].[Bulk Mail], 0.0 / 0.0,\n"
+            + "  Iif([Promotion Media].CurrentMember IS"
+            + " [Promotion Media].[Daily Paper], NULL,\n"
+            + "  [Measures].[Unit Sales])))) '\n";
+        final String[] queries = {
+            foo + "select {[Measures].[Foo]} on 0,\n"
+            + " Order([Promotion Media].[Media Type].members, [Measures].[Foo],"
+            + " BDESC) on 1\n"
+            + "from Sales",
+            foo + "select {[Measures].[Foo]} on 0,\n"
+            + " BottomCount([Promotion Media].[Media Type].members, 5,"
+            + " [Measures].[Foo]) on 1\n"
+            + "from Sales",
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " Order([Customers].[Name].members, [Measures].[Unit Sales],"
+            + " BASC) on 1\n"
+            + "from Sales",
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " TopCount([Customers].[Name].members, 20,"
+            + " [Measures].[Unit Sales]) on 1\n"
+            + "from Sales",
+            "select {[Measures].[Store Sales]} on 0,\n"
+            + " TopCount([Gender].[Gender].members"
+            + " * [Product].[Product Department].members, 7,"
+            + " [Measures].[Store Sales]) on 1\n"
+            + "from Sales",
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " Order([Marital Status].[Marital Status].members"
+            + " * [Product].[Product Family].members, [Measures].[Unit Sales],"
+            + " BDESC) on 1\n"
+            + "from Sales",
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " TopPercent([Product].[Product Name].members, 20,"
+            + " [Measures].[Unit Sales]) on 1\n"
+            + "from Sales",
+        };
+        for (String query : queries) {
+            propSaver.set(propSaver.properties.SortNumericKeys, false);
+            final String expected =
+                TestContext.toString(executeQuery(query));
+
+            propSaver.set(propSaver.properties.SortNumericKeys, true);
+            propSaver.set(propSaver.properties.ParallelSortThreshold, 0);
+            assertEquals(
+                query, expected, TestContext.toString(executeQuery(query)));
+
+            propSaver.set(propSaver.properties.ParallelSortThreshold, 10);
+            assertEquals(
+                query, expected, TestContext.toString(executeQuery(query)));
+        }
+    }
 }
 
 // End SortTest.java
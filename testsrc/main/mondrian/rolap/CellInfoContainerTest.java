@@ -0,0 +1,119 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapResult.CellInfo;
+import mondrian.rolap.RolapResult.DenseCellInfoContainer;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Unit test for the implementations of
+ * {@link RolapResult.CellInfoContainer}.
+ */
+public class CellInfoContainerTest extends FoodMartTestCase {
+    public CellInfoContainerTest() {
+    }
+
+    public CellInfoContainerTest(String name) {
+        super(name);
+    }
+
+    public void testDense() {
+        final DenseCellInfoContainer container =
+            new DenseCellInfoContainer(new int[] {3, 2});
+        assertEquals(0, container.size());
+
+        CellInfo ci = container.create(new int[] {2, 1});
+        assertNull(ci.value);
+        ci.value = 1.5d;
+        ci.formatString = "#,##0.00";
+        container.commit(new int[] {2, 1}, ci);
+
+        ci = container.create(new int[] {0, 1});
+        ci.value = Util.nullValue;
+        ci.formatString = "#,##0.00";
+        container.commit(new int[] {0, 1}, ci);
+
+        ci = container.create(new int[] {1, 0});
+        ci.value = "abc";
+        container.commit(new int[] {1, 0}, ci);
+
+        final RuntimeException e = new RuntimeException("bad");
+        ci = container.create(new int[] {0, 0});
+        ci.value = e;
+        ci.foreColor = "red";
+        container.commit(new int[] {0, 0}, ci);
+        assertEquals(4, container.size());
+
+        ci = container.lookup(new int[] {2, 1});
+        assertEquals(1.5d, ci.value);
+        assertEquals("#,##0.00", ci.formatString);
+        assertNull(ci.foreColor);
+        assertSame(Util.nullValue, container.lookup(new int[] {0, 1}).value);
+        assertEquals("abc", container.lookup(new int[] {1, 0}).value);
+        ci = container.lookup(new int[] {0, 0});
+        assertSame(e, ci.value);
+        assertEquals("red", ci.foreColor);
+        assertNull(ci.formatString);
+
+        // Cell that was never stored, and cell out of range.
+        assertNull(container.lookup(new int[] {2, 0}).value);
+        assertNull(container.lookup(new int[] {3, 0}).value);
+        assertNull(container.lookup(new int[] {0, -1}).value);
+
+        // Overwrite an object with a double.
+        ci = container.create(new int[] {1, 0});
+        ci.value = 7d;
+        container.commit(new int[] {1, 0}, ci);
+        assertEquals(7d, container.lookup(new int[] {1, 0}).value);
+        assertEquals(4, container.size());
+
+        container.clear();
+        assertEquals(0, container.size());
+        assertNull(container.lookup(new int[] {2, 1}).value);
+        assertNull(container.lookup(new int[] {2, 1}).formatString);
+    }
+
+    public void testDenseZeroAxes() {
+        final DenseCellInfoContainer container =
+            new DenseCellInfoContainer(new int[0]);
+        final CellInfo ci = container.create(new int[0]);
+        ci.value = 3d;
+        container.commit(new int[0], ci);
+        assertEquals(3d, container.lookup(new int[0]).value);
+        assertEquals(1, container.size());
+    }
+
+    /**
+     * Tests that a query gives the same results, including formatted values,
+     * whether or not its cells are stored densely.
+     */
+    public void testDenseQuery() {
+        final String mdx =
+            "with member [Measures].[Ratio] as\n"
+            + "  '[Measures].[Store Sales] / [Measures].[Store Cost]',\n"
+            + "  FORMAT_STRING = '#.00%'\n"
+            + "select {[Measures].[Unit Sales], [Measures].[Ratio]} on 0,\n"
+            + "  [Store].[Store State].Members on 1,\n"
+            + "  {[Time].[1997].[Q1], [Time].[1997].[Q2]} on 2\n"
+            + "from [Sales]";
+        propSaver.set(MondrianProperties.instance().DenseCellLimit, 0);
+        final String expected =
+            TestContext.toString(getTestContext().executeQuery(mdx));
+        propSaver.set(MondrianProperties.instance().DenseCellLimit, 1000);
+        assertEquals(
+            expected,
+            TestContext.toString(getTestContext().executeQuery(mdx)));
+    }
+}
+
+// End CellInfoContainerTest.java
@@ -2472,6 +2472,71 @@ public class FastBatchingCellReaderTest extends BatchTestCase {
             + "{[Education Level].[Partial High School]}\n"
             + "Row #0: 79,155\n");
     }
+
+    /**
+     * Tests that evaluating the cells of a query in parallel stripes, each
+     * with its own reader, gives the same result as evaluating them on one
+     * thread. Uses a small batch size so that stripes stop early.
+     */
+    public void testParallelStripes() {
+        final String mdx =
+            "with member [Measures].[Profit Ratio] as\n"
+            + "  '[Measures].[Store Sales] / [Measures].[Store Cost]'\n"
+            + "select {[Measures].[Unit Sales], [Measures].[Profit Ratio]}"
+            + " on 0,\n"
+            + "  [Product].[Brand Name].Members on 1\n"
+            + "from [Sales]";
+        final String expected =
+            TestContext.toString(getTestContext().executeQuery(mdx));
+        getTestContext().flushSchemaCache();
+        propSaver.set(MondrianProperties.instance().StripeParallelism, 4);
+        propSaver.set(MondrianProperties.instance().StripeMinCellCount, 1);
+        propSaver.set(MondrianProperties.instance().CellBatchSize, 50);
+        assertEquals(
+            expected,
+            TestContext.toString(getTestContext().executeQuery(mdx)));
+    }
+
+    /**
+     * Tests that looking up cells without creating cell requests gives the
+     * same results as the request path, including for members of a
+     * parent-child hierarchy, members of non-unique levels, a compound
+     * slicer and a virtual cube, which the fast path leaves to the request
+     * path.
+     */
+    public void testFastCellLookup() {
+        final String[] queries = {
+            "select {[Measures].[Unit Sales], [Measures].[Store Sales]} on 0,\n"
+            + "  Crossjoin([Gender].Members, [Store].[Store City].Members)"
+            + " on 1\n"
+            + "from [Sales]",
+            "select {[Measures].[Org Salary]} on 0,\n"
+            + "  Descendants([Employees].[All Employees], 3) on 1\n"
+            + "from [HR]",
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + "  [Time].[Month].Members on 1\n"
+            + "from [Sales]\n"
+            + "where {[Product].[Drink], [Product].[Food]}",
+            "select {[Measures].[Unit Sales], [Measures].[Warehouse Sales]}"
+            + " on 0,\n"
+            + "  [Product].[Product Family].Members on 1\n"
+            + "from [Warehouse and Sales]"
+        };
+        for (String mdx : queries) {
+            propSaver.set(
+                MondrianProperties.instance().EnableFastCellLookup, false);
+            getTestContext().flushSchemaCache();
+            final String expected =
+                TestContext.toString(getTestContext().executeQuery(mdx));
+            propSaver.set(
+                MondrianProperties.instance().EnableFastCellLookup, true);
+            getTestContext().flushSchemaCache();
+            assertEquals(
+                mdx,
+                expected,
+                TestContext.toString(getTestContext().executeQuery(mdx)));
+        }
+    }
 }
 
 // End FastBatchingCellReaderTest.java
@@ -1,10 +1,16 @@
 package mondrian.rolap;
 
 import mondrian.olap.*;
+import mondrian.server.Execution;
 import mondrian.spi.Dialect;
 import mondrian.test.TestContext;
 import mondrian.util.Pair;
 
+import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapStatement;
+import org.olap4j.PreparedOlapStatement;
+
 import junit.framework.TestCase;
 
 import java.sql.Connection;
@@ -458,6 +464,237 @@ public class RolapConnectionTest extends TestCase {
             }
         }
     }
+
+    /**
+     * Tests that executing a query in streaming mode delivers every cell,
+     * a page at a time, with the same values as a regular execution.
+     */
+    public void testStreamingExecute() {
+        final String mdx =
+            "select {[Measures].[Unit Sales], [Measures].[Store Sales]}"
+            + " on 0,\n"
+            + "  [Product].[Product Department].Members on 1\n"
+            + "from [Sales]";
+        final RolapConnection connection =
+            (RolapConnection) TestContext.instance().getConnection();
+        final Result expected = connection.execute(connection.parseQuery(mdx));
+        final int columnCount = expected.getAxes()[0].getPositions().size();
+        final int rowCount = expected.getAxes()[1].getPositions().size();
+
+        final List<String> values = new ArrayList<String>();
+        final List<String> pages = new ArrayList<String>();
+        final Query query = connection.parseQuery(mdx);
+        final Result result =
+            connection.execute(
+                new Execution(query.getStatement(), 0),
+                new CellPageHandler() {
+                    public void onPage(Result page, int start, int end) {
+                        pages.add(start + "-" + end);
+                        for (int row = start; row < end; row++) {
+                            for (int column = 0; column < columnCount;
+                                 column++)
+                            {
+                                values.add(
+                                    page.getCell(new int[] {column, row})
+                                        .getFormattedValue());
+                            }
+                        }
+                        try {
+                            page.getCell(new int[] {0, end});
+                            fail("expected error");
+                        } catch (MondrianException e) {
+                            // ok
+                        }
+                    }
+                },
+                10);
+
+        assertEquals(rowCount, result.getAxes()[1].getPositions().size());
+        assertEquals((rowCount + 9) / 10, pages.size());
+        assertEquals("0-10", pages.get(0));
+        int i = 0;
+        for (int row = 0; row < rowCount; row++) {
+            for (int column = 0; column < columnCount; column++) {
+                assertEquals(
+                    expected.getCell(new int[] {column, row})
+                        .getFormattedValue(),
+                    values.get(i++));
+            }
+        }
+        assertEquals(values.size(), i);
+    }
+
+    /**
+     * Tests that a query with a NON EMPTY axis cannot be executed in
+     * streaming mode.
+     */
+    public void testStreamingExecuteNonEmpty() {
+        final RolapConnection connection =
+            (RolapConnection) TestContext.instance().getConnection();
+        final Query query =
+            connection.parseQuery(
+                "select {[Measures].[Unit Sales]} on 0,\n"
+                + "  non empty [Product].[Product Department].Members on 1\n"
+                + "from [Sales]");
+        try {
+            connection.execute(
+                new Execution(query.getStatement(), 0),
+                new CellPageHandler() {
+                    public void onPage(Result page, int start, int end) {
+                        fail("expected error");
+                    }
+                },
+                10);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("NON EMPTY"));
+        } finally {
+            query.close();
+        }
+    }
+
+    /**
+     * Tests that {@link RolapConnection#parseQuery} reuses a query that has
+     * been closed, if the query plan cache is enabled, and that the reused
+     * query's parameters revert to their default values. A query is not
+     * reused while a result executed from it is open.
+     */
+    public void testQueryPlanCache() {
+        final String mdx =
+            "with member [Measures].[Foo] as\n"
+            + " len(Parameter(\"sProduct\", STRING, \"foobar\"))\n"
+            + "select {[Measures].[Foo]} ON COLUMNS\n"
+            + "from [Sales]";
+        final String expect6 =
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Foo]}\n"
+            + "Row #0: 6\n";
+        final String expect3 =
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Foo]}\n"
+            + "Row #0: 3\n";
+        final RolapConnection connection =
+            (RolapConnection) TestContext.instance().getConnection();
+        final QueryPlanCache planCache =
+            connection.getSchema().getQueryPlanCache();
+        final MondrianProperties properties = MondrianProperties.instance();
+        final int cacheSize = properties.QueryPlanCacheSize.get();
+        properties.QueryPlanCacheSize.set(10);
+        planCache.clear();
+        try {
+            final Query query1 = connection.parseQuery(mdx);
+            query1.setParameter("sProduct", "foo");
+            final Result result1 = connection.execute(query1);
+            TestContext.assertEqualsVerbose(
+                expect3, TestContext.toString(result1));
+            query1.close();
+
+            // The result still holds the query.
+            assertEquals(0, planCache.size());
+            result1.close();
+            assertEquals(1, planCache.size());
+
+            // Same string: receives the cached query, with the parameter
+            // unset.
+            final Query query2 = connection.parseQuery(mdx);
+            assertSame(query1, query2);
+            assertEquals(0, planCache.size());
+            assertFalse(query2.getParameters()[0].isSet());
+            final Result result2 = connection.execute(query2);
+            TestContext.assertEqualsVerbose(
+                expect6, TestContext.toString(result2));
+            result2.close();
+
+            // query2 is still open, so parsing again creates a new query.
+            final Query query3 = connection.parseQuery(mdx);
+            assertNotSame(query2, query3);
+            query2.close();
+            query3.close();
+            assertEquals(2, planCache.size());
+
+            // A different string does not match.
+            final Query query4 = connection.parseQuery(mdx + " ");
+            assertNotSame(query2, query4);
+            assertNotSame(query3, query4);
+            query4.close();
+            assertEquals(3, planCache.size());
+
+            // Disabled: the cache is not used.
+            properties.QueryPlanCacheSize.set(0);
+            final Query query5 = connection.parseQuery(mdx);
+            assertNotSame(query2, query5);
+            assertNotSame(query3, query5);
+            query5.close();
+            assertEquals(3, planCache.size());
+        } finally {
+            properties.QueryPlanCacheSize.set(cacheSize);
+            planCache.clear();
+        }
+    }
+
+    /**
+     * Tests that queries parsed through olap4j use the query plan cache, and
+     * are returned to it only when both the statement and the cell set have
+     * been closed.
+     */
+    public void testQueryPlanCacheOlap4j() throws SQLException {
+        final String mdx =
+            "select {[Measures].[Unit Sales]} ON COLUMNS\n"
+            + "from [Sales]";
+        final OlapConnection olap4jConnection =
+            TestContext.instance().getOlap4jConnection();
+        final RolapConnection connection =
+            olap4jConnection.unwrap(RolapConnection.class);
+        final QueryPlanCache planCache =
+            connection.getSchema().getQueryPlanCache();
+        final MondrianProperties properties = MondrianProperties.instance();
+        final int cacheSize = properties.QueryPlanCacheSize.get();
+        properties.QueryPlanCacheSize.set(10);
+        planCache.clear();
+        try {
+            final OlapStatement statement1 =
+                olap4jConnection.createStatement();
+            final CellSet cellSet1 = statement1.executeOlapQuery(mdx);
+            final String expected = TestContext.toString(cellSet1);
+
+            // Closing the statement closes its cell set, and returns the
+            // query to the cache.
+            statement1.close();
+            assertEquals(1, planCache.size());
+
+            // A prepared statement receives the cached query, and holds it
+            // after its cell set is closed.
+            final PreparedOlapStatement statement2 =
+                olap4jConnection.prepareOlapStatement(mdx);
+            assertEquals(0, planCache.size());
+            final CellSet cellSet2 = statement2.executeQuery();
+            assertEquals(expected, TestContext.toString(cellSet2));
+            cellSet2.close();
+            assertEquals(0, planCache.size());
+            statement2.close();
+            assertEquals(1, planCache.size());
+
+            // Re-executing a statement releases its previous query.
+            final OlapStatement statement3 =
+                olap4jConnection.createStatement();
+            final CellSet cellSet3 = statement3.executeOlapQuery(mdx);
+            assertEquals(0, planCache.size());
+            cellSet3.close();
+            assertEquals(0, planCache.size());
+            statement3.executeOlapQuery(mdx + " ").close();
+            assertEquals(1, planCache.size());
+            statement3.close();
+            assertEquals(2, planCache.size());
+        } finally {
+            properties.QueryPlanCacheSize.set(cacheSize);
+            planCache.clear();
+            olap4jConnection.close();
+        }
+    }
 }
 
 // End RolapConnectionTest.java
@@ -0,0 +1,80 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.Properties;
+
+/**
+ * Unit test for {@link RolapStatisticsStore}.
+ */
+public class RolapStatisticsStoreTest extends TestCase {
+    private File file;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("mondrian-statistics", ".properties");
+        assertTrue(file.delete());
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    /**
+     * Tests that statistics saved by one store are read by a store created
+     * later on the same file.
+     */
+    public void testReload() {
+        final RolapStatisticsStore store =
+            new RolapStatisticsStore(file, 60000);
+        assertEquals(-1, store.get("column|a"));
+        store.put("column|a", 42);
+        store.put("table|b", 1000);
+        // Negative values mean that no provider could compute the
+        // statistic; they are not saved.
+        store.put("query|c", -1);
+        assertEquals(42, store.get("column|a"));
+        // The file is written in the background; force it.
+        store.flush();
+        assertTrue(file.exists());
+
+        final RolapStatisticsStore store2 =
+            new RolapStatisticsStore(file, 60000);
+        assertEquals(42, store2.get("column|a"));
+        assertEquals(1000, store2.get("table|b"));
+        assertEquals(-1, store2.get("query|c"));
+    }
+
+    /**
+     * Tests that entries older than the time to live are ignored.
+     */
+    public void testExpired() throws IOException {
+        final Properties properties = new Properties();
+        final long now = System.currentTimeMillis();
+        properties.setProperty("fresh", "10," + now);
+        properties.setProperty("stale", "20," + (now - 120000));
+        properties.setProperty("malformed", "x");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        final RolapStatisticsStore store =
+            new RolapStatisticsStore(file, 60000);
+        assertEquals(10, store.get("fresh"));
+        assertEquals(-1, store.get("stale"));
+        assertEquals(-1, store.get("malformed"));
+    }
+}
+
+// End RolapStatisticsStoreTest.java
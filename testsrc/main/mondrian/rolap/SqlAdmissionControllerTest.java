@@ -0,0 +1,158 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.rolap.SqlAdmissionController.Permit;
+import mondrian.rolap.SqlAdmissionController.Pool;
+import mondrian.server.monitor.SqlStatementEvent.Purpose;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link SqlAdmissionController}.
+ */
+public class SqlAdmissionControllerTest extends TestCase {
+    private final List<String> admitted =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Tests that segment loads cannot use the reserved permits, but member
+     * lookups can.
+     */
+    public void testReserve() throws InterruptedException {
+        final Pool pool = new Pool(3, 1);
+        final Permit segment1 = pool.acquire(Purpose.CELL_SEGMENT, "a");
+        final Permit segment2 = pool.acquire(Purpose.CELL_SEGMENT, "a");
+        assertEquals(2, pool.getAdmittedCount());
+
+        final Thread segment3 =
+            startWaiter(pool, Purpose.CELL_SEGMENT, "b", "segment3", 1);
+        assertTrue(admitted.isEmpty());
+
+        final Permit tuples = pool.acquire(Purpose.TUPLES, "b");
+        assertEquals(3, pool.getAdmittedCount());
+        assertEquals(1, pool.getQueuedCount());
+
+        segment1.release();
+        segment3.join();
+        assertEquals(Arrays.asList("segment3"), admitted);
+        segment2.release();
+        tuples.release();
+        assertEquals(0, pool.getAdmittedCount());
+        assertEquals(0, pool.getQueuedCount());
+    }
+
+    /**
+     * Tests that waiting statements are admitted in priority order.
+     */
+    public void testPriority() throws InterruptedException {
+        final Pool pool = new Pool(1, 0);
+        final Permit permit = pool.acquire(Purpose.OTHER, "a");
+        final Thread segment =
+            startWaiter(pool, Purpose.CELL_SEGMENT, "a", "segment", 1);
+        final Thread drill =
+            startWaiter(pool, Purpose.DRILL_THROUGH, "a", "drill", 2);
+        final Thread other =
+            startWaiter(pool, Purpose.OTHER, "a", "other", 3);
+        final Thread tuples =
+            startWaiter(pool, Purpose.TUPLES, "a", "tuples", 4);
+        permit.release();
+        for (Thread thread : Arrays.asList(segment, drill, other, tuples)) {
+            thread.join();
+        }
+        assertEquals(
+            Arrays.asList("tuples", "other", "drill", "segment"), admitted);
+    }
+
+    /**
+     * Tests that connections waiting with the same priority take turns.
+     */
+    public void testFairness() throws InterruptedException {
+        final Pool pool = new Pool(1, 0);
+        final Permit permit = pool.acquire(Purpose.TUPLES, "a");
+        final List<Thread> threads = new ArrayList<Thread>();
+        threads.add(startWaiter(pool, Purpose.TUPLES, "a", "a1", 1));
+        threads.add(startWaiter(pool, Purpose.TUPLES, "a", "a2", 2));
+        threads.add(startWaiter(pool, Purpose.TUPLES, "a", "a3", 3));
+        threads.add(startWaiter(pool, Purpose.TUPLES, "b", "b1", 4));
+        threads.add(startWaiter(pool, Purpose.TUPLES, "c", "c1", 5));
+        permit.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Arrays.asList("a1", "b1", "c1", "a2", "a3"), admitted);
+    }
+
+    /**
+     * Tests that a statement that is interrupted while waiting leaves the
+     * queue, and does not block statements behind it.
+     */
+    public void testInterrupt() throws InterruptedException {
+        final Pool pool = new Pool(2, 1);
+        final Permit segment = pool.acquire(Purpose.CELL_SEGMENT, "a");
+        final Permit other = pool.acquire(Purpose.OTHER, "a");
+        final Thread tuples =
+            startWaiter(pool, Purpose.TUPLES, "a", "tuples", 1);
+        final Thread drill =
+            startWaiter(pool, Purpose.DRILL_THROUGH, "a", "drill", 2);
+        tuples.interrupt();
+        tuples.join();
+        assertEquals(Arrays.asList("tuples interrupted"), admitted);
+        assertEquals(1, pool.getQueuedCount());
+
+        // Releasing a bulk permit admits the drill-through, which was
+        // behind the interrupted statement.
+        segment.release();
+        drill.join();
+        assertEquals(
+            Arrays.asList("tuples interrupted", "drill"), admitted);
+        other.release();
+        assertEquals(0, pool.getAdmittedCount());
+    }
+
+    /**
+     * Starts a thread that acquires a permit, records that it was admitted,
+     * and releases the permit; waits until the thread is queued.
+     */
+    private Thread startWaiter(
+        final Pool pool,
+        final Purpose purpose,
+        final Object owner,
+        final String name,
+        int queuedCount)
+        throws InterruptedException
+    {
+        final Thread thread =
+            new Thread(name) {
+                public void run() {
+                    try {
+                        final Permit permit = pool.acquire(purpose, owner);
+                        admitted.add(name);
+                        permit.release();
+                    } catch (InterruptedException e) {
+                        admitted.add(name + " interrupted");
+                    }
+                }
+            };
+        thread.start();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getQueuedCount() < queuedCount) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timed out waiting for " + name + " to queue");
+            }
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+}
+
+// End SqlAdmissionControllerTest.java
@@ -0,0 +1,197 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.CacheControl;
+import mondrian.server.Locus;
+import mondrian.server.monitor.SqlStatementEvent;
+import mondrian.spi.Dialect;
+import mondrian.test.FoodMartTestCase;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Unit test for {@link SqlResultCache}.
+ */
+public class SqlResultCacheTest extends FoodMartTestCase {
+    private final List<String> executedSql = new ArrayList<String>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        SqlResultCache.instance().clear();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    executedSql.add(sql);
+                }
+            });
+    }
+
+    protected void tearDown() throws Exception {
+        RolapUtil.setHook(null);
+        SqlResultCache.instance().clear();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that a statement with the same SQL as an earlier statement reads
+     * the rows from the cache, and that the rows are the same.
+     */
+    public void testCachedResult() {
+        propSaver.set(propSaver.properties.SqlResultCacheMaxCells, 1000);
+        final String sql = productClassSql();
+        final List<List<Object>> rows = read(sql);
+        assertEquals(1, executedSql.size());
+        assertEquals(1, SqlResultCache.instance().size());
+        assertEquals(
+            rows.size() * 2L, SqlResultCache.instance().getCellCount());
+
+        final long hitCount = SqlResultCache.instance().getHitCount();
+        assertEquals(rows, read(sql));
+        assertEquals(1, executedSql.size());
+        assertEquals(hitCount + 1, SqlResultCache.instance().getHitCount());
+
+        // After the data source is flushed, the statement is executed again.
+        SqlResultCache.instance().flush(
+            ((RolapConnection) getConnection()).getDataSource());
+        assertEquals(0, SqlResultCache.instance().size());
+        assertEquals(rows, read(sql));
+        assertEquals(2, executedSql.size());
+    }
+
+    /**
+     * Tests that a result larger than the cache is not kept, and that nothing
+     * is kept if the cache is disabled.
+     */
+    public void testLimit() {
+        final String sql = productClassSql();
+        propSaver.set(propSaver.properties.SqlResultCacheMaxCells, 5);
+        final List<List<Object>> rows = read(sql);
+        assertTrue(rows.size() * 2 > 5);
+        assertEquals(0, SqlResultCache.instance().size());
+
+        propSaver.set(propSaver.properties.SqlResultCacheMaxCells, 0);
+        read(sql);
+        read(sql);
+        assertEquals(3, executedSql.size());
+        assertEquals(0, SqlResultCache.instance().size());
+    }
+
+    /**
+     * Tests that a result is discarded once it is older than
+     * {@link mondrian.olap.MondrianProperties#SqlResultCacheTimeout}.
+     */
+    public void testTimeout() throws InterruptedException {
+        propSaver.set(propSaver.properties.SqlResultCacheMaxCells, 1000);
+        propSaver.set(propSaver.properties.SqlResultCacheTimeout, 1);
+        final String sql = productClassSql();
+        final List<List<Object>> rows = read(sql);
+        assertEquals(rows, read(sql));
+        assertEquals(1, executedSql.size());
+
+        Thread.sleep(1100);
+        final long missCount = SqlResultCache.instance().getMissCount();
+        assertEquals(rows, read(sql));
+        assertEquals(2, executedSql.size());
+        assertEquals(missCount + 1, SqlResultCache.instance().getMissCount());
+        assertEquals(1, SqlResultCache.instance().size());
+    }
+
+    /**
+     * Tests that flushing members through {@link CacheControl} discards the
+     * results read from the connection's data source.
+     */
+    public void testCacheControl() {
+        propSaver.set(propSaver.properties.SqlResultCacheMaxCells, 1000);
+        final String sql = productClassSql();
+        final List<List<Object>> rows = read(sql);
+        assertEquals(1, SqlResultCache.instance().size());
+
+        final RolapConnection connection = (RolapConnection) getConnection();
+        final RolapCube cube =
+            (RolapCube) connection.getSchema().lookupCube("Sales", true);
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        for (RolapHierarchy hierarchy : cube.getHierarchies()) {
+            if (hierarchy.getName().equals("Product")) {
+                cacheControl.flush(
+                    cacheControl.createMemberSet(
+                        hierarchy.getAllMember(), true));
+            }
+        }
+        assertEquals(0, SqlResultCache.instance().size());
+        assertEquals(rows, read(sql));
+        assertEquals(2, executedSql.size());
+    }
+
+    private String productClassSql() {
+        final Dialect dialect = getTestContext().getDialect();
+        return "select "
+            + dialect.quoteIdentifier("product_class_id") + ", "
+            + dialect.quoteIdentifier("product_family")
+            + " from " + dialect.quoteIdentifier("product_class")
+            + " order by 1";
+    }
+
+    /**
+     * Reads the rows of a SQL statement, as member readers do.
+     */
+    private List<List<Object>> read(final String sql) {
+        final RolapConnection connection = (RolapConnection) getConnection();
+        return Locus.execute(
+            connection,
+            "SqlResultCacheTest.read",
+            new Locus.Action<List<List<Object>>>() {
+                public List<List<Object>> execute() {
+                    final SqlStatement stmt =
+                        RolapUtil.executeQuery(
+                            connection.getDataSource(),
+                            sql,
+                            Arrays.asList(
+                                SqlStatement.Type.INT,
+                                SqlStatement.Type.STRING),
+                            0,
+                            0,
+                            new SqlStatement.StatementLocus(
+                                Locus.peek().execution,
+                                "SqlResultCacheTest.read",
+                                "Error while reading product classes",
+                                SqlStatementEvent.Purpose.TUPLES,
+                                0),
+                            -1,
+                            -1,
+                            null);
+                    try {
+                        final List<List<Object>> rows =
+                            new ArrayList<List<Object>>();
+                        final ResultSet resultSet = stmt.getResultSet();
+                        while (resultSet.next()) {
+                            ++stmt.rowCount;
+                            final List<Object> row = new ArrayList<Object>();
+                            for (SqlStatement.Accessor accessor
+                                : stmt.getAccessors())
+                            {
+                                row.add(accessor.get());
+                            }
+                            rows.add(row);
+                        }
+                        return rows;
+                    } catch (SQLException e) {
+                        throw stmt.handle(e);
+                    } finally {
+                        stmt.close();
+                    }
+                }
+            });
+    }
+}
+
+// End SqlResultCacheTest.java
@@ -15,6 +15,7 @@ package mondrian.rolap;
 import mondrian.olap.*;
 import mondrian.rolap.agg.*;
 import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.rolap.aggmatcher.AggStarIndex;
 import mondrian.server.*;
 import mondrian.spi.Dialect;
 import mondrian.test.SqlPattern;
@@ -3003,6 +3004,75 @@ public class TestAggregationManager extends BatchTestCase {
             true, true, true);
     }
 
+    /**
+     * Tests that the index over a star's aggregate tables finds the same
+     * candidates as a scan, that the choice made by
+     * {@link AggregationManager#findAgg} is remembered, and that it is
+     * forgotten when an aggregate table is added.
+     */
+    public void testFindAggIndex() {
+        propSaver.set(propSaver.properties.ReadAggregates, true);
+        propSaver.set(propSaver.properties.UseAggregates, true);
+        final TestContext context =
+            TestContext.instance().withSchema(
+                "<Schema name=\"FoodMart\">"
+                + "<Cube name=\"Sales\" defaultMeasure=\"Unit Sales\">\n"
+                + "  <Table name=\"sales_fact_1997\" />\n"
+                + "  <Dimension name=\"Gender\" foreignKey=\"customer_id\">\n"
+                + "    <Hierarchy hasAll=\"true\" primaryKey=\"customer_id\">\n"
+                + "      <Table name=\"customer\"/>\n"
+                + "      <Level name=\"Gender\" column=\"gender\""
+                + " uniqueMembers=\"true\"/>\n"
+                + "    </Hierarchy>\n"
+                + "  </Dimension>\n"
+                + "  <Measure name=\"Unit Sales\" column=\"unit_sales\""
+                + " aggregator=\"sum\"\n"
+                + "      formatString=\"Standard\"/>\n"
+                + "</Cube>\n"
+                + "</Schema>");
+        final RolapStar star = context.getConnection().getSchemaReader()
+            .getSchema().getStar("sales_fact_1997");
+        final AggStar aggStar =
+            getAggStar(star, "agg_c_special_sales_fact_1997");
+        final BitKey levelBitKey = aggStar.getLevelBitKey();
+        final BitKey measureBitKey = aggStar.getMeasureBitKey();
+
+        final AggStarIndex index = star.getAggStarIndex();
+        assertSame(index, star.getAggStarIndex());
+        final BitKey fullBitKey = levelBitKey.or(measureBitKey);
+        final List<AggStar> superSets = new ArrayList<AggStar>();
+        for (AggStar a : star.getAggStars()) {
+            if (a.superSetMatch(fullBitKey)) {
+                superSets.add(a);
+            }
+        }
+        assertFalse(superSets.isEmpty());
+        assertEquals(superSets, index.getSuperSets(fullBitKey));
+
+        final boolean[] rollup = {false};
+        final AggStar first =
+            AggregationManager.findAgg(
+                star, levelBitKey, measureBitKey, rollup);
+        assertNotNull(first);
+        assertNotNull(index.getChoice(levelBitKey, measureBitKey));
+        final boolean[] rollup2 = {false};
+        assertSame(
+            first,
+            AggregationManager.findAgg(
+                star, levelBitKey, measureBitKey, rollup2));
+        assertEquals(rollup[0], rollup2[0]);
+
+        // Adding an aggregate table discards the index and the choices.
+        final AggStar aggStarSpy = spy(aggStar);
+        when(aggStarSpy.getSize()).thenReturn(0);
+        star.addAggStar(aggStarSpy);
+        assertNotSame(index, star.getAggStarIndex());
+        assertSame(
+            aggStarSpy,
+            AggregationManager.findAgg(
+                star, levelBitKey, measureBitKey, rollup));
+    }
+
     private AggStar getAggStar(RolapStar star, String aggStarName) {
         for (AggStar aggStar : star.getAggStars()) {
             if (aggStar.getFactTable().getName().equals(aggStarName)) {
@@ -0,0 +1,210 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.cache.DiskSegmentCache;
+import mondrian.spi.*;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.*;
+
+import static mondrian.rolap.agg.SegmentTestUtil.makeHeader;
+
+/**
+ * Unit test for {@link DiskSegmentCache}.
+ */
+public class DiskSegmentCacheTest extends TestCase {
+    private File directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("segmentCache", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    protected void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() {
+        final DiskSegmentCache cache = new DiskSegmentCache(directory, false);
+        final SegmentHeader header = makeHeader("m");
+        final SegmentBody body = makeBody(1.5);
+        assertTrue(cache.put(header, body));
+        assertTrue(cache.contains(header));
+        final SegmentBody body2 = cache.get(header);
+        assertTrue(
+            Arrays.equals(
+                (double[]) body.getValueArray(),
+                (double[]) body2.getValueArray()));
+        assertNull(cache.get(makeHeader("other")));
+        cache.tearDown();
+    }
+
+    public void testReloadAfterRestart() {
+        DiskSegmentCache cache = new DiskSegmentCache(directory, false);
+        final SegmentHeader a = makeHeader("a");
+        final SegmentHeader b = makeHeader("b");
+        final SegmentHeader c = makeHeader("c");
+        assertTrue(cache.put(a, makeBody(1)));
+        assertTrue(cache.put(b, makeBody(2)));
+        assertTrue(cache.put(c, makeBody(3)));
+        // Replace "a"; remove "b".
+        assertTrue(cache.put(a, makeBody(4)));
+        assertTrue(cache.remove(b));
+        cache.tearDown();
+
+        cache = new DiskSegmentCache(directory, false);
+        assertEquals(
+            new HashSet<SegmentHeader>(Arrays.asList(a, c)),
+            new HashSet<SegmentHeader>(cache.getSegmentHeaders()));
+        assertEquals(
+            4d, ((double[]) cache.get(a).getValueArray())[0]);
+        assertEquals(
+            3d, ((double[]) cache.get(c).getValueArray())[0]);
+
+        // A listener hears about reloaded segments, but not about segments
+        // that have since been removed.
+        assertTrue(cache.remove(c));
+        final List<String> events = new ArrayList<String>();
+        cache.addListener(
+            new SegmentCache.SegmentCacheListener() {
+                public void handle(SegmentCacheEvent e) {
+                    events.add(
+                        e.getEventType() + ":" + e.isLocal() + ":"
+                        + e.getSource().measureName);
+                }
+            });
+        assertEquals(Arrays.asList("ENTRY_CREATED:false:a"), events);
+        cache.tearDown();
+    }
+
+    public void testTruncatedLog() throws IOException {
+        DiskSegmentCache cache = new DiskSegmentCache(directory, false);
+        final SegmentHeader a = makeHeader("a");
+        final SegmentHeader b = makeHeader("b");
+        assertTrue(cache.put(a, makeBody(1)));
+        assertTrue(cache.put(b, makeBody(2)));
+        cache.tearDown();
+
+        // Simulate a crash while "b" was being written.
+        final RandomAccessFile file =
+            new RandomAccessFile(new File(directory, "segments.log"), "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        cache = new DiskSegmentCache(directory, false);
+        assertEquals(
+            Collections.singletonList(a), cache.getSegmentHeaders());
+        // The log is still usable.
+        assertTrue(cache.put(b, makeBody(5)));
+        cache.tearDown();
+        cache = new DiskSegmentCache(directory, false);
+        assertEquals(
+            5d, ((double[]) cache.get(b).getValueArray())[0]);
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that an entry that cannot be read is removed, rather than
+     * failing on every read.
+     */
+    public void testUnreadableEntry() throws IOException {
+        final DiskSegmentCache cache = new DiskSegmentCache(directory, false);
+        final SegmentHeader a = makeHeader("a");
+        assertTrue(cache.put(a, makeBody(1)));
+        final List<String> events = new ArrayList<String>();
+        cache.addListener(
+            new SegmentCache.SegmentCacheListener() {
+                public void handle(SegmentCacheEvent e) {
+                    events.add(
+                        e.getEventType() + ":" + e.getSource().measureName);
+                }
+            });
+
+        // Damage the log while the cache is open.
+        final RandomAccessFile file =
+            new RandomAccessFile(new File(directory, "segments.log"), "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        assertNull(cache.get(a));
+        assertFalse(cache.contains(a));
+        assertEquals(Arrays.asList("ENTRY_DELETED:a"), events);
+        cache.tearDown();
+    }
+
+    public void testDirectoryLocked() {
+        final DiskSegmentCache cache = new DiskSegmentCache(directory, false);
+        try {
+            new DiskSegmentCache(directory, false);
+            fail("expected error");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("in use"));
+        }
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that a cache that fails to open releases the directory, so that
+     * it can be opened once the problem is fixed.
+     */
+    public void testBadLogReleasesDirectory() throws IOException {
+        final File log = new File(directory, "segments.log");
+        final FileOutputStream out = new FileOutputStream(log);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+        try {
+            new DiskSegmentCache(directory, false);
+            fail("expected error");
+        } catch (RuntimeException e) {
+            assertTrue(
+                e.getMessage(),
+                e.getMessage().contains("is not a segment cache log"));
+        }
+
+        assertTrue(log.delete());
+        final DiskSegmentCache cache = new DiskSegmentCache(directory, false);
+        assertTrue(cache.put(makeHeader("a"), makeBody(1)));
+        cache.tearDown();
+    }
+
+    public void testCompactOnStartup() {
+        DiskSegmentCache cache = new DiskSegmentCache(directory, false);
+        final SegmentHeader a = makeHeader("a");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cache.put(a, makeBody(i)));
+        }
+        cache.tearDown();
+        final long length = new File(directory, "segments.log").length();
+
+        cache = new DiskSegmentCache(directory, false);
+        assertTrue(
+            new File(directory, "segments.log").length() < length / 5);
+        assertEquals(
+            9d, ((double[]) cache.get(a).getValueArray())[0]);
+        cache.tearDown();
+    }
+
+    private static SegmentBody makeBody(double value) {
+        return SegmentTestUtil.makeBody(new double[] {value, value + 1});
+    }
+}
+
+// End DiskSegmentCacheTest.java
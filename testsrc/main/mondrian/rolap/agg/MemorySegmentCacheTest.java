@@ -0,0 +1,173 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.cache.MemorySegmentCache;
+import mondrian.rolap.cache.SegmentStatistics;
+import mondrian.spi.*;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static mondrian.rolap.agg.SegmentTestUtil.*;
+
+/**
+ * Unit test for the eviction policies of {@link MemorySegmentCache}.
+ */
+public class MemorySegmentCacheTest extends TestCase {
+    /**
+     * Tests that, of two segments of the same size that are never read, the
+     * COST policy evicts the one that was quicker to load, even if it is the
+     * older one.
+     */
+    public void testCostEvictsCheapSegment() {
+        final SegmentStatistics statistics = new SegmentStatistics();
+        final MemorySegmentCache cache =
+            new MemorySegmentCache(
+                statistics, 0, MemorySegmentCache.EvictionPolicy.COST);
+        final SegmentHeader slow = makeHeader("slow");
+        final SegmentHeader fast = makeHeader("fast");
+        put(cache, statistics, slow, TimeUnit.SECONDS.toNanos(30));
+        put(cache, statistics, fast, TimeUnit.MILLISECONDS.toNanos(5));
+
+        final long size = cache.getByteSize() / 2;
+        assertEquals(size, cache.evict(1));
+        assertTrue(cache.contains(slow));
+        assertFalse(cache.contains(fast));
+        assertEquals(size, cache.getByteSize());
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that, of two segments that were equally expensive to load, the
+     * COST policy evicts the one that is read less often.
+     */
+    public void testCostEvictsRarelyReadSegment() {
+        final SegmentStatistics statistics = new SegmentStatistics();
+        final MemorySegmentCache cache =
+            new MemorySegmentCache(
+                statistics, 0, MemorySegmentCache.EvictionPolicy.COST);
+        final SegmentHeader popular = makeHeader("popular");
+        final SegmentHeader rare = makeHeader("rare");
+        put(cache, statistics, popular, TimeUnit.SECONDS.toNanos(1));
+        put(cache, statistics, rare, TimeUnit.SECONDS.toNanos(1));
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.get(popular));
+            statistics.recordHit(popular);
+        }
+        assertNotNull(cache.get(rare));
+        statistics.recordHit(rare);
+        assertNotNull(cache.get(popular));
+
+        cache.evict(1);
+        assertTrue(cache.contains(popular));
+        assertFalse(cache.contains(rare));
+        assertEquals(11, statistics.get(popular).getHitCount());
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that a read through the composite segment cache counts towards
+     * the COST priority that the memory cache computes during that read.
+     */
+    public void testCompositeHitRaisesPriority() {
+        final SegmentStatistics statistics = new SegmentStatistics();
+        final MemorySegmentCache cache =
+            new MemorySegmentCache(
+                statistics, 0, MemorySegmentCache.EvictionPolicy.COST);
+        final SegmentCacheManager.CompositeSegmentCache compositeCache =
+            new SegmentCacheManager.CompositeSegmentCache(
+                Collections.singletonList(
+                    new SegmentCacheWorker(cache, null)),
+                statistics,
+                new VirtualAggregateManager(null, 0, 0));
+        final SegmentHeader read = makeHeader("read");
+        final SegmentHeader unread = makeHeader("unread");
+        put(cache, statistics, read, TimeUnit.SECONDS.toNanos(1));
+        put(cache, statistics, unread, TimeUnit.SECONDS.toNanos(1));
+        assertNotNull(compositeCache.get(read));
+        assertEquals(1, statistics.get(read).getHitCount());
+
+        cache.evict(1);
+        assertTrue(cache.contains(read));
+        assertFalse(cache.contains(unread));
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that the LRU policy ignores cost, and evicts the segment that
+     * was read least recently.
+     */
+    public void testLru() {
+        final SegmentStatistics statistics = new SegmentStatistics();
+        final MemorySegmentCache cache =
+            new MemorySegmentCache(
+                statistics, 0, MemorySegmentCache.EvictionPolicy.LRU);
+        final SegmentHeader slow = makeHeader("slow");
+        final SegmentHeader fast = makeHeader("fast");
+        put(cache, statistics, slow, TimeUnit.SECONDS.toNanos(30));
+        put(cache, statistics, fast, TimeUnit.MILLISECONDS.toNanos(5));
+        assertNotNull(cache.get(fast));
+
+        cache.evict(1);
+        assertFalse(cache.contains(slow));
+        assertTrue(cache.contains(fast));
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that the cache stays within its own budget, keeping the most
+     * expensive segments.
+     */
+    public void testBudget() {
+        final SegmentStatistics statistics = new SegmentStatistics();
+        final long segmentSize = estimateSize();
+        final MemorySegmentCache cache =
+            new MemorySegmentCache(
+                statistics,
+                segmentSize * 5,
+                MemorySegmentCache.EvictionPolicy.COST);
+        final List<SegmentHeader> headers = new ArrayList<SegmentHeader>();
+        for (int i = 0; i < 10; i++) {
+            final SegmentHeader header = makeHeader("m" + i);
+            headers.add(header);
+            // Every third segment is expensive.
+            put(
+                cache, statistics, header,
+                TimeUnit.SECONDS.toNanos(i % 3 == 0 ? 10 : 0));
+            assertTrue(cache.getByteSize() <= segmentSize * 5);
+        }
+        for (int i = 0; i < 10; i += 3) {
+            assertTrue(cache.contains(headers.get(i)));
+        }
+        cache.tearDown();
+    }
+
+    private static long estimateSize() {
+        final SegmentStatistics statistics = new SegmentStatistics();
+        final SegmentHeader header = makeHeader("x");
+        statistics.recordLoad(header, makeBody(100), 0);
+        return statistics.get(header).getByteSize();
+    }
+
+    private static void put(
+        MemorySegmentCache cache,
+        SegmentStatistics statistics,
+        SegmentHeader header,
+        long loadNanos)
+    {
+        final SegmentBody body = makeBody(100);
+        statistics.recordLoad(header, body, loadNanos);
+        assertTrue(cache.put(header, body));
+    }
+}
+
+// End MemorySegmentCacheTest.java
@@ -0,0 +1,201 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.cache.OffHeapSegmentCache;
+import mondrian.spi.*;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+import static mondrian.rolap.agg.SegmentTestUtil.*;
+
+/**
+ * Unit test for {@link OffHeapSegmentCache}.
+ */
+public class OffHeapSegmentCacheTest extends TestCase {
+    private static final int BLOCK = 4096;
+
+    public void testDoubleRoundTrip() {
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(
+                64 * BLOCK, null, OffHeapSegmentCache.EvictionPolicy.LRU);
+        // More values than fit in one block.
+        final double[] values = new double[2000];
+        final BitSet nullValues = new BitSet();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 1.5;
+            if (i % 7 == 0) {
+                nullValues.set(i);
+            }
+        }
+        final SegmentHeader header = makeHeader("m");
+        final SegmentBody body =
+            new DenseDoubleSegmentBody(nullValues, values, makeAxes(2000));
+        assertTrue(cache.put(header, body));
+        assertTrue(cache.contains(header));
+
+        final SegmentBody body2 = cache.get(header);
+        assertTrue(body2 instanceof DenseDoubleSegmentBody);
+        assertTrue(
+            Arrays.equals(values, (double[]) body2.getValueArray()));
+        assertEquals(nullValues, body2.getNullValueIndicators());
+        assertTrue(
+            Arrays.equals(
+                body.getAxisValueSets(), body2.getAxisValueSets()));
+        assertTrue(
+            Arrays.equals(
+                body.getNullAxisFlags(), body2.getNullAxisFlags()));
+        assertEquals(body.getValueMap(), body2.getValueMap());
+        cache.tearDown();
+    }
+
+    public void testIntRoundTrip() {
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(
+                64 * BLOCK, null, OffHeapSegmentCache.EvictionPolicy.LRU);
+        final int[] values = new int[3000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i - 100;
+        }
+        final SegmentHeader header = makeHeader("m");
+        final SegmentBody body =
+            new DenseIntSegmentBody(new BitSet(), values, makeAxes(3000));
+        assertTrue(cache.put(header, body));
+
+        final SegmentBody body2 = cache.get(header);
+        assertTrue(body2 instanceof DenseIntSegmentBody);
+        assertTrue(Arrays.equals(values, (int[]) body2.getValueArray()));
+        assertEquals(body.getValueMap(), body2.getValueMap());
+        cache.tearDown();
+    }
+
+    public void testObjectRoundTrip() {
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(
+                64 * BLOCK, null, OffHeapSegmentCache.EvictionPolicy.LRU);
+        final Object[] values = {"a", null, "c"};
+        final SegmentHeader header = makeHeader("m");
+        final SegmentBody body =
+            new DenseObjectSegmentBody(values, makeAxes(3));
+        assertTrue(cache.put(header, body));
+
+        final SegmentBody body2 = cache.get(header);
+        assertTrue(body2 instanceof DenseObjectSegmentBody);
+        assertTrue(Arrays.equals(values, (Object[]) body2.getValueArray()));
+        cache.tearDown();
+    }
+
+    public void testLruEviction() {
+        // Each segment occupies two blocks: one for its axes, one for its
+        // values. Room for two segments.
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(
+                4 * BLOCK, null, OffHeapSegmentCache.EvictionPolicy.LRU);
+        final SegmentHeader a = makeHeader("a");
+        final SegmentHeader b = makeHeader("b");
+        final SegmentHeader c = makeHeader("c");
+        assertTrue(cache.put(a, makeBody(3)));
+        assertTrue(cache.put(b, makeBody(3)));
+        assertEquals(4 * BLOCK, cache.getUsedBytes());
+        assertNotNull(cache.get(a));
+        assertTrue(cache.put(c, makeBody(3)));
+        assertTrue(cache.contains(a));
+        assertFalse(cache.contains(b));
+        assertTrue(cache.contains(c));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(4 * BLOCK, cache.getUsedBytes());
+        cache.tearDown();
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    public void testLfuEviction() {
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(
+                4 * BLOCK, null, OffHeapSegmentCache.EvictionPolicy.LFU);
+        final SegmentHeader a = makeHeader("a");
+        final SegmentHeader b = makeHeader("b");
+        final SegmentHeader c = makeHeader("c");
+        assertTrue(cache.put(a, makeBody(3)));
+        assertTrue(cache.put(b, makeBody(3)));
+        assertNotNull(cache.get(b));
+        assertNotNull(cache.get(b));
+        assertNotNull(cache.get(a));
+        // "a" was used most recently, but less often than "b".
+        assertTrue(cache.put(c, makeBody(3)));
+        assertFalse(cache.contains(a));
+        assertTrue(cache.contains(b));
+        assertTrue(cache.contains(c));
+        cache.tearDown();
+    }
+
+    public void testTooLarge() {
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(
+                BLOCK, null, OffHeapSegmentCache.EvictionPolicy.LRU);
+        assertFalse(cache.put(makeHeader("a"), makeBody(3)));
+        assertTrue(cache.getSegmentHeaders().isEmpty());
+        cache.tearDown();
+    }
+
+    public void testEvents() {
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(
+                64 * BLOCK, null, OffHeapSegmentCache.EvictionPolicy.LRU);
+        final List<String> events = new ArrayList<String>();
+        cache.addListener(
+            new SegmentCache.SegmentCacheListener() {
+                public void handle(SegmentCacheEvent e) {
+                    assertTrue(e.isLocal());
+                    events.add(
+                        e.getEventType() + ":"
+                        + e.getSource().measureName);
+                }
+            });
+        final SegmentHeader a = makeHeader("a");
+        assertTrue(cache.put(a, makeBody(3)));
+        assertTrue(cache.remove(a));
+        assertFalse(cache.remove(a));
+        assertEquals(
+            Arrays.asList("ENTRY_CREATED:a", "ENTRY_DELETED:a"),
+            events);
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that evicting a segment to make room for another tells the
+     * listeners, just as removing it does.
+     */
+    public void testEvictionEvents() {
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(
+                4 * BLOCK, null, OffHeapSegmentCache.EvictionPolicy.LRU);
+        final List<String> events = new ArrayList<String>();
+        cache.addListener(
+            new SegmentCache.SegmentCacheListener() {
+                public void handle(SegmentCacheEvent e) {
+                    events.add(
+                        e.getEventType() + ":"
+                        + e.getSource().measureName);
+                }
+            });
+        assertTrue(cache.put(makeHeader("a"), makeBody(3)));
+        assertTrue(cache.put(makeHeader("b"), makeBody(3)));
+        assertTrue(cache.put(makeHeader("c"), makeBody(3)));
+        assertEquals(
+            Arrays.asList(
+                "ENTRY_CREATED:a", "ENTRY_CREATED:b",
+                "ENTRY_DELETED:a", "ENTRY_CREATED:c"),
+            events);
+        cache.tearDown();
+    }
+}
+
+// End OffHeapSegmentCacheTest.java
@@ -586,6 +586,56 @@ public class SegmentLoaderTest extends BatchTestCase {
         }
     }
 
+    /**
+     * Tests that the key columns of a {@link SegmentLoader.RowList} store
+     * each distinct value once, and give back the values that were set.
+     */
+    public void testRowListKeyColumns() {
+        final SegmentLoader.RowList rowList =
+            new SegmentLoader.RowList(
+                Arrays.asList(
+                    SqlStatement.Type.INT,
+                    SqlStatement.Type.STRING,
+                    SqlStatement.Type.DOUBLE),
+                2,
+                4);
+        assertTrue(rowList.isKeyColumn(0));
+        assertTrue(rowList.isKeyColumn(1));
+        assertFalse(rowList.isKeyColumn(2));
+        final int rowCount = 1000;
+        for (int i = 0; i < rowCount; i++) {
+            rowList.createRow();
+            if (i % 7 == 0) {
+                rowList.setNull(0, true);
+            } else {
+                rowList.setInt(0, i % 100 - 50);
+            }
+            rowList.setObject(1, i % 2 == 0 ? "F" : "M");
+            rowList.setDouble(2, i * 0.5d);
+        }
+        assertEquals(rowCount, rowList.size());
+        assertEquals(100, rowList.getKeys(0).size());
+        assertEquals(Arrays.asList("F", "M"), rowList.getKeys(1));
+
+        int i = 0;
+        for (rowList.first(); rowList.next(); i++) {
+            if (i % 7 == 0) {
+                assertTrue(rowList.isNull(0));
+                assertEquals(-1, rowList.getCode(0));
+                assertNull(rowList.getObject(0));
+            } else {
+                assertFalse(rowList.isNull(0));
+                assertEquals(i % 100 - 50, rowList.getInt(0));
+                assertEquals(
+                    i % 100 - 50,
+                    rowList.getKeys(0).get(rowList.getCode(0)));
+            }
+            assertEquals(i % 2 == 0 ? "F" : "M", rowList.getObject(1));
+            assertEquals(i * 0.5d, rowList.getDouble(2), 0d);
+        }
+        assertEquals(rowCount, i);
+    }
+
     public void testGetGroupingBitKey() throws SQLException {
         Object[] data = {
             "1997", "Food", "Deli", "M", "6047", 0, 0, 0, 0
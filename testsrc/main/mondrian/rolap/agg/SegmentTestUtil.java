@@ -0,0 +1,87 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+import mondrian.util.Pair;
+
+import java.util.*;
+
+/**
+ * Segment headers and bodies for tests of segment caches.
+ */
+public class SegmentTestUtil {
+    private SegmentTestUtil() {
+    }
+
+    /**
+     * Creates a header of a segment with one column, that differs from
+     * other headers only in its measure.
+     *
+     * @param measureName Measure name
+     * @return Segment header
+     */
+    public static SegmentHeader makeHeader(String measureName) {
+        return new SegmentHeader(
+            "dummySchemaName",
+            new ByteString(new byte[0]),
+            "dummyCubeName",
+            measureName,
+            Collections.singletonList(
+                new SegmentColumn("col", -1, null, true)),
+            Collections.<String>emptyList(),
+            "dummyFactTable",
+            BitKey.Factory.makeBitKey(3),
+            Collections.<SegmentColumn>emptyList());
+    }
+
+    /**
+     * Creates the body of a segment with one axis of {@code n} values, all
+     * of whose cells are zero.
+     *
+     * @param n Number of cells
+     * @return Segment body
+     */
+    public static SegmentBody makeBody(int n) {
+        return makeBody(new double[n]);
+    }
+
+    /**
+     * Creates the body of a segment with one axis, whose cells have the
+     * given values.
+     *
+     * @param values Cell values
+     * @return Segment body
+     */
+    public static SegmentBody makeBody(double[] values) {
+        return new DenseDoubleSegmentBody(
+            new BitSet(), values, makeAxes(values.length));
+    }
+
+    /**
+     * Creates a single axis whose values are the integers 0 to
+     * {@code n - 1}.
+     *
+     * @param n Number of values
+     * @return List containing one axis
+     */
+    public static List<Pair<SortedSet<Comparable>, Boolean>> makeAxes(int n) {
+        final SortedSet<Comparable> values = new TreeSet<Comparable>();
+        for (int i = 0; i < n; i++) {
+            values.add(i);
+        }
+        return Collections.singletonList(
+            Pair.<SortedSet<Comparable>, Boolean>of(values, false));
+    }
+}
+
+// End SegmentTestUtil.java
@@ -0,0 +1,142 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.cache.MemorySegmentCache;
+import mondrian.spi.*;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+import static mondrian.rolap.agg.SegmentTestUtil.*;
+
+/**
+ * Unit test for {@link VirtualAggregateManager}.
+ */
+public class VirtualAggregateManagerTest extends TestCase {
+    /**
+     * Tests that a virtual aggregate is scheduled once, when its rollups
+     * reach the threshold, and again after it has been removed.
+     */
+    public void testThreshold() {
+        final VirtualAggregateManager manager =
+            new VirtualAggregateManager(null, 3, 1000000);
+        final List<Object> key = Arrays.<Object>asList("a", "b");
+        assertNull(manager.track(key));
+        assertNull(manager.track(key));
+        final VirtualAggregateManager.Tracker tracker = manager.track(key);
+        assertNotNull(tracker);
+        assertNull(manager.track(key));
+
+        final SegmentHeader header = makeHeader("m");
+        final SegmentBody body = makeBody(10);
+        assertTrue(manager.pin(header, body, tracker));
+        assertSame(body, manager.get(header));
+        assertTrue(manager.remove(header));
+        assertNull(manager.get(header));
+        assertFalse(manager.remove(header));
+        assertEquals(0, manager.getByteSize());
+
+        assertNull(manager.track(key));
+        assertNull(manager.track(key));
+        assertNotNull(manager.track(key));
+    }
+
+    /**
+     * Tests that the budget is respected, and that a new virtual aggregate
+     * only displaces those that have been used less than it was requested.
+     */
+    public void testBudget() {
+        final long size = MemorySegmentCache.estimateByteSize(makeBody(10));
+        final VirtualAggregateManager manager =
+            new VirtualAggregateManager(null, 2, size * 2);
+        final List<Object> keyA = Collections.<Object>singletonList("a");
+        final List<Object> keyB = Collections.<Object>singletonList("b");
+        final List<Object> keyC = Collections.<Object>singletonList("c");
+        final SegmentHeader a = makeHeader("a");
+        final SegmentHeader b = makeHeader("b");
+        final SegmentHeader c = makeHeader("c");
+
+        assertTrue(manager.pin(a, makeBody(10), track(manager, keyA, 2)));
+        assertTrue(manager.pin(b, makeBody(10), track(manager, keyB, 2)));
+        assertEquals(size * 2, manager.getByteSize());
+        assertNotNull(manager.get(a));
+
+        // Requested as often as the others; does not displace them.
+        final VirtualAggregateManager.Tracker trackerC =
+            track(manager, keyC, 2);
+        assertFalse(manager.pin(c, makeBody(10), trackerC));
+        assertNull(manager.get(c));
+
+        // Requested more often; displaces b, which is used least.
+        manager.track(keyC);
+        manager.track(keyC);
+        assertTrue(manager.pin(c, makeBody(10), trackerC));
+        assertNotNull(manager.get(a));
+        assertNull(manager.get(b));
+        assertNotNull(manager.get(c));
+        assertEquals(size * 2, manager.getByteSize());
+
+        // Once evicted, b is counted afresh.
+        assertNull(manager.track(keyB));
+        assertNotNull(manager.track(keyB));
+
+        manager.clear();
+        assertNull(manager.get(a));
+        assertEquals(0, manager.getByteSize());
+    }
+
+    /**
+     * Tests that the use counts of virtual aggregates decay, so that one
+     * which was popular in the past eventually gives up its room.
+     */
+    public void testUseCountsDecay() {
+        final long size = MemorySegmentCache.estimateByteSize(makeBody(10));
+        final VirtualAggregateManager manager =
+            new VirtualAggregateManager(null, 2, size);
+        final SegmentHeader a = makeHeader("a");
+        final SegmentHeader c = makeHeader("c");
+        assertTrue(
+            manager.pin(
+                a,
+                makeBody(10),
+                track(manager, Collections.<Object>singletonList("a"), 2)));
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(manager.get(a));
+        }
+
+        // a has been used 12 times; each failed attempt halves that.
+        final VirtualAggregateManager.Tracker trackerC =
+            track(manager, Collections.<Object>singletonList("c"), 2);
+        assertFalse(manager.pin(c, makeBody(10), trackerC));
+        assertFalse(manager.pin(c, makeBody(10), trackerC));
+        assertFalse(manager.pin(c, makeBody(10), trackerC));
+        assertTrue(manager.pin(c, makeBody(10), trackerC));
+        assertNull(manager.get(a));
+        assertNotNull(manager.get(c));
+        assertEquals(size, manager.getByteSize());
+    }
+
+    private static VirtualAggregateManager.Tracker track(
+        VirtualAggregateManager manager,
+        List<Object> key,
+        int count)
+    {
+        for (int i = 1; i < count; i++) {
+            assertNull(manager.track(key));
+        }
+        final VirtualAggregateManager.Tracker tracker = manager.track(key);
+        assertNotNull(tracker);
+        return tracker;
+    }
+}
+
+// End VirtualAggregateManagerTest.java
@@ -0,0 +1,106 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.*;
+import mondrian.rolap.RolapUtil;
+import mondrian.rolap.cache.SegmentStatistics;
+import mondrian.spi.SegmentHeader;
+import mondrian.test.*;
+
+import java.util.*;
+
+/**
+ * Tests that queries which are repeatedly answered by rolling up segments in
+ * memory cause a virtual aggregate to be built, and are then answered from
+ * it.
+ *
+ * @see VirtualAggregateManager
+ */
+public class VirtualAggregateTest extends FoodMartTestCase {
+    private final List<String> executedSql = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        propSaver.set(propSaver.properties.EnableInMemoryRollup, true);
+        propSaver.set(propSaver.properties.DisableCaching, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RolapUtil.setHook(null);
+        super.tearDown();
+    }
+
+    public void testRollupAnsweredFromVirtualAggregate() throws Exception {
+        final TestContext context = getTestContext();
+        context.flushSchemaCache();
+        final SegmentCacheManager cacheMgr =
+            MondrianServer.forConnection(context.getConnection())
+                .getAggregationManager().cacheMgr;
+        cacheMgr.virtualAggregates.clear();
+
+        // The manager's threshold was read when the server started.
+        final int threshold =
+            MondrianProperties.instance().VirtualAggregateThreshold.get();
+        if (threshold <= 0
+            || MondrianProperties.instance().VirtualAggregateCacheSize.get()
+            <= 0)
+        {
+            return;
+        }
+
+        // Load a segment that has all values of [Gender], then ask for the
+        // total, which can be rolled up from it.
+        context.executeQuery(
+            "select [Gender].[Gender].Members on 0 from [Sales]");
+        final String query =
+            "select {[Measures].[Unit Sales]} on 0 from [Sales]";
+        String expected = null;
+        for (int i = 0; i < threshold; i++) {
+            final Result result = context.executeQuery(query);
+            expected = TestContext.toString(result);
+        }
+
+        // The virtual aggregate is built on the cache executor.
+        Set<SegmentHeader> headers = cacheMgr.virtualAggregates
+            .getSegmentHeaders();
+        for (int i = 0; i < 200 && headers.isEmpty(); i++) {
+            Thread.sleep(50);
+            headers = cacheMgr.virtualAggregates.getSegmentHeaders();
+        }
+        assertEquals(1, headers.size());
+        final SegmentHeader header = headers.iterator().next();
+        final long hitCount = getHitCount(cacheMgr, header);
+
+        // The next query reads the virtual aggregate; it neither rolls up
+        // nor executes SQL.
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    executedSql.add(sql);
+                }
+            });
+        context.assertQueryReturns(query, expected);
+        assertEquals(Collections.<String>emptyList(), executedSql);
+        assertTrue(getHitCount(cacheMgr, header) > hitCount);
+    }
+
+    private static long getHitCount(
+        SegmentCacheManager cacheMgr,
+        SegmentHeader header)
+    {
+        final SegmentStatistics.Entry entry = cacheMgr.statistics.get(header);
+        return entry == null ? 0 : entry.getHitCount();
+    }
+}
+
+// End VirtualAggregateTest.java
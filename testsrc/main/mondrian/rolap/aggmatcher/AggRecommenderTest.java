@@ -0,0 +1,234 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.*;
+import mondrian.rolap.*;
+import mondrian.test.FoodMartTestCase;
+
+import java.io.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+
+/**
+ * Unit test for {@link AggRecommender} and {@link AggWorkload}.
+ */
+public class AggRecommenderTest extends FoodMartTestCase {
+    /**
+     * Tests that the greedy selection prefers small tables that answer
+     * expensive queries, and stops when no candidate has any benefit.
+     */
+    public void testSelect() {
+        final AggRecommender.Node n0 = new AggRecommender.Node(bits(0), 10);
+        final AggRecommender.Node n1 = new AggRecommender.Node(bits(1), 20);
+        final AggRecommender.Node n01 =
+            new AggRecommender.Node(bits(0, 1), 200);
+        final AggRecommender.Node n012 =
+            new AggRecommender.Node(bits(0, 1, 2), 900);
+        final AggRecommender.Node full =
+            new AggRecommender.Node(bits(0, 1, 2, 3), 1000);
+        final List<AggRecommender.Node> candidates =
+            Arrays.asList(n012, n01, n1, n0, full);
+        final List<AggRecommender.Query> queries =
+            Arrays.asList(
+                new AggRecommender.Query(bits(0), 100),
+                new AggRecommender.Query(bits(1), 100),
+                new AggRecommender.Query(bits(0, 1, 2), 1));
+
+        assertEquals(
+            Arrays.asList(n0, n1),
+            AggRecommender.select(candidates, queries, 1000, 2));
+
+        // Once {0} and {1} are chosen, {0, 1} benefits no query; {0, 1, 2}
+        // still benefits the third. The fact table's equivalent never
+        // benefits.
+        assertEquals(
+            Arrays.asList(n0, n1, n012),
+            AggRecommender.select(candidates, queries, 1000, 10));
+        assertTrue(n0.benefit > n1.benefit);
+        assertTrue(n1.benefit > n012.benefit);
+    }
+
+    /**
+     * Tests that loads of the same columns are combined when a workload is
+     * read, and that malformed lines are ignored.
+     */
+    public void testReadWorkload() throws IOException {
+        final String workload =
+            "FoodMart\tSales\tsales_fact_1997\t1,3\t20\t100\t50\n"
+            + "FoodMart\tSales\tsales_fact_1997\t1,3\t21\t300\t70\n"
+            + "FoodMart\tSales\tsales_fact_1997\t\t20\t5\t1\n"
+            + "FoodMart\tSales\tsales_fact_1997\tx\t20\t5\t1\n"
+            + "truncated line\n";
+        final List<AggWorkload.Pattern> patterns =
+            AggWorkload.read(new StringReader(workload));
+        assertEquals(2, patterns.size());
+        final AggWorkload.Pattern pattern = patterns.get(0);
+        assertEquals("sales_fact_1997", pattern.factTableAlias);
+        assertEquals("{1, 3}", pattern.levelBits.toString());
+        assertEquals("{20, 21}", pattern.measureBits.toString());
+        assertEquals(2, pattern.loadCount);
+        assertEquals(400, pattern.totalMillis);
+        assertEquals(70, pattern.maxRowCount);
+        assertTrue(patterns.get(1).levelBits.isEmpty());
+    }
+
+    /**
+     * Tests, against FoodMart, that the columns created and populated by the
+     * generated SQL are those mapped by the generated schema element, and
+     * that the default recognizer accepts the table once it exists.
+     */
+    public void testRecommendFoodMart() throws Exception {
+        final RolapConnection connection = (RolapConnection) getConnection();
+        final RolapSchema schema = connection.getSchema();
+        final RolapCube cube = (RolapCube) schema.lookupCube("Sales", true);
+        final RolapStar star = cube.getStar();
+        final String factTableAlias = star.getFactTable().getAlias();
+        final String workload =
+            schema.getName() + "\tSales\t" + factTableAlias
+            + "\t" + starColumn(cube, "[Time].[Quarter]").getBitPosition()
+            + "," + starColumn(cube, "[Promotion Media].[Media Type]")
+                .getBitPosition()
+            + "\t\t1000\t100\n";
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        new AggRecommender(schema, 1).recommend(
+            AggWorkload.read(new StringReader(workload)), pw);
+        pw.flush();
+        final String output = sw.toString();
+        final String tableName = "agg_r1_" + factTableAlias;
+
+        final Matcher create =
+            Pattern.compile(
+                "CREATE TABLE " + tableName + " \\((.*?)\\);", Pattern.DOTALL)
+                .matcher(output);
+        assertTrue(output, create.find());
+        final Set<String> createdColumns = new HashSet<String>();
+        for (String line : create.group(1).split("\n")) {
+            if (line.trim().length() > 0) {
+                createdColumns.add(line.trim().split(" ")[0]);
+            }
+        }
+
+        final Matcher insert =
+            Pattern.compile(
+                "INSERT INTO " + tableName + " \\((.*?)\\)\\s*SELECT.*?;",
+                Pattern.DOTALL)
+                .matcher(output);
+        assertTrue(output, insert.find());
+        final Set<String> insertedColumns = new HashSet<String>();
+        for (String column : insert.group(1).split(",")) {
+            insertedColumns.add(column.trim());
+        }
+        assertEquals(createdColumns, insertedColumns);
+
+        final Matcher aggName =
+            Pattern.compile(
+                "<AggName name=\"" + tableName + "\">(.*?)</AggName>",
+                Pattern.DOTALL)
+                .matcher(output);
+        assertTrue(output, aggName.find());
+        final Set<String> mappedColumns = new HashSet<String>();
+        final Matcher column =
+            Pattern.compile("column=\"([^\"]*)\"").matcher(aggName.group(1));
+        while (column.find()) {
+            assertTrue(column.group(1), mappedColumns.add(column.group(1)));
+        }
+        assertEquals(createdColumns, mappedColumns);
+        // Column names are in the database's case.
+        final String element = aggName.group(1).toLowerCase();
+        assertTrue(
+            output,
+            element.contains(
+                "<agglevel name=\"[time].[quarter]\" column=\"quarter\"/>"));
+        assertTrue(
+            output,
+            element.contains(
+                "<aggmeasure name=\"[measures].[unit sales]\""
+                + " column=\"unit_sales\"/>"));
+
+        // Create the table, and check that it is recognized.
+        propSaver.set(propSaver.properties.UseAggregates, true);
+        propSaver.set(propSaver.properties.ReadAggregates, true);
+        final DataSource dataSource = connection.getDataSource();
+        try {
+            execute(dataSource, "CREATE TABLE " + tableName
+                + " (" + create.group(1) + ")");
+            final String insertSql = insert.group();
+            execute(dataSource, insertSql.substring(0, insertSql.length() - 1));
+            getTestContext().flushSchemaCache();
+            JdbcSchema.clearDB(dataSource);
+            final RolapCube newCube =
+                (RolapCube) getTestContext().withFreshConnection()
+                    .getConnection().getSchema().lookupCube("Sales", true);
+            boolean found = false;
+            for (AggStar aggStar : newCube.getStar().getAggStars()) {
+                if (aggStar.getFactTable().getName().equalsIgnoreCase(
+                        tableName))
+                {
+                    found = true;
+                }
+            }
+            assertTrue(tableName + " not recognized", found);
+        } finally {
+            try {
+                execute(dataSource, "DROP TABLE " + tableName);
+            } catch (SQLException e) {
+                // ignore; the table was not created
+            }
+            getTestContext().flushSchemaCache();
+            JdbcSchema.clearDB(dataSource);
+        }
+    }
+
+    private static RolapStar.Column starColumn(
+        RolapCube cube,
+        String levelName)
+    {
+        for (Hierarchy hierarchy : cube.getHierarchies()) {
+            for (Level level : hierarchy.getLevels()) {
+                if (level.getUniqueName().equals(levelName)) {
+                    return ((RolapCubeLevel) level).getStarKeyColumn();
+                }
+            }
+        }
+        throw new AssertionError("level not found: " + levelName);
+    }
+
+    private static void execute(DataSource dataSource, String sql)
+        throws SQLException
+    {
+        final java.sql.Connection jdbcConnection = dataSource.getConnection();
+        try {
+            final java.sql.Statement statement =
+                jdbcConnection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } finally {
+            jdbcConnection.close();
+        }
+    }
+
+    private static BitKey bits(int... bits) {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(8);
+        for (int bit : bits) {
+            bitKey.set(bit);
+        }
+        return bitKey;
+    }
+}
+
+// End AggRecommenderTest.java
@@ -0,0 +1,75 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.aggmatcher;
+
+import mondrian.rolap.RolapConnection;
+import mondrian.test.FoodMartTestCase;
+
+import java.util.*;
+import javax.sql.DataSource;
+
+/**
+ * Unit test for {@link JdbcSchema}.
+ */
+public class JdbcSchemaTest extends FoodMartTestCase {
+    /**
+     * Tests that loading the columns of several tables in parallel gives the
+     * same columns as loading them one at a time.
+     */
+    public void testLoadColumnsInParallel() throws Exception {
+        final DataSource dataSource =
+            ((RolapConnection) getConnection()).getDataSource();
+
+        propSaver.set(propSaver.properties.AggregateMetadataThreads, 4);
+        final JdbcSchema parallel = new JdbcSchema(dataSource);
+        parallel.load();
+        final List<JdbcSchema.Table> tables =
+            new ArrayList<JdbcSchema.Table>(parallel.getTables());
+        assertTrue(tables.size() > 10);
+        parallel.loadColumns(tables.subList(0, 10));
+
+        propSaver.set(propSaver.properties.AggregateMetadataThreads, 1);
+        final JdbcSchema serial = new JdbcSchema(dataSource);
+        serial.load();
+        for (JdbcSchema.Table table : tables.subList(0, 10)) {
+            final JdbcSchema.Table serialTable =
+                serial.getTable(table.getName());
+            serialTable.load();
+            assertFalse(table.getColumnMap().isEmpty());
+            assertEquals(
+                serialTable.getColumnMap().keySet(),
+                table.getColumnMap().keySet());
+            assertEquals(
+                serialTable.getTotalColumnSize(),
+                table.getTotalColumnSize());
+        }
+
+        // Tables that were not asked for are not loaded.
+        assertTrue(tables.get(10).getColumnMap().isEmpty());
+    }
+
+    /**
+     * Tests that clearing a data source's schema empties it, and that the
+     * same instance is returned afterwards.
+     */
+    public void testClearDB() throws Exception {
+        final DataSource dataSource =
+            ((RolapConnection) getConnection()).getDataSource();
+        final JdbcSchema db = JdbcSchema.makeDB(dataSource);
+        assertSame(db, JdbcSchema.makeDB(dataSource));
+        db.load();
+        assertFalse(db.getTables().isEmpty());
+        JdbcSchema.clearDB(dataSource);
+        assertTrue(db.getTables().isEmpty());
+        assertSame(db, JdbcSchema.makeDB(dataSource));
+    }
+}
+
+// End JdbcSchemaTest.java
@@ -0,0 +1,106 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.test.PropertyRestoringTestCase;
+
+/**
+ * Unit test for {@link CachePool}.
+ */
+public class CachePoolTest extends PropertyRestoringTestCase {
+    private static final long MB = 1024 * 1024;
+
+    public void testNoBudget() {
+        propSaver.set(MondrianProperties.instance().CachePoolSize, 0);
+        final CachePool pool = new CachePool();
+        final FakeCache cache = new FakeCache(100 * MB);
+        pool.register(cache);
+        pool.checkBudget();
+        assertEquals(100 * MB, cache.size);
+        assertEquals(0, pool.getEvictedByteCount());
+    }
+
+    public void testProportionalEviction() {
+        propSaver.set(MondrianProperties.instance().CachePoolSize, 10);
+        final CachePool pool = new CachePool();
+        final FakeCache big = new FakeCache(15 * MB);
+        final FakeCache small = new FakeCache(5 * MB);
+        pool.register(big);
+        pool.register(small);
+        assertEquals(20 * MB, pool.getByteSize());
+
+        pool.checkBudget();
+        // Total must fall to 90% of 10MB. The big cache holds 75% of the
+        // total, so it frees 75% of the excess.
+        assertTrue(pool.getByteSize() <= 9 * MB);
+        assertEquals(11 * MB * 3 / 4, 15 * MB - big.size, 1);
+        assertEquals(11 * MB / 4, 5 * MB - small.size, 1);
+        assertEquals(20 * MB - pool.getByteSize(), pool.getEvictedByteCount());
+    }
+
+    public void testReportGrowth() {
+        propSaver.set(MondrianProperties.instance().CachePoolSize, 1);
+        final CachePool pool = new CachePool();
+        final FakeCache cache = new FakeCache(0);
+        pool.register(cache);
+        // Small growth does not trigger a check.
+        cache.size = 2 * MB;
+        pool.reportGrowth(1000);
+        assertEquals(2 * MB, cache.size);
+        // Growth of a megabyte or more does.
+        pool.reportGrowth(MB);
+        assertTrue(cache.size <= MB * 9 / 10);
+    }
+
+    public void testDeregister() {
+        propSaver.set(MondrianProperties.instance().CachePoolSize, 1);
+        final CachePool pool = new CachePool();
+        final FakeCache cache = new FakeCache(2 * MB);
+        pool.register(cache);
+        pool.deregister(cache);
+        assertEquals(0, pool.getByteSize());
+        pool.checkBudget();
+        assertEquals(2 * MB, cache.size);
+    }
+
+    public void testSmartCacheEvict() {
+        final HardSmartCache<Integer, String> cache =
+            new HardSmartCache<Integer, String>();
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "v" + i);
+        }
+        final long size = cache.getByteSize();
+        assertTrue(size > 0);
+        final long freed = cache.evict(size / 4);
+        assertTrue(freed >= size / 4);
+        assertEquals(size - freed, cache.getByteSize());
+        assertEquals(100 - 100 * freed / size, cache.size());
+    }
+
+    private static class FakeCache implements CachePool.Cache {
+        long size;
+
+        FakeCache(long size) {
+            this.size = size;
+        }
+
+        public long getByteSize() {
+            return size;
+        }
+
+        public long evict(long byteCount) {
+            final long freed = Math.min(byteCount, size);
+            size -= freed;
+            return freed;
+        }
+    }
+}
+
+// End CachePoolTest.java
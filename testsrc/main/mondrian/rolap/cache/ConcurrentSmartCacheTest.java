@@ -0,0 +1,181 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test for {@link ConcurrentSmartCache}.
+ */
+public class ConcurrentSmartCacheTest extends TestCase {
+    public void testPutGetRemove() {
+        for (boolean soft : new boolean[] {false, true}) {
+            final ConcurrentSmartCache<Integer, String> cache =
+                new ConcurrentSmartCache<Integer, String>(soft);
+            assertNull(cache.put(1, "one"));
+            assertNull(cache.put(2, "two"));
+            assertEquals("one", cache.put(1, "uno"));
+            assertEquals("uno", cache.get(1));
+            assertEquals(2, cache.size());
+
+            // Putting null is the same as removing.
+            assertEquals("two", cache.put(2, null));
+            assertNull(cache.get(2));
+            assertEquals("uno", cache.remove(1));
+            assertEquals(0, cache.size());
+
+            cache.put(3, "three");
+            cache.clear();
+            assertNull(cache.get(3));
+            assertEquals(0, cache.getByteSize());
+        }
+    }
+
+    public void testExecute() {
+        final ConcurrentSmartCache<Integer, String> cache =
+            new ConcurrentSmartCache<Integer, String>(true);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "v" + i);
+        }
+        cache.execute(
+            new SmartCache.SmartCacheTask<Integer, String>() {
+                public void execute(
+                    Iterator<Map.Entry<Integer, String>> iterator)
+                {
+                    while (iterator.hasNext()) {
+                        final Map.Entry<Integer, String> entry =
+                            iterator.next();
+                        assertEquals("v" + entry.getKey(), entry.getValue());
+                        if (entry.getKey() % 2 == 0) {
+                            iterator.remove();
+                        }
+                    }
+                }
+            });
+        assertEquals(5, cache.size());
+        assertNull(cache.get(4));
+        assertEquals("v5", cache.get(5));
+    }
+
+    public void testEvict() {
+        final ConcurrentSmartCache<Integer, String> cache =
+            new ConcurrentSmartCache<Integer, String>(false);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "v" + i);
+        }
+        assertEquals(10 * SmartCacheImpl.ENTRY_BYTE_SIZE, cache.getByteSize());
+        final long freed = cache.evict(3 * SmartCacheImpl.ENTRY_BYTE_SIZE);
+        assertEquals(3 * SmartCacheImpl.ENTRY_BYTE_SIZE, freed);
+        assertEquals(7, cache.size());
+    }
+
+    /**
+     * Tests that eviction removes entries that have not been read before
+     * entries that have, and each in least recently used order.
+     */
+    public void testEvictOrder() {
+        final ConcurrentSmartCache<Integer, String> cache =
+            new ConcurrentSmartCache<Integer, String>(false);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "v" + i);
+        }
+        // Promote 0, 1 and 5 to the protected segment; 0 is used least
+        // recently.
+        cache.get(0);
+        cache.get(1);
+        cache.get(5);
+        cache.get(5);
+        assertEquals(
+            3 * SmartCacheImpl.ENTRY_BYTE_SIZE,
+            cache.evict(3 * SmartCacheImpl.ENTRY_BYTE_SIZE));
+        assertEquals(set(0, 1, 5, 6, 7, 8, 9), keys(cache));
+
+        // Probation is exhausted before protected entries go.
+        cache.evict(5 * SmartCacheImpl.ENTRY_BYTE_SIZE);
+        assertEquals(set(1, 5), keys(cache));
+    }
+
+    private static Set<Integer> set(Integer... values) {
+        return new HashSet<Integer>(Arrays.asList(values));
+    }
+
+    /**
+     * Returns the keys in a cache, without reading them through
+     * {@link ConcurrentSmartCache#get}, which would affect their order of
+     * eviction.
+     */
+    private static Set<Integer> keys(
+        ConcurrentSmartCache<Integer, String> cache)
+    {
+        final Set<Integer> keys = new HashSet<Integer>();
+        cache.execute(
+            new SmartCache.SmartCacheTask<Integer, String>() {
+                public void execute(
+                    Iterator<Map.Entry<Integer, String>> iterator)
+                {
+                    while (iterator.hasNext()) {
+                        keys.add(iterator.next().getKey());
+                    }
+                }
+            });
+        return keys;
+    }
+
+    /**
+     * Tests that readers and writers on many threads see consistent values.
+     */
+    public void testConcurrentAccess() throws InterruptedException {
+        final ConcurrentSmartCache<Integer, Integer> cache =
+            new ConcurrentSmartCache<Integer, Integer>(true);
+        final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            threads.add(
+                new Thread() {
+                    public void run() {
+                        try {
+                            final Random random = new Random(seed);
+                            for (int i = 0; i < 20000; i++) {
+                                final int key = random.nextInt(100);
+                                if (random.nextInt(4) == 0) {
+                                    cache.put(key, key * 2);
+                                } else if (random.nextInt(20) == 0) {
+                                    cache.remove(key);
+                                } else {
+                                    final Integer value = cache.get(key);
+                                    if (value != null && value != key * 2) {
+                                        throw new AssertionError(
+                                            "key " + key + ", value " + value);
+                                    }
+                                }
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertTrue(cache.size() <= 100);
+    }
+}
+
+// End ConcurrentSmartCacheTest.java
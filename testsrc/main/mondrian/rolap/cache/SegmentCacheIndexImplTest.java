@@ -0,0 +1,174 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2017 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.rolap.BitKey;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Unit test for {@link SegmentCacheIndexImpl}.
+ */
+public class SegmentCacheIndexImplTest extends TestCase {
+    private static final ByteString CHECKSUM = new ByteString(new byte[0]);
+    private static final BitKey BIT_KEY = BitKey.Factory.makeBitKey(3);
+
+    /**
+     * Tests that lookups from many threads run correctly while the actor
+     * thread modifies the index.
+     */
+    public void testConcurrentLookups() throws Exception {
+        final int headerCount = 50;
+        final ExecutorService actor = Executors.newSingleThreadExecutor();
+        final ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            final Thread actorThread =
+                actor.submit(
+                    new Callable<Thread>() {
+                        public Thread call() {
+                            return Thread.currentThread();
+                        }
+                    }).get();
+            final SegmentCacheIndexImpl index =
+                new SegmentCacheIndexImpl(actorThread);
+            actor.submit(
+                new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < headerCount; i++) {
+                            index.add(makeHeader(i), null, false);
+                        }
+                    }
+                }).get();
+
+            // Readers look up every value repeatedly.
+            final List<Future<Integer>> futures =
+                new ArrayList<Future<Integer>>();
+            for (int r = 0; r < 4; r++) {
+                futures.add(
+                    readers.submit(
+                        new Callable<Integer>() {
+                            public Integer call() {
+                                int found = 0;
+                                for (int k = 0; k < 200; k++) {
+                                    for (int i = 0; i < headerCount; i++) {
+                                        final List<SegmentHeader> list =
+                                            locate(index, i);
+                                        assertTrue(list.size() <= 1);
+                                        if (list.size() == 1) {
+                                            assertEquals(
+                                                makeHeader(i), list.get(0));
+                                            ++found;
+                                        }
+                                    }
+                                }
+                                return found;
+                            }
+                        }));
+            }
+
+            // Meanwhile, the actor removes and re-adds the odd headers.
+            final Future<?> mutator =
+                actor.submit(
+                    new Runnable() {
+                        public void run() {
+                            for (int k = 0; k < 100; k++) {
+                                for (int i = 1; i < headerCount; i += 2) {
+                                    index.remove(makeHeader(i));
+                                }
+                                for (int i = 1; i < headerCount; i += 2) {
+                                    index.add(makeHeader(i), null, false);
+                                }
+                            }
+                        }
+                    });
+            mutator.get();
+            for (Future<Integer> future : futures) {
+                // Even headers are always present.
+                assertTrue(future.get() >= 200 * headerCount / 2);
+            }
+            for (int i = 0; i < headerCount; i++) {
+                assertEquals(1, locate(index, i).size());
+            }
+        } finally {
+            actor.shutdown();
+            readers.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a modification from a thread other than the actor is
+     * detected (if assertions are enabled) but a lookup is not.
+     */
+    public void testLookupFromOtherThread() throws Exception {
+        final ExecutorService actor = Executors.newSingleThreadExecutor();
+        try {
+            final Thread actorThread =
+                actor.submit(
+                    new Callable<Thread>() {
+                        public Thread call() {
+                            return Thread.currentThread();
+                        }
+                    }).get();
+            final SegmentCacheIndexImpl index =
+                new SegmentCacheIndexImpl(actorThread);
+            assertTrue(locate(index, 0).isEmpty());
+            assertFalse(index.contains(makeHeader(0)));
+            boolean assertionsEnabled = false;
+            assert assertionsEnabled = true;
+            if (assertionsEnabled) {
+                try {
+                    index.add(makeHeader(0), null, false);
+                    fail("expected assertion error");
+                } catch (AssertionError e) {
+                    // ok
+                }
+            }
+        } finally {
+            actor.shutdown();
+        }
+    }
+
+    private static List<SegmentHeader> locate(
+        SegmentCacheIndexImpl index,
+        int i)
+    {
+        return index.locate(
+            "dummySchemaName",
+            CHECKSUM,
+            "dummyCubeName",
+            "dummyMeasureName",
+            "dummyFactTable",
+            BIT_KEY,
+            Collections.<String, Comparable>singletonMap("col", i),
+            Collections.<String>emptyList());
+    }
+
+    private static SegmentHeader makeHeader(int i) {
+        final SortedSet<Comparable> values = new TreeSet<Comparable>();
+        values.add(i);
+        return new SegmentHeader(
+            "dummySchemaName",
+            CHECKSUM,
+            "dummyCubeName",
+            "dummyMeasureName",
+            Collections.singletonList(
+                new SegmentColumn("col", -1, values, true)),
+            Collections.<String>emptyList(),
+            "dummyFactTable",
+            BIT_KEY,
+            Collections.<SegmentColumn>emptyList());
+    }
+}
+
+// End SegmentCacheIndexImplTest.java
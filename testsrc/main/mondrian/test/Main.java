@@ -22,6 +22,7 @@ import mondrian.olap4j.XmlaExtraTest;
 import mondrian.rolap.*;
 import mondrian.rolap.agg.*;
 import mondrian.rolap.aggmatcher.*;
+import mondrian.rolap.cache.*;
 import mondrian.rolap.sql.*;
 import mondrian.server.FileRepositoryTest;
 import mondrian.spi.impl.ImpalaDialectTest;
@@ -36,6 +37,8 @@ import mondrian.udf.CurrentDateMemberUdfTest;
 import mondrian.udf.NullValueTest;
 import mondrian.util.*;
 import mondrian.xmla.*;
+import mondrian.xmla.impl.BinarySaxWriterTest;
+import mondrian.xmla.impl.DefaultXmlaServletTest;
 import mondrian.xmla.impl.DynamicDatasourceXmlaServletTest;
 import mondrian.xmla.test.XmlaTest;
 
@@ -215,6 +218,11 @@ public class Main extends TestSuite {
             addTest(suite, SegmentBuilderTest.class);
             addTest(suite, DenseDoubleSegmentBodyTest.class);
             addTest(suite, DenseIntSegmentBodyTest.class);
+            addTest(suite, OffHeapSegmentCacheTest.class);
+            addTest(suite, MemorySegmentCacheTest.class);
+            addTest(suite, VirtualAggregateManagerTest.class);
+            addTest(suite, VirtualAggregateTest.class);
+            addTest(suite, DiskSegmentCacheTest.class);
             addTest(suite, NativeFilterMatchingTest.class);
             addTest(suite, NativeFilterAgainstAggTableTest.class);
             addTest(suite, RolapConnectionTest.class);
@@ -223,6 +231,10 @@ public class Main extends TestSuite {
             addTest(suite, IndexedValuesTest.class);
             addTest(suite, MemoryMonitorTest.class);
             addTest(suite, ObjectPoolTest.class);
+            addTest(suite, CachePoolTest.class);
+            addTest(suite, ConcurrentSmartCacheTest.class);
+            addTest(suite, JdbcSchemaTest.class);
+            addTest(suite, SegmentCacheIndexImplTest.class);
             addTest(suite, Ssas2005CompatibilityTest.OldBehaviorTest.class);
             addTest(suite, DialectTest.class);
             addTest(suite, ResultComparatorTest.class, "suite");
@@ -285,6 +297,8 @@ public class Main extends TestSuite {
             addTest(suite, XmlaTabularTest.class);
             addTest(suite, XmlaTests.class);
             addTest(suite, DynamicDatasourceXmlaServletTest.class);
+            addTest(suite, DefaultXmlaServletTest.class);
+            addTest(suite, BinarySaxWriterTest.class);
             addTest(suite, XmlaAdomdTest.class);
             addTest(suite, XmlaTest.class, "suite");
             addTest(suite, XmlaDimensionPropertiesTest.class);
@@ -318,6 +332,7 @@ public class Main extends TestSuite {
             addTest(suite, ModulosTest.class);
             addTest(suite, PrimeFinderTest.class);
             addTest(suite, CellKeyTest.class);
+            addTest(suite, CellInfoContainerTest.class);
             addTest(suite, RolapAxisTest.class);
             addTest(suite, CrossJoinTest.class);
             if (Bug.BugMondrian503Fixed) {
@@ -371,6 +386,8 @@ public class Main extends TestSuite {
             addTest(suite, MemberCacheHelperTest.class);
             addTest(suite, EffectiveMemberCacheTest.class);
             addTest(suite, SqlStatementTest.class);
+            addTest(suite, SqlAdmissionControllerTest.class);
+            addTest(suite, SqlResultCacheTest.class);
             addTest(suite, ValidMeasureFunDefTest.class);
 
             boolean testNonEmpty = isRunOnce();
@@ -389,9 +406,11 @@ public class Main extends TestSuite {
             }
 
             addTest(suite, FastBatchingCellReaderTest.class);
+            addTest(suite, RolapStatisticsStoreTest.class);
             addTest(suite, SqlQueryTest.class);
             addTest(suite, CodeSetTest.class);
             addTest(suite, ExplicitRecognizerTest.class);
+            addTest(suite, AggRecommenderTest.class);
             addTest(suite, AggregationOverAggTableTest.class);
             addTest(suite, XmlUtilTest.class);
             addTest(suite, NamespaceContextImplTest.class);
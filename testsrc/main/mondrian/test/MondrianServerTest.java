@@ -9,6 +9,7 @@
 
 package mondrian.test;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.olap.MondrianServer;
 import mondrian.olap.Util;
 import mondrian.rolap.RolapConnectionProperties;
@@ -18,6 +19,7 @@ import mondrian.xmla.test.XmlaTestContext;
 
 import junit.framework.TestCase;
 
+import org.olap4j.CellSet;
 import org.olap4j.OlapConnection;
 import org.olap4j.metadata.Catalog;
 import org.olap4j.metadata.NamedList;
@@ -113,6 +115,46 @@ public class MondrianServerTest extends TestCase {
         assertEquals("FoodMart", catalogs.get(0).getName());
         server.shutdown();
     }
+
+    /**
+     * Tests a server whose segment cache manager processes requests on the
+     * calling thread.
+     */
+    public void testSynchronousSegmentCacheManager() throws Exception {
+        final PropertySaver propSaver = new PropertySaver();
+        propSaver.set(
+            MondrianProperties.instance().SegmentCacheManagerSynchronous,
+            true);
+        try {
+            final XmlaTestContext xmlaTestContext = new XmlaTestContext();
+            final MondrianServer server =
+                MondrianServer.createWithRepository(
+                    new UrlRepositoryContentFinder(
+                        "inline:" + xmlaTestContext.getDataSourcesString()),
+                    null);
+            assertNull(server.getAggregationManager().cacheMgr.thread);
+            OlapConnection connection =
+                server.getConnection("FoodMart", "FoodMart", null);
+            final String mdx =
+                "select [Measures].[Unit Sales] on 0,\n"
+                + " [Gender].Children on 1\n"
+                + "from [Sales]";
+            // Run twice: the first time loads segments, the second finds
+            // them in the cache.
+            for (int i = 0; i < 2; i++) {
+                final CellSet cellSet =
+                    connection.createStatement().executeOlapQuery(mdx);
+                assertEquals(
+                    "131,558", cellSet.getCell(0).getFormattedValue());
+                assertEquals(
+                    "135,215", cellSet.getCell(1).getFormattedValue());
+            }
+            connection.close();
+            server.shutdown();
+        } finally {
+            propSaver.reset();
+        }
+    }
 }
 
 // End MondrianServerTest.java
@@ -0,0 +1,89 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.xmla.impl;
+
+import mondrian.xmla.SaxWriter;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.math.BigDecimal;
+
+/**
+ * Unit test for {@link BinarySaxWriter}.
+ */
+public class BinarySaxWriterTest extends TestCase {
+    /**
+     * Tests that a binary document, replayed into an XML writer, gives the
+     * same XML as writing the events directly.
+     */
+    public void testReplay() throws IOException {
+        final StringWriter expected = new StringWriter();
+        final SaxWriter xmlWriter = new DefaultSaxWriter(expected);
+        writeEvents(xmlWriter);
+        xmlWriter.flush();
+
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        writeEvents(new BinarySaxWriter(binary));
+
+        final StringWriter actual = new StringWriter();
+        final SaxWriter replayWriter = new DefaultSaxWriter(actual);
+        BinarySaxWriter.replay(
+            new ByteArrayInputStream(binary.toByteArray()), replayWriter);
+        replayWriter.flush();
+        assertEquals(expected.toString(), actual.toString());
+
+        // Repeated strings are written once, so the binary document is much
+        // smaller than the XML.
+        assertTrue(binary.size() * 4 < expected.toString().length());
+    }
+
+    public void testInvalid() {
+        try {
+            BinarySaxWriter.replay(
+                new ByteArrayInputStream("<xml/>".getBytes()),
+                new DefaultSaxWriter(new StringWriter()));
+            fail("expected error");
+        } catch (IOException e) {
+            assertEquals("Not a binary XML/A document", e.getMessage());
+        }
+    }
+
+    private void writeEvents(SaxWriter writer) {
+        writer.startDocument();
+        writer.startElement("root", "xmlns", "urn:test");
+        writer.startSequence("Tuples", "Tuple");
+        for (int i = 0; i < 100; i++) {
+            writer.startElement("Tuple");
+            writer.element(
+                "Member",
+                "Hierarchy", "[Store]",
+                "UName", "[Store].[USA].[CA].[Store " + (i % 5) + "]",
+                "Ordinal", i,
+                "Visible", i % 2 == 0);
+            writer.textElement("Value", i * 1.5d);
+            writer.textElement("Count", -i * 1000L);
+            writer.textElement("Amount", new BigDecimal("12.50"));
+            writer.textElement("Ratio", 0.1f);
+            writer.endElement();
+        }
+        writer.endSequence();
+        writer.startElement("Text");
+        writer.characters("a < b & \u00e9");
+        writer.endElement();
+        writer.startElement("Messages");
+        writer.startElement("Partial");
+        writer.completeBeforeElement("root");
+        writer.endElement();
+        writer.endDocument();
+    }
+}
+
+// End BinarySaxWriterTest.java
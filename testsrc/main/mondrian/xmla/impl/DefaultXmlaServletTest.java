@@ -0,0 +1,187 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2017 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.xmla.impl;
+
+import mondrian.olap.Util;
+import mondrian.rolap.RolapConnectionProperties;
+import mondrian.test.FoodMartTestCase;
+import mondrian.tui.*;
+import mondrian.xmla.XmlaConstants;
+import mondrian.xmla.XmlaServlet;
+
+import java.io.*;
+import java.util.*;
+import javax.servlet.Servlet;
+
+/**
+ * Unit test for {@link DefaultXmlaServlet}, in particular its "streaming"
+ * mode.
+ */
+public class DefaultXmlaServletTest extends FoodMartTestCase {
+    private static final String EXECUTE_REQUEST =
+        "<?xml version=\"1.0\"?>\n"
+        + "<!-- A comment, which is ignored -->\n"
+        + "<soapenv:Envelope\n"
+        + "    xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+        + "  <soapenv:Body>\n"
+        + "    <Execute xmlns=\"urn:schemas-microsoft-com:xml-analysis\">\n"
+        + "      <Command>\n"
+        + "        <Statement><![CDATA[select {[Measures].[Unit Sales]}"
+        + " on 0, [Gender].Children on 1 from [Sales]]]></Statement>\n"
+        + "      </Command>\n"
+        + "      <Properties>\n"
+        + "        <PropertyList>\n"
+        + "          <Catalog>FoodMart</Catalog>\n"
+        + "          <DataSourceInfo>FoodMart</DataSourceInfo>\n"
+        + "          <Format>Multidimensional</Format>\n"
+        + "          <AxisFormat>TupleFormat</AxisFormat>\n"
+        + "        </PropertyList>\n"
+        + "      </Properties>\n"
+        + "    </Execute>\n"
+        + "  </soapenv:Body>\n"
+        + "</soapenv:Envelope>\n";
+
+    /**
+     * Tests that a servlet in streaming mode gives the same response as a
+     * servlet that buffers the response.
+     */
+    public void testStreamingSameAsBuffered() throws Exception {
+        final String buffered =
+            new String(
+                XmlaSupport.processSoapXmla(
+                    EXECUTE_REQUEST, makeServlet(false)),
+                "UTF-8");
+        final String streamed =
+            new String(
+                XmlaSupport.processSoapXmla(
+                    EXECUTE_REQUEST, makeServlet(true)),
+                "UTF-8");
+        assertTrue(buffered, buffered.contains("ExecuteResponse"));
+        assertTrue(buffered, buffered.contains("[Gender].[F]"));
+        assertFalse(buffered, buffered.contains("Fault"));
+        assertEquals(buffered, streamed);
+    }
+
+    /**
+     * Tests that a servlet in streaming mode returns a SOAP fault for a
+     * request that is not well-formed, and for a query that fails.
+     */
+    public void testStreamingFault() throws Exception {
+        final Servlet servlet = makeServlet(true);
+        final String badXml =
+            new String(
+                XmlaSupport.processSoapXmla(
+                    "<soapenv:Envelope><soapenv:Body>", servlet),
+                "UTF-8");
+        assertTrue(badXml, badXml.contains("Fault"));
+        assertTrue(badXml, badXml.contains(XmlaConstants.USM_DOM_PARSE_CODE));
+
+        final String badQuery =
+            new String(
+                XmlaSupport.processSoapXmla(
+                    EXECUTE_REQUEST.replace("[Sales]", "[Bad Cube]"),
+                    servlet),
+                "UTF-8");
+        assertTrue(badQuery, badQuery.contains("Fault"));
+        assertFalse(badQuery, badQuery.contains("ExecuteResponse"));
+    }
+
+    /**
+     * Tests that a binary response, decoded, is the same as a JSON response.
+     */
+    public void testBinaryResponse() throws Exception {
+        final Servlet servlet = makeServlet(true);
+        final byte[] json =
+            XmlaSupport.processSoapXmla(
+                withResponseMimeType("application/json"), servlet);
+        final byte[] binary =
+            XmlaSupport.processSoapXmla(
+                withResponseMimeType("application/x-mondrian-binary"),
+                servlet);
+        assertTrue(binary.length < json.length);
+
+        final ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        BinarySaxWriter.replay(
+            new ByteArrayInputStream(binary), new JsonSaxWriter(replayed));
+        final String jsonString = new String(json);
+        assertTrue(jsonString, jsonString.contains("[Gender].[F]"));
+        assertEquals(jsonString, replayed.toString());
+    }
+
+    /**
+     * Tests that evaluating and writing cells a page at a time gives the
+     * same response as evaluating all cells first, including for a query
+     * with a NON EMPTY axis, which is evaluated in full.
+     */
+    public void testPagedCells() throws Exception {
+        final String nonEmptyRequest =
+            EXECUTE_REQUEST.replace(
+                "[Gender].Children on 1",
+                "non empty [Store].[Store State].Members on 1");
+        final Servlet servlet = makeServlet(true);
+        final String unpaged =
+            new String(
+                XmlaSupport.processSoapXmla(EXECUTE_REQUEST, servlet),
+                "UTF-8");
+        final String unpagedNonEmpty =
+            new String(
+                XmlaSupport.processSoapXmla(nonEmptyRequest, servlet),
+                "UTF-8");
+        propSaver.set(propSaver.properties.XmlaCellPageSize, 1);
+        final String paged =
+            new String(
+                XmlaSupport.processSoapXmla(EXECUTE_REQUEST, servlet),
+                "UTF-8");
+        final String pagedNonEmpty =
+            new String(
+                XmlaSupport.processSoapXmla(nonEmptyRequest, servlet),
+                "UTF-8");
+        assertTrue(unpaged, unpaged.contains("CellOrdinal=\"1\""));
+        assertFalse(unpaged, unpaged.contains("Fault"));
+        assertEquals(unpaged, paged);
+        assertTrue(
+            unpagedNonEmpty, unpagedNonEmpty.contains("[Store].[USA].[WA]"));
+        assertEquals(unpagedNonEmpty, pagedNonEmpty);
+    }
+
+    private static String withResponseMimeType(String mimeType) {
+        return EXECUTE_REQUEST.replace(
+            "<PropertyList>\n",
+            "<PropertyList>\n"
+            + "          <ResponseMimeType>" + mimeType
+            + "</ResponseMimeType>\n");
+    }
+
+    private Servlet makeServlet(boolean streaming) throws Exception {
+        final String connectString = getTestContext().getConnectString();
+        final Util.PropertyList connectProperties =
+            Util.parseConnectString(connectString);
+        final Map<String, String> catalogNameUrls =
+            Collections.singletonMap(
+                "FoodMart",
+                connectProperties.get(
+                    RolapConnectionProperties.Catalog.name()));
+        final MockServletConfig servletConfig =
+            new MockServletConfig(new MockServletContext());
+        servletConfig.addInitParameter(
+            XmlaServlet.PARAM_CHAR_ENCODING, "UTF-8");
+        servletConfig.addInitParameter(
+            XmlaServlet.PARAM_DATASOURCES_CONFIG,
+            "inline:"
+            + XmlaSupport.getDataSourcesText(connectString, catalogNameUrls));
+        servletConfig.addInitParameter(
+            "streaming", Boolean.toString(streaming));
+        final Servlet servlet = new MondrianXmlaServlet();
+        servlet.init(servletConfig);
+        return servlet;
+    }
+}
+
+// End DefaultXmlaServletTest.java